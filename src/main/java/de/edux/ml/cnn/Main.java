@@ -1,31 +1,35 @@
 package de.edux.ml.cnn;
 
+import de.edux.ml.cnn.data.IdxDataset;
+import de.edux.ml.cnn.data.Dataset;
 import de.edux.ml.cnn.functions.Channels;
 import de.edux.ml.cnn.functions.Optimizer;
 import de.edux.ml.cnn.layer.*;
 import de.edux.ml.cnn.network.Network;
 import de.edux.ml.cnn.network.NetworkBuilder;
+import de.edux.ml.cnn.quantization.QuantizationReport;
+import de.edux.ml.cnn.quantization.QuantizedModel;
+import de.edux.ml.cnn.quantization.Quantizer;
+import de.edux.ml.cnn.tensor.DataType;
 import de.edux.ml.cnn.tensor.Tensor4D;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class Main {
     private static final Logger LOG = LoggerFactory.getLogger(Main.class);
 
     private static final int EPOCHS = 5;
-    private static final double LEARNING_RATE = 0.01;
+    private static final double LEARNING_RATE = 0.001;
     private static final int BATCH_SIZE = 100;
+    private static final DataType DATA_TYPE = DataType.FLOAT32;
     String trainImagePath = "mnist" + File.separator + "train-images-idx3-ubyte";
     String trainLabelPath = "mnist" + File.separator + "train-labels-idx1-ubyte";
     String testImagePath = "mnist" + File.separator + "t10k-images-idx3-ubyte";
     String testLabelPath = "mnist" + File.separator + "t10k-labels-idx1-ubyte";
-    Tensor4D[] trainImages = loadImages(trainImagePath, 2000);
-    Tensor4D[] trainLabels = loadLabels(trainLabelPath, 2000);
-
-    Tensor4D[] testImages = loadImages(testImagePath, 10000);
-    Tensor4D[] testLabels = loadLabels(testLabelPath, 10000);
 
     public static void main(String[] args) {
 
@@ -33,87 +37,46 @@ public class Main {
     }
 
     private void run() {
+        // Die IDX-Dateien werden nur gemappt, die Bilder erst beim Packen der Batches dekodiert
+        Dataset trainingData;
+        Dataset testData;
+        try {
+            trainingData = loadMnist(trainImagePath, trainLabelPath);
+            testData = loadMnist(testImagePath, testLabelPath);
+        } catch (IOException e) {
+            LOG.error("Could not load MNIST", e);
+            return;
+        }
+
         LOG.debug("Start training");
         Network network =
                 new NetworkBuilder()
                         .addLayer(new InputLayer(28, 28, 1))
-                        .addLayer(new ConvolutionalLayer(8, 3, 1, 1, 3))
+                        .addLayer(new ConvolutionalLayer(8, 3, 1, 1, 1))
+                        .addLayer(new ReluLayer())
                         .addLayer(new FlattenLayer())
                         .addLayer(new FullyConnectedLayer(6272, 10, LEARNING_RATE))
                         .addLayer(new SoftmaxLayer())
-                        .build(trainImages, trainLabels, BATCH_SIZE, EPOCHS, Optimizer.SGD, LEARNING_RATE);
+                        .dataType(DATA_TYPE)
+                        .parallelism(Runtime.getRuntime().availableProcessors())
+                        .build(trainingData, BATCH_SIZE, EPOCHS, Optimizer.ADAM, LEARNING_RATE);
+
+        // start training (batch size = 100, epochs = 5, optimizer = Adam, learning rate = 0.001)
+        network.train(testData);
+        System.out.println(network.evaluateDetailed(testData));
 
-        // start training (batch size = 100, epochs = 5, optimizer = SGD, learning rate = 0.01)
-        network.train(testImages, testLabels);
-        network.evaluate(testImages, testLabels);
+        // int8-Modell, kalibriert auf 1000 Trainingsbildern, im Vergleich zum Float-Modell
+        QuantizedModel quantized = Quantizer.quantize(network, trainingData.subset(0, 1000));
+        System.out.println(QuantizationReport.compare(network, quantized, testData));
 
         //first test label and image
-        Tensor4D testImage = testImages[0];
-        Tensor4D testLabel = testLabels[0];
+        Tensor4D testImage = testData.getImages().get(0, DATA_TYPE);
+        Tensor4D testLabel = testData.getLabels().get(0, DATA_TYPE);
         Tensor4D prediction = network.predict(testImage);
         System.out.println("Prediction: " + prediction);
     }
 
-    private static Tensor4D[] loadImages(String imagePath, int limit) {
-        try {
-            FileInputStream fileStream = new FileInputStream(imagePath);
-            BufferedInputStream bufferedStream = new BufferedInputStream(fileStream);
-
-            // Skip the header
-            bufferedStream.skip(16);
-
-            int imageSize = 28 * 28;
-            byte[] buffer = new byte[imageSize];
-
-            Tensor4D[] images = new Tensor4D[limit];
-            for (int i = 0; i < limit; i++) {
-                if (bufferedStream.read(buffer) == -1) break;
-                images[i] = byteArrayToTensor4D(buffer);
-            }
-
-            bufferedStream.close();
-            return images;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    private static Tensor4D byteArrayToTensor4D(byte[] array) {
-        // Korrekt initialisieren: 1 Batch, 1 Kanal, 28 Reihen, 28 Spalten
-        Tensor4D tensor = new Tensor4D(1, 1, 28, 28);
-        for (int i = 0; i < array.length; i++) {
-            tensor.getData()[0][0][i / 28][i % 28] = (array[i] & 0xFF) / 255.0f; // Normalisieren
-        }
-        return tensor;
-    }
-
-    private static Tensor4D[] loadLabels(String labelPath, int limit) {
-        try {
-            FileInputStream fileStream = new FileInputStream(labelPath);
-            BufferedInputStream bufferedStream = new BufferedInputStream(fileStream);
-
-            // Skip the header
-            bufferedStream.skip(8);
-
-            Tensor4D[] labels = new Tensor4D[limit];
-            for (int i = 0; i < limit; i++) {
-                int labelValue = bufferedStream.read();
-                if (labelValue == -1) break;
-                labels[i] = oneHotEncode(labelValue, 10); // 10 Klassen für MNIST
-            }
-
-            bufferedStream.close();
-            return labels;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    private static Tensor4D oneHotEncode(int value, int numClasses) {
-        Tensor4D Tensor4D = new Tensor4D(1, 1, 1, numClasses);
-        Tensor4D.getData()[0][0][0][value] = 1.0f;
-        return Tensor4D;
+    private static Dataset loadMnist(String imagePath, String labelPath) throws IOException {
+        return Dataset.of(IdxDataset.open(Path.of(imagePath)), IdxDataset.open(Path.of(labelPath)).oneHot(10)); // 10 Klassen für MNIST
     }
 }
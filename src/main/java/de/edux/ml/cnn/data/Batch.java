@@ -0,0 +1,13 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.Tensor4D;
+
+/**
+ * Images and labels of one mini-batch, both with the samples along the batch dimension.
+ */
+public record Batch(Tensor4D images, Tensor4D labels) {
+
+    public int size() {
+        return images.getBatches();
+    }
+}
@@ -0,0 +1,181 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Packs the samples of a {@link Dataset} into shuffled mini-batches for training.
+ * <p>
+ * Every epoch walks a fresh random permutation of the samples. The samples of a batch are copied into one of two
+ * reusable contiguous batch tensors while the other one is being trained on: {@link #next()} hands out the batch
+ * that was prepared in the background and immediately starts filling the following one. The copying runs on a
+ * dedicated loader thread so it never takes time from the compute pool.
+ * <p>
+ * The batch shapes are taken from the dataset. The last batch of an epoch is smaller when the number of samples is
+ * not a multiple of the batch size.
+ */
+public class BatchLoader implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchLoader.class);
+
+    private final Dataset dataset;
+    private final int batchSize;
+    private final int batchesPerEpoch;
+    private final Random random;
+    private final int[] permutation;
+    private final Batch[] buffers = new Batch[2];
+    private final ExecutorService loader;
+
+    private int nextBatch;
+    private Future<Batch> pending;
+
+    public BatchLoader(Tensor4D[] images, Tensor4D[] labels, int batchSize, DataType dataType) {
+        this(Dataset.of(images, labels), batchSize, dataType, new Random());
+    }
+
+    public BatchLoader(Dataset dataset, int batchSize, DataType dataType) {
+        this(dataset, batchSize, dataType, new Random());
+    }
+
+    public BatchLoader(Dataset dataset, int batchSize, DataType dataType, Random random) {
+        if (dataset.size() == 0) {
+            LOG.error("Cannot load batches from an empty dataset");
+            throw new IllegalArgumentException("Cannot load batches from an empty dataset");
+        }
+        if (batchSize < 1) {
+            LOG.error("Batch size must be at least 1, got {}", batchSize);
+            throw new IllegalArgumentException("Batch size must be at least 1, got " + batchSize);
+        }
+        this.dataset = dataset;
+        this.batchSize = Math.min(batchSize, dataset.size());
+        this.batchesPerEpoch = (dataset.size() + this.batchSize - 1) / this.batchSize;
+        this.random = random;
+        this.permutation = new int[dataset.size()];
+        for (int i = 0; i < permutation.length; i++) {
+            permutation[i] = i;
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = dataset.allocateBatch(this.batchSize, dataType);
+        }
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cnn-batch-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.nextBatch = batchesPerEpoch;
+    }
+
+    public int batchesPerEpoch() {
+        return batchesPerEpoch;
+    }
+
+    /**
+     * Shuffles the samples and starts loading the first batch. Batches of the previous epoch that were not
+     * fetched yet are dropped.
+     */
+    public void startEpoch() {
+        awaitPending();
+        // Fisher-Yates auf der Permutation der vorherigen Epoche
+        for (int i = permutation.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = swap;
+        }
+        nextBatch = 0;
+        pending = loader.submit(() -> fill(0));
+    }
+
+    /**
+     * Continues an epoch that was interrupted, e.g. from a checkpoint: takes over the sample order of that epoch
+     * and starts loading at batch {@code nextBatch}.
+     *
+     * @param permutation order of the samples in that epoch, see {@link #getPermutation()}
+     */
+    public void resumeEpoch(int[] permutation, int nextBatch) {
+        if (permutation.length != this.permutation.length || nextBatch < 0 || nextBatch > batchesPerEpoch()) {
+            LOG.error("Cannot resume at batch {} of {} with {} samples, the dataset has {}",
+                    nextBatch, batchesPerEpoch(), permutation.length, this.permutation.length);
+            throw new IllegalArgumentException("Cannot resume at batch " + nextBatch + " of " + batchesPerEpoch()
+                    + " with " + permutation.length + " samples, the dataset has " + this.permutation.length);
+        }
+        awaitPending();
+        System.arraycopy(permutation, 0, this.permutation, 0, permutation.length);
+        this.nextBatch = nextBatch;
+        pending = nextBatch < batchesPerEpoch() ? loader.submit(() -> fill(nextBatch)) : null;
+    }
+
+    /**
+     * @return number of batches of the current epoch handed out so far
+     */
+    public int getPosition() {
+        return nextBatch;
+    }
+
+    /**
+     * @return copy of the sample order of the current epoch
+     */
+    public int[] getPermutation() {
+        return permutation.clone();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean hasNext() {
+        return nextBatch < batchesPerEpoch();
+    }
+
+    /**
+     * Returns the next batch of the epoch. The tensors are reused, they stay valid until the next call, so the
+     * caller can train on a batch while the following one is loaded.
+     */
+    public Batch next() {
+        if (!hasNext()) {
+            LOG.error("No batches left in this epoch");
+            throw new IllegalStateException("No batches left in this epoch, call startEpoch first");
+        }
+        Batch batch = awaitPending();
+        int index = ++nextBatch;
+        pending = index < batchesPerEpoch() ? loader.submit(() -> fill(index)) : null;
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        loader.shutdownNow();
+    }
+
+    private Batch fill(int index) {
+        int from = index * batchSize;
+        return dataset.fill(buffers[index % buffers.length], permutation, from, Math.min(batchSize, dataset.size() - from));
+    }
+
+    private Batch awaitPending() {
+        if (pending == null) {
+            return null;
+        }
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading a batch", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Loading a batch failed", e.getCause());
+        } finally {
+            pending = null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Images with their labels, read sample by sample from two {@link SampleSource}s.
+ * <p>
+ * Nothing is decoded up front, batches are filled on demand, so a dataset can be much larger than the heap when
+ * its sources read from files like {@link IdxDataset}. {@link #subset(int, int)} and {@link #split(double)} are
+ * views. {@link #batches(int, DataType)} iterates the samples in order as a sized spliterator that splits along
+ * batch boundaries, e.g. for parallel evaluation.
+ */
+public final class Dataset {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Dataset.class);
+
+    private final SampleSource images;
+    private final SampleSource labels;
+
+    private Dataset(SampleSource images, SampleSource labels) {
+        if (images.size() != labels.size()) {
+            LOG.error("Need the same number of images and labels, got {} and {}", images.size(), labels.size());
+            throw new IllegalArgumentException("Need the same number of images and labels, got "
+                    + images.size() + " and " + labels.size());
+        }
+        this.images = images;
+        this.labels = labels;
+    }
+
+    public static Dataset of(SampleSource images, SampleSource labels) {
+        return new Dataset(images, labels);
+    }
+
+    public static Dataset of(Tensor4D[] images, Tensor4D[] labels) {
+        return new Dataset(SampleSource.of(images), SampleSource.of(labels));
+    }
+
+    public int size() {
+        return images.size();
+    }
+
+    public SampleSource getImages() {
+        return images;
+    }
+
+    public SampleSource getLabels() {
+        return labels;
+    }
+
+    /**
+     * Samples {@code [from, to)} of this dataset.
+     */
+    public Dataset subset(int from, int to) {
+        return new Dataset(images.subset(from, to), labels.subset(from, to));
+    }
+
+    /**
+     * Splits into the first {@code fraction} of the samples and the rest, e.g. for a validation set.
+     */
+    public Dataset[] split(double fraction) {
+        if (fraction < 0.0 || fraction > 1.0) {
+            LOG.error("Split fraction must be in [0, 1], got {}", fraction);
+            throw new IllegalArgumentException("Split fraction must be in [0, 1], got " + fraction);
+        }
+        int first = (int) Math.round(size() * fraction);
+        return new Dataset[]{subset(0, first), subset(first, size())};
+    }
+
+    /**
+     * Allocates contiguous batch tensors for up to {@code batchSize} samples.
+     */
+    public Batch allocateBatch(int batchSize, DataType dataType) {
+        return new Batch(
+                new Tensor4D(dataType, batchSize, images.getChannels(), images.getRows(), images.getCols()),
+                new Tensor4D(dataType, batchSize, labels.getChannels(), labels.getRows(), labels.getCols()));
+    }
+
+    /**
+     * Copies {@code count} samples into {@code target}, sample {@code i} of the batch is
+     * {@code order[from + i]} or {@code from + i} without an order. Returns {@code target} or a view of its
+     * first {@code count} entries.
+     */
+    Batch fill(Batch target, int[] order, int from, int count) {
+        for (int i = 0; i < count; i++) {
+            int sample = order == null ? from + i : order[from + i];
+            images.copyTo(sample, target.images(), i);
+            labels.copyTo(sample, target.labels(), i);
+        }
+        target.images().markModified();
+        target.labels().markModified();
+        if (count == target.size()) {
+            return target;
+        }
+        return new Batch(target.images().slice(0, count), target.labels().slice(0, count));
+    }
+
+    /**
+     * Batches of {@code batchSize} samples in order, the last one holds the remainder. Every spliterator, also
+     * every split off one, fills its own reused batch tensors, so a batch is only valid until the consumer returns.
+     */
+    public Spliterator<Batch> batches(int batchSize, DataType dataType) {
+        if (batchSize < 1) {
+            LOG.error("Batch size must be at least 1, got {}", batchSize);
+            throw new IllegalArgumentException("Batch size must be at least 1, got " + batchSize);
+        }
+        return new BatchSpliterator(this, batchSize, dataType, 0, (size() + batchSize - 1) / batchSize);
+    }
+
+    public Stream<Batch> stream(int batchSize, DataType dataType, boolean parallel) {
+        return StreamSupport.stream(batches(batchSize, dataType), parallel);
+    }
+
+    private static final class BatchSpliterator implements Spliterator<Batch> {
+        private final Dataset dataset;
+        private final int batchSize;
+        private final DataType dataType;
+        private int nextBatch;
+        private final int endBatch;
+        private Batch buffer;
+
+        BatchSpliterator(Dataset dataset, int batchSize, DataType dataType, int firstBatch, int endBatch) {
+            this.dataset = dataset;
+            this.batchSize = batchSize;
+            this.dataType = dataType;
+            this.nextBatch = firstBatch;
+            this.endBatch = endBatch;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Batch> action) {
+            if (nextBatch >= endBatch) {
+                return false;
+            }
+            if (buffer == null) {
+                buffer = dataset.allocateBatch(Math.min(batchSize, dataset.size()), dataType);
+            }
+            int from = nextBatch++ * batchSize;
+            action.accept(dataset.fill(buffer, null, from, Math.min(batchSize, dataset.size() - from)));
+            return true;
+        }
+
+        @Override
+        public Spliterator<Batch> trySplit() {
+            int remaining = endBatch - nextBatch;
+            if (remaining < 2) {
+                return null;
+            }
+            int middle = nextBatch + remaining / 2;
+            BatchSpliterator prefix = new BatchSpliterator(dataset, batchSize, dataType, nextBatch, middle);
+            nextBatch = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return endBatch - nextBatch;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only view of an IDX file (the MNIST format) with unsigned byte values.
+ * <p>
+ * The file is memory-mapped, opening it only reads the header, so even the full training set opens in milliseconds
+ * and the values stay on the page cache as uint8 instead of being decoded into tensors up front. Every sample is
+ * decoded and normalized to {@code [0, 1]} when it is copied into a batch tensor. Larger files are mapped in
+ * segments of whole samples, the operating system only reads the pages that are touched, so files larger than
+ * memory can be streamed through.
+ * <p>
+ * The header is validated: two zero bytes, the type {@code 0x08} (unsigned byte), the number of dimensions and
+ * one big-endian int per dimension; the file size has to match the dimensions. The first dimension counts the
+ * samples, the remaining ones give the sample shape, {@code [rows][cols]} for images and
+ * {@code [channels][rows][cols]} with four dimensions. Label files only have the first one, see {@link #oneHot(int)}.
+ */
+public final class IdxDataset implements SampleSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdxDataset.class);
+
+    private static final int UNSIGNED_BYTE = 0x08;
+    private static final double SCALE = 1.0 / 255.0;
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final MappedByteBuffer[] segments;
+    private final int[] dimensions;
+    private final int sampleSize;
+    private final int segmentSamples;
+
+    private IdxDataset(MappedByteBuffer[] segments, int[] dimensions, int segmentSamples) {
+        this.segments = segments;
+        this.dimensions = dimensions;
+        this.sampleSize = getChannels() * getRows() * getCols();
+        this.segmentSamples = segmentSamples;
+    }
+
+    public static IdxDataset open(Path path) throws IOException {
+        return open(path, SEGMENT_BYTES);
+    }
+
+    /**
+     * @param segmentBytes upper bound for the size of one mapping, at least one sample is mapped per segment
+     */
+    static IdxDataset open(Path path, long segmentBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(fileSize, 4 + 4 * 4)).order(ByteOrder.BIG_ENDIAN);
+            readFully(channel, header, 0);
+            if (header.limit() < 4 || header.get(0) != 0 || header.get(1) != 0) {
+                throw invalid(path, "has no IDX magic number");
+            }
+            if (header.get(2) != UNSIGNED_BYTE) {
+                throw invalid(path, String.format("has data type 0x%02x, only unsigned bytes (0x08) are supported", header.get(2)));
+            }
+            int rank = header.get(3);
+            if (rank < 1 || rank > 4) {
+                throw invalid(path, "has " + rank + " dimensions, expected 1 to 4");
+            }
+            int headerSize = 4 + 4 * rank;
+            if (fileSize < headerSize) {
+                throw invalid(path, "is truncated in the header");
+            }
+            int[] dimensions = new int[rank];
+            long sampleSize = 1;
+            for (int i = 0; i < rank; i++) {
+                dimensions[i] = header.getInt(4 + 4 * i);
+                if (dimensions[i] < 0) {
+                    throw invalid(path, "has a negative dimension " + dimensions[i]);
+                }
+                if (i > 0) {
+                    sampleSize *= dimensions[i];
+                }
+            }
+            if (sampleSize > Integer.MAX_VALUE) {
+                throw invalid(path, "has samples larger than 2 GB");
+            }
+            long expectedSize = headerSize + dimensions[0] * sampleSize;
+            if (fileSize != expectedSize) {
+                throw invalid(path, "has " + fileSize + " bytes but dimensions " + Arrays.toString(dimensions)
+                        + " need " + expectedSize);
+            }
+
+            // Segmente aus ganzen Samples, die Abbildungen bleiben auch nach dem Schließen des Kanals gültig
+            int segmentSamples = (int) Math.max(1, Math.min(dimensions[0], segmentBytes / Math.max(1, sampleSize)));
+            MappedByteBuffer[] segments = new MappedByteBuffer[(dimensions[0] + segmentSamples - 1) / segmentSamples];
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i * segmentSamples;
+                long samples = Math.min(segmentSamples, dimensions[0] - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, headerSize + first * sampleSize, samples * sampleSize);
+            }
+            return new IdxDataset(segments, dimensions, segmentSamples);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file, " + buffer.remaining() + " bytes missing");
+            }
+            position += read;
+        }
+    }
+
+    private static IllegalArgumentException invalid(Path path, String reason) {
+        LOG.error("IDX file {} {}", path, reason);
+        return new IllegalArgumentException("IDX file " + path + " " + reason);
+    }
+
+    public int[] getDimensions() {
+        return dimensions.clone();
+    }
+
+    @Override
+    public int size() {
+        return dimensions[0];
+    }
+
+    @Override
+    public int getChannels() {
+        return dimensions.length == 4 ? dimensions[1] : 1;
+    }
+
+    @Override
+    public int getRows() {
+        return dimensions.length >= 3 ? dimensions[dimensions.length - 2] : 1;
+    }
+
+    @Override
+    public int getCols() {
+        return dimensions.length >= 2 ? dimensions[dimensions.length - 1] : 1;
+    }
+
+    /**
+     * Raw value {@code index} of sample {@code sample}, e.g. the class of a label file with {@code index == 0}.
+     */
+    public int getUnsigned(int sample, int index) {
+        return segment(sample).get(position(sample) + index) & 0xFF;
+    }
+
+    /**
+     * Writes the values of the sample scaled to {@code [0, 1]}.
+     */
+    @Override
+    public void copyTo(int sample, Tensor4D target, int batch) {
+        checkTarget(target, getChannels(), getRows(), getCols());
+        MappedByteBuffer data = segment(sample);
+        int source = position(sample);
+        int to = target.getOffset() + batch * target.getBatchStride();
+        if (target.isFloat()) {
+            float[] result = target.getFloatBuffer();
+            for (int i = 0; i < sampleSize; i++) {
+                result[to + i] = (float) ((data.get(source + i) & 0xFF) * SCALE);
+            }
+        } else {
+            double[] result = target.getBuffer();
+            for (int i = 0; i < sampleSize; i++) {
+                result[to + i] = (data.get(source + i) & 0xFF) * SCALE;
+            }
+        }
+    }
+
+    /**
+     * Interprets a label file as classes and decodes every label as a one-hot vector of shape {@code [1][1][classes]}.
+     */
+    public SampleSource oneHot(int classes) {
+        if (sampleSize != 1) {
+            LOG.error("One-hot labels need one value per sample, got dimensions {}", Arrays.toString(dimensions));
+            throw new IllegalArgumentException("One-hot labels need one value per sample, got dimensions "
+                    + Arrays.toString(dimensions));
+        }
+        return new OneHotLabels(this, classes);
+    }
+
+    private MappedByteBuffer segment(int sample) {
+        if (sample < 0 || sample >= size()) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + size());
+        }
+        return segments[sample / segmentSamples];
+    }
+
+    /**
+     * Position of the sample within its segment.
+     */
+    private int position(int sample) {
+        return (sample % segmentSamples) * sampleSize;
+    }
+
+    private static void checkTarget(Tensor4D target, int channels, int rows, int cols) {
+        if (target.getChannels() != channels || target.getRows() != rows || target.getCols() != cols
+                || !target.isContiguous()) {
+            LOG.error("Batch {} does not match samples of shape [{}][{}][{}]", target, channels, rows, cols);
+            throw new IllegalArgumentException("Batch " + target + " does not match samples of shape ["
+                    + channels + "][" + rows + "][" + cols + "]");
+        }
+    }
+
+    private record OneHotLabels(IdxDataset labels, int classes) implements SampleSource {
+
+        @Override
+        public int size() {
+            return labels.size();
+        }
+
+        @Override
+        public int getChannels() {
+            return 1;
+        }
+
+        @Override
+        public int getRows() {
+            return 1;
+        }
+
+        @Override
+        public int getCols() {
+            return classes;
+        }
+
+        @Override
+        public void copyTo(int sample, Tensor4D target, int batch) {
+            checkTarget(target, 1, 1, classes);
+            int label = labels.getUnsigned(sample, 0);
+            if (label >= classes) {
+                LOG.error("Label {} of sample {} is not below {} classes", label, sample, classes);
+                throw new IllegalArgumentException("Label " + label + " of sample " + sample
+                        + " is not below " + classes + " classes");
+            }
+            int to = target.getOffset() + batch * target.getBatchStride();
+            for (int i = 0; i < classes; i++) {
+                if (target.isFloat()) {
+                    target.getFloatBuffer()[to + i] = i == label ? 1.0f : 0.0f;
+                } else {
+                    target.getBuffer()[to + i] = i == label ? 1.0 : 0.0;
+                }
+            }
+        }
+    }
+}
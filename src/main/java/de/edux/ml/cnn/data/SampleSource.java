@@ -0,0 +1,51 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+
+/**
+ * Indexed collection of equally shaped samples that are copied into batch tensors on demand.
+ * <p>
+ * Sources do not need to hold decoded tensors, e.g. {@link IdxDataset} decodes straight from the mapped file.
+ * {@link #copyTo(int, Tensor4D, int)} only reads, so one source can be used by several threads.
+ */
+public interface SampleSource {
+
+    int size();
+
+    int getChannels();
+
+    int getRows();
+
+    int getCols();
+
+    /**
+     * Writes sample {@code sample} into batch entry {@code batch} of the contiguous tensor {@code target},
+     * converted to the data type of the target.
+     */
+    void copyTo(int sample, Tensor4D target, int batch);
+
+    /**
+     * Decodes a single sample into a new tensor of shape {@code [1][channels][rows][cols]}.
+     */
+    default Tensor4D get(int sample, DataType dataType) {
+        Tensor4D tensor = new Tensor4D(dataType, 1, getChannels(), getRows(), getCols());
+        copyTo(sample, tensor, 0);
+        tensor.markModified();
+        return tensor;
+    }
+
+    /**
+     * View of the samples {@code [from, to)}.
+     */
+    default SampleSource subset(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IllegalArgumentException("Cannot take samples [" + from + ", " + to + ") of " + size());
+        }
+        return new SubsetSource(this, from, to);
+    }
+
+    static SampleSource of(Tensor4D... samples) {
+        return new TensorSamples(samples);
+    }
+}
@@ -0,0 +1,45 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.Tensor4D;
+
+/**
+ * Samples {@code [from, to)} of another source.
+ */
+record SubsetSource(SampleSource source, int from, int to) implements SampleSource {
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public int getChannels() {
+        return source.getChannels();
+    }
+
+    @Override
+    public int getRows() {
+        return source.getRows();
+    }
+
+    @Override
+    public int getCols() {
+        return source.getCols();
+    }
+
+    @Override
+    public void copyTo(int sample, Tensor4D target, int batch) {
+        if (sample < 0 || sample >= size()) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + size());
+        }
+        source.copyTo(from + sample, target, batch);
+    }
+
+    @Override
+    public SampleSource subset(int first, int last) {
+        if (first < 0 || last > size() || first > last) {
+            throw new IllegalArgumentException("Cannot take samples [" + first + ", " + last + ") of " + size());
+        }
+        return new SubsetSource(source, from + first, from + last);
+    }
+}
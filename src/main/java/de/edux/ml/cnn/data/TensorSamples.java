@@ -0,0 +1,76 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples that are already decoded into one tensor each, the shape is taken from the first sample.
+ */
+class TensorSamples implements SampleSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TensorSamples.class);
+
+    private final Tensor4D[] samples;
+
+    TensorSamples(Tensor4D[] samples) {
+        if (samples.length == 0) {
+            LOG.error("Need at least one sample");
+            throw new IllegalArgumentException("Need at least one sample");
+        }
+        this.samples = samples;
+    }
+
+    @Override
+    public int size() {
+        return samples.length;
+    }
+
+    @Override
+    public int getChannels() {
+        return samples[0].getChannels();
+    }
+
+    @Override
+    public int getRows() {
+        return samples[0].getRows();
+    }
+
+    @Override
+    public int getCols() {
+        return samples[0].getCols();
+    }
+
+    @Override
+    public void copyTo(int index, Tensor4D target, int batch) {
+        Tensor4D sample = samples[index];
+        if (sample.getBatches() != 1 || sample.getChannels() != target.getChannels()
+                || sample.getRows() != target.getRows() || sample.getCols() != target.getCols()) {
+            LOG.error("Sample {} does not match batch {}", sample, target);
+            throw new IllegalArgumentException("Sample " + sample + " does not match batch " + target);
+        }
+        Tensor4D source = sample.contiguous();
+        int length = source.size();
+        int from = source.getOffset();
+        int to = target.getOffset() + batch * target.getBatchStride();
+        if (source.getDataType() == target.getDataType()) {
+            if (source.isFloat()) {
+                System.arraycopy(source.getFloatBuffer(), from, target.getFloatBuffer(), to, length);
+            } else {
+                System.arraycopy(source.getBuffer(), from, target.getBuffer(), to, length);
+            }
+        } else if (source.isFloat()) {
+            float[] values = source.getFloatBuffer();
+            double[] result = target.getBuffer();
+            for (int i = 0; i < length; i++) {
+                result[to + i] = values[from + i];
+            }
+        } else {
+            double[] values = source.getBuffer();
+            float[] result = target.getFloatBuffer();
+            for (int i = 0; i < length; i++) {
+                result[to + i] = (float) values[from + i];
+            }
+        }
+    }
+}
@@ -1,7 +1,26 @@
 package de.edux.ml.cnn.functions;
 
+import de.edux.ml.cnn.optimizer.AdamOptimizer;
+import de.edux.ml.cnn.optimizer.MomentumOptimizer;
+import de.edux.ml.cnn.optimizer.ParameterOptimizer;
+import de.edux.ml.cnn.optimizer.RmsPropOptimizer;
+import de.edux.ml.cnn.optimizer.SgdOptimizer;
+
+/**
+ * Update rules with their default hyperparameters, see {@link de.edux.ml.cnn.optimizer}.
+ */
 public enum Optimizer {
-    SGD;
+    SGD,
+    MOMENTUM,
+    RMSPROP,
+    ADAM;
 
-    
+    public ParameterOptimizer create(double learningRate) {
+        return switch (this) {
+            case SGD -> new SgdOptimizer(learningRate);
+            case MOMENTUM -> new MomentumOptimizer(learningRate);
+            case RMSPROP -> new RmsPropOptimizer(learningRate);
+            case ADAM -> new AdamOptimizer(learningRate);
+        };
+    }
 }
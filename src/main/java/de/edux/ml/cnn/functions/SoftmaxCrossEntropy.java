@@ -0,0 +1,141 @@
+package de.edux.ml.cnn.functions;
+
+import de.edux.ml.cnn.tensor.Kernels;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Softmax and categorical cross entropy fused into one operator on the logits.
+ * <p>
+ * All elements of one batch entry are the classes of that sample, so logits {@code [batches][classes][1][1]} and
+ * labels {@code [batches][1][1][classes]} fit together. With the log-sum-exp trick
+ * {@code log(sum(exp(x))) = max + log(sum(exp(x - max)))} the loss {@code -sum(y * (x - lse))} never exponentiates a
+ * large logit, so it does not overflow to infinity or NaN. The gradient with respect to the logits is {@code p - y}
+ * per sample, averaging over the batch is left to the weight update.
+ */
+public final class SoftmaxCrossEntropy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SoftmaxCrossEntropy.class);
+
+    private SoftmaxCrossEntropy() {
+    }
+
+    /**
+     * @param logits        network output before softmax
+     * @param labels        one-hot (or soft) labels with the same number of elements per batch entry
+     * @param probabilities receives the softmax of the logits, may be {@code null}
+     * @param gradient      receives {@code p - y}, may be {@code null}
+     * @return the cross entropy averaged over the batch
+     */
+    public static double compute(Tensor4D logits, Tensor4D labels, Tensor4D probabilities, Tensor4D gradient) {
+        if (labels.getBatches() != logits.getBatches() || labels.size() != logits.size()
+                || labels.getDataType() != logits.getDataType()) {
+            LOG.error("Labels {} do not match logits {}", labels, logits);
+            throw new IllegalArgumentException("Labels " + labels + " do not match logits " + logits);
+        }
+        checkOutput(logits, probabilities);
+        checkOutput(logits, gradient);
+        Tensor4D x = logits.contiguous();
+        Tensor4D y = labels.contiguous();
+        int batches = x.getBatches();
+        int classes = x.getBatchStride();
+
+        // die Exponentialwerte landen direkt im Ausgabepuffer, nur ohne Ausgabe wird ein Puffer angelegt
+        boolean temporary = probabilities == null && gradient == null;
+        Tensor4D scratch = temporary ? new Tensor4D(x.getDataType(), 1, 1, 1, classes)
+                : probabilities != null ? probabilities : gradient;
+        double loss = 0.0;
+        for (int batch = 0; batch < batches; batch++) {
+            int sample = batch * classes;
+            int scratchOffset = temporary ? 0 : scratch.getOffset() + sample;
+            int probabilityOffset = probabilities == null ? 0 : probabilities.getOffset() + sample;
+            int gradientOffset = gradient == null ? 0 : gradient.getOffset() + sample;
+            if (x.isFloat()) {
+                loss += sample(x.getFloatBuffer(), x.getOffset() + sample, y.getFloatBuffer(), y.getOffset() + sample,
+                        scratch.getFloatBuffer(), scratchOffset,
+                        probabilities == null ? null : probabilities.getFloatBuffer(), probabilityOffset,
+                        gradient == null ? null : gradient.getFloatBuffer(), gradientOffset, classes);
+            } else {
+                loss += sample(x.getBuffer(), x.getOffset() + sample, y.getBuffer(), y.getOffset() + sample,
+                        scratch.getBuffer(), scratchOffset,
+                        probabilities == null ? null : probabilities.getBuffer(), probabilityOffset,
+                        gradient == null ? null : gradient.getBuffer(), gradientOffset, classes);
+            }
+        }
+        if (probabilities != null) {
+            probabilities.markModified();
+        }
+        if (gradient != null) {
+            gradient.markModified();
+        }
+        return loss / batches;
+    }
+
+    /**
+     * @return the cross entropy averaged over the batch
+     */
+    public static double loss(Tensor4D logits, Tensor4D labels) {
+        return compute(logits, labels, null, null);
+    }
+
+    private static void checkOutput(Tensor4D logits, Tensor4D out) {
+        if (out != null && (out.size() != logits.size() || out.getDataType() != logits.getDataType()
+                || out.getBatches() != logits.getBatches() || !out.isContiguous())) {
+            LOG.error("Output {} does not match logits {}", out, logits);
+            throw new IllegalArgumentException("Output " + out + " does not match logits " + logits);
+        }
+    }
+
+    /**
+     * One sample: the exponentials are written to {@code scratch} (the probabilities or the gradient buffer),
+     * the last pass turns them into probabilities and the gradient and sums up the loss.
+     */
+    private static double sample(double[] x, int xOffset, double[] y, int yOffset, double[] scratch, int scratchOffset,
+                                 double[] probabilities, int probabilityOffset, double[] gradient, int gradientOffset,
+                                 int classes) {
+        double max = Kernels.ELEMENTWISE.max(x, xOffset, classes);
+        double sum = Kernels.ELEMENTWISE.expSum(x, xOffset, max, scratch, scratchOffset, classes);
+        double logSumExp = max + Math.log(sum);
+        double inverse = 1.0 / sum;
+        double loss = 0.0;
+        for (int i = 0; i < classes; i++) {
+            double label = y[yOffset + i];
+            double p = scratch[scratchOffset + i] * inverse;
+            if (label != 0.0) {
+                loss -= label * (x[xOffset + i] - logSumExp);
+            }
+            if (probabilities != null) {
+                probabilities[probabilityOffset + i] = p;
+            }
+            if (gradient != null) {
+                gradient[gradientOffset + i] = p - label;
+            }
+        }
+        return loss;
+    }
+
+    private static double sample(float[] x, int xOffset, float[] y, int yOffset, float[] scratch, int scratchOffset,
+                                 float[] probabilities, int probabilityOffset, float[] gradient, int gradientOffset,
+                                 int classes) {
+        float max = Kernels.ELEMENTWISE.max(x, xOffset, classes);
+        float sum = Kernels.ELEMENTWISE.expSum(x, xOffset, max, scratch, scratchOffset, classes);
+        double logSumExp = max + Math.log(sum);
+        float inverse = 1.0f / sum;
+        double loss = 0.0;
+        for (int i = 0; i < classes; i++) {
+            float label = y[yOffset + i];
+            float p = scratch[scratchOffset + i] * inverse;
+            if (label != 0.0f) {
+                loss -= label * (x[xOffset + i] - logSumExp);
+            }
+            if (probabilities != null) {
+                probabilities[probabilityOffset + i] = p;
+            }
+            if (gradient != null) {
+                gradient[gradientOffset + i] = p - label;
+            }
+        }
+        return loss;
+    }
+}
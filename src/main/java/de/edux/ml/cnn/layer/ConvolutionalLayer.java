@@ -1,9 +1,17 @@
 package de.edux.ml.cnn.layer;
 
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.tensor.Im2ColConvolution;
+import de.edux.ml.cnn.tensor.Kernels;
+import de.edux.ml.cnn.tensor.ReluMask;
 import de.edux.ml.cnn.tensor.Tensor4D;
+import de.edux.ml.cnn.tensor.TensorPool;
+import de.edux.ml.cnn.tensor.WinogradConvolution;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 /**
  *
  * CNN use mini batches for training.
@@ -13,13 +21,19 @@ import org.slf4j.LoggerFactory;
  * CNN use Softmax as activation function for the last layer.
  */
 public class ConvolutionalLayer extends Layer {
-    private final Tensor4D filters;
+    private Parameter filters;
+    private Parameter biases;
     private int numberOfFilters;
     private int filterSize;
     private int stride;
     private int padding;
     private static final Logger LOG = LoggerFactory.getLogger(ConvolutionalLayer.class);
     private Tensor4D originalInput;
+    private final Im2ColConvolution convolution;
+    private final WinogradConvolution winograd;
+    // Fusionierte ReLU des nächsten Layers: angewendet im Epilog der Faltung, für backward bleibt nur die Bitmaske
+    private boolean relu;
+    private final ReluMask mask = new ReluMask();
 
     public ConvolutionalLayer(
             int numberOfFilters, int filterSize, int stride, int padding, int channels) {
@@ -27,124 +41,187 @@ public class ConvolutionalLayer extends Layer {
         this.filterSize = filterSize;
         this.stride = stride;
         this.padding = padding;
+        this.convolution = new Im2ColConvolution(stride, padding);
+        this.winograd = WinogradConvolution.supports(filterSize, stride) ? new WinogradConvolution(padding) : null;
+
+        Tensor4D filters = new Tensor4D(numberOfFilters, channels, filterSize, filterSize);
+        initializeFilters(filters);
+        this.filters = new Parameter("filters", filters);
+        // ein Bias pro Filter, mit 0 initialisiert
+        this.biases = new Parameter("biases", new Tensor4D(1, numberOfFilters, 1, 1));
+    }
 
-        this.filters = new Tensor4D(numberOfFilters, channels, filterSize, filterSize);
-        initializeFilters(this.filters);
+    // Replikat für datenparalleles Training: gleiche Filter, eigene Gradienten, Puffer und eigener Zustand
+    private ConvolutionalLayer(ConvolutionalLayer original) {
+        this.numberOfFilters = original.numberOfFilters;
+        this.filterSize = original.filterSize;
+        this.stride = original.stride;
+        this.padding = original.padding;
+        this.convolution = new Im2ColConvolution(stride, padding);
+        this.winograd = original.winograd != null ? new WinogradConvolution(padding) : null;
+        this.filters = original.filters.replicate();
+        this.biases = original.biases.replicate();
+        this.relu = original.relu;
+    }
+
+    @Override
+    public Layer replicate() {
+        return new ConvolutionalLayer(this);
     }
 
     private void initializeFilters(Tensor4D filters) {
         filters.randomHE();
     }
 
+    public Tensor4D getFilters() {
+        return filters.getValue();
+    }
+
+    public Tensor4D getBiases() {
+        return biases.getValue();
+    }
+
+    /**
+     * Applies the ReLU of the directly following {@code activation} in the epilogue of the convolution, so the
+     * pre-activation output is never written and re-read. {@code activation} then passes its input through and
+     * backward masks the gradient with the bits recorded by forward. Called by the network builder for adjacent
+     * layers.
+     */
+    public void fuse(ReluLayer activation) {
+        this.relu = true;
+        activation.setFused(true);
+    }
+
+    /**
+     * @return true if this layer applies the ReLU of the following layer
+     */
+    public boolean isReluFused() {
+        return relu;
+    }
+
+    public int getNumberOfFilters() {
+        return numberOfFilters;
+    }
+
+    public int getFilterSize() {
+        return filterSize;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getPadding() {
+        return padding;
+    }
+
+    public int getChannels() {
+        return filters.getValue().getChannels();
+    }
+
+    @Override
+    public List<Parameter> getParameters() {
+        return List.of(filters, biases);
+    }
+
+    @Override
+    public Shape outputShape(Shape input) {
+        int outputRows = convolution.outputSize(input.rows(), filterSize);
+        int outputCols = convolution.outputSize(input.cols(), filterSize);
+        if (input.channels() != getChannels() || outputRows < 1 || outputCols < 1) {
+            LOG.error("ConvolutionalLayer with {} channels and {}x{} filters can not process {}",
+                    getChannels(), filterSize, filterSize, input);
+            throw new IllegalArgumentException("ConvolutionalLayer with " + getChannels() + " channels and "
+                    + filterSize + "x" + filterSize + " filters can not process " + input);
+        }
+        return new Shape(numberOfFilters, outputRows, outputCols);
+    }
+
     @Override
     public Tensor4D forward(Tensor4D input) {
         LOG.debug("ConvolutionalLayer forward");
         this.originalInput = input;
-        return input.convolve(filters, stride, padding);
+        return convolve(input, convolution, winograd, tensorPool, mask);
+    }
+
+    /**
+     * Uses convolution buffers of the context, the layer's own buffers belong to training.
+     */
+    @Override
+    public Tensor4D infer(Tensor4D input, InferenceContext context) {
+        Scratch scratch = context.scratch(this, () -> new Scratch(new Im2ColConvolution(stride, padding),
+                winograd != null ? new WinogradConvolution(padding) : null));
+        return convolve(input, scratch.convolution(), scratch.winograd(), context.getTensorPool(), null);
+    }
+
+    private Tensor4D convolve(Tensor4D input, Im2ColConvolution convolution, WinogradConvolution winograd,
+                              TensorPool pool, ReluMask reluMask) {
+        Tensor4D output = pool.acquire(input.getDataType(), input.getBatches(), numberOfFilters,
+                convolution.outputSize(input.getRows(), filterSize), convolution.outputSize(input.getCols(), filterSize));
+        // 3x3 Filter mit Stride 1 laufen über Winograd F(2x2, 3x3), alle anderen über im2col + GEMM
+        // Bias und ReLU laufen im Epilog jeder Ausgabekachel mit
+        if (winograd != null) {
+            return winograd.forward(input, filters.getValue(), biases.getValue(), relu, reluMask, output);
+        }
+        return convolution.forward(input, filters.getValue(), biases.getValue(), relu, reluMask, output);
+    }
+
+    private record Scratch(Im2ColConvolution convolution, WinogradConvolution winograd) {
     }
 
+    /**
+     * With a fused ReLU the gradient is masked in place, it belongs to the step and is not read afterwards.
+     */
     @Override
     public Tensor4D backward(Tensor4D inputGradient) {
         LOG.debug("ConvolutionalLayer backward");
+        if (relu) {
+            Tensor4D gradient = inputGradient.contiguous();
+            inputGradient = mask.backward(gradient, gradient);
+        }
 
-        // Gradienten in Bezug auf die Filter berechnen
-        // Diese Berechnung hängt von Ihrer spezifischen Implementierung der Faltung ab
-        Tensor4D gradientWrtFilters = calculateGradientWrtFilters(inputGradient, originalInput);
+        // Bias-Gradient: Summe von dY über Batch und Positionen pro Filter
+        Tensor4D gradientWrtBiases = calculateGradientWrtBiases(inputGradient);
+        biases.accumulate(gradientWrtBiases, originalInput.getBatches());
+        tensorPool.release(gradientWrtBiases);
 
-        // Gradienten in Bezug auf den Eingabetensor berechnen
-        // Dies erfordert eine volle Faltung (Full Convolution) zwischen inputGradient und den Filtern
-        Tensor4D gradientWrtInput = calculateGradientWrtInput(inputGradient, filters);
+        // Gradienten in Bezug auf die Filter berechnen und aufaddieren: dY * im2col(X)^T,
+        // der Optimierer aktualisiert die Filter danach in einem eigenen Schritt
+        Tensor4D gradientWrtFilters = calculateGradientWrtFilters(inputGradient, originalInput);
+        filters.accumulate(gradientWrtFilters, originalInput.getBatches());
+        tensorPool.release(gradientWrtFilters);
 
-        // Optional: Aktualisieren Sie die Filter basierend auf gradientWrtFilters
+        // Gradienten in Bezug auf den Eingabetensor berechnen: col2im(F^T * dY)
+        Tensor4D gradientWrtInput = calculateGradientWrtInput(inputGradient, filters.getValue());
 
         return gradientWrtInput;
     }
 
-    private Tensor4D calculateGradientWrtFilters(Tensor4D inputGradient, Tensor4D originalInput) {
-        // Die Dimensionen für den Gradiententensor der Filter
-        int gradFilterBatches = this.numberOfFilters; // Anzahl der Filter
-        int gradFilterChannels = originalInput.getChannels(); // Anzahl der Kanäle im ursprünglichen Eingabetensor
-        int gradFilterRows = this.filterSize;
-        int gradFilterCols = this.filterSize;
-
-        // Initialisieren des Gradiententensors für die Filter
-        Tensor4D gradFilters = new Tensor4D(gradFilterBatches, gradFilterChannels, gradFilterRows, gradFilterCols);
-
-        // Durchführen der Gradientenberechnung für jeden Filter
-        for (int filterNum = 0; filterNum < gradFilterBatches; filterNum++) {
-            for (int channel = 0; channel < gradFilterChannels; channel++) {
-                for (int row = 0; row < gradFilterRows; row++) {
-                    for (int col = 0; col < gradFilterCols; col++) {
-                        double gradientSum = 0.0;
-
-                        // Iterieren über den Eingabegradienten und den ursprünglichen Eingabetensor
-                        for (int batch = 0; batch < originalInput.getBatches(); batch++) {
-                            for (int i = 0; i < inputGradient.getRows(); i++) {
-                                for (int j = 0; j < inputGradient.getCols(); j++) {
-                                    // Berechnen der Position im Eingabetensor
-                                    int inputRow = i * this.stride + row;
-                                    int inputCol = j * this.stride + col;
-
-                                    // Überprüfen der Grenzen
-                                    if (inputRow < originalInput.getRows() && inputCol < originalInput.getCols()) {
-                                        gradientSum += originalInput.getData()[batch][channel][inputRow][inputCol] *
-                                                inputGradient.getData()[batch][filterNum][i][j];
-                                    }
-                                }
-                            }
-                        }
-
-                        gradFilters.getData()[filterNum][channel][row][col] = gradientSum;
-                    }
-                }
+    private Tensor4D calculateGradientWrtBiases(Tensor4D inputGradient) {
+        Tensor4D dY = inputGradient.contiguous();
+        Tensor4D gradient = tensorPool.acquire(biases.getValue().getDataType(), 1, numberOfFilters, 1, 1);
+        int positions = dY.getRows() * dY.getCols();
+        for (int filter = 0; filter < numberOfFilters; filter++) {
+            double sum = 0.0;
+            for (int batch = 0; batch < dY.getBatches(); batch++) {
+                int offset = dY.index(batch, filter, 0, 0);
+                sum += dY.isFloat() ? Kernels.ELEMENTWISE.sum(dY.getFloatBuffer(), offset, positions)
+                        : Kernels.ELEMENTWISE.sum(dY.getBuffer(), offset, positions);
             }
+            gradient.set(0, filter, 0, 0, sum);
         }
+        return gradient;
+    }
 
-        return gradFilters;
+    private Tensor4D calculateGradientWrtFilters(Tensor4D inputGradient, Tensor4D originalInput) {
+        return convolution.filterGradient(originalInput, inputGradient, tensorPool.acquire(filters.getValue().getDataType(),
+                numberOfFilters, originalInput.getChannels(), filterSize, filterSize));
     }
 
 
     private Tensor4D calculateGradientWrtInput(Tensor4D inputGradient, Tensor4D filters) {
-        // Berechnen der Dimensionen für den Gradiententensor des Eingabetensors
-        int gradInputBatches = inputGradient.getBatches();
-        int gradInputChannels = filters.getChannels(); // Anzahl der Kanäle in den Filtern
-        int gradInputRows = (inputGradient.getRows() - 1) * this.stride -2 * padding + filters.getRows();
-        int gradInputCols = (inputGradient.getCols() - 1) * this.stride -2*padding+ filters.getCols();
-
-        // Initialisieren des Gradiententensors für den Eingabetensor
-        Tensor4D gradInput = new Tensor4D(gradInputBatches, gradInputChannels, gradInputRows, gradInputCols);
-
-        // Durchführen der vollen Faltung zwischen inputGradient und den Filtern
-        for (int batch = 0; batch < gradInputBatches; batch++) {
-            for (int channel = 0; channel < gradInputChannels; channel++) {
-                for (int row = 0; row < gradInputRows; row++) {
-                    for (int col = 0; col < gradInputCols; col++) {
-                        double gradientSum = 0.0;
-
-                        // Iterieren über die Filter und den Eingabegradienten
-                        for (int filterNum = 0; filterNum < filters.getBatches(); filterNum++) {
-                            for (int i = 0; i < filters.getRows(); i++) {
-                                for (int j = 0; j < filters.getCols(); j++) {
-                                    // Berechnen der Position im Eingabegradienten
-                                    int inputRow = row - i;
-                                    int inputCol = col - j;
-
-                                    // Überprüfen der Grenzen
-                                    if (inputRow >= 0 && inputRow < inputGradient.getRows() && inputCol >= 0 && inputCol < inputGradient.getCols()) {
-                                        gradientSum += filters.getData()[filterNum][channel][i][j] *
-                                                inputGradient.getData()[batch][filterNum][inputRow][inputCol];
-                                    }
-                                }
-                            }
-                        }
-
-                        gradInput.getData()[batch][channel][row][col] = gradientSum;
-                    }
-                }
-            }
-        }
-
-        return gradInput;
+        return convolution.inputGradient(inputGradient, filters, tensorPool.acquire(inputGradient.getDataType(),
+                originalInput.getBatches(), originalInput.getChannels(), originalInput.getRows(), originalInput.getCols()));
     }
 }
 
@@ -23,6 +23,7 @@ public class FlattenLayer extends Layer {
         originalRows = input.getRows();
         originalCols = input.getCols();
 
+        // View auf denselben Speicher, es wird nichts kopiert
         return input.flatten();
     }
 
@@ -30,23 +31,32 @@ public class FlattenLayer extends Layer {
     public Tensor4D backward(Tensor4D input) {
         LOG.debug("FlattenLayer backward");
 
-        Tensor4D reshapedTensor = new Tensor4D(originalBatches, originalChannels, originalRows, originalCols);
-
-        // Rückumwandlung des geflachten Tensors in seine ursprüngliche Form
-        for (int batch = 0; batch < originalBatches; batch++) {
-            for (int channel = 0; channel < originalChannels; channel++) {
-                for (int row = 0; row < originalRows; row++) {
-                    for (int col = 0; col < originalCols; col++) {
-                        int flatIndex = channel * originalRows * originalCols + row * originalCols + col;
-                        reshapedTensor.getData()[batch][channel][row][col] = input.getData()[batch][0][0][flatIndex];
-                    }
-                }
-            }
-        }
+        // Rückumwandlung des geflachten Tensors in seine ursprüngliche Form, die Reihenfolge im Speicher bleibt gleich
+        Tensor4D reshapedTensor = input.reshape(originalBatches, originalChannels, originalRows, originalCols);
 
         return reshapedTensor;
     }
 
+    @Override
+    public Tensor4D infer(Tensor4D input, InferenceContext context) {
+        return input.flatten();
+    }
+
+    @Override
+    public Shape outputShape(Shape input) {
+        return new Shape(1, 1, input.size());
+    }
+
+    @Override
+    public boolean isView() {
+        return true;
+    }
+
+    @Override
+    public Layer replicate() {
+        return new FlattenLayer();
+    }
+
 }
 
 
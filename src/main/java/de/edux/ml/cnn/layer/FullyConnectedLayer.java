@@ -1,9 +1,13 @@
 package de.edux.ml.cnn.layer;
 
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.tensor.Gemm;
 import de.edux.ml.cnn.tensor.Tensor4D;
+import de.edux.ml.cnn.tensor.TensorPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Random;
 
 public class FullyConnectedLayer extends Layer {
@@ -11,13 +15,17 @@ public class FullyConnectedLayer extends Layer {
     private static final Logger LOG = LoggerFactory.getLogger(FullyConnectedLayer.class);
     private final double learningRate;
 
-    private Tensor4D weights;
-    private Tensor4D biases;
+    // Werte und Gradientenpuffer, Replikate für datenparalleles Training teilen sich die Werte
+    private Parameter weights;
+    private Parameter biases;
     private int inputSize;
     private int outputSize;
     private Tensor4D lastInput;
     private Random random = new Random();
 
+    /**
+     * @param learningRate only kept for compatibility, the step size is set by the optimizer of the network
+     */
     public FullyConnectedLayer(int inputSize, int outputSize, double learningRate) {
         this.learningRate = learningRate;
         this.inputSize = inputSize;
@@ -26,72 +34,115 @@ public class FullyConnectedLayer extends Layer {
 
     }
 
+    private FullyConnectedLayer(FullyConnectedLayer original) {
+        this.learningRate = original.learningRate;
+        this.inputSize = original.inputSize;
+        this.outputSize = original.outputSize;
+        this.weights = original.weights.replicate();
+        this.biases = original.biases.replicate();
+    }
+
     private void initializeWeights() {
         double stdDev = Math.sqrt(2.0 / inputSize);
 
         // Initialisieren der Gewichte und Biases mit He-Initialisierung
-        this.weights = new Tensor4D(1, outputSize, inputSize, 1);
-        this.weights.randomHE();
-        this.biases = new Tensor4D(1, outputSize, 1, 1);
+        Tensor4D weights = new Tensor4D(1, outputSize, inputSize, 1);
+        weights.randomHE();
+        this.weights = new Parameter("weights", weights);
 
-        for (int i = 0; i < outputSize; i++) {
-            this.biases.getData()[0][i][0][0] = 0;  // Biases werden oft mit 0 initialisiert
-        }
+        // Biases werden oft mit 0 initialisiert, der flache Puffer ist bereits mit 0 gefüllt
+        this.biases = new Parameter("biases", new Tensor4D(1, outputSize, 1, 1));
     }
 
-
-    @Override
-    public Tensor4D forward(Tensor4D input) {
-        LOG.debug("FullyConnectedLayer forward");
-        this.lastInput = input;
-        return input.multiply(weights).addBiases(biases);
+    public Tensor4D getWeights() {
+        return weights.getValue();
     }
 
+    public Tensor4D getBiases() {
+        return biases.getValue();
+    }
 
-    @Override
-    public Tensor4D backward(Tensor4D errorGradient) {
-        // Gradienten für Gewichte berechnen
-        Tensor4D transposedLastInput = this.lastInput.transpose();
-        Tensor4D weightGradient = transposedLastInput.multiply(errorGradient);
+    public int getInputSize() {
+        return inputSize;
+    }
 
-        Tensor4D averagedWeightGradient = weightGradient.averageOverBatches(); // Methode 'averageOverBatches()' muss implementiert sein
+    public int getOutputSize() {
+        return outputSize;
+    }
 
-        Tensor4D biasGradient = errorGradient.sumOverBatchesForBiases();
+    public double getLearningRate() {
+        return learningRate;
+    }
 
-        // Fehlergradienten für den vorherigen Layer berechnen
-        Tensor4D prevLayerErrorGradient =  errorGradient.multiply(this.weights.transpose()); // Pseudocode
+    @Override
+    public List<Parameter> getParameters() {
+        return List.of(weights, biases);
+    }
 
-        // Optional: Aktualisierung der Gewichte und Biases hier (oder in einem separaten Schritt)
-        this.weights = updateWeights(this.weights, weightGradient); // Pseudocode
-        this.biases = updateBiases(this.biases, biasGradient); // Pseudocode*/
+    /**
+     * Accepts flat samples {@code [1][1][inputSize]}, e.g. the output of a {@link FlattenLayer}.
+     */
+    @Override
+    public Shape outputShape(Shape input) {
+        if (input.channels() != 1 || input.rows() != 1 || input.cols() != inputSize) {
+            String hint = input.size() == inputSize ? ", add a FlattenLayer before it" : "";
+            LOG.error("FullyConnectedLayer with {} inputs can not process {}{}", inputSize, input, hint);
+            throw new IllegalArgumentException("FullyConnectedLayer with " + inputSize + " inputs can not process "
+                    + input + hint);
+        }
+        return new Shape(outputSize, 1, 1);
+    }
 
-        return prevLayerErrorGradient;
+    @Override
+    public Layer replicate() {
+        return new FullyConnectedLayer(this);
     }
 
-    private Tensor4D updateWeights(Tensor4D weights, Tensor4D weightGradient) {
-        for (int i = 0; i < weights.getChannels(); i++) {
-            for (int j = 0; j < weights.getRows(); j++) {
-                for (int k = 0; k < weights.getCols(); k++) {
-                    weights.getData()[0][i][j][k] -= learningRate * weightGradient.getData()[0][i][j][k];
-                }
-            }
-        }
-        return weights;
+    @Override
+    public Tensor4D forward(Tensor4D input) {
+        LOG.debug("FullyConnectedLayer forward");
+        this.lastInput = input;
+        return affine(input, tensorPool);
     }
 
+    @Override
+    public Tensor4D infer(Tensor4D input, InferenceContext context) {
+        return affine(input, context.getTensorPool());
+    }
 
-    private Tensor4D updateBiases(Tensor4D biases, Tensor4D biasGradient) {
-        for (int i = 0; i < biases.getChannels(); i++) {
-            for (int j = 0; j < biases.getRows(); j++) {
-                for (int k = 0; k < biases.getCols(); k++) {
-                    biases.getData()[0][i][j][k] -= learningRate * biasGradient.getData()[0][i][j][k];
-                }
-            }
-        }
-        return biases;
+    private Tensor4D affine(Tensor4D input, TensorPool pool) {
+        Tensor4D output = pool.acquire(getWeights().getDataType(), input.getBatches(), outputSize, 1, 1);
+        return input.multiply(getWeights(), output).addBiases(getBiases());
     }
 
 
+    /**
+     * Adds the gradients summed over the batch to the parameters, the optimizer updates them afterwards.
+     */
+    @Override
+    public Tensor4D backward(Tensor4D errorGradient) {
+        int batches = errorGradient.getBatches();
+        Tensor4D weightValues = getWeights();
+
+        // Gradienten für Gewichte aufaddieren: dW += dY^T * X, dY wird transponiert gelesen statt kopiert
+        Gemm.gemm(true, false, outputSize, inputSize, batches,
+                1.0, errorGradient, errorGradient.getBatchStride(), lastInput, lastInput.getBatchStride(),
+                1.0, weights.getGradient(), inputSize);
+        weights.getGradient().markModified();
+        weights.addSamples(batches);
+
+        Tensor4D biasGradient = errorGradient.sumOverBatchesForBiases(
+                tensorPool.acquire(weightValues.getDataType(), 1, outputSize, 1, 1));
+        biases.accumulate(biasGradient, batches);
+        tensorPool.release(biasGradient);
+
+        // Fehlergradienten für den vorherigen Layer berechnen: dX = dY * W
+        Tensor4D prevLayerErrorGradient = tensorPool.acquire(weightValues.getDataType(), batches, 1, 1, inputSize);
+        Gemm.gemm(false, false, batches, inputSize, outputSize,
+                1.0, errorGradient, errorGradient.getBatchStride(), weightValues, inputSize,
+                0.0, prevLayerErrorGradient, inputSize);
 
+        return prevLayerErrorGradient;
+    }
 
 }
\ No newline at end of file
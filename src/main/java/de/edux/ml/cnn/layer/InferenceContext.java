@@ -0,0 +1,35 @@
+package de.edux.ml.cnn.layer;
+
+import de.edux.ml.cnn.tensor.TensorPool;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Per-caller state of a forward-only pass through {@link Layer#infer}.
+ * <p>
+ * The layers only read their parameters during inference, every output and scratch buffer comes from the context
+ * instead. So any number of threads can run the same layers at once as long as each uses its own context, and a
+ * context reused for the next call reuses the buffers of the previous one. A context is not thread-safe.
+ */
+public final class InferenceContext {
+
+    private final TensorPool tensorPool = new TensorPool();
+    private final Map<Layer, Object> scratch = new IdentityHashMap<>();
+
+    /**
+     * Source of the outputs of the layers. Between {@code beginStep} and {@code endStep} the outputs are recycled.
+     */
+    public TensorPool getTensorPool() {
+        return tensorPool;
+    }
+
+    /**
+     * Returns the scratch object of {@code layer} in this context, it is created by {@code factory} on first use.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T scratch(Layer layer, Supplier<T> factory) {
+        return (T) scratch.computeIfAbsent(layer, key -> factory.get());
+    }
+}
@@ -20,11 +20,28 @@ public class InputLayer extends Layer {
         this.channels = channels;
     }
 
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
     @Override
     public Tensor4D forward(Tensor4D input) {
         return validateDimnsions(input);
     }
 
+    @Override
+    public Tensor4D infer(Tensor4D input, InferenceContext context) {
+        return validateDimnsions(input);
+    }
+
     private Tensor4D validateDimnsions(Tensor4D input) {
         if (input.getRows() != inputHeight || input.getCols() != inputWidth || input.getChannels() != channels) {
             throw new IllegalArgumentException("Input dimensions are not valid");
@@ -32,9 +49,28 @@ public class InputLayer extends Layer {
         return input;
     }
 
+    @Override
+    public Shape outputShape(Shape input) {
+        if (input.rows() != inputHeight || input.cols() != inputWidth || input.channels() != channels) {
+            throw new IllegalArgumentException("Input " + input + " does not match InputLayer [" + channels + "]["
+                    + inputHeight + "][" + inputWidth + "]");
+        }
+        return input;
+    }
+
+    @Override
+    public boolean isView() {
+        return true;
+    }
+
     @Override
     public Tensor4D backward(Tensor4D input) {
         return input;
     }
+
+    @Override
+    public Layer replicate() {
+        return new InputLayer(inputWidth, inputHeight, channels);
+    }
 }
 
@@ -1,12 +1,108 @@
 package de.edux.ml.cnn.layer;
 
 
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.tensor.DataType;
 import de.edux.ml.cnn.tensor.Tensor4D;
+import de.edux.ml.cnn.tensor.TensorPool;
+
+import java.util.List;
 
 public abstract class Layer {
 
+    /**
+     * Source for outputs and gradients. Outside a training step the pool simply allocates.
+     */
+    protected TensorPool tensorPool = new TensorPool();
+
     public abstract Tensor4D forward(Tensor4D input);
 
     public abstract Tensor4D backward(Tensor4D input);
 
+    /**
+     * Forward pass without training state: the parameters are only read, nothing is kept for a backward pass and
+     * the output and all temporaries come from {@code context}. Concurrent calls with different contexts are safe
+     * as long as the parameters are not trained at the same time.
+     */
+    public Tensor4D infer(Tensor4D input, InferenceContext context) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support inference");
+    }
+
+    /**
+     * Static shape propagation: checks that this layer accepts samples of shape {@code input} and returns the shape
+     * of its output samples, without running the layer.
+     *
+     * @throws IllegalArgumentException if the layer can not process {@code input}
+     */
+    public Shape outputShape(Shape input) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support shape inference");
+    }
+
+    /**
+     * @return true if forward returns its input or a view of it and backward a view of its gradient, so the layer
+     * needs no activation or gradient buffers of its own
+     */
+    public boolean isView() {
+        return false;
+    }
+
+    /**
+     * @return true if backward reads the output of the last forward pass, which then stays alive until backward
+     */
+    public boolean backwardUsesOutput() {
+        return false;
+    }
+
+    /**
+     * Converts the parameters of this layer to the given data type.
+     * Layers without parameters work with whatever data type they receive.
+     */
+    public void setDataType(DataType dataType) {
+        for (Parameter parameter : getParameters()) {
+            parameter.setDataType(dataType);
+        }
+    }
+
+    /**
+     * Lets this layer take its temporaries from a pool shared with the other layers of a network.
+     */
+    public void setTensorPool(TensorPool tensorPool) {
+        this.tensorPool = tensorPool;
+    }
+
+    /**
+     * @return the trainable parameters of this layer. Backward only accumulates into their gradients, the
+     * network's {@link de.edux.ml.cnn.optimizer.ParameterOptimizer} updates them in a separate step.
+     */
+    public List<Parameter> getParameters() {
+        return List.of();
+    }
+
+    /**
+     * Creates a copy for data-parallel training on another thread. The copy shares the parameter values with this
+     * layer but has its own gradient buffers, per-call state and scratch buffers. Its gradients are collected by
+     * {@link #accumulateReplicaGradients(List)} of this layer.
+     */
+    public Layer replicate() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support data-parallel training");
+    }
+
+    /**
+     * Adds the parameter gradients of the replicas to the gradients of this layer in list order, so the sum does not
+     * depend on thread scheduling, and clears the gradients of the replicas.
+     */
+    public void accumulateReplicaGradients(List<Layer> replicas) {
+        List<Parameter> parameters = getParameters();
+        for (Layer replica : replicas) {
+            List<Parameter> replicaParameters = replica.getParameters();
+            for (int i = 0; i < parameters.size(); i++) {
+                Parameter parameter = replicaParameters.get(i);
+                if (parameter.getSamples() > 0) {
+                    parameters.get(i).accumulate(parameter.getGradient(), parameter.getSamples());
+                    parameter.zeroGradient();
+                }
+            }
+        }
+    }
+
 }
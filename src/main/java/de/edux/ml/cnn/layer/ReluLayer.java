@@ -0,0 +1,80 @@
+package de.edux.ml.cnn.layer;
+
+import de.edux.ml.cnn.tensor.ReluMask;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ReLU activation {@code max(x, 0)} for hidden layers.
+ * <p>
+ * The backward pass only needs to know which outputs were positive, so forward keeps a {@link ReluMask} with one bit
+ * per element instead of the input. Directly after a {@link ConvolutionalLayer} the {@link
+ * de.edux.ml.cnn.network.NetworkBuilder} fuses the ReLU into the convolution (see
+ * {@link ConvolutionalLayer#fuse(ReluLayer)}), this layer then passes activations and gradients through unchanged.
+ */
+public class ReluLayer extends Layer {
+    private static final Logger LOG = LoggerFactory.getLogger(ReluLayer.class);
+
+    private final ReluMask mask = new ReluMask();
+    // true, wenn der vorherige ConvolutionalLayer die ReLU schon in seinem Vorwärtsdurchlauf anwendet
+    private boolean fused;
+
+    @Override
+    public Tensor4D forward(Tensor4D input) {
+        LOG.debug("ReluLayer forward");
+        if (fused) {
+            return input;
+        }
+        return ReluMask.relu(input, tensorPool.acquire(input.getDataType(),
+                input.getBatches(), input.getChannels(), input.getRows(), input.getCols()), mask);
+    }
+
+    @Override
+    public Tensor4D infer(Tensor4D input, InferenceContext context) {
+        if (fused) {
+            return input;
+        }
+        return ReluMask.relu(input, context.getTensorPool().acquire(input.getDataType(),
+                input.getBatches(), input.getChannels(), input.getRows(), input.getCols()), null);
+    }
+
+    @Override
+    public Tensor4D backward(Tensor4D outputGradient) {
+        LOG.debug("ReluLayer backward");
+        if (fused) {
+            return outputGradient;
+        }
+        return mask.backward(outputGradient, tensorPool.acquire(outputGradient.getDataType(),
+                outputGradient.getBatches(), outputGradient.getChannels(), outputGradient.getRows(),
+                outputGradient.getCols()));
+    }
+
+    @Override
+    public Shape outputShape(Shape input) {
+        return input;
+    }
+
+    @Override
+    public boolean isView() {
+        return fused;
+    }
+
+    /**
+     * @return true if the previous convolutional layer applies this ReLU
+     */
+    public boolean isFused() {
+        return fused;
+    }
+
+    void setFused(boolean fused) {
+        this.fused = fused;
+    }
+
+    @Override
+    public Layer replicate() {
+        ReluLayer replica = new ReluLayer();
+        replica.fused = fused;
+        return replica;
+    }
+}
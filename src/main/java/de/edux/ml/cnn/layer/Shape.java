@@ -0,0 +1,19 @@
+package de.edux.ml.cnn.layer;
+
+/**
+ * Shape of one sample {@code [channels][rows][cols]}, the batch dimension is left out because every layer keeps it.
+ */
+public record Shape(int channels, int rows, int cols) {
+
+    /**
+     * @return number of elements of one sample
+     */
+    public int size() {
+        return channels * rows * cols;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + channels + "][" + rows + "][" + cols + "]";
+    }
+}
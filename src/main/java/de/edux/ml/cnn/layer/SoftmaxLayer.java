@@ -1,74 +1,101 @@
 package de.edux.ml.cnn.layer;
 
 import de.edux.ml.cnn.tensor.Tensor4D;
+import de.edux.ml.cnn.tensor.TensorPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Softmax over all elements of one batch entry, e.g. the classes of {@code [batches][classes][1][1]}.
+ * <p>
+ * During training {@link de.edux.ml.cnn.network.Network} skips this layer at the end of the network and uses
+ * the fused {@link de.edux.ml.cnn.functions.SoftmaxCrossEntropy} on the logits instead.
+ */
 public class SoftmaxLayer extends Layer {
     private static final Logger LOG = LoggerFactory.getLogger(SoftmaxLayer.class);
 
+    private Tensor4D lastOutput;
+
     @Override
     public Tensor4D forward(Tensor4D input) {
         LOG.debug("SoftmaxLayer forward");
-        return input.softmax();
+        lastOutput = softmax(input, tensorPool);
+        return lastOutput;
     }
 
-    private Tensor4D softmax(Tensor4D input) {
-        Tensor4D output = new Tensor4D(input.getBatches(), input.getChannels(), input.getRows(), input.getCols());
-
-        for (int batch = 0; batch < input.getBatches(); batch++) {
-            for (int row = 0; row < input.getRows(); row++) {
-                for (int col = 0; col < input.getCols(); col++) {
-                    // Compute the exponential values and sum them
-                    double sumExp = 0.0;
-                    for (int channel = 0; channel < input.getChannels(); channel++) {
-                        sumExp += Math.exp(input.getData()[batch][channel][row][col]);
-                    }
-
-                    // Apply softmax transformation
-                    for (int channel = 0; channel < input.getChannels(); channel++) {
-                        double expValue = Math.exp(input.getData()[batch][channel][row][col]);
-                        output.getData()[batch][channel][row][col] = expValue / sumExp;
-                    }
-                }
-            }
-        }
+    @Override
+    public Tensor4D infer(Tensor4D input, InferenceContext context) {
+        return softmax(input, context.getTensorPool());
+    }
 
+    private static Tensor4D softmax(Tensor4D input, TensorPool pool) {
+        Tensor4D output = pool.acquire(input.getDataType(),
+                input.getBatches(), input.getChannels(), input.getRows(), input.getCols());
+        // Softmax über die letzte Dimension der Views [batches][1][1][features], also pro Sample
+        int features = input.getBatchStride();
+        input.reshape(input.getBatches(), 1, 1, features).softmax(output.reshape(input.getBatches(), 1, 1, features));
         return output;
     }
 
+    @Override
+    public Shape outputShape(Shape input) {
+        return input;
+    }
 
+    @Override
+    public boolean backwardUsesOutput() {
+        return true;
+    }
+
+    /**
+     * dL/dx_i = p_i * (dL/dp_i - sum_j p_j * dL/dp_j) with the probabilities p of the last forward pass.
+     */
     @Override
     public Tensor4D backward(Tensor4D dL_dy) {
         LOG.debug("SoftmaxLayer backward");
-
-        // Assuming dL_dy contains the gradient of the loss with respect to the output of the softmax layer
-        // and softmaxOutput is the output of the softmax layer from the forward pass.
-        Tensor4D softmaxOutput = this.forward(dL_dy);
-
-        // Compute the gradient for softmax layer
-        // This gradient will be passed to previous layers
-        Tensor4D gradient = computeSoftmaxGradient(softmaxOutput, dL_dy);
-
+        Tensor4D p = lastOutput;
+        Tensor4D g = dL_dy.contiguous();
+        Tensor4D gradient = tensorPool.acquire(p.getDataType(), p.getBatches(), p.getChannels(), p.getRows(), p.getCols());
+        int features = p.getBatchStride();
+
+        for (int batch = 0; batch < p.getBatches(); batch++) {
+            int start = batch * features;
+            if (p.isFloat()) {
+                softmaxGradient(p.getFloatBuffer(), p.getOffset() + start, g.getFloatBuffer(), g.getOffset() + start,
+                        gradient.getFloatBuffer(), gradient.getOffset() + start, features);
+            } else {
+                softmaxGradient(p.getBuffer(), p.getOffset() + start, g.getBuffer(), g.getOffset() + start,
+                        gradient.getBuffer(), gradient.getOffset() + start, features);
+            }
+        }
+        gradient.markModified();
         return gradient;
     }
 
-    private Tensor4D computeSoftmaxGradient(Tensor4D softmaxOutput, Tensor4D dL_dy) {
-        Tensor4D gradient = new Tensor4D(softmaxOutput.getBatches(), softmaxOutput.getChannels(), softmaxOutput.getRows(), softmaxOutput.getCols());
+    @Override
+    public Layer replicate() {
+        return new SoftmaxLayer();
+    }
 
-        for (int b = 0; b < softmaxOutput.getBatches(); b++) {
-            for (int c = 0; c < softmaxOutput.getChannels(); c++) {
-                for (int r = 0; r < softmaxOutput.getRows(); r++) {
-                    for (int col = 0; col < softmaxOutput.getCols(); col++) {
-                        // Gradient for softmax and cross-entropy is the difference between softmax output and true labels
-                        gradient.getData()[b][c][r][col] = softmaxOutput.getData()[b][c][r][col] - dL_dy.getData()[b][c][r][col];
-                    }
-                }
-            }
+    private static void softmaxGradient(double[] p, int pOffset, double[] g, int gOffset,
+                                        double[] result, int offset, int length) {
+        double dot = 0.0;
+        for (int i = 0; i < length; i++) {
+            dot += p[pOffset + i] * g[gOffset + i];
+        }
+        for (int i = 0; i < length; i++) {
+            result[offset + i] = p[pOffset + i] * (g[gOffset + i] - dot);
         }
-
-        return gradient;
     }
 
-
+    private static void softmaxGradient(float[] p, int pOffset, float[] g, int gOffset,
+                                        float[] result, int offset, int length) {
+        float dot = 0.0f;
+        for (int i = 0; i < length; i++) {
+            dot += p[pOffset + i] * g[gOffset + i];
+        }
+        for (int i = 0; i < length; i++) {
+            result[offset + i] = p[pOffset + i] * (g[gOffset + i] - dot);
+        }
+    }
 }
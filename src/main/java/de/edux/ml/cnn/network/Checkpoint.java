@@ -0,0 +1,469 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.InputLayer;
+import de.edux.ml.cnn.layer.Layer;
+import de.edux.ml.cnn.layer.ReluLayer;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary checkpoint of the layers of a {@link Network} and their trained parameters.
+ * <p>
+ * Layout, all numbers little-endian:
+ * <pre>
+ * magic "EDUXCNN\0", int version, long data offset
+ * string data type, int layer count
+ * per layer: string type, its constructor arguments, int parameter count,
+ *            per parameter: string name, int[4] shape, long position relative to the data offset
+ * int 1 if training state follows: string optimizer, int epoch, int trained batches of the epoch,
+ *            int batch size, double loss of the epoch so far, int sample count, long position of the sample order,
+ *            int parameter count, per parameter: int update count, int state buffers, long position per buffer
+ * blobs, each starting at a multiple of 64 bytes
+ * </pre>
+ * Strings are an int byte count followed by UTF-8. The blobs hold the values in the data type of the network, so
+ * loading does not parse elements: every blob is memory-mapped and bulk-copied into the parameter of the rebuilt
+ * layer, which is a plain memory copy on little-endian hardware. A checkpoint of an MNIST model loads in a few
+ * milliseconds, see {@link NetworkBuilder#buildInferenceModel()} to serve it without training data.
+ * <p>
+ * Saving writes a temporary file next to the target, forces it to disk, renames it and forces the directory, so a
+ * reader never sees a partially written checkpoint and a finished one survives a power failure. A failed save
+ * deletes its temporary file. Checkpoints written during training by a {@link CheckpointWriter} also hold the
+ * optimizer state and the position in the epoch, the builder returned by {@link #load} then continues training
+ * from there.
+ */
+public final class Checkpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Checkpoint.class);
+
+    private static final byte[] MAGIC = "EDUXCNN\0".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int ALIGNMENT = 64;
+    private static final int PREFIX_BYTES = 8 + 4 + 8;
+
+    private Checkpoint() {
+    }
+
+    public static void save(Network network, Path path) throws IOException {
+        save(network.getLayers(), network.getDataType(), path);
+    }
+
+    public static void save(List<Layer> layers, DataType dataType, Path path) throws IOException {
+        List<Tensor4D> values = new ArrayList<>();
+        for (Layer layer : layers) {
+            for (Parameter parameter : layer.getParameters()) {
+                values.add(parameter.getValue().toDataType(dataType));
+            }
+        }
+        write(layers, dataType, values, null, path);
+    }
+
+    /**
+     * @param values   parameter values of all layers in order, e.g. copied by a {@link TrainingSnapshot}
+     * @param training optimizer state and position to continue training from, or null for a model only
+     */
+    static void write(List<Layer> layers, DataType dataType, List<Tensor4D> values, TrainingSnapshot training,
+                      Path path) throws IOException {
+        HeaderWriter header = new HeaderWriter();
+        header.putString(dataType.name());
+        header.putInt(layers.size());
+        List<Tensor4D> blobs = new ArrayList<>();
+        int index = 0;
+        for (Layer layer : layers) {
+            writeLayer(layer, header);
+            List<Parameter> parameters = layer.getParameters();
+            header.putInt(parameters.size());
+            for (Parameter parameter : parameters) {
+                Tensor4D value = values.get(index++);
+                header.putString(parameter.getName());
+                header.putInt(value.getBatches());
+                header.putInt(value.getChannels());
+                header.putInt(value.getRows());
+                header.putInt(value.getCols());
+                header.putLong(header.reserve(value, dataType));
+                blobs.add(value);
+            }
+        }
+
+        header.putInt(training != null ? 1 : 0);
+        if (training != null) {
+            header.putString(training.getOptimizer());
+            header.putInt(training.getEpoch());
+            header.putInt(training.getBatch());
+            header.putInt(training.getBatchSize());
+            header.putDouble(training.getLoss());
+            int[] permutation = training.getPermutation();
+            header.putInt(permutation.length);
+            header.putLong(header.reserve((long) permutation.length * Integer.BYTES));
+            header.putInt(training.getSteps().length);
+            for (int p = 0; p < training.getSteps().length; p++) {
+                List<Tensor4D> state = training.getOptimizerState().get(p);
+                header.putInt(training.getSteps()[p]);
+                header.putInt(state.size());
+                for (Tensor4D slot : state) {
+                    header.putLong(header.reserve(slot, dataType));
+                    blobs.add(slot);
+                }
+            }
+        }
+        long dataOffset = align(PREFIX_BYTES + header.size());
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            writeFile(temporary, index, blobs, training, dataType, dataOffset, header);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // keine halben Dateien liegen lassen, die Aufräumlogik des CheckpointWriter sieht nur fertige Checkpoints
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        forceDirectory(path.toAbsolutePath().getParent());
+    }
+
+    private static void writeFile(Path temporary, int parameterBlobs, List<Tensor4D> blobs, TrainingSnapshot training,
+                                  DataType dataType, long dataOffset, HeaderWriter header) throws IOException {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer prefix = ByteBuffer.allocate(PREFIX_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            prefix.put(MAGIC).putInt(VERSION).putLong(dataOffset).flip();
+            writeFully(channel, prefix, 0);
+            writeFully(channel, header.toBuffer(), PREFIX_BYTES);
+            // Blobs in der Reihenfolge, in der reserve() ihre Positionen vergeben hat
+            long blobOffset = dataOffset;
+            int blob = 0;
+            for (int i = 0; i < parameterBlobs; i++) {
+                blobOffset = writeBlob(channel, blobs.get(blob++), dataType, blobOffset);
+            }
+            if (training != null) {
+                int[] permutation = training.getPermutation();
+                ByteBuffer buffer = ByteBuffer.allocate(permutation.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.asIntBuffer().put(permutation);
+                writeFully(channel, buffer, blobOffset);
+                blobOffset = align(blobOffset + buffer.capacity());
+                while (blob < blobs.size()) {
+                    blobOffset = writeBlob(channel, blobs.get(blob++), dataType, blobOffset);
+                }
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces the directory entry of the renamed file to disk, otherwise the rename can be lost on a power failure.
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows öffnet keine Verzeichnisse als Kanal, dort ist die Umbenennung ohnehin synchron
+            LOG.debug("Directory {} can not be forced to disk", directory);
+        }
+    }
+
+    private static long writeBlob(FileChannel channel, Tensor4D tensor, DataType dataType, long offset)
+            throws IOException {
+        Tensor4D value = tensor.toDataType(dataType).contiguous();
+        ByteBuffer blob = ByteBuffer.allocate(value.size() * dataType.getBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        if (value.isFloat()) {
+            blob.asFloatBuffer().put(value.getFloatBuffer(), value.getOffset(), value.size());
+        } else {
+            blob.asDoubleBuffer().put(value.getBuffer(), value.getOffset(), value.size());
+        }
+        writeFully(channel, blob, offset);
+        return align(offset + blob.capacity());
+    }
+
+    /**
+     * Rebuilds the layers of a checkpoint with their parameters.
+     *
+     * @return builder with the layers and data type of the checkpoint, to be built for inference or further training
+     */
+    public static NetworkBuilder load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < PREFIX_BYTES) {
+                throw invalid(path, "is truncated in the header");
+            }
+            ByteBuffer prefix = channel.map(FileChannel.MapMode.READ_ONLY, 0, PREFIX_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            prefix.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw invalid(path, "has no checkpoint magic number");
+            }
+            int version = prefix.getInt();
+            if (version != VERSION) {
+                throw invalid(path, "has version " + version + ", only version " + VERSION + " is supported");
+            }
+            long dataOffset = prefix.getLong();
+            if (dataOffset < PREFIX_BYTES || dataOffset > fileSize || dataOffset > Integer.MAX_VALUE) {
+                throw invalid(path, "has an invalid data offset " + dataOffset);
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, PREFIX_BYTES, dataOffset - PREFIX_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                DataType dataType = readDataType(header, path);
+                NetworkBuilder builder = new NetworkBuilder().dataType(dataType);
+                List<Tensor4D> values = new ArrayList<>();
+                int layerCount = header.getInt();
+                for (int i = 0; i < layerCount; i++) {
+                    Layer layer = readLayer(header, path);
+                    List<Parameter> parameters = layer.getParameters();
+                    int parameterCount = header.getInt();
+                    if (parameterCount != parameters.size()) {
+                        throw invalid(path, "has " + parameterCount + " parameters for layer " + i + ", expected "
+                                + parameters.size());
+                    }
+                    for (Parameter parameter : parameters) {
+                        String name = getString(header);
+                        int[] shape = {header.getInt(), header.getInt(), header.getInt(), header.getInt()};
+                        long position = header.getLong();
+                        parameter.setDataType(dataType);
+                        Tensor4D value = parameter.getValue();
+                        if (!name.equals(parameter.getName()) || shape[0] != value.getBatches()
+                                || shape[1] != value.getChannels() || shape[2] != value.getRows()
+                                || shape[3] != value.getCols()) {
+                            throw invalid(path, "has parameter " + name + " " + Arrays.toString(shape)
+                                    + " for layer " + i + ", expected " + parameter.getName() + " " + value);
+                        }
+                        long bytes = (long) value.size() * dataType.getBytes();
+                        if (position < 0 || dataOffset + position + bytes > fileSize) {
+                            throw invalid(path, "is truncated in parameter " + name + " of layer " + i);
+                        }
+                        readBlob(channel, dataOffset + position, bytes, value);
+                        values.add(value);
+                    }
+                    builder.addLayer(layer);
+                }
+                if (header.getInt() == 1) {
+                    builder.resume(readTraining(channel, header, dataOffset, dataType, values, path));
+                }
+                LOG.info("Loaded checkpoint {} with {} layers", path, layerCount);
+                return builder;
+            } catch (BufferUnderflowException e) {
+                throw invalid(path, "is truncated in the header");
+            }
+        }
+    }
+
+    private static TrainingSnapshot readTraining(FileChannel channel, ByteBuffer header, long dataOffset,
+                                                 DataType dataType, List<Tensor4D> values, Path path)
+            throws IOException {
+        String optimizer = getString(header);
+        int epoch = header.getInt();
+        int batch = header.getInt();
+        int batchSize = header.getInt();
+        double loss = header.getDouble();
+        int samples = header.getInt();
+        long permutationPosition = header.getLong();
+        checkBlob(channel, dataOffset + permutationPosition, (long) samples * Integer.BYTES, path);
+        int[] permutation = new int[samples];
+        channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + permutationPosition, (long) permutation.length * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(permutation);
+
+        int parameterCount = header.getInt();
+        if (parameterCount != values.size()) {
+            throw invalid(path, "has optimizer state for " + parameterCount + " parameters, expected " + values.size());
+        }
+        int[] steps = new int[parameterCount];
+        List<List<Tensor4D>> optimizerState = new ArrayList<>();
+        for (int p = 0; p < parameterCount; p++) {
+            Tensor4D value = values.get(p);
+            steps[p] = header.getInt();
+            int slots = header.getInt();
+            List<Tensor4D> state = new ArrayList<>();
+            for (int slot = 0; slot < slots; slot++) {
+                long position = header.getLong();
+                Tensor4D buffer = new Tensor4D(dataType,
+                        value.getBatches(), value.getChannels(), value.getRows(), value.getCols());
+                long bytes = (long) buffer.size() * dataType.getBytes();
+                checkBlob(channel, dataOffset + position, bytes, path);
+                readBlob(channel, dataOffset + position, bytes, buffer);
+                state.add(buffer);
+            }
+            optimizerState.add(state);
+        }
+        TrainingSnapshot training = new TrainingSnapshot(optimizer, values, optimizerState, steps);
+        training.setPosition(epoch, batch, batchSize, loss, permutation);
+        return training;
+    }
+
+    private static void checkBlob(FileChannel channel, long offset, long bytes, Path path) throws IOException {
+        if (offset < 0 || bytes < 0 || offset + bytes > channel.size()) {
+            throw invalid(path, "is truncated in the training state");
+        }
+    }
+
+    // Typ und Konstruktorargumente, neue Layer-Typen brauchen hier und in readLayer einen Eintrag
+    private static void writeLayer(Layer layer, HeaderWriter header) {
+        if (layer instanceof InputLayer input) {
+            header.putString("InputLayer");
+            header.putInt(input.getInputWidth());
+            header.putInt(input.getInputHeight());
+            header.putInt(input.getChannels());
+        } else if (layer instanceof ConvolutionalLayer convolution) {
+            header.putString("ConvolutionalLayer");
+            header.putInt(convolution.getNumberOfFilters());
+            header.putInt(convolution.getFilterSize());
+            header.putInt(convolution.getStride());
+            header.putInt(convolution.getPadding());
+            header.putInt(convolution.getChannels());
+        } else if (layer instanceof FlattenLayer) {
+            header.putString("FlattenLayer");
+        } else if (layer instanceof FullyConnectedLayer fullyConnected) {
+            header.putString("FullyConnectedLayer");
+            header.putInt(fullyConnected.getInputSize());
+            header.putInt(fullyConnected.getOutputSize());
+            header.putDouble(fullyConnected.getLearningRate());
+        } else if (layer instanceof SoftmaxLayer) {
+            header.putString("SoftmaxLayer");
+        } else if (layer instanceof ReluLayer) {
+            header.putString("ReluLayer");
+        } else {
+            LOG.error("Layer {} can not be saved in a checkpoint", layer.getClass().getName());
+            throw new IllegalArgumentException("Layer " + layer.getClass().getName() + " can not be saved in a checkpoint");
+        }
+    }
+
+    private static Layer readLayer(ByteBuffer header, Path path) {
+        String type = getString(header);
+        return switch (type) {
+            case "InputLayer" -> new InputLayer(header.getInt(), header.getInt(), header.getInt());
+            case "ConvolutionalLayer" -> new ConvolutionalLayer(
+                    header.getInt(), header.getInt(), header.getInt(), header.getInt(), header.getInt());
+            case "FlattenLayer" -> new FlattenLayer();
+            case "FullyConnectedLayer" -> new FullyConnectedLayer(header.getInt(), header.getInt(), header.getDouble());
+            case "SoftmaxLayer" -> new SoftmaxLayer();
+            case "ReluLayer" -> new ReluLayer();
+            default -> throw invalid(path, "has the unknown layer type " + type);
+        };
+    }
+
+    private static DataType readDataType(ByteBuffer header, Path path) {
+        String name = getString(header);
+        for (DataType dataType : DataType.values()) {
+            if (dataType.name().equals(name)) {
+                return dataType;
+            }
+        }
+        throw invalid(path, "has the unknown data type " + name);
+    }
+
+    private static void readBlob(FileChannel channel, long offset, long bytes, Tensor4D value) throws IOException {
+        ByteBuffer blob = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (value.isFloat()) {
+            blob.asFloatBuffer().get(value.getFloatBuffer(), 0, value.size());
+        } else {
+            blob.asDoubleBuffer().get(value.getBuffer(), 0, value.size());
+        }
+        // abgeleitete Caches (z.B. transformierte Winograd-Filter) neu berechnen
+        value.markModified();
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static IllegalArgumentException invalid(Path path, String reason) {
+        LOG.error("Checkpoint {} {}", path, reason);
+        return new IllegalArgumentException("Checkpoint " + path + " " + reason);
+    }
+
+    // Wachsender Little-Endian-Puffer für den Header, dessen Länge erst am Ende feststeht
+    private static final class HeaderWriter {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        private long dataPosition;
+
+        /**
+         * @return position of the next blob relative to the data offset, the following one starts aligned after it
+         */
+        long reserve(long bytes) {
+            long position = dataPosition;
+            dataPosition = align(dataPosition + bytes);
+            return position;
+        }
+
+        long reserve(Tensor4D tensor, DataType dataType) {
+            return reserve((long) tensor.size() * dataType.getBytes());
+        }
+
+        void putInt(int value) {
+            ensure(Integer.BYTES).putInt(value);
+        }
+
+        void putLong(long value) {
+            ensure(Long.BYTES).putLong(value);
+        }
+
+        void putDouble(double value) {
+            ensure(Double.BYTES).putDouble(value);
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length).put(bytes);
+        }
+
+        int size() {
+            return buffer.position();
+        }
+
+        ByteBuffer toBuffer() {
+            return buffer.duplicate().flip();
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            return buffer;
+        }
+    }
+}
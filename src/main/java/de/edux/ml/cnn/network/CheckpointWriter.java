@@ -0,0 +1,187 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.layer.Layer;
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.optimizer.ParameterOptimizer;
+import de.edux.ml.cnn.tensor.DataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Periodic checkpoints of a training run that do not wait for the disk.
+ * <p>
+ * Every {@code interval} batches the training thread copies parameters, optimizer state and epoch position into
+ * a snapshot that is allocated once, which stalls training for a memory copy only. A dedicated thread writes the
+ * snapshot as a {@link Checkpoint} ({@code checkpoint-<run>-<step>.ckpt}, forced to disk and renamed atomically) and
+ * then deletes all but the newest {@code retain} checkpoints of its run. While a write is still running the next
+ * checkpoint is skipped instead of blocking the training thread.
+ * <p>
+ * Every writer is a run of its own, identified by its start time. Checkpoints of other runs in the same directory,
+ * e.g. the one a run was resumed from, are never deleted. Resume with
+ * {@code Checkpoint.load(CheckpointWriter.latest(directory))}, which picks the newest checkpoint of the newest run.
+ */
+public final class CheckpointWriter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CheckpointWriter.class);
+
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".ckpt";
+    private static final Pattern NAME = Pattern.compile("checkpoint-\\d{13}-\\d{12}\\.ckpt");
+    // Startzeit des letzten Laufs in Millisekunden, zwei Writer derselben Millisekunde bekommen verschiedene Läufe
+    private static final AtomicLong LAST_RUN = new AtomicLong();
+
+    private final Path directory;
+    private final int interval;
+    private final int retain;
+    // Namensanfang der Checkpoints dieses Laufs, feste Breite, damit die Namen nach Lauf und Schritt sortieren
+    private final String runPrefix;
+    private final ExecutorService writer;
+    private TrainingSnapshot snapshot;
+    private Future<?> pending;
+    private volatile long written;
+    private long skipped;
+
+    /**
+     * @param interval number of batches between two checkpoints
+     * @param retain   number of checkpoints kept in {@code directory}
+     */
+    public CheckpointWriter(Path directory, int interval, int retain) {
+        if (interval < 1 || retain < 1) {
+            LOG.error("Checkpoint interval and retained checkpoints must be at least 1, got {} and {}", interval, retain);
+            throw new IllegalArgumentException("Checkpoint interval and retained checkpoints must be at least 1, got "
+                    + interval + " and " + retain);
+        }
+        this.directory = directory;
+        this.interval = interval;
+        this.retain = retain;
+        long run = LAST_RUN.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+        this.runPrefix = String.format("%s%013d-", PREFIX, run);
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cnn-checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param step number of batches trained since the start of the run
+     */
+    public boolean isDue(long step) {
+        return step % interval == 0;
+    }
+
+    /**
+     * Copies the training state and queues it for writing, called by the training thread between two batches.
+     *
+     * @return false if the previous checkpoint is still being written and this one was skipped
+     */
+    boolean submit(List<Layer> layers, DataType dataType, List<Parameter> parameters,
+                   ParameterOptimizer parameterOptimizer, long step, int epoch, int batch, int batchSize,
+                   double loss, int[] permutation) {
+        if (pending != null && !pending.isDone()) {
+            skipped++;
+            LOG.warn("Checkpoint of step {} skipped, the previous one is still being written", step);
+            return false;
+        }
+        if (snapshot == null) {
+            snapshot = TrainingSnapshot.allocate(parameters, parameterOptimizer);
+        }
+        snapshot.capture(parameters, parameterOptimizer, epoch, batch, batchSize, loss, permutation);
+        TrainingSnapshot captured = snapshot;
+        Path path = directory.resolve(String.format("%s%012d%s", runPrefix, step, SUFFIX));
+        pending = writer.submit(() -> {
+            try {
+                Files.createDirectories(directory);
+                Checkpoint.write(layers, dataType, captured.getValues(), captured, path);
+                written++;
+                deleteOldCheckpoints();
+                LOG.info("Checkpoint {} written", path);
+            } catch (IOException | RuntimeException e) {
+                // Ein fehlgeschlagener Checkpoint beendet das Training nicht, der nächste versucht es erneut
+                LOG.error("Checkpoint {} could not be written", path, e);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Waits until the last queued checkpoint is on disk.
+     */
+    public void awaitPending() {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing a checkpoint", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Writing a checkpoint failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return number of checkpoints written so far, only exact after {@link #awaitPending()}
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return number of checkpoints skipped because the previous one was still being written
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return newest checkpoint of the newest run in {@code directory}, or null if there is none
+     */
+    public static Path latest(Path directory) throws IOException {
+        List<Path> checkpoints = checkpoints(directory, PREFIX);
+        return checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+    }
+
+    @Override
+    public void close() {
+        try {
+            awaitPending();
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    // nur die eigenen Checkpoints, ältere Läufe mit höheren Schritten würden sonst die neuen verdrängen
+    private void deleteOldCheckpoints() throws IOException {
+        List<Path> checkpoints = checkpoints(directory, runPrefix);
+        for (int i = 0; i < checkpoints.size() - retain; i++) {
+            Files.deleteIfExists(checkpoints.get(i));
+        }
+    }
+
+    // nach Lauf und Schritt sortiert, beide Nummern im Namen haben eine feste Breite
+    private static List<Path> checkpoints(Path directory, String prefix) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(prefix) && NAME.matcher(name).matches();
+            }).sorted().toList();
+        }
+    }
+}
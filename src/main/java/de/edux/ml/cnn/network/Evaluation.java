@@ -0,0 +1,177 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Result of one pass over a dataset: mean loss, accuracy, per-class accuracy and the confusion matrix.
+ * <p>
+ * Rows of the confusion matrix are the actual classes, columns the predicted ones. The class of a sample is the
+ * index of its largest output and of its largest label value, over all elements of its batch entry.
+ */
+public final class Evaluation {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Evaluation.class);
+
+    private final long[][] confusionMatrix;
+    private final long samples;
+    private final double totalLoss;
+
+    private Evaluation(long[][] confusionMatrix, long samples, double totalLoss) {
+        this.confusionMatrix = confusionMatrix;
+        this.samples = samples;
+        this.totalLoss = totalLoss;
+    }
+
+    public int getClasses() {
+        return confusionMatrix.length;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getCorrect() {
+        long correct = 0;
+        for (int i = 0; i < confusionMatrix.length; i++) {
+            correct += confusionMatrix[i][i];
+        }
+        return correct;
+    }
+
+    /**
+     * @return accuracy in percent
+     */
+    public double getAccuracy() {
+        return samples == 0 ? 0.0 : (double) getCorrect() / samples * 100;
+    }
+
+    /**
+     * @return mean cross entropy per sample
+     */
+    public double getLoss() {
+        return samples == 0 ? 0.0 : totalLoss / samples;
+    }
+
+    /**
+     * @return accuracy in percent of the samples whose actual class is {@code actualClass}, NaN without samples
+     */
+    public double getClassAccuracy(int actualClass) {
+        long total = 0;
+        for (long count : confusionMatrix[actualClass]) {
+            total += count;
+        }
+        return total == 0 ? Double.NaN : (double) confusionMatrix[actualClass][actualClass] / total * 100;
+    }
+
+    /**
+     * @return number of samples of class {@code actualClass} that were predicted as {@code predictedClass}
+     */
+    public long getCount(int actualClass, int predictedClass) {
+        return confusionMatrix[actualClass][predictedClass];
+    }
+
+    public long[][] getConfusionMatrix() {
+        long[][] copy = new long[confusionMatrix.length][];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = confusionMatrix[i].clone();
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(String.format("Accuracy: %.2f%%, Loss: %.4f, Samples: %d%n",
+                getAccuracy(), getLoss(), samples));
+        result.append("actual\\predicted");
+        for (int predicted = 0; predicted < getClasses(); predicted++) {
+            result.append(String.format("%7d", predicted));
+        }
+        result.append(String.format("   accuracy%n"));
+        for (int actual = 0; actual < getClasses(); actual++) {
+            result.append(String.format("%16d", actual));
+            for (int predicted = 0; predicted < getClasses(); predicted++) {
+                result.append(String.format("%7d", confusionMatrix[actual][predicted]));
+            }
+            result.append(String.format("   %7.2f%%%n", getClassAccuracy(actual)));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Collects the counts of the batches one worker evaluates, the workers are merged at the end.
+     */
+    static final class Accumulator {
+        private long[][] confusionMatrix;
+        private long samples;
+        private double totalLoss;
+
+        /**
+         * @param meanLoss loss of the batch averaged over its samples
+         */
+        void add(Tensor4D outputs, Tensor4D labels, double meanLoss) {
+            int batches = outputs.getBatches();
+            int classes = outputs.size() / batches;
+            if (labels.getBatches() != batches || labels.size() / batches != classes) {
+                LOG.error("Labels {} do not match outputs {}", labels, outputs);
+                throw new IllegalArgumentException("Labels " + labels + " do not match outputs " + outputs);
+            }
+            if (confusionMatrix == null) {
+                confusionMatrix = new long[classes][classes];
+            }
+            outputs = outputs.contiguous();
+            labels = labels.contiguous();
+            for (int batch = 0; batch < batches; batch++) {
+                confusionMatrix[argMax(labels, batch, classes)][argMax(outputs, batch, classes)]++;
+            }
+            samples += batches;
+            totalLoss += meanLoss * batches;
+        }
+
+        static Evaluation merge(List<Accumulator> accumulators) {
+            long[][] confusionMatrix = null;
+            long samples = 0;
+            double totalLoss = 0.0;
+            // in Reihenfolge der Worker addieren, damit der Verlust nicht vom Scheduling abhängt
+            for (Accumulator accumulator : accumulators) {
+                if (accumulator.confusionMatrix != null) {
+                    if (confusionMatrix == null) {
+                        confusionMatrix = new long[accumulator.confusionMatrix.length][accumulator.confusionMatrix.length];
+                    }
+                    for (int i = 0; i < confusionMatrix.length; i++) {
+                        for (int j = 0; j < confusionMatrix.length; j++) {
+                            confusionMatrix[i][j] += accumulator.confusionMatrix[i][j];
+                        }
+                    }
+                }
+                samples += accumulator.samples;
+                totalLoss += accumulator.totalLoss;
+            }
+            return new Evaluation(confusionMatrix == null ? new long[0][0] : confusionMatrix, samples, totalLoss);
+        }
+
+        private static int argMax(Tensor4D tensor, int batch, int classes) {
+            int start = tensor.getOffset() + batch * classes;
+            int maxIndex = 0;
+            if (tensor.isFloat()) {
+                float[] values = tensor.getFloatBuffer();
+                for (int i = 1; i < classes; i++) {
+                    if (values[start + i] > values[start + maxIndex]) {
+                        maxIndex = i;
+                    }
+                }
+            } else {
+                double[] values = tensor.getBuffer();
+                for (int i = 1; i < classes; i++) {
+                    if (values[start + i] > values[start + maxIndex]) {
+                        maxIndex = i;
+                    }
+                }
+            }
+            return maxIndex;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.layer.InferenceContext;
+import de.edux.ml.cnn.layer.Layer;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import de.edux.ml.cnn.tensor.TensorPool;
+
+import java.util.List;
+
+/**
+ * Frozen, forward-only view of a {@link Network} for serving predictions from many threads, or of layers loaded
+ * from a {@link Checkpoint} by {@link NetworkBuilder#buildInferenceModel()}.
+ * <p>
+ * The parameters are shared with the layers and only read. Every call runs {@link Layer#infer} with a context of
+ * its own, so no layer keeps activations for a backward pass and concurrent calls need no locking. Without an
+ * explicit context each thread gets one that is reused for all its calls, {@link #predict(Tensor4D, InferenceContext)}
+ * takes a context per request instead, e.g. from a pool of worker contexts. The network must not be trained while
+ * predictions are running.
+ */
+public final class InferenceModel {
+
+    private final List<Layer> layers;
+    private final DataType dataType;
+    private final ThreadLocal<InferenceContext> contexts = ThreadLocal.withInitial(InferenceContext::new);
+
+    InferenceModel(List<Layer> layers, DataType dataType) {
+        this.layers = layers;
+        this.dataType = dataType;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * @param images batch of inputs, converted to the data type of the network if necessary
+     * @return the outputs of the network in a new tensor
+     */
+    public Tensor4D predict(Tensor4D images) {
+        return predict(images, contexts.get());
+    }
+
+    /**
+     * Predicts with the buffers of {@code context}, which must not be used by another thread at the same time.
+     */
+    public Tensor4D predict(Tensor4D images, InferenceContext context) {
+        TensorPool pool = context.getTensorPool();
+        pool.beginStep();
+        try {
+            Tensor4D output = images.toDataType(dataType);
+            for (Layer layer : layers) {
+                output = layer.infer(output, context);
+            }
+            // Die Ausgabe gehört dem Pool des Kontexts, der Aufrufer bekommt eine eigene Kopie
+            return output.reshape(new Tensor4D(output.getDataType(),
+                    output.getBatches(), output.getChannels(), output.getRows(), output.getCols()));
+        } finally {
+            pool.endStep();
+        }
+    }
+}
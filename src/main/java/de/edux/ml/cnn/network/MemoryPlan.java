@@ -0,0 +1,181 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.layer.Layer;
+import de.edux.ml.cnn.layer.Shape;
+import de.edux.ml.cnn.tensor.DataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Static plan of the activation and gradient buffers of one training step, created by {@link NetworkBuilder}.
+ * <p>
+ * The shapes are propagated from the input through every layer with {@link Layer#outputShape}, so incompatible
+ * layers fail when the network is built instead of in the first batch. The plan then replays the step the way
+ * {@link Network} runs it: forward acquires the output of every layer that is not a view, the loss acquires the
+ * gradient of the logits and backward acquires the input gradients. A buffer is released as soon as no later part of
+ * the step reads it, e.g. the output of a layer after the backward pass of the next layer, and the next buffer goes
+ * into the first free arena that is large enough. The arenas are allocated once in the {@link
+ * de.edux.ml.cnn.tensor.TensorPool} of the network, which places the buffers in the same order, so the step only
+ * needs the memory that is alive at the same time.
+ * <p>
+ * All buffers have the batch as outer dimension, the sizes are therefore planned per sample.
+ */
+public final class MemoryPlan {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryPlan.class);
+
+    private final List<Shape> shapes;
+    private final int[] arenaSizes;
+    private final long bufferElements;
+    private final int buffers;
+
+    private MemoryPlan(List<Shape> shapes, int[] arenaSizes, long bufferElements, int buffers) {
+        this.shapes = shapes;
+        this.arenaSizes = arenaSizes;
+        this.bufferElements = bufferElements;
+        this.buffers = buffers;
+    }
+
+    /**
+     * @return the input shape followed by the output shape of every layer
+     * @throws IllegalArgumentException naming the first layer that can not process the output of its predecessor
+     */
+    static List<Shape> inferShapes(List<Layer> layers, Shape input) {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(input);
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            try {
+                shapes.add(layer.outputShape(shapes.get(i)));
+            } catch (IllegalArgumentException e) {
+                LOG.error("Layer {} ({}) does not fit its input {}", i, layer.getClass().getSimpleName(), shapes.get(i));
+                throw new IllegalArgumentException("Layer " + i + " (" + layer.getClass().getSimpleName() + "): "
+                        + e.getMessage(), e);
+            }
+        }
+        return List.copyOf(shapes);
+    }
+
+    /**
+     * @param trainingLayers number of layers run by a training step, a trailing softmax is part of the loss
+     */
+    static MemoryPlan create(List<Layer> layers, Shape input, int trainingLayers) {
+        List<Shape> shapes = inferShapes(layers, input);
+        Arenas arenas = new Arenas();
+
+        // Besitzer der Aktivierung vor Layer j: Arena oder -1 für die Eingabe, Views übernehmen den Besitzer
+        int[] owners = new int[trainingLayers + 1];
+        owners[0] = -1;
+        for (int j = 0; j < trainingLayers; j++) {
+            owners[j + 1] = layers.get(j).isView() ? owners[j] : arenas.acquire(shapes.get(j + 1).size());
+        }
+        if (trainingLayers == 0) {
+            return new MemoryPlan(shapes, arenas.sizes(), arenas.bufferElements, arenas.buffers);
+        }
+
+        // Gradient der Logits, danach werden die Logits nur noch gebraucht, wenn der letzte Layer sie liest
+        int gradient = arenas.acquire(shapes.get(trainingLayers).size());
+        releaseInput(layers, owners, trainingLayers, arenas);
+        for (int j = trainingLayers - 1; j >= 0; j--) {
+            if (!layers.get(j).isView()) {
+                int inputGradient = arenas.acquire(shapes.get(j).size());
+                arenas.release(gradient);
+                gradient = inputGradient;
+            }
+            releaseInput(layers, owners, j, arenas);
+        }
+        return new MemoryPlan(shapes, arenas.sizes(), arenas.bufferElements, arenas.buffers);
+    }
+
+    /**
+     * Releases the input of layer {@code j} after its backward pass, unless the previous layer still reads it as its
+     * own input (a view) or output.
+     */
+    private static void releaseInput(List<Layer> layers, int[] owners, int j, Arenas arenas) {
+        if (j > 0 && owners[j] != owners[j - 1] && !layers.get(j - 1).backwardUsesOutput()) {
+            arenas.release(owners[j]);
+        }
+    }
+
+    // Erste passende freie Arena, sonst eine neue in genau der Größe. Der TensorPool wählt zur Laufzeit genauso.
+    private static final class Arenas {
+        private final List<Integer> sizes = new ArrayList<>();
+        private final List<Boolean> inUse = new ArrayList<>();
+        private long bufferElements;
+        private int buffers;
+
+        int acquire(int size) {
+            bufferElements += size;
+            buffers++;
+            for (int i = 0; i < sizes.size(); i++) {
+                if (!inUse.get(i) && sizes.get(i) >= size) {
+                    inUse.set(i, true);
+                    return i;
+                }
+            }
+            sizes.add(size);
+            inUse.add(true);
+            return sizes.size() - 1;
+        }
+
+        void release(int arena) {
+            if (arena >= 0) {
+                inUse.set(arena, false);
+            }
+        }
+
+        int[] sizes() {
+            return sizes.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @return the input shape followed by the output shape of every layer
+     */
+    public List<Shape> getShapes() {
+        return shapes;
+    }
+
+    public Shape getOutputShape() {
+        return shapes.get(shapes.size() - 1);
+    }
+
+    /**
+     * @return capacity of every arena in elements for batches of {@code batchSize} samples
+     */
+    public int[] getArenaSizes(int batchSize) {
+        int[] sizes = new int[arenaSizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Math.multiplyExact(arenaSizes[i], batchSize);
+        }
+        return sizes;
+    }
+
+    /**
+     * @return bytes of all arenas, the peak of the activations and gradients of a training step
+     */
+    public long getPeakBytes(int batchSize, DataType dataType) {
+        long elements = 0;
+        for (int size : arenaSizes) {
+            elements += size;
+        }
+        return elements * batchSize * dataType.getBytes();
+    }
+
+    /**
+     * @return bytes of the same buffers if every one of them stayed alive until the end of the step
+     */
+    public long getUnplannedBytes(int batchSize, DataType dataType) {
+        return bufferElements * batchSize * dataType.getBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryPlan{shapes=" + shapes + ", " + buffers + " buffers in " + arenaSizes.length
+                + " arenas, " + getPeakBytes(1, DataType.FLOAT32) + " instead of "
+                + getUnplannedBytes(1, DataType.FLOAT32) + " FLOAT32 bytes per sample}";
+    }
+}
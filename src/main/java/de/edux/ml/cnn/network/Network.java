@@ -1,27 +1,63 @@
 package de.edux.ml.cnn.network;
 
+import de.edux.ml.cnn.data.Batch;
+import de.edux.ml.cnn.data.BatchLoader;
+import de.edux.ml.cnn.data.Dataset;
 import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.functions.SoftmaxCrossEntropy;
+import de.edux.ml.cnn.layer.InferenceContext;
 import de.edux.ml.cnn.layer.Layer;
+import de.edux.ml.cnn.layer.Shape;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.optimizer.ParameterOptimizer;
+import de.edux.ml.cnn.tensor.ComputePool;
+import de.edux.ml.cnn.tensor.DataType;
 import de.edux.ml.cnn.tensor.Tensor4D;
+import de.edux.ml.cnn.tensor.TensorPool;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * CNN use mini batches for training.
  * CNN use Categorical Cross Entropy as loss function.
- * CNN use Stochastic Gradient Descent as optimizer.
+ * CNN use the optimizer passed to the constructor (SGD, momentum, RMSProp or Adam), the gradients are averaged over the batch.
  * CNN use ReLu as activation function for hidden layers.
  * CNN use Softmax as activation function for the last layer.
  */
 public class Network extends Layer implements Trainable {
 
     private final List<Layer> layers;
-    private final Tensor4D[] trainImages;
-    private final Tensor4D[] trainLabels;
+    private final Dataset trainingData;
     private final int epochs;
     private final Optimizer optimizer;
     private final double learningRate;
     private final int batchSize;
+    private final DataType dataType;
+    private final int parallelism;
+
+    // Datenparalleles Training: ein Replikat der Layer und ein Pool pro Shard, replicasByLayer.get(i) enthält Layer i aller Replikate
+    private final List<List<Layer>> replicas = new ArrayList<>();
+    private final List<List<Layer>> replicasByLayer = new ArrayList<>();
+    private final List<TensorPool> replicaPools = new ArrayList<>();
+    // Eingaben der Layer eines Schritts für die Freigabe im Rückwärtsdurchlauf, ein Array pro Replikat
+    private final List<Tensor4D[]> replicaActivations = new ArrayList<>();
+    private Tensor4D[] activations;
+
+    private static final int EVALUATION_BATCH_SIZE = 256;
+
+    private final InferenceModel inferenceModel;
+    private final List<Parameter> parameters;
+    private final ParameterOptimizer parameterOptimizer;
+    private final List<InferenceContext> evaluationContexts = new ArrayList<>();
+
+    private CheckpointWriter checkpointWriter;
+    private MemoryPlan memoryPlan;
+    // Position, an der das nächste train() nach dem Laden eines Checkpoints weitermacht
+    private TrainingSnapshot resumePosition;
 
     public Network(
             List<Layer> layers,
@@ -32,145 +68,434 @@ public class Network extends Layer implements Trainable {
             Optimizer optimizer,
 
             double learningRate) {
-        this.trainImages = trainImages;
-        this.trainLabels = trainLabels;
+        this(layers, trainImages, trainLabels, batchSize, epochs, optimizer, learningRate, DataType.FLOAT64);
+    }
+
+    public Network(
+            List<Layer> layers,
+            Tensor4D[] trainImages,
+            Tensor4D[] trainLabels,
+            int batchSize,
+            int epochs,
+            Optimizer optimizer,
+            double learningRate,
+            DataType dataType) {
+        this(layers, trainImages, trainLabels, batchSize, epochs, optimizer, learningRate, dataType, 1);
+    }
+
+    /**
+     * @param parallelism number of shards each mini-batch is split into, every shard runs forward and backward on
+     *                    its own replica of the layers in parallel. Evaluation uses as many workers.
+     *                    1 trains and evaluates on the calling thread only.
+     */
+    public Network(
+            List<Layer> layers,
+            Tensor4D[] trainImages,
+            Tensor4D[] trainLabels,
+            int batchSize,
+            int epochs,
+            Optimizer optimizer,
+            double learningRate,
+            DataType dataType,
+            int parallelism) {
+        this(layers, Dataset.of(trainImages, trainLabels), batchSize, epochs, optimizer, learningRate, dataType,
+                parallelism);
+    }
+
+    /**
+     * Trains on samples that are decoded into the batches on demand, e.g. from an
+     * {@link de.edux.ml.cnn.data.IdxDataset}, instead of a tensor per sample.
+     */
+    public Network(
+            List<Layer> layers,
+            Dataset trainingData,
+            int batchSize,
+            int epochs,
+            Optimizer optimizer,
+            double learningRate,
+            DataType dataType,
+            int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.dataType = dataType;
+        this.trainingData = trainingData;
         this.batchSize = batchSize;
         this.epochs = epochs;
         this.optimizer = optimizer;
         this.learningRate = learningRate;
         this.layers = layers;
+        this.inferenceModel = new InferenceModel(layers, dataType);
+        shareTensorPool(new TensorPool());
+        // Zustand des Optimierers für alle Parameter einmalig anlegen
+        this.parameters = collectParameters();
+        this.parameterOptimizer = optimizer.create(learningRate);
+        this.parameterOptimizer.register(parameters);
     }
 
-    public Tensor4D forward(Tensor4D inputs) {
-        Tensor4D output = inputs;
+    /**
+     * Shares the pool with all layers, every training batch is one step of the pool. With a {@link MemoryPlan} the
+     * pool gets the arenas of the plan.
+     */
+    @Override
+    public void setTensorPool(TensorPool tensorPool) {
+        shareTensorPool(tensorPool);
+    }
+
+    // privat, damit der Konstruktor keine überschreibbare Methode aufruft
+    private void shareTensorPool(TensorPool tensorPool) {
+        this.tensorPool = tensorPool;
         for (Layer layer : layers) {
-            output = layer.forward(output);
+            layer.setTensorPool(tensorPool);
         }
-        return output;
+        reserveArenas();
     }
 
-    @Override
-    public Tensor4D backward(Tensor4D gradient) {
-        Tensor4D backpropagatedGradient = gradient;
-        for (int i = layers.size() - 1; i >= 0; i--) {
-            backpropagatedGradient = layers.get(i).backward(backpropagatedGradient);
+    /**
+     * Places the activations and gradients of every training step into the arenas of {@code memoryPlan}.
+     */
+    void setMemoryPlan(MemoryPlan memoryPlan) {
+        this.memoryPlan = memoryPlan;
+        reserveArenas();
+    }
+
+    private void reserveArenas() {
+        // datenparallel rechnen nur die Pools der Replikate, sie bekommen ihre Arenen in ensureReplicas
+        if (memoryPlan != null && parallelism == 1) {
+            tensorPool.reserve(dataType, memoryPlan.getArenaSizes(batchSize));
         }
-        return backpropagatedGradient;
     }
 
-    @Override
-    public void train(Tensor4D[] inputs, Tensor4D[] targets) {
-        for (int i = 0; i < epochs; i++) {
-            double totalLoss = 0.0;
+    /**
+     * @return the plan of the activation and gradient buffers, null if the network was not built by a
+     * {@link NetworkBuilder}
+     */
+    public MemoryPlan getMemoryPlan() {
+        return memoryPlan;
+    }
 
-            for (int j = 0; j < trainImages.length; j += batchSize) {
-                Tensor4D batchImages = new Tensor4D(batchSize, 1, 28, 28);
-                Tensor4D batchLabels = new Tensor4D(batchSize, 1, 1, 10);
-                // Vorwärtsdurchlauf
-                Tensor4D output = forward(batchImages);
+    @Override
+    public Shape outputShape(Shape input) {
+        return MemoryPlan.inferShapes(layers, input).get(layers.size());
+    }
 
-                // Berechnung des Verlustes und des Gradienten
-                Tensor4D lossGradient = calculateLossGradient(output, batchLabels); // Diese Methode müssen Sie implementieren
+    /**
+     * Parameters of all layers in layer order.
+     */
+    @Override
+    public List<Parameter> getParameters() {
+        return collectParameters();
+    }
 
-                // Rückwärtsdurchlauf
-                backward(lossGradient);
-                double batchLoss = calculateLoss(output, batchLabels);
-                totalLoss += batchLoss;
+    private List<Parameter> collectParameters() {
+        List<Parameter> parameters = new ArrayList<>();
+        for (Layer layer : layers) {
+            parameters.addAll(layer.getParameters());
+        }
+        return parameters;
+    }
 
-            }
+    public Tensor4D forward(Tensor4D inputs) {
+        return forward(inputs, layers.size());
+    }
 
-            double accurca = evaluate(inputs, targets);
+    @Override
+    public Tensor4D backward(Tensor4D gradient) {
+        return backward(gradient, layers.size());
+    }
 
-            // Mittleren Verlust für die Epoche ausgeben
-            double averageLoss = totalLoss / (trainImages.length / batchSize);
-            System.out.println("Epoch " + i + ", Loss: " + totalLoss + ", Accuracy: " + accurca+"%");
+    @Override
+    public Tensor4D infer(Tensor4D inputs, InferenceContext context) {
+        Tensor4D output = inputs;
+        for (Layer layer : layers) {
+            output = layer.infer(output, context);
         }
+        return output;
     }
 
-    private double calculateLoss(Tensor4D output, Tensor4D batchLabels) {
-        double totalLoss = 0.0;
-
-        for (int batch = 0; batch < output.getBatches(); batch++) {
-            for (int channel = 0; channel < output.getChannels(); channel++) {
-                // Die Kreuzentropie für jeden Output berechnen
-                double predicted = output.getData()[batch][channel][0][0];
-                double actual = batchLabels.getData()[batch][0][0][channel];
-                totalLoss += -actual * Math.log(predicted); // Kreuzentropie-Formel
-            }
+    private Tensor4D forward(Tensor4D inputs, int layerCount) {
+        Tensor4D output = inputs;
+        for (int i = 0; i < layerCount; i++) {
+            output = layers.get(i).forward(output);
         }
+        return output;
+    }
 
-        return totalLoss / output.getBatches(); // Mittelwert des Verlustes über alle Batches
+    private Tensor4D backward(Tensor4D gradient, int layerCount) {
+        Tensor4D backpropagatedGradient = gradient;
+        for (int i = layerCount - 1; i >= 0; i--) {
+            backpropagatedGradient = layers.get(i).backward(backpropagatedGradient);
+        }
+        return backpropagatedGradient;
     }
 
+    /**
+     * Number of layers run during training. A trailing {@link SoftmaxLayer} is left out, its softmax is part of
+     * the fused {@link SoftmaxCrossEntropy} loss on the logits.
+     */
+    private int trainingLayerCount() {
+        return trainingLayerCount(layers);
+    }
 
-    private Tensor4D calculateLossGradient(Tensor4D output, Tensor4D batchLabels) {
-        Tensor4D lossGradient = new Tensor4D(output.getBatches(), output.getChannels(), output.getRows(), output.getCols());
+    static int trainingLayerCount(List<Layer> layers) {
+        boolean softmaxOutput = !layers.isEmpty() && layers.get(layers.size() - 1) instanceof SoftmaxLayer;
+        return softmaxOutput ? layers.size() - 1 : layers.size();
+    }
 
-        for (int batch = 0; batch < output.getBatches(); batch++) {
-            for (int channel = 0; channel < output.getChannels(); channel++) {
-                // Beachten Sie, dass die Labels in der 'cols'-Dimension von 'batchLabels' liegen
-                lossGradient.getData()[batch][channel][0][0] = output.getData()[batch][channel][0][0] - batchLabels.getData()[batch][0][0][channel];
+    @Override
+    public void train(Dataset validation) {
+        int trainingLayers = trainingLayerCount();
+        TrainingSnapshot resume = resumePosition;
+        resumePosition = null;
+        // Die Batches werden im Hintergrund gemischt und gepackt, während der vorherige Batch trainiert
+        try (BatchLoader loader = new BatchLoader(trainingData, batchSize, dataType)) {
+            if (resume != null && resume.getBatchSize() != loader.getBatchSize()) {
+                throw new IllegalArgumentException("Checkpoint was trained with batch size " + resume.getBatchSize()
+                        + ", got " + loader.getBatchSize());
+            }
+            for (int i = resume != null ? resume.getEpoch() : 0; i < epochs; i++) {
+                double totalLoss = 0.0;
+
+                if (resume != null) {
+                    loader.resumeEpoch(resume.getPermutation(), resume.getBatch());
+                    totalLoss = resume.getLoss();
+                    resume = null;
+                } else {
+                    loader.startEpoch();
+                }
+                while (loader.hasNext()) {
+                    Batch batch = loader.next();
+                    // Alle Zwischenergebnisse des Batches kommen aus dem Pool und werden am Ende zurückgegeben
+                    tensorPool.beginStep();
+                    double batchLoss = parallelism > 1
+                            ? trainBatchDataParallel(batch.images(), batch.labels(), trainingLayers)
+                            : trainBatch(batch.images(), batch.labels(), trainingLayers);
+                    totalLoss += batchLoss;
+                    tensorPool.endStep();
+
+                    long step = (long) i * loader.batchesPerEpoch() + loader.getPosition();
+                    if (checkpointWriter != null && checkpointWriter.isDue(step)) {
+                        checkpointWriter.submit(layers, dataType, parameters, parameterOptimizer, step,
+                                i, loader.getPosition(), loader.getBatchSize(), totalLoss, loader.getPermutation());
+                    }
+                }
+
+                Evaluation evaluation = evaluateDetailed(validation);
+
+                // Mittleren Verlust für die Epoche ausgeben
+                double averageLoss = totalLoss / loader.batchesPerEpoch();
+                System.out.println("Epoch " + i + ", Loss: " + averageLoss + ", Validation loss: " + evaluation.getLoss()
+                        + ", Accuracy: " + evaluation.getAccuracy() + "%");
+            }
+        } finally {
+            if (checkpointWriter != null) {
+                checkpointWriter.awaitPending();
             }
         }
+    }
 
-        return lossGradient;
+    /**
+     * Writes checkpoints in the background while training, see {@link CheckpointWriter}.
+     */
+    void setCheckpointWriter(CheckpointWriter checkpointWriter) {
+        this.checkpointWriter = checkpointWriter;
     }
 
+    /**
+     * Restores the optimizer state of a checkpoint, the next {@link #train} continues at its epoch and batch.
+     */
+    void resume(TrainingSnapshot snapshot) {
+        snapshot.restore(parameters, parameterOptimizer);
+        this.resumePosition = snapshot;
+    }
 
-    private int calculateCorrectPredictions(Tensor4D output, Tensor4D target) {
-        int correct = 0;
+    private double trainBatch(Tensor4D batchImages, Tensor4D batchLabels, int trainingLayers) {
+        if (activations == null) {
+            activations = new Tensor4D[layers.size() + 1];
+        }
+        double batchLoss = forwardBackward(layers, tensorPool, activations, batchImages, batchLabels, trainingLayers);
+        // ein Update aller Parameter mit den gesammelten Gradienten
+        parameterOptimizer.step(parameters);
+        return batchLoss;
+    }
 
-        for (int batch = 0; batch < output.getBatches(); batch++) {
-            int predictedLabel = argMax(output.getData()[batch]); // Implementieren Sie die argMax-Methode
-            int actualLabel = argMax(target.getData()[batch]); // Implementieren Sie die argMax-Methode
+    /**
+     * Runs forward up to the logits, the fused loss and backward, and hands every activation and gradient back to
+     * the pool as soon as it is dead, in the order planned by {@link MemoryPlan}.
+     *
+     * @return the mean loss of the batch
+     */
+    private static double forwardBackward(List<Layer> layers, TensorPool pool, Tensor4D[] activations,
+                                          Tensor4D images, Tensor4D labels, int trainingLayers) {
+        // Vorwärtsdurchlauf bis zu den Logits, activations[j] ist die Eingabe von Layer j
+        activations[0] = images;
+        for (int j = 0; j < trainingLayers; j++) {
+            activations[j + 1] = layers.get(j).forward(activations[j]);
+        }
 
-            if (predictedLabel == actualLabel) {
-                correct++;
+        // Verlust und Gradient (p - y) in einem Durchlauf über die Logits
+        Tensor4D logits = activations[trainingLayers];
+        Tensor4D gradient = pool.acquire(logits.getDataType(),
+                logits.getBatches(), logits.getChannels(), logits.getRows(), logits.getCols());
+        double batchLoss = SoftmaxCrossEntropy.compute(logits, labels, null, gradient);
+        releaseInput(layers, pool, activations, trainingLayers);
+
+        // Rückwärtsdurchlauf sammelt die Gradienten, ein Gradient lebt bis der vorherige Layer ihn gelesen hat
+        Tensor4D gradientBuffer = gradient;
+        for (int j = trainingLayers - 1; j >= 0; j--) {
+            Tensor4D inputGradient = layers.get(j).backward(gradient);
+            if (!inputGradient.sharesBuffer(gradientBuffer)) {
+                pool.release(gradientBuffer);
+                gradientBuffer = inputGradient;
             }
+            gradient = inputGradient;
+            releaseInput(layers, pool, activations, j);
         }
+        Arrays.fill(activations, null);
+        return batchLoss;
+    }
 
-        return correct;
+    // Die Eingabe von Layer j ist nach seinem Rückwärtsdurchlauf tot, außer der vorherige Layer liest sie noch
+    private static void releaseInput(List<Layer> layers, TensorPool pool, Tensor4D[] activations, int j) {
+        if (j > 0 && !activations[j].sharesBuffer(activations[j - 1]) && !layers.get(j - 1).backwardUsesOutput()) {
+            pool.release(activations[j]);
+        }
     }
 
-    private int argMax(double[][][] dataArray) {
-        int maxIndex = 0;
-        double max = dataArray[0][0][0];
+    /**
+     * Splits the batch into contiguous shards that run forward and backward in parallel on replicas of the layers.
+     * The gradients of the shards are then summed in shard order into the parameters of the original layers and
+     * applied in one optimizer step, so the update is the same as for the whole batch and does not depend on thread
+     * scheduling.
+     */
+    private double trainBatchDataParallel(Tensor4D batchImages, Tensor4D batchLabels, int trainingLayers) {
+        ensureReplicas();
+        int batches = batchImages.getBatches();
+        int shards = Math.min(parallelism, batches);
+        double[] shardLosses = new double[shards];
+
+        // ein Chunk pro Shard, die Kernels innerhalb eines Shards laufen auf demselben Compute-Pool
+        ComputePool.shared().forEachChunk(shards, batches, (shard, from, to) -> {
+            TensorPool pool = replicaPools.get(shard);
+            pool.beginStep();
+            shardLosses[shard] = forwardBackward(replicas.get(shard), pool, replicaActivations.get(shard),
+                    batchImages.slice(from, to), batchLabels.slice(from, to), trainingLayers) * (to - from);
+        });
+
+        for (int i = 0; i < trainingLayers; i++) {
+            layers.get(i).accumulateReplicaGradients(replicasByLayer.get(i).subList(0, shards));
+        }
+        parameterOptimizer.step(parameters);
+        double loss = 0.0;
+        for (int shard = 0; shard < shards; shard++) {
+            replicaPools.get(shard).endStep();
+            loss += shardLosses[shard];
+        }
+        return loss / batches;
+    }
 
-        for (int i = 0; i < dataArray.length; i++) {
-            if (dataArray[i][0][0] > max) {
-                max = dataArray[i][0][0];
-                maxIndex = i;
+    private void ensureReplicas() {
+        if (!replicas.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            replicasByLayer.add(new ArrayList<>());
+        }
+        for (int shard = 0; shard < parallelism; shard++) {
+            TensorPool pool = new TensorPool();
+            if (memoryPlan != null) {
+                pool.reserve(dataType, memoryPlan.getArenaSizes((batchSize + parallelism - 1) / parallelism));
+            }
+            List<Layer> replica = new ArrayList<>();
+            for (int i = 0; i < layers.size(); i++) {
+                Layer layer = layers.get(i).replicate();
+                layer.setTensorPool(pool);
+                replica.add(layer);
+                replicasByLayer.get(i).add(layer);
             }
+            replicas.add(replica);
+            replicaPools.add(pool);
+            replicaActivations.add(new Tensor4D[layers.size() + 1]);
         }
+    }
 
-        return maxIndex;
+    @Override
+    public double evaluate(Dataset dataset) {
+        return evaluateDetailed(dataset).getAccuracy();
     }
 
+    /**
+     * Evaluates the dataset in one pass and reports loss, accuracy, per-class accuracy and the confusion matrix.
+     * <p>
+     * The samples are packed into batches of at least {@value #EVALUATION_BATCH_SIZE} and only run forward up to the
+     * logits, without keeping anything for a backward pass. With a parallelism above 1 the batches are split into
+     * contiguous parts that are evaluated in parallel, each with its own {@link InferenceContext}, and the counts are
+     * merged in order.
+     */
+    public Evaluation evaluateDetailed(Dataset dataset) {
+        int layerCount = trainingLayerCount();
+        int evaluationBatchSize = Math.max(batchSize, EVALUATION_BATCH_SIZE);
+        int batches = (dataset.size() + evaluationBatchSize - 1) / evaluationBatchSize;
+        int workers = Math.max(1, Math.min(parallelism, batches));
+        while (evaluationContexts.size() < workers) {
+            evaluationContexts.add(new InferenceContext());
+        }
+        List<Evaluation.Accumulator> accumulators = new ArrayList<>();
+        for (int worker = 0; worker < workers; worker++) {
+            accumulators.add(new Evaluation.Accumulator());
+        }
 
+        // Die Worker rechnen nur vorwärts über infer, jeder mit eigenem Kontext auf denselben Parametern
+        ComputePool.shared().forEachChunk(workers, batches, (worker, firstBatch, lastBatch) -> {
+            InferenceContext context = evaluationContexts.get(worker);
+            TensorPool pool = context.getTensorPool();
+            Dataset part = dataset.subset(firstBatch * evaluationBatchSize,
+                    Math.min(dataset.size(), lastBatch * evaluationBatchSize));
+            part.batches(evaluationBatchSize, dataType).forEachRemaining(batch -> {
+                pool.beginStep();
+                Tensor4D logits = batch.images();
+                for (int i = 0; i < layerCount; i++) {
+                    logits = layers.get(i).infer(logits, context);
+                }
+                // Softmax nur in einen Puffer aus dem Pool, für die Vorhersage reicht das Maximum der Logits
+                Tensor4D probabilities = pool.acquire(logits.getDataType(),
+                        logits.getBatches(), logits.getChannels(), logits.getRows(), logits.getCols());
+                double loss = SoftmaxCrossEntropy.compute(logits, batch.labels(), probabilities, null);
+                accumulators.get(worker).add(logits, batch.labels(), loss);
+                pool.endStep();
+            });
+        });
+        return Evaluation.Accumulator.merge(accumulators);
+    }
 
-    @Override
-    public double evaluate(Tensor4D[] inputs, Tensor4D[] targets) {
-        int correctPredictions = 0;
+    public DataType getDataType() {
+        return dataType;
+    }
 
-        for (int i = 0; i < inputs.length; i++) {
-            Tensor4D output = forward(inputs[i]);
-            correctPredictions += calculateCorrectPredictions(output, targets[i]); // Diese Methode müssen Sie implementieren
-        }
+    public List<Layer> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
 
-        return ((double) correctPredictions / inputs.length)*100;
+    /**
+     * Forward-only view of this network that can serve concurrent predictions, it shares the parameters.
+     */
+    public InferenceModel getInferenceModel() {
+        return inferenceModel;
     }
 
     /**
      * Führt eine Vorhersage für ein einzelnes Bild durch.
+     * Läuft über das {@link InferenceModel}, es werden keine Zwischenergebnisse für das Training gespeichert.
      * @param image Das Bild, für das eine Vorhersage gemacht werden soll.
      * @return Die Vorhersage des Netzwerks.
      */
     public Tensor4D predict(Tensor4D image) {
-        Tensor4D output = image;
-        for (Layer layer : layers) {
-            output = layer.forward(output);
-        }
-        return output;
+        return inferenceModel.predict(image);
     }
 
 
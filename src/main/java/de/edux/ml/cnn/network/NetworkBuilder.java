@@ -1,25 +1,130 @@
 package de.edux.ml.cnn.network;
 
+import de.edux.ml.cnn.data.Dataset;
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.InputLayer;
 import de.edux.ml.cnn.layer.Layer;
+import de.edux.ml.cnn.layer.ReluLayer;
+import de.edux.ml.cnn.layer.Shape;
 import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.tensor.ComputePool;
+import de.edux.ml.cnn.tensor.DataType;
 import de.edux.ml.cnn.tensor.Tensor4D;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
 public class NetworkBuilder {
 
   private List<Layer> layers;
+  private DataType dataType = DataType.FLOAT64;
+  private int parallelism = 1;
+  private int computeThreads;
+  private ComputePool computePool;
+  private CheckpointWriter checkpointWriter;
+  private TrainingSnapshot resume;
 
   public NetworkBuilder() {
     this.layers = new ArrayList<>();
   }
 
+  /**
+   * Sets the data type of all parameters and activations, FLOAT32 halves the memory traffic.
+   */
+  public NetworkBuilder dataType(DataType dataType) {
+    this.dataType = dataType;
+    return this;
+  }
+
+  /**
+   * Splits every mini-batch into this many shards that are trained in parallel on replicas of the layers.
+   */
+  public NetworkBuilder parallelism(int parallelism) {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Runs the kernels of the whole process on the given number of threads once the network is built, see
+   * {@link ComputePool#resizeShared(int)}. The compute pool is shared by all networks, so this also applies to
+   * networks built before, and a pool it replaces is shut down when its running work is done.
+   */
+  public NetworkBuilder computeThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Compute threads must be at least 1, got " + threads);
+    }
+    this.computeThreads = threads;
+    this.computePool = null;
+    return this;
+  }
+
+  /**
+   * Installs {@code computePool} as the process-wide pool of all networks once the network is built, see
+   * {@link ComputePool#setShared(ComputePool)}. The caller keeps ownership and closes it.
+   */
+  public NetworkBuilder computePool(ComputePool computePool) {
+    this.computePool = computePool;
+    this.computeThreads = 0;
+    return this;
+  }
+
+  /**
+   * Writes a checkpoint every {@code interval} batches into {@code directory} in the background and keeps the
+   * newest {@code retain} of them.
+   */
+  public NetworkBuilder checkpointing(Path directory, int interval, int retain) {
+    this.checkpointWriter = new CheckpointWriter(directory, interval, retain);
+    return this;
+  }
+
+  // Trainingszustand eines geladenen Checkpoints, siehe Checkpoint.load
+  NetworkBuilder resume(TrainingSnapshot resume) {
+    this.resume = resume;
+    return this;
+  }
+
   public NetworkBuilder addLayer(Layer layer) {
     this.layers.add(layer);
     return this;
   }
 
+  /**
+   * Forward-only model of the added layers without training data, e.g. for layers loaded from a {@link Checkpoint}.
+   */
+  public InferenceModel buildInferenceModel() {
+    fuseActivations();
+    // ohne Trainingsdaten lassen sich die Shapes nur ab einem InputLayer prüfen
+    if (!layers.isEmpty() && layers.get(0) instanceof InputLayer input) {
+      MemoryPlan.inferShapes(layers, new Shape(input.getChannels(), input.getInputHeight(), input.getInputWidth()));
+    }
+    for (Layer layer : layers) {
+      layer.setDataType(dataType);
+    }
+    installComputePool();
+    return new InferenceModel(List.copyOf(layers), dataType);
+  }
+
+  /**
+   * A ReLU directly after a convolution runs in the epilogue of the convolution, see
+   * {@link ConvolutionalLayer#fuse(ReluLayer)}.
+   */
+  private void fuseActivations() {
+    for (int i = 0; i + 1 < layers.size(); i++) {
+      if (layers.get(i) instanceof ConvolutionalLayer convolution && layers.get(i + 1) instanceof ReluLayer relu) {
+        convolution.fuse(relu);
+      }
+    }
+  }
+
+  private void installComputePool() {
+    if (computePool != null) {
+      ComputePool.setShared(computePool);
+    } else if (computeThreads > 0) {
+      ComputePool.resizeShared(computeThreads);
+    }
+  }
+
   public Network build(
       Tensor4D[] trainImages,
       Tensor4D[] trainLabels,
@@ -27,8 +132,32 @@ public class NetworkBuilder {
       int epochs,
       Optimizer optimizer,
       double learningRate) {
+    return build(Dataset.of(trainImages, trainLabels), batchSize, epochs, optimizer, learningRate);
+  }
+
+  public Network build(
+      Dataset trainingData,
+      int batchSize,
+      int epochs,
+      Optimizer optimizer,
+      double learningRate) {
 
-    return new Network(
-        layers, trainImages, trainLabels, batchSize, epochs, optimizer, learningRate);
+    fuseActivations();
+    // Shapes statisch prüfen und die Puffer eines Trainingsschritts planen, bevor etwas trainiert wird
+    Shape input = new Shape(trainingData.getImages().getChannels(), trainingData.getImages().getRows(),
+        trainingData.getImages().getCols());
+    MemoryPlan memoryPlan = MemoryPlan.create(layers, input, Network.trainingLayerCount(layers));
+    for (Layer layer : layers) {
+      layer.setDataType(dataType);
+    }
+    installComputePool();
+    Network network = new Network(
+        layers, trainingData, batchSize, epochs, optimizer, learningRate, dataType, parallelism);
+    if (resume != null) {
+      network.resume(resume);
+    }
+    network.setCheckpointWriter(checkpointWriter);
+    network.setMemoryPlan(memoryPlan);
+    return network;
   }
 }
@@ -1,8 +1,24 @@
 package de.edux.ml.cnn.network;
 
+import de.edux.ml.cnn.data.Dataset;
 import de.edux.ml.cnn.tensor.Tensor4D;
 
 public interface Trainable {
-    void train(Tensor4D[] inputs, Tensor4D[] targets);
-    double evaluate(Tensor4D[] input, Tensor4D[] target);
+    /**
+     * Trains on the training data of the model, {@code validation} is evaluated after every epoch.
+     */
+    void train(Dataset validation);
+
+    /**
+     * @return accuracy in percent
+     */
+    double evaluate(Dataset dataset);
+
+    default void train(Tensor4D[] inputs, Tensor4D[] targets) {
+        train(Dataset.of(inputs, targets));
+    }
+
+    default double evaluate(Tensor4D[] input, Tensor4D[] target) {
+        return evaluate(Dataset.of(input, target));
+    }
 }
@@ -0,0 +1,151 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.optimizer.ParameterOptimizer;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copy of everything training needs to continue at a step boundary: parameter values, optimizer state with the
+ * update counts, and the position in the epoch (sample order, next batch, loss summed so far).
+ * <p>
+ * The buffers are allocated once and refilled by {@link #capture}, which is only a memory copy, so the training
+ * thread can go on while the copy is written to disk.
+ */
+final class TrainingSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrainingSnapshot.class);
+
+    private final String optimizer;
+    private final List<Tensor4D> values;
+    private final List<List<Tensor4D>> optimizerState;
+    private final int[] steps;
+    private int epoch;
+    private int batch;
+    private int batchSize;
+    private double loss;
+    private int[] permutation;
+
+    TrainingSnapshot(String optimizer, List<Tensor4D> values, List<List<Tensor4D>> optimizerState, int[] steps) {
+        this.optimizer = optimizer;
+        this.values = values;
+        this.optimizerState = optimizerState;
+        this.steps = steps;
+    }
+
+    /**
+     * Allocates buffers in the shapes and data types of the parameters and the optimizer state.
+     */
+    static TrainingSnapshot allocate(List<Parameter> parameters, ParameterOptimizer parameterOptimizer) {
+        List<Tensor4D> values = new ArrayList<>();
+        List<List<Tensor4D>> optimizerState = new ArrayList<>();
+        for (Parameter parameter : parameters) {
+            values.add(like(parameter.getValue()));
+            List<Tensor4D> slots = new ArrayList<>();
+            for (Tensor4D slot : parameterOptimizer.getState(parameter)) {
+                slots.add(like(slot));
+            }
+            optimizerState.add(slots);
+        }
+        return new TrainingSnapshot(parameterOptimizer.getClass().getSimpleName(), values, optimizerState,
+                new int[parameters.size()]);
+    }
+
+    void capture(List<Parameter> parameters, ParameterOptimizer parameterOptimizer,
+                 int epoch, int batch, int batchSize, double loss, int[] permutation) {
+        for (int p = 0; p < parameters.size(); p++) {
+            Parameter parameter = parameters.get(p);
+            parameter.getValue().reshape(values.get(p));
+            List<Tensor4D> state = parameterOptimizer.getState(parameter);
+            for (int slot = 0; slot < state.size(); slot++) {
+                state.get(slot).reshape(optimizerState.get(p).get(slot));
+            }
+            steps[p] = parameterOptimizer.getStep(parameter);
+        }
+        setPosition(epoch, batch, batchSize, loss, permutation);
+    }
+
+    /**
+     * Copies the optimizer state into {@code parameterOptimizer}, and the values into the parameters unless the
+     * parameters already hold them (a loaded checkpoint writes the values into the layers directly).
+     */
+    void restore(List<Parameter> parameters, ParameterOptimizer parameterOptimizer) {
+        String current = parameterOptimizer.getClass().getSimpleName();
+        if (!optimizer.equals(current) || parameters.size() != steps.length) {
+            LOG.error("Training state of {} with {} parameters does not match {} with {} parameters",
+                    optimizer, steps.length, current, parameters.size());
+            throw new IllegalArgumentException("Training state of " + optimizer + " with " + steps.length
+                    + " parameters does not match " + current + " with " + parameters.size() + " parameters");
+        }
+        for (int p = 0; p < parameters.size(); p++) {
+            Parameter parameter = parameters.get(p);
+            if (values.get(p) != parameter.getValue()) {
+                values.get(p).toDataType(parameter.getValue().getDataType()).reshape(parameter.getValue());
+            }
+            List<Tensor4D> state = parameterOptimizer.getState(parameter);
+            for (int slot = 0; slot < state.size(); slot++) {
+                optimizerState.get(p).get(slot).toDataType(state.get(slot).getDataType()).reshape(state.get(slot));
+            }
+            parameterOptimizer.setStep(parameter, steps[p]);
+        }
+    }
+
+    void setPosition(int epoch, int batch, int batchSize, double loss, int[] permutation) {
+        this.epoch = epoch;
+        this.batch = batch;
+        this.batchSize = batchSize;
+        this.loss = loss;
+        this.permutation = permutation;
+    }
+
+    String getOptimizer() {
+        return optimizer;
+    }
+
+    List<Tensor4D> getValues() {
+        return values;
+    }
+
+    List<List<Tensor4D>> getOptimizerState() {
+        return optimizerState;
+    }
+
+    int[] getSteps() {
+        return steps;
+    }
+
+    int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return number of batches of {@link #getEpoch()} that were already trained
+     */
+    int getBatch() {
+        return batch;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return sum of the batch losses of {@link #getEpoch()} so far
+     */
+    double getLoss() {
+        return loss;
+    }
+
+    int[] getPermutation() {
+        return permutation;
+    }
+
+    private static Tensor4D like(Tensor4D tensor) {
+        return new Tensor4D(tensor.getDataType(),
+                tensor.getBatches(), tensor.getChannels(), tensor.getRows(), tensor.getCols());
+    }
+}
@@ -0,0 +1,52 @@
+package de.edux.ml.cnn.optimizer;
+
+import de.edux.ml.cnn.tensor.Kernels;
+
+/**
+ * Adam with bias-corrected first and second moments, two buffers per parameter.
+ */
+public final class AdamOptimizer extends ParameterOptimizer {
+
+    public static final double DEFAULT_BETA1 = 0.9;
+    public static final double DEFAULT_BETA2 = 0.999;
+    public static final double DEFAULT_EPSILON = 1e-8;
+
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+
+    public AdamOptimizer(double learningRate) {
+        this(learningRate, DEFAULT_BETA1, DEFAULT_BETA2, DEFAULT_EPSILON);
+    }
+
+    public AdamOptimizer(double learningRate, double beta1, double beta2, double epsilon) {
+        super(learningRate);
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    protected int stateSlots() {
+        return 2;
+    }
+
+    @Override
+    protected void update(double[] w, int wOffset, double[] g, int gOffset, double[][] state, int step,
+                          double gradientScale, int length) {
+        // Bias-Korrektur der Momente in Schrittweite und Varianzfaktor gefaltet
+        double stepSize = learningRate / (1 - Math.pow(beta1, step));
+        double varianceCorrection = 1 / (1 - Math.pow(beta2, step));
+        Kernels.ELEMENTWISE.adamUpdate(stepSize, beta1, beta2, varianceCorrection, epsilon, gradientScale,
+                g, gOffset, state[0], state[1], w, wOffset, length);
+    }
+
+    @Override
+    protected void update(float[] w, int wOffset, float[] g, int gOffset, float[][] state, int step,
+                          float gradientScale, int length) {
+        double stepSize = learningRate / (1 - Math.pow(beta1, step));
+        double varianceCorrection = 1 / (1 - Math.pow(beta2, step));
+        Kernels.ELEMENTWISE.adamUpdate((float) stepSize, (float) beta1, (float) beta2, (float) varianceCorrection,
+                (float) epsilon, gradientScale, g, gOffset, state[0], state[1], w, wOffset, length);
+    }
+}
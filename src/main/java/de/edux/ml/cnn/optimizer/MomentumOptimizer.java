@@ -0,0 +1,40 @@
+package de.edux.ml.cnn.optimizer;
+
+import de.edux.ml.cnn.tensor.Kernels;
+
+/**
+ * SGD with momentum: {@code v = momentum * v + g; w -= learningRate * v}, one velocity buffer per parameter.
+ */
+public final class MomentumOptimizer extends ParameterOptimizer {
+
+    public static final double DEFAULT_MOMENTUM = 0.9;
+
+    private final double momentum;
+
+    public MomentumOptimizer(double learningRate) {
+        this(learningRate, DEFAULT_MOMENTUM);
+    }
+
+    public MomentumOptimizer(double learningRate, double momentum) {
+        super(learningRate);
+        this.momentum = momentum;
+    }
+
+    @Override
+    protected int stateSlots() {
+        return 1;
+    }
+
+    @Override
+    protected void update(double[] w, int wOffset, double[] g, int gOffset, double[][] state, int step,
+                          double gradientScale, int length) {
+        Kernels.ELEMENTWISE.momentumUpdate(learningRate, momentum, gradientScale, g, gOffset, state[0], w, wOffset, length);
+    }
+
+    @Override
+    protected void update(float[] w, int wOffset, float[] g, int gOffset, float[][] state, int step,
+                          float gradientScale, int length) {
+        Kernels.ELEMENTWISE.momentumUpdate((float) learningRate, (float) momentum, gradientScale, g, gOffset,
+                state[0], w, wOffset, length);
+    }
+}
@@ -0,0 +1,102 @@
+package de.edux.ml.cnn.optimizer;
+
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Kernels;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trainable tensor of a layer together with the buffer its gradient is accumulated in.
+ * <p>
+ * Both are allocated once. During backward a layer adds the gradient summed over its batch entries and counts the
+ * entries, so several backward passes (gradient accumulation, or the replicas of a data-parallel step) can add up
+ * before the {@link ParameterOptimizer} applies one averaged update in a separate step and clears the gradient.
+ * <p>
+ * A {@link #replicate() replica} shares the value but has a gradient buffer of its own, so threads never write into
+ * the same gradient.
+ */
+public final class Parameter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Parameter.class);
+
+    private final String name;
+    private Tensor4D value;
+    private Tensor4D gradient;
+    private int samples;
+
+    public Parameter(String name, Tensor4D value) {
+        this.name = name;
+        this.value = value;
+        this.gradient = new Tensor4D(value.getDataType(),
+                value.getBatches(), value.getChannels(), value.getRows(), value.getCols());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Tensor4D getValue() {
+        return value;
+    }
+
+    public Tensor4D getGradient() {
+        return gradient;
+    }
+
+    /**
+     * @return number of batch entries accumulated into the gradient since it was last cleared
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Converts value and gradient buffer, replicas created before keep the old value.
+     */
+    public void setDataType(DataType dataType) {
+        if (value.getDataType() != dataType) {
+            value = value.toDataType(dataType);
+            gradient = gradient.toDataType(dataType);
+        }
+    }
+
+    /**
+     * Adds a gradient summed over {@code samples} batch entries.
+     */
+    public void accumulate(Tensor4D batchGradient, int samples) {
+        if (batchGradient.size() != gradient.size() || batchGradient.getDataType() != gradient.getDataType()) {
+            LOG.error("Gradient {} does not match parameter {} {}", batchGradient, name, value);
+            throw new IllegalArgumentException("Gradient " + batchGradient + " does not match parameter " + name
+                    + " " + value);
+        }
+        Tensor4D source = batchGradient.contiguous();
+        if (gradient.isFloat()) {
+            Kernels.ELEMENTWISE.axpy(1.0f, source.getFloatBuffer(), source.getOffset(), gradient.getFloatBuffer(), 0, gradient.size());
+        } else {
+            Kernels.ELEMENTWISE.axpy(1.0, source.getBuffer(), source.getOffset(), gradient.getBuffer(), 0, gradient.size());
+        }
+        gradient.markModified();
+        this.samples += samples;
+    }
+
+    /**
+     * Counts batch entries whose gradient was written into {@link #getGradient()} directly, e.g. by a GEMM with
+     * {@code beta = 1}.
+     */
+    public void addSamples(int samples) {
+        this.samples += samples;
+    }
+
+    public void zeroGradient() {
+        gradient.fill(0.0);
+        samples = 0;
+    }
+
+    /**
+     * @return a parameter with the same value and its own, cleared gradient
+     */
+    public Parameter replicate() {
+        return new Parameter(name, value);
+    }
+}
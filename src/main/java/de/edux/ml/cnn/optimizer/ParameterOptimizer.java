@@ -0,0 +1,153 @@
+package de.edux.ml.cnn.optimizer;
+
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Update rule for the trainable parameters of a network together with its per-parameter state.
+ * <p>
+ * The network {@link #register registers} the parameters of all layers once, which allocates the state of every
+ * parameter as flat buffers of the parameter's size and data type (e.g. velocity, or first and second moments).
+ * After the backward pass {@link #step} updates all parameters, each with a single fused pass over value, gradient
+ * and state without any allocation. The accumulated gradients are sums over the batch entries, the update averages
+ * them by the number of entries counted by the {@link Parameter}.
+ * <p>
+ * Not thread-safe, all updates happen on the training thread.
+ */
+public abstract class ParameterOptimizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParameterOptimizer.class);
+
+    /**
+     * Optimizer state of one parameter, {@code step} counts its updates.
+     */
+    private static final class State {
+        final double[][] buffers;
+        final float[][] floatBuffers;
+        int step;
+
+        private State(DataType dataType, int slots, int size) {
+            this.buffers = dataType == DataType.FLOAT64 ? new double[slots][size] : null;
+            this.floatBuffers = dataType == DataType.FLOAT32 ? new float[slots][size] : null;
+        }
+    }
+
+    protected final double learningRate;
+    private final Map<Parameter, State> states = new IdentityHashMap<>();
+
+    protected ParameterOptimizer(double learningRate) {
+        if (!(learningRate > 0)) {
+            LOG.error("Learning rate must be positive, got {}", learningRate);
+            throw new IllegalArgumentException("Learning rate must be positive, got " + learningRate);
+        }
+        this.learningRate = learningRate;
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    /**
+     * Allocates the state of the given parameters up front. Parameters that are updated without being registered
+     * get their state on the first update.
+     */
+    public void register(List<Parameter> parameters) {
+        for (Parameter parameter : parameters) {
+            state(parameter);
+        }
+    }
+
+    /**
+     * Updates every parameter that accumulated a gradient and clears the gradients.
+     */
+    public void step(List<Parameter> parameters) {
+        for (Parameter parameter : parameters) {
+            if (parameter.getSamples() > 0) {
+                update(parameter);
+                parameter.zeroGradient();
+            }
+        }
+    }
+
+    /**
+     * Applies one update with the averaged gradient of {@code parameter} to its value, the gradient is kept.
+     */
+    public void update(Parameter parameter) {
+        Tensor4D value = parameter.getValue();
+        Tensor4D gradient = parameter.getGradient();
+        if (parameter.getSamples() < 1) {
+            LOG.error("Parameter {} has no accumulated gradient", parameter.getName());
+            throw new IllegalStateException("Parameter " + parameter.getName() + " has no accumulated gradient");
+        }
+        double gradientScale = 1.0 / parameter.getSamples();
+        State state = state(parameter);
+        state.step++;
+        if (value.isFloat()) {
+            update(value.getFloatBuffer(), value.getOffset(), gradient.getFloatBuffer(), gradient.getOffset(),
+                    state.floatBuffers, state.step, (float) gradientScale, value.size());
+        } else {
+            update(value.getBuffer(), value.getOffset(), gradient.getBuffer(), gradient.getOffset(),
+                    state.buffers, state.step, gradientScale, value.size());
+        }
+        value.markModified();
+    }
+
+    /**
+     * State buffers of {@code parameter} in the shape of its value, e.g. for a checkpoint. The tensors share the
+     * buffers, writing into them changes the state.
+     */
+    public List<Tensor4D> getState(Parameter parameter) {
+        Tensor4D value = parameter.getValue();
+        State state = state(parameter);
+        List<Tensor4D> buffers = new ArrayList<>(stateSlots());
+        for (int slot = 0; slot < stateSlots(); slot++) {
+            buffers.add(value.isFloat()
+                    ? new Tensor4D(value.getBatches(), value.getChannels(), value.getRows(), value.getCols(), state.floatBuffers[slot])
+                    : new Tensor4D(value.getBatches(), value.getChannels(), value.getRows(), value.getCols(), state.buffers[slot]));
+        }
+        return buffers;
+    }
+
+    /**
+     * @return number of updates applied to {@code parameter}, e.g. for the bias correction of Adam
+     */
+    public int getStep(Parameter parameter) {
+        return state(parameter).step;
+    }
+
+    public void setStep(Parameter parameter, int step) {
+        state(parameter).step = step;
+    }
+
+    /**
+     * @return number of flat state buffers per parameter
+     */
+    protected abstract int stateSlots();
+
+    /**
+     * @param state the {@link #stateSlots()} state buffers of this parameter, indexed from 0
+     * @param step  number of this update, starting at 1
+     */
+    protected abstract void update(double[] w, int wOffset, double[] g, int gOffset, double[][] state, int step,
+                                   double gradientScale, int length);
+
+    protected abstract void update(float[] w, int wOffset, float[] g, int gOffset, float[][] state, int step,
+                                   float gradientScale, int length);
+
+    private State state(Parameter parameter) {
+        Tensor4D value = parameter.getValue();
+        State state = states.get(parameter);
+        if (state == null || (value.isFloat() ? state.floatBuffers == null : state.buffers == null)) {
+            state = new State(value.getDataType(), stateSlots(), value.size());
+            states.put(parameter, state);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,44 @@
+package de.edux.ml.cnn.optimizer;
+
+import de.edux.ml.cnn.tensor.Kernels;
+
+/**
+ * RMSProp: scales every step by the running root mean square of the gradient, one buffer per parameter.
+ */
+public final class RmsPropOptimizer extends ParameterOptimizer {
+
+    public static final double DEFAULT_DECAY = 0.9;
+    public static final double DEFAULT_EPSILON = 1e-8;
+
+    private final double decay;
+    private final double epsilon;
+
+    public RmsPropOptimizer(double learningRate) {
+        this(learningRate, DEFAULT_DECAY, DEFAULT_EPSILON);
+    }
+
+    public RmsPropOptimizer(double learningRate, double decay, double epsilon) {
+        super(learningRate);
+        this.decay = decay;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    protected int stateSlots() {
+        return 1;
+    }
+
+    @Override
+    protected void update(double[] w, int wOffset, double[] g, int gOffset, double[][] state, int step,
+                          double gradientScale, int length) {
+        Kernels.ELEMENTWISE.rmsPropUpdate(learningRate, decay, epsilon, gradientScale, g, gOffset, state[0],
+                w, wOffset, length);
+    }
+
+    @Override
+    protected void update(float[] w, int wOffset, float[] g, int gOffset, float[][] state, int step,
+                          float gradientScale, int length) {
+        Kernels.ELEMENTWISE.rmsPropUpdate((float) learningRate, (float) decay, (float) epsilon, gradientScale,
+                g, gOffset, state[0], w, wOffset, length);
+    }
+}
@@ -0,0 +1,30 @@
+package de.edux.ml.cnn.optimizer;
+
+import de.edux.ml.cnn.tensor.Kernels;
+
+/**
+ * Plain stochastic gradient descent {@code w -= learningRate * g}, without state.
+ */
+public final class SgdOptimizer extends ParameterOptimizer {
+
+    public SgdOptimizer(double learningRate) {
+        super(learningRate);
+    }
+
+    @Override
+    protected int stateSlots() {
+        return 0;
+    }
+
+    @Override
+    protected void update(double[] w, int wOffset, double[] g, int gOffset, double[][] state, int step,
+                          double gradientScale, int length) {
+        Kernels.ELEMENTWISE.axpy(-learningRate * gradientScale, g, gOffset, w, wOffset, length);
+    }
+
+    @Override
+    protected void update(float[] w, int wOffset, float[] g, int gOffset, float[][] state, int step,
+                          float gradientScale, int length) {
+        Kernels.ELEMENTWISE.axpy((float) -learningRate * gradientScale, g, gOffset, w, wOffset, length);
+    }
+}
@@ -0,0 +1,165 @@
+package de.edux.ml.cnn.quantization;
+
+import de.edux.ml.cnn.data.Dataset;
+import de.edux.ml.cnn.network.InferenceModel;
+import de.edux.ml.cnn.network.Network;
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.tensor.Tensor4D;
+
+/**
+ * Accuracy of a {@link QuantizedModel} next to the float network it was made from, on the same samples: both
+ * accuracies and their delta, how often both predict the same class, the largest difference of an output, the
+ * weight memory and the time both needed for the whole dataset.
+ */
+public final class QuantizationReport {
+
+    private static final int BATCH_SIZE = 256;
+
+    private final long samples;
+    private final long floatCorrect;
+    private final long quantizedCorrect;
+    private final long agreements;
+    private final double maxOutputError;
+    private final long floatWeightBytes;
+    private final long quantizedWeightBytes;
+    private final double floatSeconds;
+    private final double quantizedSeconds;
+
+    private QuantizationReport(long samples, long floatCorrect, long quantizedCorrect, long agreements,
+                               double maxOutputError, long floatWeightBytes, long quantizedWeightBytes,
+                               double floatSeconds, double quantizedSeconds) {
+        this.samples = samples;
+        this.floatCorrect = floatCorrect;
+        this.quantizedCorrect = quantizedCorrect;
+        this.agreements = agreements;
+        this.maxOutputError = maxOutputError;
+        this.floatWeightBytes = floatWeightBytes;
+        this.quantizedWeightBytes = quantizedWeightBytes;
+        this.floatSeconds = floatSeconds;
+        this.quantizedSeconds = quantizedSeconds;
+    }
+
+    /**
+     * Runs both models over {@code dataset}, e.g. the MNIST test set.
+     */
+    public static QuantizationReport compare(Network network, QuantizedModel model, Dataset dataset) {
+        InferenceModel floatModel = network.getInferenceModel();
+        long[] counts = new long[3];
+        double[] maxOutputError = new double[1];
+        long[] nanos = new long[2];
+        dataset.batches(BATCH_SIZE, network.getDataType()).forEachRemaining(batch -> {
+            long start = System.nanoTime();
+            Tensor4D floatOutputs = floatModel.predict(batch.images());
+            long middle = System.nanoTime();
+            Tensor4D quantizedOutputs = model.predict(batch.images());
+            nanos[0] += middle - start;
+            nanos[1] += System.nanoTime() - middle;
+
+            int classes = quantizedOutputs.size() / quantizedOutputs.getBatches();
+            Tensor4D floats = floatOutputs.contiguous();
+            Tensor4D labels = batch.labels().contiguous();
+            float[] quantized = quantizedOutputs.getFloatBuffer();
+            for (int b = 0; b < batch.size(); b++) {
+                int label = argMax(labels, b, classes);
+                int floatClass = argMax(floats, b, classes);
+                int quantizedClass = 0;
+                for (int c = 0; c < classes; c++) {
+                    if (quantized[b * classes + c] > quantized[b * classes + quantizedClass]) {
+                        quantizedClass = c;
+                    }
+                    double error = Math.abs(quantized[b * classes + c] - value(floats, b, c, classes));
+                    maxOutputError[0] = Math.max(maxOutputError[0], error);
+                }
+                counts[0] += floatClass == label ? 1 : 0;
+                counts[1] += quantizedClass == label ? 1 : 0;
+                counts[2] += floatClass == quantizedClass ? 1 : 0;
+            }
+        });
+        long floatWeightBytes = 0;
+        for (Parameter parameter : network.getParameters()) {
+            floatWeightBytes += (long) parameter.getValue().size() * parameter.getValue().getDataType().getBytes();
+        }
+        return new QuantizationReport(dataset.size(), counts[0], counts[1], counts[2], maxOutputError[0],
+                floatWeightBytes, model.getWeightBytes(), nanos[0] / 1e9, nanos[1] / 1e9);
+    }
+
+    private static double value(Tensor4D contiguous, int batch, int index, int classes) {
+        int position = contiguous.getOffset() + batch * classes + index;
+        return contiguous.isFloat() ? contiguous.getFloatBuffer()[position] : contiguous.getBuffer()[position];
+    }
+
+    private static int argMax(Tensor4D contiguous, int batch, int classes) {
+        int best = 0;
+        for (int c = 1; c < classes; c++) {
+            if (value(contiguous, batch, c, classes) > value(contiguous, batch, best, classes)) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return accuracy of the float network in percent
+     */
+    public double getFloatAccuracy() {
+        return samples == 0 ? 0.0 : (double) floatCorrect / samples * 100;
+    }
+
+    /**
+     * @return accuracy of the int8 model in percent
+     */
+    public double getQuantizedAccuracy() {
+        return samples == 0 ? 0.0 : (double) quantizedCorrect / samples * 100;
+    }
+
+    /**
+     * @return int8 accuracy minus float accuracy in percentage points
+     */
+    public double getAccuracyDelta() {
+        return getQuantizedAccuracy() - getFloatAccuracy();
+    }
+
+    /**
+     * @return share of samples in percent for which both models predict the same class
+     */
+    public double getAgreement() {
+        return samples == 0 ? 0.0 : (double) agreements / samples * 100;
+    }
+
+    /**
+     * @return largest absolute difference of an output (a probability with softmax) between both models
+     */
+    public double getMaxOutputError() {
+        return maxOutputError;
+    }
+
+    public long getFloatWeightBytes() {
+        return floatWeightBytes;
+    }
+
+    public long getQuantizedWeightBytes() {
+        return quantizedWeightBytes;
+    }
+
+    public double getFloatSeconds() {
+        return floatSeconds;
+    }
+
+    public double getQuantizedSeconds() {
+        return quantizedSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Float accuracy: %.2f%%, int8 accuracy: %.2f%% (delta %+.2f points), same class: %.2f%%,"
+                        + " max output error: %.4f%nWeights: %d bytes float, %d bytes int8 (%.1fx smaller)%n"
+                        + "Time for %d samples: %.3f s float, %.3f s int8",
+                getFloatAccuracy(), getQuantizedAccuracy(), getAccuracyDelta(), getAgreement(), maxOutputError,
+                floatWeightBytes, quantizedWeightBytes, (double) floatWeightBytes / Math.max(1, quantizedWeightBytes),
+                samples, floatSeconds, quantizedSeconds);
+    }
+}
@@ -0,0 +1,102 @@
+package de.edux.ml.cnn.quantization;
+
+import de.edux.ml.cnn.tensor.Kernels;
+
+import java.util.Arrays;
+
+/**
+ * int8 convolution over transposed im2col patches: every filter weight adds its row of input values over all output
+ * positions into the int32 accumulators of the filter. Padding is written as the quantized zero, which is exactly 0.
+ */
+final class QuantizedConvolution extends QuantizedStage {
+
+    private final int filters;
+    private final int channels;
+    private final int rows;
+    private final int cols;
+    private final int filterSize;
+    private final int stride;
+    private final int padding;
+    private final int outputRows;
+    private final int outputCols;
+    private final int patchLength;
+
+    /**
+     * @param filterValues float filters {@code [filters][channels][filterSize][filterSize]} in row-major order
+     */
+    QuantizedConvolution(double[] filterValues, double[] biases, int filters, int channels, int rows, int cols,
+                         int filterSize, int stride, int padding, float inputScale, float outputScale,
+                         boolean relu) {
+        super(filterValues, filters, biases, inputScale, outputScale, relu);
+        this.filters = filters;
+        this.channels = channels;
+        this.rows = rows;
+        this.cols = cols;
+        this.filterSize = filterSize;
+        this.stride = stride;
+        this.padding = padding;
+        this.outputRows = (rows + 2 * padding - filterSize) / stride + 1;
+        this.outputCols = (cols + 2 * padding - filterSize) / stride + 1;
+        this.patchLength = channels * filterSize * filterSize;
+    }
+
+    int getOutputRows() {
+        return outputRows;
+    }
+
+    int getOutputCols() {
+        return outputCols;
+    }
+
+    @Override
+    int inputSize() {
+        return channels * rows * cols;
+    }
+
+    @Override
+    int outputSize() {
+        return filters * outputRows * outputCols;
+    }
+
+    @Override
+    int channelSize() {
+        return outputRows * outputCols;
+    }
+
+    @Override
+    int patchSize() {
+        return outputRows * outputCols * patchLength;
+    }
+
+    @Override
+    void accumulate(byte[] input, int inputOffset, int[] accumulators, byte[] patches) {
+        int positions = outputRows * outputCols;
+        // im2col transponiert: eine Zeile pro Filtergewicht über alle Ausgabepositionen
+        int row = 0;
+        for (int c = 0; c < channels; c++) {
+            for (int ky = 0; ky < filterSize; ky++) {
+                for (int kx = 0; kx < filterSize; kx++) {
+                    int column = row++ * positions;
+                    for (int oy = 0; oy < outputRows; oy++) {
+                        int iy = oy * stride - padding + ky;
+                        for (int ox = 0; ox < outputCols; ox++) {
+                            int ix = ox * stride - padding + kx;
+                            boolean inside = iy >= 0 && iy < rows && ix >= 0 && ix < cols;
+                            patches[column++] = inside ? input[inputOffset + (c * rows + iy) * cols + ix] : 0;
+                        }
+                    }
+                }
+            }
+        }
+        // acc[f] = sum_k W[f][k] * patches[k]: die innere Schleife läuft zusammenhängend über die Positionen
+        Arrays.fill(accumulators, 0, filters * positions, 0);
+        for (int f = 0; f < filters; f++) {
+            for (int k = 0; k < patchLength; k++) {
+                int weight = weights[f * patchLength + k];
+                if (weight != 0) {
+                    Kernels.ELEMENTWISE.axpy(weight, patches, k * positions, accumulators, f * positions, positions);
+                }
+            }
+        }
+    }
+}
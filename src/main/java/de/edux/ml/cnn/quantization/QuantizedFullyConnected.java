@@ -0,0 +1,44 @@
+package de.edux.ml.cnn.quantization;
+
+import de.edux.ml.cnn.tensor.Kernels;
+
+/**
+ * int8 fully connected layer, one int8 dot product over the whole input per output.
+ */
+final class QuantizedFullyConnected extends QuantizedStage {
+
+    private final int inputSize;
+    private final int outputSize;
+
+    /**
+     * @param weightValues float weights {@code [outputSize][inputSize]} in row-major order
+     */
+    QuantizedFullyConnected(double[] weightValues, double[] biases, int inputSize, int outputSize,
+                            float inputScale, float outputScale, boolean relu) {
+        super(weightValues, outputSize, biases, inputScale, outputScale, relu);
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+    }
+
+    @Override
+    int inputSize() {
+        return inputSize;
+    }
+
+    @Override
+    int outputSize() {
+        return outputSize;
+    }
+
+    @Override
+    int channelSize() {
+        return 1;
+    }
+
+    @Override
+    void accumulate(byte[] input, int inputOffset, int[] accumulators, byte[] patches) {
+        for (int o = 0; o < outputSize; o++) {
+            accumulators[o] = Kernels.ELEMENTWISE.dot(weights, o * inputSize, input, inputOffset, inputSize);
+        }
+    }
+}
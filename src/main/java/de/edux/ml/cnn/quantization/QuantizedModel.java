@@ -0,0 +1,130 @@
+package de.edux.ml.cnn.quantization;
+
+import de.edux.ml.cnn.tensor.ComputePool;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Kernels;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Forward-only network with int8 weights and activations, created by {@link Quantizer}.
+ * <p>
+ * The input is quantized once, every stage then accumulates int8 products in int32 and requantizes its output to
+ * int8 for the next stage; the flatten between convolution and fully connected layer is free because the int8
+ * activations of a sample are already stored flat. Only the outputs of the last stage are dequantized, followed by
+ * the softmax of the float model. Samples of a batch run in parallel on the compute pool, each thread with its own
+ * buffers, so the model can be shared by threads.
+ */
+public final class QuantizedModel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QuantizedModel.class);
+
+    // Puffer eines Threads: zwei int8-Aktivierungen im Wechsel, Akkumulatoren und im2col-Patches
+    private record Workspace(byte[] current, byte[] next, int[] accumulators, byte[] patches) {
+    }
+
+    private final int channels;
+    private final int rows;
+    private final int cols;
+    private final float inputScale;
+    private final List<QuantizedStage> stages;
+    private final boolean softmax;
+    private final long costPerSample;
+    private final ThreadLocal<Workspace> workspaces;
+
+    QuantizedModel(int channels, int rows, int cols, float inputScale, List<QuantizedStage> stages, boolean softmax) {
+        this.channels = channels;
+        this.rows = rows;
+        this.cols = cols;
+        this.inputScale = inputScale;
+        this.stages = List.copyOf(stages);
+        this.softmax = softmax;
+        int activations = channels * rows * cols;
+        int accumulators = 0;
+        int patches = 0;
+        long cost = 0;
+        for (QuantizedStage stage : stages) {
+            activations = Math.max(activations, stage.outputSize());
+            accumulators = Math.max(accumulators, stage.outputSize());
+            patches = Math.max(patches, stage.patchSize());
+            cost += stage.cost();
+        }
+        this.costPerSample = cost;
+        int activationSize = activations;
+        int accumulatorSize = accumulators;
+        int patchSize = patches;
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(new byte[activationSize],
+                new byte[activationSize], new int[accumulatorSize], new byte[patchSize]));
+    }
+
+    /**
+     * @param images batch {@code [batches][channels][rows][cols]} in any data type
+     * @return FLOAT32 outputs {@code [batches][outputs][1][1]}, probabilities if the float model ends with a softmax
+     */
+    public Tensor4D predict(Tensor4D images) {
+        if (images.getChannels() != channels || images.getRows() != rows || images.getCols() != cols) {
+            LOG.error("Input {} does not match [{}][{}][{}]", images, channels, rows, cols);
+            throw new IllegalArgumentException("Input " + images + " does not match [" + channels + "][" + rows
+                    + "][" + cols + "]");
+        }
+        Tensor4D input = images.toDataType(DataType.FLOAT32).contiguous();
+        int batches = input.getBatches();
+        int outputs = getOutputSize();
+        Tensor4D output = new Tensor4D(DataType.FLOAT32, batches, outputs, 1, 1);
+        float[] values = output.getFloatBuffer();
+        ComputePool pool = ComputePool.shared();
+        pool.forEachChunk(pool.chunks(batches, costPerSample), batches, (chunk, from, to) -> {
+            Workspace workspace = workspaces.get();
+            for (int sample = from; sample < to; sample++) {
+                predict(input.getFloatBuffer(), input.getOffset() + sample * input.getBatchStride(),
+                        values, sample * outputs, workspace);
+            }
+        });
+        output.markModified();
+        return output;
+    }
+
+    private void predict(float[] input, int inputOffset, float[] output, int outputOffset, Workspace workspace) {
+        byte[] current = workspace.current();
+        byte[] next = workspace.next();
+        float inverseScale = 1.0f / inputScale;
+        int size = channels * rows * cols;
+        for (int i = 0; i < size; i++) {
+            current[i] = QuantizedStage.quantize(input[inputOffset + i] * inverseScale);
+        }
+        for (QuantizedStage stage : stages) {
+            if (stage.requantizes()) {
+                stage.run(current, 0, workspace.accumulators(), workspace.patches(), next, 0);
+                byte[] swap = current;
+                current = next;
+                next = swap;
+            } else {
+                stage.run(current, 0, workspace.accumulators(), workspace.patches(), output, outputOffset);
+            }
+        }
+        if (softmax) {
+            int length = getOutputSize();
+            float max = Kernels.ELEMENTWISE.max(output, outputOffset, length);
+            float sum = Kernels.ELEMENTWISE.expSum(output, outputOffset, max, output, outputOffset, length);
+            Kernels.ELEMENTWISE.scale(1.0f / sum, output, outputOffset, output, outputOffset, length);
+        }
+    }
+
+    public int getOutputSize() {
+        return stages.get(stages.size() - 1).outputSize();
+    }
+
+    /**
+     * @return bytes of the int8 weights together with their per-channel scales and biases
+     */
+    public long getWeightBytes() {
+        long bytes = 0;
+        for (QuantizedStage stage : stages) {
+            bytes += stage.weightBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,127 @@
+package de.edux.ml.cnn.quantization;
+
+/**
+ * Layer with int8 weights: int32 accumulators from int8 inputs and weights, then one fused pass per output that
+ * either requantizes to int8 for the next stage or dequantizes to float for the softmax.
+ * <p>
+ * Weights are quantized symmetrically per output channel, {@code w = weightScale[c] * q}, the input of a stage
+ * with one scale per tensor, {@code x = inputScale * q}. Output {@code i} of channel {@code c} is therefore
+ * {@code inputScale * weightScale[c] * acc[i] + bias[c]}, folded into one multiplier and offset per channel.
+ */
+abstract class QuantizedStage {
+
+    static final int MAX = 127;
+
+    protected final byte[] weights;
+    private final float[] weightScales;
+    private final float[] multipliers;
+    private final float[] offsets;
+    private final boolean requantize;
+    // ReLU nach der Stufe: die Untergrenze der Ausgabe ist 0 statt -127
+    private final int min;
+
+    /**
+     * @param weights     float weights, {@code channels} rows of equal length
+     * @param biases      one bias per output channel, or null
+     * @param inputScale  calibrated scale of the int8 input
+     * @param outputScale scale of the int8 output, or 0 to dequantize the output to float
+     * @param relu        clamps the outputs at 0, fused into the requantization
+     */
+    QuantizedStage(double[] weights, int channels, double[] biases, float inputScale, float outputScale,
+                   boolean relu) {
+        int rowLength = weights.length / channels;
+        this.weights = new byte[weights.length];
+        this.weightScales = new float[channels];
+        this.multipliers = new float[channels];
+        this.offsets = new float[channels];
+        this.requantize = outputScale > 0;
+        this.min = relu ? 0 : -MAX;
+        for (int c = 0; c < channels; c++) {
+            double maxAbs = 0.0;
+            for (int i = c * rowLength; i < (c + 1) * rowLength; i++) {
+                maxAbs = Math.max(maxAbs, Math.abs(weights[i]));
+            }
+            weightScales[c] = maxAbs > 0 ? (float) (maxAbs / MAX) : 1.0f;
+            for (int i = c * rowLength; i < (c + 1) * rowLength; i++) {
+                this.weights[i] = quantize((float) (weights[i] / weightScales[c]));
+            }
+            float bias = biases != null ? (float) biases[c] : 0.0f;
+            multipliers[c] = inputScale * weightScales[c] / (requantize ? outputScale : 1.0f);
+            offsets[c] = bias / (requantize ? outputScale : 1.0f);
+        }
+    }
+
+    /**
+     * @return int8 inputs per sample
+     */
+    abstract int inputSize();
+
+    /**
+     * @return outputs per sample, channel by channel
+     */
+    abstract int outputSize();
+
+    /**
+     * @return outputs per channel and sample
+     */
+    abstract int channelSize();
+
+    /**
+     * @return bytes of im2col buffer needed per sample
+     */
+    int patchSize() {
+        return 0;
+    }
+
+    /**
+     * @return multiply-adds per sample
+     */
+    long cost() {
+        return (long) weights.length * channelSize();
+    }
+
+    long weightBytes() {
+        return weights.length + 3L * Float.BYTES * weightScales.length;
+    }
+
+    boolean requantizes() {
+        return requantize;
+    }
+
+    /**
+     * Writes the int32 accumulators of one sample into {@code accumulators}, channel by channel.
+     */
+    abstract void accumulate(byte[] input, int inputOffset, int[] accumulators, byte[] patches);
+
+    /**
+     * Runs one sample and requantizes its outputs into {@code output}.
+     */
+    void run(byte[] input, int inputOffset, int[] accumulators, byte[] patches, byte[] output, int outputOffset) {
+        accumulate(input, inputOffset, accumulators, patches);
+        int channelSize = channelSize();
+        for (int i = 0; i < outputSize(); i++) {
+            int c = i / channelSize;
+            output[outputOffset + i] = (byte) Math.max(min, quantize(accumulators[i] * multipliers[c] + offsets[c]));
+        }
+    }
+
+    /**
+     * Runs one sample and dequantizes its outputs into {@code output}.
+     */
+    void run(byte[] input, int inputOffset, int[] accumulators, byte[] patches, float[] output, int outputOffset) {
+        accumulate(input, inputOffset, accumulators, patches);
+        int channelSize = channelSize();
+        for (int i = 0; i < outputSize(); i++) {
+            int c = i / channelSize;
+            float value = accumulators[i] * multipliers[c] + offsets[c];
+            output[outputOffset + i] = min == 0 ? Math.max(0.0f, value) : value;
+        }
+    }
+
+    /**
+     * Rounds to the nearest int8 in {@code [-127, 127]}, symmetric so that 0 stays exact (e.g. for padding).
+     */
+    static byte quantize(float value) {
+        return (byte) Math.max(-MAX, Math.min(MAX, Math.round(value)));
+    }
+}
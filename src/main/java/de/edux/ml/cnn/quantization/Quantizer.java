@@ -0,0 +1,171 @@
+package de.edux.ml.cnn.quantization;
+
+import de.edux.ml.cnn.data.Dataset;
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.InferenceContext;
+import de.edux.ml.cnn.layer.InputLayer;
+import de.edux.ml.cnn.layer.Layer;
+import de.edux.ml.cnn.layer.ReluLayer;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.network.Network;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import de.edux.ml.cnn.tensor.TensorPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Post-training int8 quantization of a trained network.
+ * <p>
+ * Weights get one scale per output channel (filter or output neuron) from their largest absolute value. The
+ * activations that enter a convolutional or fully connected layer get one scale per tensor, calibrated on a sample
+ * of inputs: the float network runs forward over the calibration samples and the largest absolute value seen at
+ * every layer input is mapped to 127. A per-channel activation scale would not factor out of the int32 sums over
+ * the channels, so the activations stay per tensor.
+ * <p>
+ * Supported are networks of an optional {@link InputLayer}, convolutional, flatten and fully connected layers, a
+ * {@link ReluLayer} after a convolutional or fully connected layer and a final {@link SoftmaxLayer}. Biases are
+ * folded into the requantization and a ReLU into its clamping, so neither needs a pass of its own.
+ */
+public final class Quantizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Quantizer.class);
+
+    public static final int DEFAULT_CALIBRATION_SAMPLES = 1000;
+    private static final int CALIBRATION_BATCH_SIZE = 256;
+
+    private Quantizer() {
+    }
+
+    public static QuantizedModel quantize(Network network, Dataset calibration) {
+        return quantize(network.getLayers(), network.getDataType(), calibration, DEFAULT_CALIBRATION_SAMPLES);
+    }
+
+    /**
+     * @param calibration representative inputs, the first {@code samples} of them are used
+     */
+    public static QuantizedModel quantize(List<Layer> layers, DataType dataType, Dataset calibration, int samples) {
+        if (calibration.size() == 0 || samples < 1) {
+            LOG.error("Quantization needs calibration samples, got {} of {}", samples, calibration.size());
+            throw new IllegalArgumentException("Quantization needs calibration samples, got " + samples + " of "
+                    + calibration.size());
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            boolean supported = layer instanceof InputLayer || layer instanceof ConvolutionalLayer
+                    || layer instanceof FlattenLayer || layer instanceof FullyConnectedLayer
+                    || (layer instanceof ReluLayer && i > 0 && stageAt(layers, i - 1))
+                    || (layer instanceof SoftmaxLayer && i == layers.size() - 1);
+            if (!supported) {
+                LOG.error("Layer {} at position {} can not be quantized", layer.getClass().getSimpleName(), i);
+                throw new IllegalArgumentException("Layer " + layer.getClass().getSimpleName() + " at position " + i
+                        + " can not be quantized");
+            }
+        }
+
+        double[] maxAbs = calibrate(layers, dataType, calibration.subset(0, Math.min(samples, calibration.size())));
+        int channels = calibration.getImages().getChannels();
+        int rows = calibration.getImages().getRows();
+        int cols = calibration.getImages().getCols();
+
+        // Stufen in Layer-Reihenfolge, der Eingang jeder Stufe ist der Ausgang der vorherigen
+        List<Integer> quantized = new ArrayList<>();
+        for (int i = 0; i < layers.size(); i++) {
+            if (stageAt(layers, i)) {
+                quantized.add(i);
+            }
+        }
+        if (quantized.isEmpty()) {
+            LOG.error("Network has no convolutional or fully connected layer to quantize");
+            throw new IllegalArgumentException("Network has no convolutional or fully connected layer to quantize");
+        }
+        List<QuantizedStage> stages = new ArrayList<>();
+        int inputChannels = channels;
+        int inputRows = rows;
+        int inputCols = cols;
+        for (int s = 0; s < quantized.size(); s++) {
+            int index = quantized.get(s);
+            float inputScale = scale(maxAbs[index]);
+            float outputScale = s + 1 < quantized.size() ? scale(maxAbs[quantized.get(s + 1)]) : 0.0f;
+            boolean relu = index + 1 < layers.size() && layers.get(index + 1) instanceof ReluLayer;
+            if (layers.get(index) instanceof ConvolutionalLayer convolution) {
+                QuantizedConvolution stage = new QuantizedConvolution(values(convolution.getFilters()),
+                        values(convolution.getBiases()), convolution.getNumberOfFilters(), inputChannels, inputRows,
+                        inputCols, convolution.getFilterSize(), convolution.getStride(), convolution.getPadding(),
+                        inputScale, outputScale, relu);
+                inputChannels = convolution.getNumberOfFilters();
+                inputRows = stage.getOutputRows();
+                inputCols = stage.getOutputCols();
+                stages.add(stage);
+            } else {
+                FullyConnectedLayer fullyConnected = (FullyConnectedLayer) layers.get(index);
+                stages.add(new QuantizedFullyConnected(values(fullyConnected.getWeights()),
+                        values(fullyConnected.getBiases()), fullyConnected.getInputSize(),
+                        fullyConnected.getOutputSize(), inputScale, outputScale, relu));
+                inputChannels = fullyConnected.getOutputSize();
+                inputRows = 1;
+                inputCols = 1;
+            }
+        }
+        boolean softmax = layers.get(layers.size() - 1) instanceof SoftmaxLayer;
+        QuantizedModel model = new QuantizedModel(channels, rows, cols, scale(maxAbs[0]), stages, softmax);
+        LOG.info("Quantized {} layers to int8, {} weight bytes", stages.size(), model.getWeightBytes());
+        return model;
+    }
+
+    private static boolean stageAt(List<Layer> layers, int index) {
+        return layers.get(index) instanceof ConvolutionalLayer || layers.get(index) instanceof FullyConnectedLayer;
+    }
+
+    /**
+     * @return largest absolute value at the input of every layer over the calibration samples
+     */
+    private static double[] calibrate(List<Layer> layers, DataType dataType, Dataset calibration) {
+        double[] maxAbs = new double[layers.size()];
+        InferenceContext context = new InferenceContext();
+        TensorPool pool = context.getTensorPool();
+        calibration.batches(CALIBRATION_BATCH_SIZE, dataType).forEachRemaining(batch -> {
+            pool.beginStep();
+            Tensor4D activations = batch.images();
+            for (int i = 0; i < layers.size(); i++) {
+                maxAbs[i] = Math.max(maxAbs[i], maxAbs(activations));
+                activations = layers.get(i).infer(activations, context);
+            }
+            pool.endStep();
+        });
+        return maxAbs;
+    }
+
+    private static double maxAbs(Tensor4D tensor) {
+        Tensor4D values = tensor.contiguous();
+        double max = 0.0;
+        if (values.isFloat()) {
+            float[] buffer = values.getFloatBuffer();
+            for (int i = values.getOffset(); i < values.getOffset() + values.size(); i++) {
+                max = Math.max(max, Math.abs(buffer[i]));
+            }
+        } else {
+            double[] buffer = values.getBuffer();
+            for (int i = values.getOffset(); i < values.getOffset() + values.size(); i++) {
+                max = Math.max(max, Math.abs(buffer[i]));
+            }
+        }
+        return max;
+    }
+
+    private static float scale(double maxAbs) {
+        return maxAbs > 0 ? (float) (maxAbs / QuantizedStage.MAX) : 1.0f;
+    }
+
+    private static double[] values(Tensor4D tensor) {
+        Tensor4D values = tensor.toDataType(DataType.FLOAT64).contiguous();
+        double[] copy = new double[values.size()];
+        System.arraycopy(values.getBuffer(), values.getOffset(), copy, 0, copy.length);
+        return copy;
+    }
+}
@@ -0,0 +1,222 @@
+package de.edux.ml.cnn.serving;
+
+import de.edux.ml.cnn.network.InferenceModel;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects single-sample requests into dynamic micro-batches and runs one batched forward pass per batch.
+ * <p>
+ * Callers, typically one virtual thread per request, {@link #submit} a sample and get a future. A dispatcher thread
+ * takes the first waiting request and then keeps collecting until the batch holds {@code maxBatchSize} samples or
+ * {@code maxWait} has passed since the first one arrived, so a single request waits at most {@code maxWait} while
+ * load fills the batches up. The batches run on {@code workers} threads, each with its own inference context and
+ * packing buffer; the kernels inside a batch use the compute pool as usual.
+ */
+public class InferenceEngine implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InferenceEngine.class);
+
+    private record Request(Tensor4D sample, CompletableFuture<Tensor4D> result, long arrival) {
+    }
+
+    private final InferenceModel model;
+    private final int channels;
+    private final int rows;
+    private final int cols;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Semaphore idleWorkers;
+    private final ExecutorService workers;
+    private final ThreadLocal<Tensor4D> batchBuffers = new ThreadLocal<>();
+    private final Thread dispatcher;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param channels     sample shape {@code [1][channels][rows][cols]} every request has to match
+     * @param maxBatchSize upper bound for the samples of one forward pass
+     * @param maxWait      longest time the first request of a batch waits for more requests
+     * @param workers      number of batches that run at the same time
+     */
+    public InferenceEngine(InferenceModel model, int channels, int rows, int cols,
+                           int maxBatchSize, Duration maxWait, int workers) {
+        if (maxBatchSize < 1 || workers < 1 || maxWait.isNegative()) {
+            LOG.error("Invalid engine settings: max batch size {}, max wait {}, workers {}", maxBatchSize, maxWait, workers);
+            throw new IllegalArgumentException("Max batch size and workers must be at least 1 and the max wait must not "
+                    + "be negative, got " + maxBatchSize + ", " + maxWait + ", " + workers);
+        }
+        this.model = model;
+        this.channels = channels;
+        this.rows = rows;
+        this.cols = cols;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.idleWorkers = new Semaphore(workers);
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "cnn-inference-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatch, "cnn-inference-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queues one sample of shape {@code [1][channels][rows][cols]}.
+     *
+     * @return future with the output of the network for this sample, shape {@code [1][...]}
+     */
+    public CompletableFuture<Tensor4D> submit(Tensor4D sample) {
+        if (sample.getBatches() != 1 || sample.getChannels() != channels || sample.getRows() != rows
+                || sample.getCols() != cols) {
+            LOG.error("Sample {} does not match [1][{}][{}][{}]", sample, channels, rows, cols);
+            throw new IllegalArgumentException("Sample " + sample + " does not match [1][" + channels + "]["
+                    + rows + "][" + cols + "]");
+        }
+        CompletableFuture<Tensor4D> result = new CompletableFuture<>();
+        Request request = new Request(sample, result, System.nanoTime());
+        queue.add(request);
+        // close() kann zwischen Prüfung und Einreihen die Queue schon geleert haben
+        if (closed && queue.remove(request)) {
+            result.completeExceptionally(new IllegalStateException("Inference engine is closed"));
+        }
+        return result;
+    }
+
+    /**
+     * Submits the sample and blocks until its output is ready, cheap on a virtual thread.
+     */
+    public Tensor4D predict(Tensor4D sample) {
+        try {
+            return submit(sample).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a prediction", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Prediction failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return number of forward passes run so far
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return number of requests answered so far
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Stops accepting requests. Batches that were already collected are finished, requests still waiting fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        List<Request> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (Request request : pending) {
+            request.result().completeExceptionally(new IllegalStateException("Inference engine is closed"));
+        }
+    }
+
+    private void dispatch() {
+        try {
+            while (!closed) {
+                // Erst auf einen freien Worker warten, solange sammeln sich weitere Anfragen in der Queue
+                idleWorkers.acquire();
+                List<Request> batch = collect();
+                workers.execute(() -> {
+                    try {
+                        run(batch);
+                    } finally {
+                        idleWorkers.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            // close() beendet den Dispatcher
+        }
+    }
+
+    private List<Request> collect() throws InterruptedException {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        Request first = queue.take();
+        batch.add(first);
+        long deadline = first.arrival() + maxWaitNanos;
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        try {
+            while (batch.size() < maxBatchSize) {
+                long remaining = deadline - System.nanoTime();
+                Request request = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (request == null) {
+                    break;
+                }
+                batch.add(request);
+                queue.drainTo(batch, maxBatchSize - batch.size());
+            }
+        } catch (InterruptedException e) {
+            // die bereits gesammelten Anfragen laufen noch, danach endet der Dispatcher
+            Thread.currentThread().interrupt();
+        }
+        return batch;
+    }
+
+    private void run(List<Request> batch) {
+        try {
+            Tensor4D buffer = batchBuffers.get();
+            if (buffer == null) {
+                buffer = new Tensor4D(model.getDataType(), maxBatchSize, channels, rows, cols);
+                batchBuffers.set(buffer);
+            }
+            // Die Samples in den wiederverwendeten Puffer packen, ein Batch ist immer ein zusammenhängender Anfang davon
+            Tensor4D images = buffer.slice(0, batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).sample().toDataType(images.getDataType()).reshape(images.slice(i, i + 1));
+            }
+            Tensor4D outputs = model.predict(images);
+            batches.incrementAndGet();
+            requests.addAndGet(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(outputs.slice(i, i + 1));
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Batch of {} requests failed", batch.size(), e);
+            for (Request request : batch) {
+                request.result().completeExceptionally(e);
+            }
+        }
+    }
+}
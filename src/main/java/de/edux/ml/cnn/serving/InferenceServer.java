@@ -0,0 +1,115 @@
+package de.edux.ml.cnn.serving;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal local HTTP front end of an {@link InferenceEngine}, based on the JDK's {@code com.sun.net.httpserver}.
+ * <p>
+ * {@code POST /predict} takes the raw sample as body, one unsigned byte per value in the layout of an IDX sample
+ * (e.g. the 784 pixels of an MNIST digit), and answers with {@code {"class":7,"outputs":[...]}}. Every exchange
+ * runs on a virtual thread of its own that blocks on the engine, so the server holds no platform thread per
+ * request.
+ */
+public class InferenceServer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InferenceServer.class);
+
+    private static final double SCALE = 1.0 / 255.0;
+
+    private final InferenceEngine engine;
+    private final int channels;
+    private final int rows;
+    private final int cols;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param port 0 picks a free port, see {@link #getPort()}
+     */
+    public InferenceServer(InferenceEngine engine, int channels, int rows, int cols, int port) throws IOException {
+        this.engine = engine;
+        this.channels = channels;
+        this.rows = rows;
+        this.cols = cols;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.server.createContext("/predict", this::predict);
+        this.server.setExecutor(executor);
+        this.server.start();
+        LOG.info("Inference server listening on port {}", server.getAddress().getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, the engine stays open.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void predict(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "{\"error\":\"use POST\"}");
+                return;
+            }
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (body.length != channels * rows * cols) {
+                respond(exchange, 400, "{\"error\":\"expected " + channels * rows * cols + " bytes, got "
+                        + body.length + "\"}");
+                return;
+            }
+            Tensor4D sample = new Tensor4D(DataType.FLOAT32, 1, channels, rows, cols);
+            float[] values = sample.getFloatBuffer();
+            for (int i = 0; i < body.length; i++) {
+                values[i] = (float) ((body[i] & 0xFF) * SCALE);
+            }
+            Tensor4D output;
+            try {
+                output = engine.predict(sample);
+            } catch (RuntimeException e) {
+                respond(exchange, 503, "{\"error\":\"prediction failed\"}");
+                return;
+            }
+            respond(exchange, 200, toJson(output));
+        }
+    }
+
+    private static String toJson(Tensor4D output) {
+        Tensor4D values = output.flatten();
+        int best = 0;
+        StringBuilder outputs = new StringBuilder();
+        for (int i = 0; i < values.getCols(); i++) {
+            if (values.get(0, 0, 0, i) > values.get(0, 0, 0, best)) {
+                best = i;
+            }
+            outputs.append(i == 0 ? "" : ",").append(values.get(0, 0, 0, i));
+        }
+        return "{\"class\":" + best + ",\"outputs\":[" + outputs + "]}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(response);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package de.edux.ml.cnn.serving;
+
+import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.InputLayer;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.network.Network;
+import de.edux.ml.cnn.network.NetworkBuilder;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load generator for the {@link InferenceServer}: every client is a virtual thread that sends the next
+ * request as soon as the previous one was answered, so the concurrency sets the load and the report shows the
+ * throughput and latency percentiles reached with it.
+ * <p>
+ * {@link #main(String[])} starts an engine and server for an MNIST-shaped network in the same process and runs
+ * the load against it, arguments are {@code [clients] [seconds] [max batch size] [max wait ms]}.
+ */
+public final class LoadGenerator {
+
+    /**
+     * @param latencies sorted latencies of the successful requests in nanoseconds
+     */
+    public record Report(int clients, double seconds, long errors, long[] latencies) {
+
+        public double throughput() {
+            return latencies.length / seconds;
+        }
+
+        /**
+         * @param percentile e.g. 99 for the p99 latency
+         * @return latency in milliseconds
+         */
+        public double latencyMillis(double percentile) {
+            if (latencies.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("clients %d: %d requests in %.1f s, %.0f req/s, p50 %.2f ms, p99 %.2f ms, errors %d",
+                    clients, latencies.length, seconds, throughput(), latencyMillis(50), latencyMillis(99), errors);
+        }
+    }
+
+    private LoadGenerator() {
+    }
+
+    /**
+     * Posts {@code body} to {@code uri} from {@code clients} virtual threads for {@code duration}.
+     */
+    public static Report run(URI uri, byte[] body, int clients, Duration duration) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+
+        // Client und Executor werden geschlossen, sonst bleibt pro Lauf ein Selector-Thread zurück
+        try (ExecutorService clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient client = HttpClient.newBuilder().executor(clientExecutor).build();
+             ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                int id = c;
+                threads.execute(() -> {
+                    long[] own = new long[1024];
+                    int count = 0;
+                    while (System.nanoTime() < end) {
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                                continue;
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                            continue;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                        if (count == own.length) {
+                            own = Arrays.copyOf(own, count * 2);
+                        }
+                        own[count++] = System.nanoTime() - sent;
+                    }
+                    latencies[id] = own;
+                    counts[id] = count;
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] all = new long[Arrays.stream(counts).sum()];
+        int position = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, position, counts[c]);
+            position += counts[c];
+        }
+        Arrays.sort(all);
+        return new Report(clients, seconds, errors.get(), all);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int maxBatchSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int maxWaitMillis = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+
+        // Für die Latenzmessung reicht ein untrainiertes Netz in der Form des MNIST-Modells
+        Tensor4D[] images = {new Tensor4D(DataType.FLOAT32, 1, 1, 28, 28)};
+        Tensor4D[] labels = {new Tensor4D(DataType.FLOAT32, 1, 1, 1, 10)};
+        Network network = new NetworkBuilder()
+                .addLayer(new InputLayer(28, 28, 1))
+                .addLayer(new ConvolutionalLayer(8, 3, 1, 1, 1))
+                .addLayer(new FlattenLayer())
+                .addLayer(new FullyConnectedLayer(6272, 10, 0.01))
+                .addLayer(new SoftmaxLayer())
+                .dataType(DataType.FLOAT32)
+                .build(images, labels, 1, 1, Optimizer.SGD, 0.01);
+
+        byte[] digit = new byte[28 * 28];
+        new Random(1).nextBytes(digit);
+        try (InferenceEngine engine = new InferenceEngine(network.getInferenceModel(), 1, 28, 28,
+                maxBatchSize, Duration.ofMillis(maxWaitMillis), 2);
+             InferenceServer server = new InferenceServer(engine, 1, 28, 28, 0)) {
+            URI uri = URI.create("http://localhost:" + server.getPort() + "/predict");
+            // kurzes Aufwärmen für den JIT, dann die eigentliche Messung
+            run(uri, digit, clients, Duration.ofSeconds(2));
+            long batches = engine.getBatches();
+            long requests = engine.getRequests();
+            Report report = run(uri, digit, clients, Duration.ofSeconds(seconds));
+            System.out.println(report);
+            System.out.printf("mean batch size %.1f%n",
+                    (double) (engine.getRequests() - requests) / Math.max(1, engine.getBatches() - batches));
+        }
+    }
+}
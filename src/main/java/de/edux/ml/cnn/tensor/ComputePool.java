@@ -0,0 +1,241 @@
+package de.edux.ml.cnn.tensor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Fork/join pool the tensor kernels split their work on.
+ * <p>
+ * Kernels cut their iteration space (batches, output channels, row tiles, GEMM tiles) into chunks and hand them to
+ * {@link #forEachChunk(int, int, ChunkTask)}. How many chunks are used is decided by {@link #chunks(int, long)}:
+ * at most one per thread and none smaller than {@link #MIN_TASK_COST} multiply-adds, so small ops stay on the
+ * calling thread. Nested calls from inside a chunk run on the same pool.
+ * <p>
+ * All kernels use the {@link #shared() shared} pool of the process. Its size defaults to the number of processors
+ * and can be changed with {@code -Dcnn.threads}, {@link #resizeShared(int)} or {@link #setShared(ComputePool)}, e.g.
+ * through the network builder.
+ */
+public final class ComputePool implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ComputePool.class);
+
+    /**
+     * Smallest amount of work in multiply-adds that is worth a task of its own.
+     */
+    public static final long MIN_TASK_COST = 1L << 15;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private static volatile ComputePool shared =
+            new ComputePool(Integer.getInteger("cnn.threads", Runtime.getRuntime().availableProcessors()), true);
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    // true für Pools, die diese Klasse selbst anlegt: nur sie werden beim Ersetzen geschlossen
+    private final boolean owned;
+    // laufende Aufrufe von außerhalb des Pools und ob er nach dem letzten geschlossen wird, beides unter this
+    private int running;
+    private boolean retired;
+
+    /**
+     * @param parallelism number of threads, 1 runs every kernel on the calling thread
+     */
+    public ComputePool(int parallelism) {
+        this(parallelism, false);
+    }
+
+    private ComputePool(int parallelism, boolean owned) {
+        if (parallelism < 1) {
+            LOG.error("Parallelism must be at least 1, got {}", parallelism);
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.owned = owned;
+        this.pool = parallelism == 1 ? null : new ForkJoinPool(parallelism, daemonThreads(), null, false);
+    }
+
+    public static ComputePool shared() {
+        return shared;
+    }
+
+    /**
+     * Replaces the pool used by all kernels of the process. The caller owns {@code pool} and closes it, the previous
+     * pool is left open since the caller may restore it.
+     */
+    public static synchronized void setShared(ComputePool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Compute pool must not be null");
+        }
+        shared = pool;
+    }
+
+    /**
+     * Makes the pool used by all kernels of the process run on {@code parallelism} threads. The shared pool is kept
+     * if it already has this size, otherwise it is replaced by a new one. A replaced pool that was created here or
+     * by default is shut down as soon as the work running on it is done, pools passed to
+     * {@link #setShared(ComputePool)} stay open.
+     *
+     * @return the shared pool
+     */
+    public static synchronized ComputePool resizeShared(int parallelism) {
+        ComputePool current = shared;
+        if (current.parallelism == parallelism && !current.isClosed()) {
+            return current;
+        }
+        ComputePool pool = new ComputePool(parallelism, true);
+        shared = pool;
+        if (current.owned) {
+            current.retire();
+        }
+        return pool;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return true if the threads of this pool were shut down, kernels called on it then run on the calling thread
+     */
+    public boolean isClosed() {
+        return pool != null && pool.isShutdown();
+    }
+
+    /**
+     * Number of chunks {@code count} items of {@code costPerItem} multiply-adds each should be split into.
+     */
+    public int chunks(int count, long costPerItem) {
+        if (pool == null || count <= 1) {
+            return 1;
+        }
+        long totalCost = costPerItem > Long.MAX_VALUE / count ? Long.MAX_VALUE : count * costPerItem;
+        long byGrain = totalCost / MIN_TASK_COST;
+        return (int) Math.max(1, Math.min(Math.min(count, parallelism), byGrain));
+    }
+
+    /**
+     * Runs {@code body} for every index in {@code [0, count)}, split by {@link #chunks(int, long)}.
+     */
+    public void parallelFor(int count, long costPerItem, IntConsumer body) {
+        forEachChunk(chunks(count, costPerItem), count, (chunk, from, to) -> {
+            for (int i = from; i < to; i++) {
+                body.accept(i);
+            }
+        });
+    }
+
+    /**
+     * Splits {@code [0, count)} into {@code chunks} contiguous ranges of nearly equal size and runs {@code task}
+     * once per range, in parallel when there is more than one. Chunk {@code c} covers
+     * {@code [c * count / chunks, (c + 1) * count / chunks)}, so callers can keep per-chunk buffers and combine
+     * per-chunk results in chunk order. Returns when all chunks are done.
+     */
+    public void forEachChunk(int chunks, int count, ChunkTask task) {
+        if (chunks < 1 || chunks > Math.max(1, count)) {
+            throw new IllegalArgumentException("Cannot split " + count + " items into " + chunks + " chunks");
+        }
+        if (chunks == 1 || pool == null) {
+            runOnCallingThread(chunks, count, task);
+            return;
+        }
+        ChunkAction action = new ChunkAction(task, 0, chunks, chunks, count);
+        if (Thread.currentThread() instanceof ForkJoinWorkerThread worker && worker.getPool() == pool) {
+            action.invoke();
+        } else if (enter()) {
+            try {
+                pool.invoke(action);
+            } finally {
+                exit();
+            }
+        } else {
+            // Pool wurde geschlossen, nachdem der Aufrufer ihn geholt hat
+            runOnCallingThread(chunks, count, task);
+        }
+    }
+
+    private static void runOnCallingThread(int chunks, int count, ChunkTask task) {
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            task.run(chunk, (int) ((long) chunk * count / chunks), (int) ((long) (chunk + 1) * count / chunks));
+        }
+    }
+
+    private synchronized boolean enter() {
+        if (pool.isShutdown()) {
+            return false;
+        }
+        running++;
+        return true;
+    }
+
+    private synchronized void exit() {
+        running--;
+        if (retired && running == 0) {
+            pool.shutdown();
+        }
+    }
+
+    // schließt den Pool, sobald keine Arbeit mehr auf ihm läuft
+    private synchronized void retire() {
+        retired = true;
+        if (running == 0) {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static ForkJoinPool.ForkJoinWorkerThreadFactory daemonThreads() {
+        int poolNumber = POOL_NUMBER.incrementAndGet();
+        return forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("cnn-compute-" + poolNumber + "-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    public interface ChunkTask {
+        void run(int chunk, int from, int to);
+    }
+
+    // RecursiveAction ist Serializable, die Aktionen leben aber nur für einen Aufruf und werden nie serialisiert
+    @SuppressWarnings("serial")
+    private static final class ChunkAction extends RecursiveAction {
+        private final ChunkTask task;
+        private final int firstChunk;
+        private final int lastChunk;
+        private final int chunks;
+        private final int count;
+
+        ChunkAction(ChunkTask task, int firstChunk, int lastChunk, int chunks, int count) {
+            this.task = task;
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+            this.chunks = chunks;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastChunk - firstChunk == 1) {
+                task.run(firstChunk, (int) ((long) firstChunk * count / chunks), (int) ((long) lastChunk * count / chunks));
+                return;
+            }
+            int middle = (firstChunk + lastChunk) >>> 1;
+            invokeAll(new ChunkAction(task, firstChunk, middle, chunks, count),
+                    new ChunkAction(task, middle, lastChunk, chunks, count));
+        }
+    }
+}
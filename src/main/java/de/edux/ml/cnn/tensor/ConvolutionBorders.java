@@ -0,0 +1,30 @@
+package de.edux.ml.cnn.tensor;
+
+/**
+ * Border geometry for convolutions with implicit zero padding.
+ * <p>
+ * Output position {@code o} reads input position {@code o * stride + shift} for a filter tap, where
+ * {@code shift = tap - padding}. The methods return the range {@code [start, end)} of output positions that read
+ * inside the input, everything outside of it reads padding zeros. Loops over that range need no bounds checks,
+ * so no padded copy of the input is needed.
+ */
+final class ConvolutionBorders {
+
+    private ConvolutionBorders() {
+    }
+
+    /**
+     * @return first output position reading at or after input position 0
+     */
+    static int start(int shift, int stride) {
+        return shift >= 0 ? 0 : (-shift + stride - 1) / stride;
+    }
+
+    /**
+     * @return first output position at or after {@code start} reading past the end of the input, at most {@code outputSize}
+     */
+    static int end(int shift, int size, int stride, int outputSize) {
+        int end = size - shift <= 0 ? 0 : (size - shift + stride - 1) / stride;
+        return Math.max(start(shift, stride), Math.min(end, outputSize));
+    }
+}
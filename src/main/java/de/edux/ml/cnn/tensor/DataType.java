@@ -0,0 +1,20 @@
+package de.edux.ml.cnn.tensor;
+
+/**
+ * Element type of the flat buffer behind a {@link Tensor4D}.
+ * FLOAT32 halves the memory of activations and weights, FLOAT64 is kept for gradient checks.
+ */
+public enum DataType {
+    FLOAT32(Float.BYTES),
+    FLOAT64(Double.BYTES);
+
+    private final int bytes;
+
+    DataType(int bytes) {
+        this.bytes = bytes;
+    }
+
+    public int getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,112 @@
+package de.edux.ml.cnn.tensor;
+
+/**
+ * Element-wise and reduction loops over flat buffers. Obtain the implementation through {@link Kernels#ELEMENTWISE},
+ * which uses the Java Vector API when the {@code jdk.incubator.vector} module is available.
+ */
+public interface ElementwiseKernels {
+
+    /**
+     * {@code y[i] = alpha * x[i]}
+     */
+    void scale(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    void scale(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * {@code y[i] = a[i] - b[i]}
+     */
+    void subtract(double[] a, int aOffset, double[] b, int bOffset, double[] y, int yOffset, int length);
+
+    void subtract(float[] a, int aOffset, float[] b, int bOffset, float[] y, int yOffset, int length);
+
+    /**
+     * {@code y[i] += alpha * x[i]}
+     */
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * {@code y[i] = x[i] + bias}
+     */
+    void addScalar(double bias, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    void addScalar(float bias, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * ReLU with bias over at most 64 elements: {@code y[i] = max(x[i] + bias, 0)}.
+     *
+     * @return a mask with bit {@code i} set where {@code y[i] > 0}
+     */
+    long biasRelu(double bias, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    long biasRelu(float bias, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * ReLU backward over at most 64 elements: {@code y[i] = x[i]} where bit {@code i} of {@code mask} is set,
+     * otherwise 0.
+     */
+    void maskedCopy(long mask, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    void maskedCopy(long mask, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    double sum(double[] x, int offset, int length);
+
+    float sum(float[] x, int offset, int length);
+
+    double max(double[] x, int offset, int length);
+
+    float max(float[] x, int offset, int length);
+
+    /**
+     * {@code y[i] = exp(x[i] - shift)}
+     *
+     * @return the sum of all {@code y[i]}
+     */
+    double expSum(double[] x, int xOffset, double shift, double[] y, int yOffset, int length);
+
+    float expSum(float[] x, int xOffset, float shift, float[] y, int yOffset, int length);
+
+    /**
+     * Fused SGD with momentum: {@code v[i] = momentum * v[i] + scale * g[i]; w[i] -= learningRate * v[i]}.
+     * The state array {@code velocity} is indexed from 0.
+     */
+    void momentumUpdate(double learningRate, double momentum, double scale, double[] g, int gOffset,
+                        double[] velocity, double[] w, int wOffset, int length);
+
+    void momentumUpdate(float learningRate, float momentum, float scale, float[] g, int gOffset,
+                        float[] velocity, float[] w, int wOffset, int length);
+
+    /**
+     * Fused RMSProp with {@code d = scale * g[i]}: {@code s[i] = decay * s[i] + (1 - decay) * d * d;
+     * w[i] -= learningRate * d / (sqrt(s[i]) + epsilon)}. The state array {@code meanSquare} is indexed from 0.
+     */
+    void rmsPropUpdate(double learningRate, double decay, double epsilon, double scale, double[] g, int gOffset,
+                       double[] meanSquare, double[] w, int wOffset, int length);
+
+    void rmsPropUpdate(float learningRate, float decay, float epsilon, float scale, float[] g, int gOffset,
+                       float[] meanSquare, float[] w, int wOffset, int length);
+
+    /**
+     * Fused Adam with {@code d = scale * g[i]}: {@code m[i] = beta1 * m[i] + (1 - beta1) * d;
+     * v[i] = beta2 * v[i] + (1 - beta2) * d * d; w[i] -= stepSize * m[i] / (sqrt(v[i] * varianceCorrection) + epsilon)}.
+     * The bias corrections are folded into {@code stepSize = learningRate / (1 - beta1^t)} and
+     * {@code varianceCorrection = 1 / (1 - beta2^t)}. The state arrays are indexed from 0.
+     */
+    void adamUpdate(double stepSize, double beta1, double beta2, double varianceCorrection, double epsilon, double scale,
+                    double[] g, int gOffset, double[] m, double[] v, double[] w, int wOffset, int length);
+
+    void adamUpdate(float stepSize, float beta1, float beta2, float varianceCorrection, float epsilon, float scale,
+                    float[] g, int gOffset, float[] m, float[] v, float[] w, int wOffset, int length);
+
+    /**
+     * Dot product of int8 vectors with int32 accumulation: {@code sum of a[i] * b[i]}.
+     */
+    int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    /**
+     * int8 values widened to int32: {@code y[i] += alpha * x[i]}.
+     */
+    void axpy(int alpha, byte[] x, int xOffset, int[] y, int yOffset, int length);
+}
@@ -0,0 +1,424 @@
+package de.edux.ml.cnn.tensor;
+
+/**
+ * General matrix multiply {@code C = alpha * op(A) * op(B) + beta * C} for the flat tensor buffers.
+ * <p>
+ * Every operand is addressed by an offset plus a row and a column stride, so transposed operands
+ * are read in place instead of being copied. The product is computed in blocks of
+ * {@code MC x KC} (A) and {@code KC x NC} (B) that are packed into contiguous panels and fed to a
+ * {@code MR x NR} register tile. Output tiles are distributed over the {@link ComputePool#shared() shared}
+ * compute pool, small products stay on the calling thread.
+ */
+public final class Gemm {
+
+    private static final int MR = 4;
+    private static final int NR = 4;
+    private static final int MC = 64;
+    private static final int KC = 256;
+    private static final int NC = 512;
+
+    /**
+     * Products with fewer multiply-adds than this run on the calling thread.
+     */
+    private static final long PARALLEL_THRESHOLD = 1L << 20;
+
+    private static final ThreadLocal<double[]> PACKED_A = ThreadLocal.withInitial(() -> new double[MC * KC]);
+    private static final ThreadLocal<double[]> PACKED_B = ThreadLocal.withInitial(() -> new double[KC * NC]);
+    private static final ThreadLocal<float[]> PACKED_A_FLOAT = ThreadLocal.withInitial(() -> new float[MC * KC]);
+    private static final ThreadLocal<float[]> PACKED_B_FLOAT = ThreadLocal.withInitial(() -> new float[KC * NC]);
+
+    private Gemm() {
+    }
+
+    /**
+     * BLAS style entry point for two tensors used as row-major matrices starting at their first element
+     * ({@link Tensor4D#getOffset()}).
+     *
+     * @param transA use A transposed, A is stored as {@code k x m} with leading dimension {@code lda}
+     * @param transB use B transposed, B is stored as {@code n x k} with leading dimension {@code ldb}
+     */
+    public static void gemm(boolean transA, boolean transB, int m, int n, int k,
+                            double alpha, Tensor4D a, int lda, Tensor4D b, int ldb,
+                            double beta, Tensor4D c, int ldc) {
+        gemm(m, n, k, alpha,
+                a, a.getOffset(), transA ? 1 : lda, transA ? lda : 1,
+                b, b.getOffset(), transB ? 1 : ldb, transB ? ldb : 1,
+                beta, c, c.getOffset(), ldc, 1);
+    }
+
+    /**
+     * Tensor variant of {@link #gemm(int, int, int, double, double[], int, int, int, double[], int, int, int, double, double[], int, int, int)}
+     * dispatching on the data type of the tensors.
+     */
+    public static void gemm(int m, int n, int k, double alpha,
+                            Tensor4D a, int aOffset, int aRowStride, int aColStride,
+                            Tensor4D b, int bOffset, int bRowStride, int bColStride,
+                            double beta, Tensor4D c, int cOffset, int cRowStride, int cColStride) {
+        if (a.getDataType() != c.getDataType() || b.getDataType() != c.getDataType()) {
+            throw new IllegalArgumentException("Tensor data types must match for matrix multiplication");
+        }
+        if (c.isFloat()) {
+            gemm(m, n, k, (float) alpha, a.getFloatBuffer(), aOffset, aRowStride, aColStride,
+                    b.getFloatBuffer(), bOffset, bRowStride, bColStride, (float) beta, c.getFloatBuffer(), cOffset, cRowStride, cColStride);
+        } else {
+            gemm(m, n, k, alpha, a.getBuffer(), aOffset, aRowStride, aColStride,
+                    b.getBuffer(), bOffset, bRowStride, bColStride, beta, c.getBuffer(), cOffset, cRowStride, cColStride);
+        }
+    }
+
+    /**
+     * Computes {@code C = alpha * A * B + beta * C} where {@code A} is {@code m x k}, {@code B} is {@code k x n}
+     * and element {@code (i, j)} of a matrix {@code X} is {@code x[xOffset + i * xRowStride + j * xColStride]}.
+     * With {@code beta == 0} the previous content of {@code C} is ignored.
+     */
+    public static void gemm(int m, int n, int k, double alpha,
+                            double[] a, int aOffset, int aRowStride, int aColStride,
+                            double[] b, int bOffset, int bRowStride, int bColStride,
+                            double beta, double[] c, int cOffset, int cRowStride, int cColStride) {
+        if (m == 0 || n == 0) {
+            return;
+        }
+        if (k == 0) {
+            scale(m, n, beta, c, cOffset, cRowStride, cColStride);
+            return;
+        }
+        int mc = blockSize(m, n, k, MC, MR);
+        int tilesM = (m + mc - 1) / mc;
+        int tilesN = (n + NC - 1) / NC;
+        if (!isParallel(m, n, k) || tilesM * tilesN == 1) {
+            for (int tile = 0; tile < tilesM * tilesN; tile++) {
+                computeTile(tile / tilesN, tile % tilesN, mc, m, n, k, alpha, a, aOffset, aRowStride, aColStride,
+                        b, bOffset, bRowStride, bColStride, beta, c, cOffset, cRowStride, cColStride);
+            }
+            return;
+        }
+        ComputePool.shared().parallelFor(tilesM * tilesN, (long) mc * Math.min(n, NC) * k, tile ->
+                computeTile(tile / tilesN, tile % tilesN, mc, m, n, k, alpha, a, aOffset, aRowStride, aColStride,
+                        b, bOffset, bRowStride, bColStride, beta, c, cOffset, cRowStride, cColStride));
+    }
+
+    /**
+     * Single precision variant of {@link #gemm(int, int, int, double, double[], int, int, int, double[], int, int, int, double, double[], int, int, int)}.
+     */
+    public static void gemm(int m, int n, int k, float alpha,
+                            float[] a, int aOffset, int aRowStride, int aColStride,
+                            float[] b, int bOffset, int bRowStride, int bColStride,
+                            float beta, float[] c, int cOffset, int cRowStride, int cColStride) {
+        if (m == 0 || n == 0) {
+            return;
+        }
+        if (k == 0) {
+            scale(m, n, beta, c, cOffset, cRowStride, cColStride);
+            return;
+        }
+        int mc = blockSize(m, n, k, MC, MR);
+        int tilesM = (m + mc - 1) / mc;
+        int tilesN = (n + NC - 1) / NC;
+        if (!isParallel(m, n, k) || tilesM * tilesN == 1) {
+            for (int tile = 0; tile < tilesM * tilesN; tile++) {
+                computeTile(tile / tilesN, tile % tilesN, mc, m, n, k, alpha, a, aOffset, aRowStride, aColStride,
+                        b, bOffset, bRowStride, bColStride, beta, c, cOffset, cRowStride, cColStride);
+            }
+            return;
+        }
+        ComputePool.shared().parallelFor(tilesM * tilesN, (long) mc * Math.min(n, NC) * k, tile ->
+                computeTile(tile / tilesN, tile % tilesN, mc, m, n, k, alpha, a, aOffset, aRowStride, aColStride,
+                        b, bOffset, bRowStride, bColStride, beta, c, cOffset, cRowStride, cColStride));
+    }
+
+    private static boolean isParallel(int m, int n, int k) {
+        return (long) m * n * k >= PARALLEL_THRESHOLD && ComputePool.shared().getParallelism() > 1;
+    }
+
+    /**
+     * Shrinks the row block when there are too few row blocks to keep all cores busy.
+     */
+    private static int blockSize(int m, int n, int k, int maxBlock, int multiple) {
+        if (!isParallel(m, n, k)) {
+            return maxBlock;
+        }
+        int tilesN = (n + NC - 1) / NC;
+        int wantedTilesM = Math.max(1, ComputePool.shared().getParallelism() / tilesN);
+        int block = (m + wantedTilesM - 1) / wantedTilesM;
+        block = (block + multiple - 1) / multiple * multiple;
+        return Math.max(multiple, Math.min(maxBlock, block));
+    }
+
+    private static void computeTile(int tileM, int tileN, int mc, int m, int n, int k, double alpha,
+                                    double[] a, int aOffset, int aRowStride, int aColStride,
+                                    double[] b, int bOffset, int bRowStride, int bColStride,
+                                    double beta, double[] c, int cOffset, int cRowStride, int cColStride) {
+        double[] packedA = PACKED_A.get();
+        double[] packedB = PACKED_B.get();
+        int ic = tileM * mc;
+        int jc = tileN * NC;
+        int mb = Math.min(mc, m - ic);
+        int nb = Math.min(NC, n - jc);
+        for (int pc = 0; pc < k; pc += KC) {
+            int kb = Math.min(KC, k - pc);
+            packB(kb, nb, b, bOffset + pc * bRowStride + jc * bColStride, bRowStride, bColStride, packedB);
+            packA(mb, kb, a, aOffset + ic * aRowStride + pc * aColStride, aRowStride, aColStride, packedA);
+            macroKernel(mb, nb, kb, alpha, packedA, packedB, pc == 0 ? beta : 1.0,
+                    c, cOffset + ic * cRowStride + jc * cColStride, cRowStride, cColStride);
+        }
+    }
+
+    private static void computeTile(int tileM, int tileN, int mc, int m, int n, int k, float alpha,
+                                    float[] a, int aOffset, int aRowStride, int aColStride,
+                                    float[] b, int bOffset, int bRowStride, int bColStride,
+                                    float beta, float[] c, int cOffset, int cRowStride, int cColStride) {
+        float[] packedA = PACKED_A_FLOAT.get();
+        float[] packedB = PACKED_B_FLOAT.get();
+        int ic = tileM * mc;
+        int jc = tileN * NC;
+        int mb = Math.min(mc, m - ic);
+        int nb = Math.min(NC, n - jc);
+        for (int pc = 0; pc < k; pc += KC) {
+            int kb = Math.min(KC, k - pc);
+            packB(kb, nb, b, bOffset + pc * bRowStride + jc * bColStride, bRowStride, bColStride, packedB);
+            packA(mb, kb, a, aOffset + ic * aRowStride + pc * aColStride, aRowStride, aColStride, packedA);
+            macroKernel(mb, nb, kb, alpha, packedA, packedB, pc == 0 ? beta : 1.0f,
+                    c, cOffset + ic * cRowStride + jc * cColStride, cRowStride, cColStride);
+        }
+    }
+
+    /**
+     * Packs an {@code mb x kb} block of A into panels of MR rows, each panel stored k-major.
+     * Rows beyond {@code mb} are filled with zeros.
+     */
+    private static void packA(int mb, int kb, double[] a, int offset, int rowStride, int colStride, double[] packed) {
+        int target = 0;
+        for (int ir = 0; ir < mb; ir += MR) {
+            int rows = Math.min(MR, mb - ir);
+            for (int p = 0; p < kb; p++) {
+                int source = offset + ir * rowStride + p * colStride;
+                for (int i = 0; i < rows; i++) {
+                    packed[target + i] = a[source + i * rowStride];
+                }
+                for (int i = rows; i < MR; i++) {
+                    packed[target + i] = 0.0;
+                }
+                target += MR;
+            }
+        }
+    }
+
+    private static void packA(int mb, int kb, float[] a, int offset, int rowStride, int colStride, float[] packed) {
+        int target = 0;
+        for (int ir = 0; ir < mb; ir += MR) {
+            int rows = Math.min(MR, mb - ir);
+            for (int p = 0; p < kb; p++) {
+                int source = offset + ir * rowStride + p * colStride;
+                for (int i = 0; i < rows; i++) {
+                    packed[target + i] = a[source + i * rowStride];
+                }
+                for (int i = rows; i < MR; i++) {
+                    packed[target + i] = 0.0f;
+                }
+                target += MR;
+            }
+        }
+    }
+
+    /**
+     * Packs a {@code kb x nb} block of B into panels of NR columns, each panel stored k-major.
+     * Columns beyond {@code nb} are filled with zeros.
+     */
+    private static void packB(int kb, int nb, double[] b, int offset, int rowStride, int colStride, double[] packed) {
+        int target = 0;
+        for (int jr = 0; jr < nb; jr += NR) {
+            int cols = Math.min(NR, nb - jr);
+            for (int p = 0; p < kb; p++) {
+                int source = offset + p * rowStride + jr * colStride;
+                for (int j = 0; j < cols; j++) {
+                    packed[target + j] = b[source + j * colStride];
+                }
+                for (int j = cols; j < NR; j++) {
+                    packed[target + j] = 0.0;
+                }
+                target += NR;
+            }
+        }
+    }
+
+    private static void packB(int kb, int nb, float[] b, int offset, int rowStride, int colStride, float[] packed) {
+        int target = 0;
+        for (int jr = 0; jr < nb; jr += NR) {
+            int cols = Math.min(NR, nb - jr);
+            for (int p = 0; p < kb; p++) {
+                int source = offset + p * rowStride + jr * colStride;
+                for (int j = 0; j < cols; j++) {
+                    packed[target + j] = b[source + j * colStride];
+                }
+                for (int j = cols; j < NR; j++) {
+                    packed[target + j] = 0.0f;
+                }
+                target += NR;
+            }
+        }
+    }
+
+    private static void macroKernel(int mb, int nb, int kb, double alpha, double[] packedA, double[] packedB,
+                                    double beta, double[] c, int cOffset, int cRowStride, int cColStride) {
+        double[] tile = new double[MR * NR];
+        for (int jr = 0; jr < nb; jr += NR) {
+            int cols = Math.min(NR, nb - jr);
+            for (int ir = 0; ir < mb; ir += MR) {
+                int rows = Math.min(MR, mb - ir);
+                microKernel(kb, packedA, ir * kb, packedB, jr * kb, tile);
+                int base = cOffset + ir * cRowStride + jr * cColStride;
+                for (int i = 0; i < rows; i++) {
+                    for (int j = 0; j < cols; j++) {
+                        int index = base + i * cRowStride + j * cColStride;
+                        double value = alpha * tile[i * NR + j];
+                        c[index] = beta == 0.0 ? value : beta * c[index] + value;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void macroKernel(int mb, int nb, int kb, float alpha, float[] packedA, float[] packedB,
+                                    float beta, float[] c, int cOffset, int cRowStride, int cColStride) {
+        float[] tile = new float[MR * NR];
+        for (int jr = 0; jr < nb; jr += NR) {
+            int cols = Math.min(NR, nb - jr);
+            for (int ir = 0; ir < mb; ir += MR) {
+                int rows = Math.min(MR, mb - ir);
+                microKernel(kb, packedA, ir * kb, packedB, jr * kb, tile);
+                int base = cOffset + ir * cRowStride + jr * cColStride;
+                for (int i = 0; i < rows; i++) {
+                    for (int j = 0; j < cols; j++) {
+                        int index = base + i * cRowStride + j * cColStride;
+                        float value = alpha * tile[i * NR + j];
+                        c[index] = beta == 0.0f ? value : beta * c[index] + value;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiplies one packed MR panel of A with one packed NR panel of B, keeping the
+     * {@code MR x NR} accumulators in registers.
+     */
+    private static void microKernel(int kb, double[] a, int ai, double[] b, int bi, double[] tile) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p = 0; p < kb; p++) {
+            double a0 = a[ai];
+            double a1 = a[ai + 1];
+            double a2 = a[ai + 2];
+            double a3 = a[ai + 3];
+            double b0 = b[bi];
+            double b1 = b[bi + 1];
+            double b2 = b[bi + 2];
+            double b3 = b[bi + 3];
+            c00 += a0 * b0;
+            c01 += a0 * b1;
+            c02 += a0 * b2;
+            c03 += a0 * b3;
+            c10 += a1 * b0;
+            c11 += a1 * b1;
+            c12 += a1 * b2;
+            c13 += a1 * b3;
+            c20 += a2 * b0;
+            c21 += a2 * b1;
+            c22 += a2 * b2;
+            c23 += a2 * b3;
+            c30 += a3 * b0;
+            c31 += a3 * b1;
+            c32 += a3 * b2;
+            c33 += a3 * b3;
+            ai += MR;
+            bi += NR;
+        }
+        tile[0] = c00;
+        tile[1] = c01;
+        tile[2] = c02;
+        tile[3] = c03;
+        tile[4] = c10;
+        tile[5] = c11;
+        tile[6] = c12;
+        tile[7] = c13;
+        tile[8] = c20;
+        tile[9] = c21;
+        tile[10] = c22;
+        tile[11] = c23;
+        tile[12] = c30;
+        tile[13] = c31;
+        tile[14] = c32;
+        tile[15] = c33;
+    }
+
+    private static void microKernel(int kb, float[] a, int ai, float[] b, int bi, float[] tile) {
+        float c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        float c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        float c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        float c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p = 0; p < kb; p++) {
+            float a0 = a[ai];
+            float a1 = a[ai + 1];
+            float a2 = a[ai + 2];
+            float a3 = a[ai + 3];
+            float b0 = b[bi];
+            float b1 = b[bi + 1];
+            float b2 = b[bi + 2];
+            float b3 = b[bi + 3];
+            c00 += a0 * b0;
+            c01 += a0 * b1;
+            c02 += a0 * b2;
+            c03 += a0 * b3;
+            c10 += a1 * b0;
+            c11 += a1 * b1;
+            c12 += a1 * b2;
+            c13 += a1 * b3;
+            c20 += a2 * b0;
+            c21 += a2 * b1;
+            c22 += a2 * b2;
+            c23 += a2 * b3;
+            c30 += a3 * b0;
+            c31 += a3 * b1;
+            c32 += a3 * b2;
+            c33 += a3 * b3;
+            ai += MR;
+            bi += NR;
+        }
+        tile[0] = c00;
+        tile[1] = c01;
+        tile[2] = c02;
+        tile[3] = c03;
+        tile[4] = c10;
+        tile[5] = c11;
+        tile[6] = c12;
+        tile[7] = c13;
+        tile[8] = c20;
+        tile[9] = c21;
+        tile[10] = c22;
+        tile[11] = c23;
+        tile[12] = c30;
+        tile[13] = c31;
+        tile[14] = c32;
+        tile[15] = c33;
+    }
+
+    private static void scale(int m, int n, double beta, double[] c, int offset, int rowStride, int colStride) {
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                int index = offset + i * rowStride + j * colStride;
+                c[index] = beta == 0.0 ? 0.0 : beta * c[index];
+            }
+        }
+    }
+
+    private static void scale(int m, int n, float beta, float[] c, int offset, int rowStride, int colStride) {
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                int index = offset + i * rowStride + j * colStride;
+                c[index] = beta == 0.0f ? 0.0f : beta * c[index];
+            }
+        }
+    }
+}
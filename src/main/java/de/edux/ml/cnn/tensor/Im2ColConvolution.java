@@ -0,0 +1,401 @@
+package de.edux.ml.cnn.tensor;
+
+import java.util.Arrays;
+
+/**
+ * Convolution lowered to matrix multiplication.
+ * <p>
+ * For every batch entry the receptive fields of the input are unrolled into a column matrix
+ * of shape {@code (channels * filterRows * filterCols) x (outputRows * outputCols)} (im2col).
+ * The forward pass, the filter gradient and the input gradient then become one {@link Gemm} call each,
+ * the input gradient is folded back into image layout with col2im.
+ * <p>
+ * The work is split on the {@link ComputePool#shared() shared compute pool}: the forward pass and the filter
+ * gradient over tiles of output rows across the whole batch, so a single image is split as well, the input
+ * gradient over batch entries. Every chunk has its own column buffer, the per-chunk filter gradients are summed in
+ * chunk order. The buffers are owned by the instance and reused for calls with the same geometry, so an instance
+ * must not be used by two threads at the same time.
+ * <p>
+ * Like {@link Tensor4D#convolve(Tensor4D, int, int)} only the first {@code input.getChannels()} channels of
+ * the filters are used.
+ */
+public class Im2ColConvolution {
+
+    private final int stride;
+    private final int padding;
+
+    private Tensor4D[] columns = new Tensor4D[0];
+    private Tensor4D[] columnGradients = new Tensor4D[0];
+    private Tensor4D[] partialFilterGradients = new Tensor4D[0];
+
+    public Im2ColConvolution(int stride, int padding) {
+        this.stride = stride;
+        this.padding = padding;
+    }
+
+    public int outputSize(int inputSize, int filterSize) {
+        return (inputSize + 2 * padding - filterSize) / stride + 1;
+    }
+
+    /**
+     * @param input   [batches][channels][rows][cols]
+     * @param filters [numberOfFilters][channels][filterRows][filterCols]
+     * @return [batches][numberOfFilters][outputRows][outputCols]
+     */
+    public Tensor4D forward(Tensor4D input, Tensor4D filters) {
+        return forward(input, filters, new Tensor4D(input.getDataType(), input.getBatches(), filters.getBatches(),
+                outputSize(input.getRows(), filters.getRows()), outputSize(input.getCols(), filters.getCols())));
+    }
+
+    /**
+     * Like {@link #forward(Tensor4D, Tensor4D)}, the result is written into {@code output}.
+     */
+    public Tensor4D forward(Tensor4D input, Tensor4D filters, Tensor4D output) {
+        return forward(input, filters, null, false, null, output);
+    }
+
+    /**
+     * Fused convolution, bias and ReLU: every output tile gets the bias of its filter and, if {@code relu} is set,
+     * the ReLU right after its GEMM, while it is still in the cache, instead of in separate passes over the output.
+     *
+     * @param biases [1][numberOfFilters][1][1] or null
+     * @param mask   records the positive outputs of the ReLU for the backward pass, may be null
+     */
+    public Tensor4D forward(Tensor4D input, Tensor4D filters, Tensor4D biases, boolean relu, ReluMask mask,
+                            Tensor4D output) {
+        input = input.contiguous();
+        filters = filters.contiguous();
+        int outputRows = outputSize(input.getRows(), filters.getRows());
+        int outputCols = outputSize(input.getCols(), filters.getCols());
+        int patch = input.getChannels() * filters.getRows() * filters.getCols();
+        int positions = outputRows * outputCols;
+        Tensor4D.checkOutput(output, input.getDataType(), input.getBatches(), filters.getBatches(), outputRows, outputCols);
+        if (relu && mask != null) {
+            mask.resize(input.getBatches(), filters.getBatches(), outputRows, outputCols);
+        }
+        boolean epilogue = biases != null || relu;
+
+        ComputePool computePool = ComputePool.shared();
+        int items = input.getBatches() * outputRows;
+        int chunks = computePool.chunks(items, (long) filters.getBatches() * patch * outputCols);
+        Tensor4D[] buffers = columns = ensureBuffers(columns, chunks, input.getDataType(), patch,
+                tileRows(items, chunks, outputRows) * outputCols);
+        Tensor4D in = input;
+        Tensor4D f = filters;
+        computePool.forEachChunk(chunks, items, (chunk, from, to) -> {
+            for (int item = from; item < to; ) {
+                int batch = item / outputRows;
+                int firstRow = item % outputRows;
+                int lastRow = Math.min(outputRows, firstRow + to - item);
+                int tilePositions = (lastRow - firstRow) * outputCols;
+                im2col(in, batch, f.getRows(), f.getCols(), outputRows, outputCols, firstRow, lastRow, buffers[chunk]);
+                // Y_b (filters x tile) = F (filters x patch) * cols (patch x tile)
+                Gemm.gemm(f.getBatches(), tilePositions, patch, 1.0,
+                        f, f.getOffset(), f.getBatchStride(), 1,
+                        buffers[chunk], 0, tilePositions, 1,
+                        0.0, output, output.index(batch, 0, firstRow, 0), positions, 1);
+                if (epilogue) {
+                    ReluMask.biasRelu(output, biases, relu, mask, batch, firstRow, lastRow);
+                }
+                item += lastRow - firstRow;
+            }
+        });
+        output.markModified();
+        return output;
+    }
+
+    /**
+     * Gradient of the loss with respect to the filters, summed over the batch.
+     *
+     * @return [numberOfFilters][input channels][filterRows][filterCols]
+     */
+    public Tensor4D filterGradient(Tensor4D input, Tensor4D outputGradient, int filterRows, int filterCols) {
+        return filterGradient(input, outputGradient, new Tensor4D(input.getDataType(), outputGradient.getChannels(),
+                input.getChannels(), filterRows, filterCols));
+    }
+
+    /**
+     * Like {@link #filterGradient(Tensor4D, Tensor4D, int, int)}, the shape of {@code gradient} gives the filter size.
+     */
+    public Tensor4D filterGradient(Tensor4D input, Tensor4D outputGradient, Tensor4D gradient) {
+        input = input.contiguous();
+        outputGradient = outputGradient.contiguous();
+        int filterRows = gradient.getRows();
+        int filterCols = gradient.getCols();
+        int outputRows = outputGradient.getRows();
+        int outputCols = outputGradient.getCols();
+        int patch = input.getChannels() * filterRows * filterCols;
+        int positions = outputRows * outputCols;
+        int numberOfFilters = outputGradient.getChannels();
+        Tensor4D.checkOutput(gradient, input.getDataType(), numberOfFilters, input.getChannels(), filterRows, filterCols);
+
+        ComputePool computePool = ComputePool.shared();
+        int items = input.getBatches() * outputRows;
+        int chunks = computePool.chunks(items, (long) numberOfFilters * patch * outputCols);
+        Tensor4D[] buffers = columns = ensureBuffers(columns, chunks, input.getDataType(), patch,
+                tileRows(items, chunks, outputRows) * outputCols);
+        // Chunk 0 schreibt direkt in den Gradienten, alle weiteren in eigene Teilsummen
+        Tensor4D[] partials = partialFilterGradients = ensureBuffers(partialFilterGradients, chunks,
+                input.getDataType(), numberOfFilters, patch);
+        Tensor4D in = input;
+        Tensor4D dY = outputGradient;
+        computePool.forEachChunk(chunks, items, (chunk, from, to) -> {
+            Tensor4D target = chunk == 0 ? gradient : partials[chunk];
+            int targetOffset = chunk == 0 ? gradient.getOffset() : 0;
+            for (int item = from; item < to; ) {
+                int batch = item / outputRows;
+                int firstRow = item % outputRows;
+                int lastRow = Math.min(outputRows, firstRow + to - item);
+                int tilePositions = (lastRow - firstRow) * outputCols;
+                im2col(in, batch, filterRows, filterCols, outputRows, outputCols, firstRow, lastRow, buffers[chunk]);
+                // dF (filters x patch) += dY_b (filters x tile) * cols^T (tile x patch)
+                Gemm.gemm(numberOfFilters, patch, tilePositions, 1.0,
+                        dY, dY.index(batch, 0, firstRow, 0), positions, 1,
+                        buffers[chunk], 0, 1, tilePositions,
+                        item == from ? 0.0 : 1.0, target, targetOffset, patch, 1);
+                item += lastRow - firstRow;
+            }
+        });
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            if (gradient.isFloat()) {
+                Kernels.ELEMENTWISE.axpy(1.0f, partials[chunk].getFloatBuffer(), 0,
+                        gradient.getFloatBuffer(), gradient.getOffset(), gradient.size());
+            } else {
+                Kernels.ELEMENTWISE.axpy(1.0, partials[chunk].getBuffer(), 0,
+                        gradient.getBuffer(), gradient.getOffset(), gradient.size());
+            }
+        }
+        gradient.markModified();
+        return gradient;
+    }
+
+    /**
+     * Gradient of the loss with respect to the input of the forward pass.
+     *
+     * @return [batches][inputChannels][inputRows][inputCols]
+     */
+    public Tensor4D inputGradient(Tensor4D outputGradient, Tensor4D filters, int inputChannels, int inputRows, int inputCols) {
+        return inputGradient(outputGradient, filters, new Tensor4D(outputGradient.getDataType(),
+                outputGradient.getBatches(), inputChannels, inputRows, inputCols));
+    }
+
+    /**
+     * Like {@link #inputGradient(Tensor4D, Tensor4D, int, int, int)}, the shape of {@code gradient} gives the input size.
+     */
+    public Tensor4D inputGradient(Tensor4D outputGradient, Tensor4D filters, Tensor4D gradient) {
+        outputGradient = outputGradient.contiguous();
+        filters = filters.contiguous();
+        int inputChannels = gradient.getChannels();
+        int outputRows = outputGradient.getRows();
+        int outputCols = outputGradient.getCols();
+        int patch = inputChannels * filters.getRows() * filters.getCols();
+        int positions = outputRows * outputCols;
+        Tensor4D.checkOutput(gradient, outputGradient.getDataType(), outputGradient.getBatches(), inputChannels,
+                gradient.getRows(), gradient.getCols());
+        // col2im addiert in den Gradienten
+        gradient.fill(0.0);
+
+        // col2im überlappender Zeilen-Kacheln würde in dieselben Eingabezeilen addieren, daher nur über den Batch verteilen
+        ComputePool computePool = ComputePool.shared();
+        int batches = outputGradient.getBatches();
+        int chunks = computePool.chunks(batches, (long) patch * positions * filters.getBatches());
+        Tensor4D[] buffers = columnGradients = ensureBuffers(columnGradients, chunks, outputGradient.getDataType(),
+                patch, positions);
+        Tensor4D f = filters;
+        Tensor4D dY = outputGradient;
+        computePool.forEachChunk(chunks, batches, (chunk, from, to) -> {
+            for (int batch = from; batch < to; batch++) {
+                // dcols (patch x positions) = F^T (patch x filters) * dY_b (filters x positions)
+                Gemm.gemm(patch, positions, f.getBatches(), 1.0,
+                        f, f.getOffset(), 1, f.getBatchStride(),
+                        dY, dY.index(batch, 0, 0, 0), positions, 1,
+                        0.0, buffers[chunk], 0, positions, 1);
+                col2im(buffers[chunk], f.getRows(), f.getCols(), outputRows, outputCols, gradient, batch);
+            }
+        });
+        gradient.markModified();
+        return gradient;
+    }
+
+    /**
+     * Largest number of output rows a chunk works on at once, chunks never span more than one batch entry per tile.
+     */
+    private static int tileRows(int items, int chunks, int outputRows) {
+        return Math.min(outputRows, (items + chunks - 1) / chunks);
+    }
+
+    private static Tensor4D[] ensureBuffers(Tensor4D[] buffers, int count, DataType dataType, int rows, int cols) {
+        if (buffers.length < count) {
+            buffers = Arrays.copyOf(buffers, count);
+        }
+        for (int i = 0; i < count; i++) {
+            buffers[i] = ensureBuffer(buffers[i], dataType, rows, cols);
+        }
+        return buffers;
+    }
+
+    private static Tensor4D ensureBuffer(Tensor4D buffer, DataType dataType, int rows, int cols) {
+        if (buffer == null || buffer.getDataType() != dataType || buffer.getRows() != rows || buffer.getCols() != cols) {
+            return new Tensor4D(dataType, 1, 1, rows, cols);
+        }
+        return buffer;
+    }
+
+    private void im2col(Tensor4D input, int batch, int filterRows, int filterCols,
+                        int outputRows, int outputCols, int firstRow, int lastRow, Tensor4D cols) {
+        int offset = input.index(batch, 0, 0, 0);
+        if (input.isFloat()) {
+            im2col(input.getFloatBuffer(), offset, input.getChannels(), input.getRows(), input.getCols(),
+                    filterRows, filterCols, outputRows, outputCols, firstRow, lastRow, cols.getFloatBuffer());
+        } else {
+            im2col(input.getBuffer(), offset, input.getChannels(), input.getRows(), input.getCols(),
+                    filterRows, filterCols, outputRows, outputCols, firstRow, lastRow, cols.getBuffer());
+        }
+    }
+
+    private void col2im(Tensor4D cols, int filterRows, int filterCols, int outputRows, int outputCols,
+                        Tensor4D gradient, int batch) {
+        int offset = gradient.index(batch, 0, 0, 0);
+        if (gradient.isFloat()) {
+            col2im(cols.getFloatBuffer(), gradient.getChannels(), gradient.getRows(), gradient.getCols(),
+                    filterRows, filterCols, outputRows, outputCols, gradient.getFloatBuffer(), offset);
+        } else {
+            col2im(cols.getBuffer(), gradient.getChannels(), gradient.getRows(), gradient.getCols(),
+                    filterRows, filterCols, outputRows, outputCols, gradient.getBuffer(), offset);
+        }
+    }
+
+    /**
+     * Row {@code (channel * filterRows + filterRow) * filterCols + filterCol} of the column matrix holds the input
+     * value under that filter tap for every output position of the rows {@code [firstRow, lastRow)}, positions
+     * outside the border read as zero. Each output row is split into a leading padding part, the interior that is copied without bounds checks
+     * and a trailing padding part.
+     */
+    private void im2col(double[] input, int offset, int channels, int rows, int cols, int filterRows, int filterCols,
+                        int outputRows, int outputCols, int firstRow, int lastRow, double[] columns) {
+        int target = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            int plane = offset + channel * rows * cols;
+            for (int filterRow = 0; filterRow < filterRows; filterRow++) {
+                int rowShift = filterRow - padding;
+                int rowStart = Math.min(Math.max(ConvolutionBorders.start(rowShift, stride), firstRow), lastRow);
+                int rowEnd = Math.max(Math.min(ConvolutionBorders.end(rowShift, rows, stride, outputRows), lastRow), rowStart);
+                for (int filterCol = 0; filterCol < filterCols; filterCol++) {
+                    int colShift = filterCol - padding;
+                    int colStart = ConvolutionBorders.start(colShift, stride);
+                    int colEnd = ConvolutionBorders.end(colShift, cols, stride, outputCols);
+
+                    Arrays.fill(columns, target, target + (rowStart - firstRow) * outputCols, 0.0);
+                    target += (rowStart - firstRow) * outputCols;
+                    for (int outputRow = rowStart; outputRow < rowEnd; outputRow++) {
+                        int source = plane + (outputRow * stride + rowShift) * cols + colShift;
+                        Arrays.fill(columns, target, target + colStart, 0.0);
+                        if (stride == 1) {
+                            System.arraycopy(input, source + colStart, columns, target + colStart, colEnd - colStart);
+                        } else {
+                            for (int outputCol = colStart; outputCol < colEnd; outputCol++) {
+                                columns[target + outputCol] = input[source + outputCol * stride];
+                            }
+                        }
+                        Arrays.fill(columns, target + colEnd, target + outputCols, 0.0);
+                        target += outputCols;
+                    }
+                    Arrays.fill(columns, target, target + (lastRow - rowEnd) * outputCols, 0.0);
+                    target += (lastRow - rowEnd) * outputCols;
+                }
+            }
+        }
+    }
+
+    private void im2col(float[] input, int offset, int channels, int rows, int cols, int filterRows, int filterCols,
+                        int outputRows, int outputCols, int firstRow, int lastRow, float[] columns) {
+        int target = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            int plane = offset + channel * rows * cols;
+            for (int filterRow = 0; filterRow < filterRows; filterRow++) {
+                int rowShift = filterRow - padding;
+                int rowStart = Math.min(Math.max(ConvolutionBorders.start(rowShift, stride), firstRow), lastRow);
+                int rowEnd = Math.max(Math.min(ConvolutionBorders.end(rowShift, rows, stride, outputRows), lastRow), rowStart);
+                for (int filterCol = 0; filterCol < filterCols; filterCol++) {
+                    int colShift = filterCol - padding;
+                    int colStart = ConvolutionBorders.start(colShift, stride);
+                    int colEnd = ConvolutionBorders.end(colShift, cols, stride, outputCols);
+
+                    Arrays.fill(columns, target, target + (rowStart - firstRow) * outputCols, 0.0f);
+                    target += (rowStart - firstRow) * outputCols;
+                    for (int outputRow = rowStart; outputRow < rowEnd; outputRow++) {
+                        int source = plane + (outputRow * stride + rowShift) * cols + colShift;
+                        Arrays.fill(columns, target, target + colStart, 0.0f);
+                        if (stride == 1) {
+                            System.arraycopy(input, source + colStart, columns, target + colStart, colEnd - colStart);
+                        } else {
+                            for (int outputCol = colStart; outputCol < colEnd; outputCol++) {
+                                columns[target + outputCol] = input[source + outputCol * stride];
+                            }
+                        }
+                        Arrays.fill(columns, target + colEnd, target + outputCols, 0.0f);
+                        target += outputCols;
+                    }
+                    Arrays.fill(columns, target, target + (lastRow - rowEnd) * outputCols, 0.0f);
+                    target += (lastRow - rowEnd) * outputCols;
+                }
+            }
+        }
+    }
+
+    /**
+     * Inverse of im2col, every column entry is added back to the input position it was read from.
+     * Entries that were read from the padding are skipped.
+     */
+    private void col2im(double[] columns, int channels, int rows, int cols, int filterRows, int filterCols,
+                        int outputRows, int outputCols, double[] image, int offset) {
+        int source = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            int plane = offset + channel * rows * cols;
+            for (int filterRow = 0; filterRow < filterRows; filterRow++) {
+                int rowShift = filterRow - padding;
+                int rowStart = ConvolutionBorders.start(rowShift, stride);
+                int rowEnd = ConvolutionBorders.end(rowShift, rows, stride, outputRows);
+                for (int filterCol = 0; filterCol < filterCols; filterCol++) {
+                    int colShift = filterCol - padding;
+                    int colStart = ConvolutionBorders.start(colShift, stride);
+                    int colEnd = ConvolutionBorders.end(colShift, cols, stride, outputCols);
+                    for (int outputRow = rowStart; outputRow < rowEnd; outputRow++) {
+                        int row = source + outputRow * outputCols;
+                        int target = plane + (outputRow * stride + rowShift) * cols + colShift;
+                        for (int outputCol = colStart; outputCol < colEnd; outputCol++) {
+                            image[target + outputCol * stride] += columns[row + outputCol];
+                        }
+                    }
+                    source += outputRows * outputCols;
+                }
+            }
+        }
+    }
+
+    private void col2im(float[] columns, int channels, int rows, int cols, int filterRows, int filterCols,
+                        int outputRows, int outputCols, float[] image, int offset) {
+        int source = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            int plane = offset + channel * rows * cols;
+            for (int filterRow = 0; filterRow < filterRows; filterRow++) {
+                int rowShift = filterRow - padding;
+                int rowStart = ConvolutionBorders.start(rowShift, stride);
+                int rowEnd = ConvolutionBorders.end(rowShift, rows, stride, outputRows);
+                for (int filterCol = 0; filterCol < filterCols; filterCol++) {
+                    int colShift = filterCol - padding;
+                    int colStart = ConvolutionBorders.start(colShift, stride);
+                    int colEnd = ConvolutionBorders.end(colShift, cols, stride, outputCols);
+                    for (int outputRow = rowStart; outputRow < rowEnd; outputRow++) {
+                        int row = source + outputRow * outputCols;
+                        int target = plane + (outputRow * stride + rowShift) * cols + colShift;
+                        for (int outputCol = colStart; outputCol < colEnd; outputCol++) {
+                            image[target + outputCol * stride] += columns[row + outputCol];
+                        }
+                    }
+                    source += outputRows * outputCols;
+                }
+            }
+        }
+    }
+}
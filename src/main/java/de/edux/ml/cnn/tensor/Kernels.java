@@ -0,0 +1,40 @@
+package de.edux.ml.cnn.tensor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the kernel implementations once per JVM.
+ * <p>
+ * The vectorized kernels need {@code --add-modules jdk.incubator.vector}, without the module (or with
+ * {@code -Dcnn.simd=false}) the scalar loops are used.
+ */
+public final class Kernels {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Kernels.class);
+
+    public static final ElementwiseKernels ELEMENTWISE = loadElementwise();
+
+    private Kernels() {
+    }
+
+    public static boolean isVectorized() {
+        return !(ELEMENTWISE instanceof ScalarKernels);
+    }
+
+    private static ElementwiseKernels loadElementwise() {
+        if (!Boolean.parseBoolean(System.getProperty("cnn.simd", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            LOG.info("Vector API not enabled, using scalar kernels");
+            return new ScalarKernels();
+        }
+        try {
+            // loaded reflectively so this class links without the incubator module
+            return (ElementwiseKernels) Class.forName("de.edux.ml.cnn.tensor.VectorizedKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.warn("Vector API kernels not available, using scalar kernels", e);
+            return new ScalarKernels();
+        }
+    }
+}
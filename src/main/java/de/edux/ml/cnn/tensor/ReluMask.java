@@ -0,0 +1,144 @@
+package de.edux.ml.cnn.tensor;
+
+/**
+ * Which outputs of a ReLU were positive, one bit per element instead of a copy of the pre-activation tensor.
+ * <p>
+ * The bits are stored per row {@code [batch][channel][row]} in whole 64-bit words, so chunks that write different
+ * rows in parallel, e.g. the output tiles of a convolution, never share a word. The backward pass of the ReLU then
+ * only needs the mask: {@code dX = dY} where the output was positive, otherwise 0. A mask belongs to one layer (or
+ * replica) and is overwritten by its next forward pass.
+ */
+public final class ReluMask {
+
+    private static final int WORD = Long.SIZE;
+
+    private long[] bits = new long[0];
+    private int batches;
+    private int channels;
+    private int rows;
+    private int cols;
+    private int wordsPerRow;
+
+    /**
+     * Prepares the mask for outputs of the given shape, the storage only grows.
+     */
+    public ReluMask resize(int batches, int channels, int rows, int cols) {
+        this.batches = batches;
+        this.channels = channels;
+        this.rows = rows;
+        this.cols = cols;
+        this.wordsPerRow = (cols + WORD - 1) / WORD;
+        int words = batches * channels * rows * wordsPerRow;
+        if (bits.length < words) {
+            bits = new long[words];
+        }
+        return this;
+    }
+
+    /**
+     * {@code output = max(input, 0)}, the positive elements are recorded in {@code mask} unless it is null.
+     *
+     * @return output
+     */
+    public static Tensor4D relu(Tensor4D input, Tensor4D output, ReluMask mask) {
+        Tensor4D.checkOutput(output, input.getDataType(), input.getBatches(), input.getChannels(), input.getRows(),
+                input.getCols());
+        Tensor4D source = input.contiguous();
+        if (mask != null) {
+            mask.resize(input.getBatches(), input.getChannels(), input.getRows(), input.getCols());
+        }
+        int planes = input.getBatches() * input.getChannels();
+        int rows = input.getRows();
+        int cols = input.getCols();
+        ComputePool computePool = ComputePool.shared();
+        int items = planes * rows;
+        computePool.forEachChunk(computePool.chunks(items, cols), items, (chunk, from, to) -> {
+            for (int row = from; row < to; row++) {
+                applyRow(source, source.getOffset() + row * cols, output, output.getOffset() + row * cols, cols,
+                        0.0, true, mask, row);
+            }
+        });
+        output.markModified();
+        return output;
+    }
+
+    /**
+     * Epilogue of a convolution: adds {@code biases[channel]} (if not null) to the rows {@code [firstRow, lastRow)}
+     * of every channel of one batch entry of {@code output} in place and applies the ReLU if {@code relu} is set,
+     * recording it in {@code mask}. Called right after the rows were written, while they are still in the cache.
+     */
+    static void biasRelu(Tensor4D output, Tensor4D biases, boolean relu, ReluMask mask, int batch,
+                         int firstRow, int lastRow) {
+        int rows = output.getRows();
+        int cols = output.getCols();
+        for (int channel = 0; channel < output.getChannels(); channel++) {
+            double bias = 0.0;
+            if (biases != null) {
+                int index = biases.getOffset() + channel;
+                bias = biases.isFloat() ? biases.getFloatBuffer()[index] : biases.getBuffer()[index];
+            }
+            for (int row = firstRow; row < lastRow; row++) {
+                int offset = output.index(batch, channel, row, 0);
+                applyRow(output, offset, output, offset, cols, bias, relu, mask,
+                        (batch * output.getChannels() + channel) * rows + row);
+            }
+        }
+    }
+
+    private static void applyRow(Tensor4D input, int inputOffset, Tensor4D output, int outputOffset, int cols,
+                                 double bias, boolean relu, ReluMask mask, int row) {
+        if (!relu) {
+            if (output.isFloat()) {
+                Kernels.ELEMENTWISE.addScalar((float) bias, input.getFloatBuffer(), inputOffset,
+                        output.getFloatBuffer(), outputOffset, cols);
+            } else {
+                Kernels.ELEMENTWISE.addScalar(bias, input.getBuffer(), inputOffset, output.getBuffer(), outputOffset, cols);
+            }
+            return;
+        }
+        for (int col = 0, word = 0; col < cols; col += WORD, word++) {
+            int length = Math.min(WORD, cols - col);
+            long positive = output.isFloat()
+                    ? Kernels.ELEMENTWISE.biasRelu((float) bias, input.getFloatBuffer(), inputOffset + col,
+                    output.getFloatBuffer(), outputOffset + col, length)
+                    : Kernels.ELEMENTWISE.biasRelu(bias, input.getBuffer(), inputOffset + col,
+                    output.getBuffer(), outputOffset + col, length);
+            if (mask != null) {
+                mask.bits[row * mask.wordsPerRow + word] = positive;
+            }
+        }
+    }
+
+    /**
+     * {@code inputGradient = outputGradient} where the last recorded output was positive, otherwise 0.
+     *
+     * @return inputGradient
+     */
+    public Tensor4D backward(Tensor4D outputGradient, Tensor4D inputGradient) {
+        // der Gradient muss die Form des letzten Vorwärtsdurchlaufs haben
+        Tensor4D source = outputGradient.contiguous();
+        Tensor4D.checkOutput(source, inputGradient.getDataType(), batches, channels, rows, cols);
+        Tensor4D.checkOutput(inputGradient, source.getDataType(), batches, channels, rows, cols);
+        ComputePool computePool = ComputePool.shared();
+        int items = batches * channels * rows;
+        computePool.forEachChunk(computePool.chunks(items, cols), items, (chunk, from, to) -> {
+            for (int row = from; row < to; row++) {
+                int sourceOffset = source.getOffset() + row * cols;
+                int targetOffset = inputGradient.getOffset() + row * cols;
+                for (int col = 0, word = 0; col < cols; col += WORD, word++) {
+                    long positive = bits[row * wordsPerRow + word];
+                    int length = Math.min(WORD, cols - col);
+                    if (source.isFloat()) {
+                        Kernels.ELEMENTWISE.maskedCopy(positive, source.getFloatBuffer(), sourceOffset + col,
+                                inputGradient.getFloatBuffer(), targetOffset + col, length);
+                    } else {
+                        Kernels.ELEMENTWISE.maskedCopy(positive, source.getBuffer(), sourceOffset + col,
+                                inputGradient.getBuffer(), targetOffset + col, length);
+                    }
+                }
+            }
+        });
+        inputGradient.markModified();
+        return inputGradient;
+    }
+}
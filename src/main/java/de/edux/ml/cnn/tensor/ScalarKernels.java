@@ -0,0 +1,241 @@
+package de.edux.ml.cnn.tensor;
+
+/**
+ * Plain loops, used when the Vector API is not available.
+ */
+final class ScalarKernels implements ElementwiseKernels {
+
+    @Override
+    public void scale(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] = alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void scale(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] = alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void subtract(double[] a, int aOffset, double[] b, int bOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] = a[aOffset + i] - b[bOffset + i];
+        }
+    }
+
+    @Override
+    public void subtract(float[] a, int aOffset, float[] b, int bOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] = a[aOffset + i] - b[bOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void addScalar(double bias, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] = x[xOffset + i] + bias;
+        }
+    }
+
+    @Override
+    public void addScalar(float bias, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] = x[xOffset + i] + bias;
+        }
+    }
+
+    @Override
+    public long biasRelu(double bias, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        long mask = 0L;
+        for (int i = 0; i < length; i++) {
+            double value = x[xOffset + i] + bias;
+            if (value > 0.0) {
+                y[yOffset + i] = value;
+                mask |= 1L << i;
+            } else {
+                y[yOffset + i] = 0.0;
+            }
+        }
+        return mask;
+    }
+
+    @Override
+    public long biasRelu(float bias, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        long mask = 0L;
+        for (int i = 0; i < length; i++) {
+            float value = x[xOffset + i] + bias;
+            if (value > 0.0f) {
+                y[yOffset + i] = value;
+                mask |= 1L << i;
+            } else {
+                y[yOffset + i] = 0.0f;
+            }
+        }
+        return mask;
+    }
+
+    @Override
+    public void maskedCopy(long mask, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] = (mask >>> i & 1L) != 0 ? x[xOffset + i] : 0.0;
+        }
+    }
+
+    @Override
+    public void maskedCopy(long mask, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] = (mask >>> i & 1L) != 0 ? x[xOffset + i] : 0.0f;
+        }
+    }
+
+    @Override
+    public double sum(double[] x, int offset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += x[offset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float sum(float[] x, int offset, int length) {
+        float sum = 0.0f;
+        for (int i = 0; i < length; i++) {
+            sum += x[offset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double max(double[] x, int offset, int length) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, x[offset + i]);
+        }
+        return max;
+    }
+
+    @Override
+    public float max(float[] x, int offset, int length) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, x[offset + i]);
+        }
+        return max;
+    }
+
+    @Override
+    public double expSum(double[] x, int xOffset, double shift, double[] y, int yOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double value = Math.exp(x[xOffset + i] - shift);
+            y[yOffset + i] = value;
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Override
+    public float expSum(float[] x, int xOffset, float shift, float[] y, int yOffset, int length) {
+        float sum = 0.0f;
+        for (int i = 0; i < length; i++) {
+            float value = (float) Math.exp(x[xOffset + i] - shift);
+            y[yOffset + i] = value;
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Override
+    public void momentumUpdate(double learningRate, double momentum, double scale, double[] g, int gOffset,
+                               double[] velocity, double[] w, int wOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            velocity[i] = momentum * velocity[i] + scale * g[gOffset + i];
+            w[wOffset + i] -= learningRate * velocity[i];
+        }
+    }
+
+    @Override
+    public void rmsPropUpdate(double learningRate, double decay, double epsilon, double scale, double[] g, int gOffset,
+                              double[] meanSquare, double[] w, int wOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            double d = scale * g[gOffset + i];
+            meanSquare[i] = decay * meanSquare[i] + (1 - decay) * d * d;
+            w[wOffset + i] -= learningRate * d / (Math.sqrt(meanSquare[i]) + epsilon);
+        }
+    }
+
+    @Override
+    public void adamUpdate(double stepSize, double beta1, double beta2, double varianceCorrection, double epsilon, double scale,
+                           double[] g, int gOffset, double[] m, double[] v, double[] w, int wOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            double d = scale * g[gOffset + i];
+            m[i] = beta1 * m[i] + (1 - beta1) * d;
+            v[i] = beta2 * v[i] + (1 - beta2) * d * d;
+            w[wOffset + i] -= stepSize * m[i] / (Math.sqrt(v[i] * varianceCorrection) + epsilon);
+        }
+    }
+
+    @Override
+    public void momentumUpdate(float learningRate, float momentum, float scale, float[] g, int gOffset,
+                               float[] velocity, float[] w, int wOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            velocity[i] = momentum * velocity[i] + scale * g[gOffset + i];
+            w[wOffset + i] -= learningRate * velocity[i];
+        }
+    }
+
+    @Override
+    public void rmsPropUpdate(float learningRate, float decay, float epsilon, float scale, float[] g, int gOffset,
+                              float[] meanSquare, float[] w, int wOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            float d = scale * g[gOffset + i];
+            meanSquare[i] = decay * meanSquare[i] + (1 - decay) * d * d;
+            w[wOffset + i] -= learningRate * d / ((float) Math.sqrt(meanSquare[i]) + epsilon);
+        }
+    }
+
+    @Override
+    public void adamUpdate(float stepSize, float beta1, float beta2, float varianceCorrection, float epsilon, float scale,
+                           float[] g, int gOffset, float[] m, float[] v, float[] w, int wOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            float d = scale * g[gOffset + i];
+            m[i] = beta1 * m[i] + (1 - beta1) * d;
+            v[i] = beta2 * v[i] + (1 - beta2) * d * d;
+            w[wOffset + i] -= stepSize * m[i] / ((float) Math.sqrt(v[i] * varianceCorrection) + epsilon);
+        }
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(int alpha, byte[] x, int xOffset, int[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+}
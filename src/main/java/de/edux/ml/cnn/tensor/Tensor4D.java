@@ -1,9 +1,9 @@
 package de.edux.ml.cnn.tensor;
 
-import de.edux.ml.cnn.layer.FullyConnectedLayer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -14,18 +14,41 @@ import java.util.concurrent.ThreadLocalRandom;
  * CNN use Softmax as activation function for the last layer.
  * Fully connected layer use He initialization.
  * Fully connected layer updates weights and biases.
+ * <p>
+ * The elements are stored in one flat buffer in row-major order
+ * ({@code batch, channel, row, col}). The strides describe how many elements
+ * to skip to advance one step in each dimension, {@link #index(int, int, int, int)}
+ * maps a 4D position to its position in the flat buffer.
+ * Depending on the {@link DataType} the buffer is a {@code double[]} or a {@code float[]},
+ * operations return tensors of the same data type as {@code this}.
+ * <p>
+ * {@link #reshape(int, int, int, int)}, {@link #flatten()} and {@link #transposeView()} return views that share the
+ * buffer with this tensor and only differ in offset, shape and strides. A view is contiguous unless it was
+ * transposed, operations read non-contiguous tensors through a copy and only write into contiguous ones.
  */
 public class Tensor4D {
 
     private static final Logger LOG = LoggerFactory.getLogger(Tensor4D.class);
 
-    private int batches;
-    private int channels;
-    private int rows;
-    private int cols;
-    private double[][][][] data;
+    private final int batches;
+    private final int channels;
+    private final int rows;
+    private final int cols;
 
-    private final ThreadLocalRandom random = ThreadLocalRandom.current();
+    private final int batchStride;
+    private final int channelStride;
+    private final int rowStride;
+    private final int colStride;
+
+    private final int offset;
+
+    private final DataType dataType;
+    private final double[] data;
+    private final float[] floatData;
+
+    // tensor owning the buffer, views share its version
+    private final Tensor4D root;
+    private int version;
 
     /**
      *
@@ -35,31 +58,95 @@ public class Tensor4D {
      * @param cols
      */
     public Tensor4D(int batches, int channels, int rows, int cols) {
-        this.batches = batches;
-        this.channels = channels;
-        this.rows = rows;
-        this.cols = cols;
-        this.data = new double[batches][channels][rows][cols];
+        this(DataType.FLOAT64, batches, channels, rows, cols);
     }
 
-    public void setBatches(int batches) {
-        this.batches = batches;
+    public Tensor4D(DataType dataType, int batches, int channels, int rows, int cols) {
+        this(batches, channels, rows, cols, dataType,
+                dataType == DataType.FLOAT64 ? new double[batches * channels * rows * cols] : null,
+                dataType == DataType.FLOAT32 ? new float[batches * channels * rows * cols] : null);
     }
 
-    public void setChannels(int channels) {
-        this.channels = channels;
+    /**
+     * Wraps an existing flat buffer in row-major order. The buffer is not copied.
+     */
+    public Tensor4D(int batches, int channels, int rows, int cols, double[] data) {
+        this(batches, channels, rows, cols, DataType.FLOAT64, data, null);
+    }
+
+    /**
+     * Wraps an existing flat buffer in row-major order. The buffer is not copied.
+     */
+    public Tensor4D(int batches, int channels, int rows, int cols, float[] data) {
+        this(batches, channels, rows, cols, DataType.FLOAT32, null, data);
     }
 
-    public void setRows(int rows) {
+    private Tensor4D(int batches, int channels, int rows, int cols, DataType dataType, double[] data, float[] floatData) {
+        int length = dataType == DataType.FLOAT64 ? data.length : floatData.length;
+        if (length != batches * channels * rows * cols) {
+            throw new IllegalArgumentException("Buffer length " + length + " does not match shape ["
+                    + batches + "][" + channels + "][" + rows + "][" + cols + "]");
+        }
+        this.batches = batches;
+        this.channels = channels;
         this.rows = rows;
+        this.cols = cols;
+        this.colStride = 1;
+        this.rowStride = cols;
+        this.channelStride = rows * cols;
+        this.batchStride = channels * rows * cols;
+        this.offset = 0;
+        this.dataType = dataType;
+        this.data = data;
+        this.floatData = floatData;
+        this.root = this;
     }
 
-    public void setCols(int cols) {
+    private Tensor4D(Tensor4D base, int offset, int batches, int channels, int rows, int cols,
+                     int batchStride, int channelStride, int rowStride, int colStride) {
+        this.batches = batches;
+        this.channels = channels;
+        this.rows = rows;
         this.cols = cols;
+        this.batchStride = batchStride;
+        this.channelStride = channelStride;
+        this.rowStride = rowStride;
+        this.colStride = colStride;
+        this.offset = offset;
+        this.dataType = base.dataType;
+        this.data = base.data;
+        this.floatData = base.floatData;
+        this.root = base.root;
     }
 
-    public void setData(double[][][][] data) {
-        this.data = data;
+    /**
+     * Copies a nested array into the flat buffer of this tensor.
+     * The nested array must have the shape of this tensor.
+     */
+    public void setData(double[][][][] nested) {
+        requireContiguous();
+        if (nested.length != batches) {
+            throw new IllegalArgumentException("Nested array does not match tensor shape " + this);
+        }
+        for (int batch = 0; batch < batches; batch++) {
+            for (int channel = 0; channel < channels; channel++) {
+                for (int row = 0; row < rows; row++) {
+                    double[] source = nested[batch][channel][row];
+                    if (source.length != cols) {
+                        throw new IllegalArgumentException("Nested array does not match tensor shape " + this);
+                    }
+                    int target = index(batch, channel, row, 0);
+                    if (isFloat()) {
+                        for (int col = 0; col < cols; col++) {
+                            floatData[target + col] = (float) source[col];
+                        }
+                    } else {
+                        System.arraycopy(source, 0, data, target, cols);
+                    }
+                }
+            }
+        }
+        markModified();
     }
 
     public int getBatches() {
@@ -78,79 +165,438 @@ public class Tensor4D {
         return cols;
     }
 
-    public double[][][][] getData() {
-        return data;
+    public int getBatchStride() {
+        return batchStride;
     }
 
+    public int getChannelStride() {
+        return channelStride;
+    }
 
-    public Tensor4D multiply(double scalar) {
-        Tensor4D result = new Tensor4D(batches, channels, rows, cols);
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    public int getColStride() {
+        return colStride;
+    }
+
+    /**
+     * @return position of element {@code [0][0][0][0]} in the backing buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return true if the elements lie in row-major order without gaps starting at {@link #getOffset()}
+     */
+    public boolean isContiguous() {
+        return colStride == 1 && rowStride == cols && channelStride == rows * cols && batchStride == channels * rows * cols;
+    }
+
+    /**
+     * @return this tensor if it is contiguous, otherwise a contiguous copy
+     */
+    public Tensor4D contiguous() {
+        if (isContiguous()) {
+            return this;
+        }
+        Tensor4D copy = newTensor(batches, channels, rows, cols);
+        int target = 0;
         for (int batch = 0; batch < batches; batch++) {
             for (int channel = 0; channel < channels; channel++) {
                 for (int row = 0; row < rows; row++) {
+                    int source = index(batch, channel, row, 0);
                     for (int col = 0; col < cols; col++) {
-                        result.data[batch][channel][row][col] = this.data[batch][channel][row][col] * scalar;
+                        if (isFloat()) {
+                            copy.floatData[target++] = floatData[source + col * colStride];
+                        } else {
+                            copy.data[target++] = data[source + col * colStride];
+                        }
                     }
                 }
             }
         }
+        return copy;
+    }
+
+    private void requireContiguous() {
+        if (!isContiguous()) {
+            LOG.error("Write into non-contiguous view {}", this);
+            throw new IllegalStateException("Cannot write into a non-contiguous view, use contiguous() first");
+        }
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    public boolean isFloat() {
+        return dataType == DataType.FLOAT32;
+    }
+
+    /**
+     * @return a counter that changes whenever the content of this tensor is modified in place
+     */
+    public int getVersion() {
+        return root.version;
+    }
+
+    /**
+     * Must be called after writing into the buffer returned by {@link #getBuffer()} or {@link #getFloatBuffer()},
+     * so caches derived from this tensor (e.g. transformed filters) are rebuilt.
+     */
+    public void markModified() {
+        root.version++;
+    }
+
+    /**
+     * @return number of elements in this tensor
+     */
+    public int size() {
+        return batches * channels * rows * cols;
+    }
+
+    /**
+     * @return the flat backing buffer of a FLOAT64 tensor, writes are visible in this tensor.
+     * For views the elements start at {@link #getOffset()}, use {@link #index(int, int, int, int)} to address them.
+     */
+    public double[] getBuffer() {
+        if (data == null) {
+            throw new IllegalStateException("Tensor is " + dataType + ", use getFloatBuffer()");
+        }
+        return data;
+    }
+
+    /**
+     * @return the flat backing buffer of a FLOAT32 tensor, writes are visible in this tensor.
+     * For views the elements start at {@link #getOffset()}, use {@link #index(int, int, int, int)} to address them.
+     */
+    public float[] getFloatBuffer() {
+        if (floatData == null) {
+            throw new IllegalStateException("Tensor is " + dataType + ", use getBuffer()");
+        }
+        return floatData;
+    }
+
+    /**
+     * Returns a nested copy of the data.
+     *
+     * @deprecated the tensor is backed by a flat buffer, writes into the returned array are
+     * not reflected in the tensor. Use {@link #get(int, int, int, int)}, {@link #set(int, int, int, int, double)}
+     * or {@link #getBuffer()} instead.
+     */
+    @Deprecated
+    public double[][][][] getData() {
+        return toArray();
+    }
+
+    /**
+     * @return a nested copy of the data in the shape {@code [batches][channels][rows][cols]}
+     */
+    public double[][][][] toArray() {
+        double[][][][] nested = new double[batches][channels][rows][cols];
+        Tensor4D tensor = contiguous();
+        for (int batch = 0; batch < batches; batch++) {
+            for (int channel = 0; channel < channels; channel++) {
+                for (int row = 0; row < rows; row++) {
+                    int source = tensor.index(batch, channel, row, 0);
+                    double[] target = nested[batch][channel][row];
+                    if (isFloat()) {
+                        for (int col = 0; col < cols; col++) {
+                            target[col] = tensor.floatData[source + col];
+                        }
+                    } else {
+                        System.arraycopy(tensor.data, source, target, 0, cols);
+                    }
+                }
+            }
+        }
+        return nested;
+    }
+
+    public int index(int batch, int channel, int row, int col) {
+        return offset + batch * batchStride + channel * channelStride + row * rowStride + col * colStride;
+    }
+
+    public double get(int batch, int channel, int row, int col) {
+        int index = index(batch, channel, row, col);
+        return isFloat() ? floatData[index] : data[index];
+    }
+
+    public void set(int batch, int channel, int row, int col, double value) {
+        int index = index(batch, channel, row, col);
+        if (isFloat()) {
+            floatData[index] = (float) value;
+        } else {
+            data[index] = value;
+        }
+        markModified();
+    }
+
+    public void add(int batch, int channel, int row, int col, double value) {
+        int index = index(batch, channel, row, col);
+        if (isFloat()) {
+            floatData[index] += (float) value;
+        } else {
+            data[index] += value;
+        }
+        markModified();
+    }
+
+    /**
+     * Returns a view of this tensor with a different shape but the same element order.
+     * A non-contiguous tensor is copied first.
+     */
+    public Tensor4D reshape(int batches, int channels, int rows, int cols) {
+        if (batches * channels * rows * cols != size()) {
+            throw new IllegalArgumentException("Cannot reshape " + this + " to [" + batches + "][" + channels + "]["
+                    + rows + "][" + cols + "]");
+        }
+        Tensor4D source = contiguous();
+        return new Tensor4D(source, source.offset, batches, channels, rows, cols,
+                channels * rows * cols, rows * cols, cols, 1);
+    }
+
+    /**
+     * Returns a view of the batch entries {@code [from, to)}, e.g. one shard of a mini-batch.
+     */
+    public Tensor4D slice(int from, int to) {
+        if (from < 0 || to > batches || from > to) {
+            throw new IllegalArgumentException("Cannot slice batches [" + from + ", " + to + ") of " + this);
+        }
+        return new Tensor4D(this, offset + from * batchStride, to - from, channels, rows, cols,
+                batchStride, channelStride, rowStride, colStride);
+    }
+
+    /**
+     * Returns a contiguous view of {@code batches * channels * rows * cols} elements of this contiguous tensor
+     * starting at element {@code start}, e.g. a buffer placed in a larger arena.
+     */
+    public Tensor4D region(int start, int batches, int channels, int rows, int cols) {
+        requireContiguous();
+        if (start < 0 || (long) start + (long) batches * channels * rows * cols > size()) {
+            throw new IllegalArgumentException("Region [" + batches + "][" + channels + "][" + rows + "][" + cols
+                    + "] at " + start + " does not fit into " + this);
+        }
+        return new Tensor4D(this, offset + start, batches, channels, rows, cols,
+                channels * rows * cols, rows * cols, cols, 1);
+    }
+
+    /**
+     * @return true if both tensors are views of the same buffer
+     */
+    public boolean sharesBuffer(Tensor4D other) {
+        return root == other.root;
+    }
+
+    /**
+     * Returns a view with rows and cols swapped, no data is moved. The view is not contiguous,
+     * {@link Gemm} and the matrix products read it through its strides.
+     */
+    public Tensor4D transposeView() {
+        return new Tensor4D(this, offset, batches, channels, cols, rows, batchStride, channelStride, colStride, rowStride);
+    }
+
+    /**
+     * Copies the elements of this tensor into {@code out}, which gives the new shape.
+     *
+     * @return out
+     */
+    public Tensor4D reshape(Tensor4D out) {
+        if (out.size() != size()) {
+            throw new IllegalArgumentException("Cannot reshape " + this + " to " + out);
+        }
+        checkDataType(out);
+        out.requireContiguous();
+        Tensor4D source = contiguous();
+        if (isFloat()) {
+            System.arraycopy(source.floatData, source.offset, out.floatData, out.offset, size());
+        } else {
+            System.arraycopy(source.data, source.offset, out.data, out.offset, size());
+        }
+        out.markModified();
+        return out;
+    }
+
+    /**
+     * Sets every element to {@code value}.
+     */
+    public Tensor4D fill(double value) {
+        requireContiguous();
+        if (isFloat()) {
+            Arrays.fill(floatData, offset, offset + size(), (float) value);
+        } else {
+            Arrays.fill(data, offset, offset + size(), value);
+        }
+        markModified();
+        return this;
+    }
+
+    /**
+     * Returns this tensor if it already has the given data type, otherwise a converted copy.
+     */
+    public Tensor4D toDataType(DataType dataType) {
+        if (dataType == this.dataType) {
+            return this;
+        }
+        Tensor4D converted = new Tensor4D(dataType, batches, channels, rows, cols);
+        Tensor4D source = contiguous();
+        if (dataType == DataType.FLOAT32) {
+            for (int i = 0; i < size(); i++) {
+                converted.floatData[i] = (float) source.data[source.offset + i];
+            }
+        } else {
+            for (int i = 0; i < size(); i++) {
+                converted.data[i] = source.floatData[source.offset + i];
+            }
+        }
+        return converted;
+    }
+
+    private Tensor4D newTensor(int batches, int channels, int rows, int cols) {
+        return new Tensor4D(dataType, batches, channels, rows, cols);
+    }
+
+    /**
+     * Checks that {@code out} can receive the result of an operation, the {@code into} variants of the operations
+     * never allocate and therefore need the exact result shape.
+     */
+    static void checkOutput(Tensor4D out, DataType dataType, int batches, int channels, int rows, int cols) {
+        if (out.dataType != dataType || out.batches != batches || out.channels != channels
+                || out.rows != rows || out.cols != cols) {
+            LOG.error("Output mismatch: expected {} [{}][{}][{}][{}], got {}", dataType, batches, channels, rows, cols, out);
+            throw new IllegalArgumentException("Output tensor " + out + " does not match the result shape ["
+                    + batches + "][" + channels + "][" + rows + "][" + cols + "]");
+        }
+        out.requireContiguous();
+    }
+
+    private void checkDataType(Tensor4D tensor) {
+        if (tensor.dataType != this.dataType) {
+            LOG.error("Data type mismatch: this Tensor {}, other Tensor {}", this.dataType, tensor.dataType);
+            throw new IllegalArgumentException("Tensor data types must match, convert with toDataType()");
+        }
+    }
+
+
+    public Tensor4D multiply(double scalar) {
+        return multiply(scalar, newTensor(batches, channels, rows, cols));
+    }
+
+    public Tensor4D multiplyInPlace(double scalar) {
+        return multiply(scalar, this);
+    }
+
+    /**
+     * Writes {@code this * scalar} into {@code result}, which may be {@code this}.
+     */
+    public Tensor4D multiply(double scalar, Tensor4D result) {
+        checkOutput(result, dataType, batches, channels, rows, cols);
+        Tensor4D source = contiguous();
+        if (isFloat()) {
+            Kernels.ELEMENTWISE.scale((float) scalar, source.floatData, source.offset, result.floatData, result.offset, size());
+        } else {
+            Kernels.ELEMENTWISE.scale(scalar, source.data, source.offset, result.data, result.offset, size());
+        }
+        result.markModified();
         return result;
     }
 
     public Tensor4D subtract(Tensor4D tensor) {
+        return subtract(tensor, newTensor(batches, channels, rows, cols));
+    }
+
+    public Tensor4D subtractInPlace(Tensor4D tensor) {
+        return subtract(tensor, this);
+    }
+
+    /**
+     * Writes {@code this - tensor} into {@code result}, which may be {@code this} or {@code tensor}.
+     */
+    public Tensor4D subtract(Tensor4D tensor, Tensor4D result) {
         if (this.batches != tensor.batches || this.channels != tensor.channels || this.rows != tensor.rows || this.cols != tensor.cols) {
             LOG.error("Dimension mismatch: this Tensor [{}][{}][{}][{}], other Tensor [{}][{}][{}][{}]",
                     this.batches, this.channels, this.rows, this.cols,
                     tensor.batches, tensor.channels, tensor.rows, tensor.cols);
             throw new IllegalArgumentException("Tensor dimensions must match for subtraction");
         }
-        Tensor4D result = new Tensor4D(batches, channels, rows, cols);
-        for (int batch = 0; batch < batches; batch++) {
-            for (int channel = 0; channel < channels; channel++) {
-                for (int row = 0; row < rows; row++) {
-                    for (int col = 0; col < cols; col++) {
-                        result.data[batch][channel][row][col] = this.data[batch][channel][row][col] - tensor.data[batch][channel][row][col];
-                    }
-                }
-            }
+        checkDataType(tensor);
+        checkOutput(result, dataType, batches, channels, rows, cols);
+        Tensor4D left = contiguous();
+        Tensor4D right = tensor.contiguous();
+        if (isFloat()) {
+            Kernels.ELEMENTWISE.subtract(left.floatData, left.offset, right.floatData, right.offset,
+                    result.floatData, result.offset, size());
+        } else {
+            Kernels.ELEMENTWISE.subtract(left.data, left.offset, right.data, right.offset,
+                    result.data, result.offset, size());
         }
+        result.markModified();
         return result;
     }
 
 
     public Tensor4D transpose() {
         // Create a new tensor with swapped rows and cols dimensions
-        Tensor4D transposed = new Tensor4D(this.batches, this.channels, this.cols, this.rows);
+        return transpose(newTensor(this.batches, this.channels, this.cols, this.rows));
+    }
+
+    /**
+     * Writes the transposed rows x cols matrices into {@code transposed}, which must not be {@code this}.
+     */
+    public Tensor4D transpose(Tensor4D transposed) {
+        checkOutput(transposed, dataType, this.batches, this.channels, this.cols, this.rows);
 
         // Transpose each 2D matrix (rows x cols) within each batch and channel
         for (int batch = 0; batch < this.batches; batch++) {
             for (int channel = 0; channel < this.channels; channel++) {
+                int source = index(batch, channel, 0, 0);
+                int target = transposed.index(batch, channel, 0, 0);
                 for (int i = 0; i < this.rows; i++) {
                     for (int j = 0; j < this.cols; j++) {
-                        transposed.data[batch][channel][j][i] = this.data[batch][channel][i][j];
+                        if (isFloat()) {
+                            transposed.floatData[target + j * this.rows + i] = this.floatData[source + i * rowStride + j * colStride];
+                        } else {
+                            transposed.data[target + j * this.rows + i] = this.data[source + i * rowStride + j * colStride];
+                        }
                     }
                 }
             }
         }
 
+        transposed.markModified();
         return transposed;
     }
 
     public Tensor4D sumOverBatches() {
-        Tensor4D sum = new Tensor4D(1, 1, 1, this.cols);
+        return sumOverBatches(newTensor(1, 1, 1, this.cols));
+    }
 
-        for (int i = 0; i < this.cols; i++) {
-            double total = 0;
-            for (int batch = 0; batch < this.batches; batch++) {
-                total += this.data[batch][0][0][i];
+    public Tensor4D sumOverBatches(Tensor4D sum) {
+        checkOutput(sum, dataType, 1, 1, 1, this.cols);
+        sum.fill(0.0);
+        Tensor4D tensor = contiguous();
+
+        for (int batch = 0; batch < this.batches; batch++) {
+            int source = tensor.index(batch, 0, 0, 0);
+            if (isFloat()) {
+                Kernels.ELEMENTWISE.axpy(1.0f, tensor.floatData, source, sum.floatData, sum.offset, this.cols);
+            } else {
+                Kernels.ELEMENTWISE.axpy(1.0, tensor.data, source, sum.data, sum.offset, this.cols);
             }
-            sum.data[0][0][0][i] = total;
         }
 
+        sum.markModified();
         return sum;
     }
 
     public Tensor4D dot(Tensor4D tensor) {
+        return dot(tensor, newTensor(this.batches, tensor.channels, this.rows, tensor.cols));
+    }
+
+    public Tensor4D dot(Tensor4D tensor, Tensor4D result) {
         // Check if the dimensions are compatible for dot product
         if (this.cols != tensor.rows) {
             LOG.error("Dimension mismatch: this Tensor [{}][{}][{}][{}], other Tensor [{}][{}][{}][{}]",
@@ -158,31 +604,28 @@ public class Tensor4D {
                     tensor.batches, tensor.channels, tensor.rows, tensor.cols);
             throw new IllegalArgumentException("Dimensions are not compatible for dot product.");
         }
+        checkDataType(tensor);
 
         // Define dimensions for the result tensor
         int resultBatches = this.batches;
         int resultChannels = tensor.channels;
         int resultRows = this.rows;
         int resultCols = tensor.cols;
+        int inner = this.cols;
 
-        // Initialize the result tensor
-        Tensor4D result = new Tensor4D(resultBatches, resultChannels, resultRows, resultCols);
+        checkOutput(result, dataType, resultBatches, resultChannels, resultRows, resultCols);
 
         // Perform the dot product
         for (int batch = 0; batch < resultBatches; batch++) {
             for (int channel = 0; channel < resultChannels; channel++) {
-                for (int row = 0; row < resultRows; row++) {
-                    for (int col = 0; col < resultCols; col++) {
-                        double sum = 0.0;
-                        for (int k = 0; k < this.cols; k++) {
-                            sum += this.data[batch][channel][row][k] * tensor.data[batch][channel][k][col];
-                        }
-                        result.data[batch][channel][row][col] = sum;
-                    }
-                }
+                Gemm.gemm(resultRows, resultCols, inner, 1.0,
+                        this, index(batch, channel, 0, 0), rowStride, colStride,
+                        tensor, tensor.index(batch, channel, 0, 0), tensor.rowStride, tensor.colStride,
+                        0.0, result, result.index(batch, channel, 0, 0), result.rowStride, result.colStride);
             }
         }
 
+        result.markModified();
         return result;
     }
 
@@ -192,47 +635,70 @@ public class Tensor4D {
      * @return Das Ergebnis der Multiplikation.
      */
     public Tensor4D multiply2(Tensor4D other) {
+        return multiply2(other, newTensor(this.batches, other.channels, this.rows, other.cols));
+    }
+
+    public Tensor4D multiply2(Tensor4D other, Tensor4D result) {
         // Überprüfen der Dimensionen für die Multiplikation
         if (this.cols != other.rows) {
             throw new IllegalArgumentException("Dimensionen stimmen nicht überein für die Multiplikation");
         }
+        checkDataType(other);
 
         int newBatches = this.batches;
         int newChannels = other.channels;
         int newRows = this.rows;
         int newCols = other.cols;
+        int inner = this.cols;
 
-        Tensor4D result = new Tensor4D(newBatches, newChannels, newRows, newCols);
+        checkOutput(result, dataType, newBatches, newChannels, newRows, newCols);
 
         // Durchführen der Multiplikation
         for (int batch = 0; batch < newBatches; batch++) {
             for (int channel = 0; channel < newChannels; channel++) {
-                for (int row = 0; row < newRows; row++) {
-                    for (int col = 0; col < newCols; col++) {
-                        double sum = 0.0;
-                        for (int k = 0; k < this.cols; k++) {
-                            sum += this.data[batch][0][row][k] * other.data[0][channel][k][col];
-                        }
-                        result.data[batch][channel][row][col] = sum;
-                    }
-                }
+                Gemm.gemm(newRows, newCols, inner, 1.0,
+                        this, index(batch, 0, 0, 0), rowStride, colStride,
+                        other, other.index(0, channel, 0, 0), other.rowStride, other.colStride,
+                        0.0, result, result.index(batch, channel, 0, 0), result.rowStride, result.colStride);
             }
         }
 
+        result.markModified();
         return result;
     }
 
     public Tensor4D sumOverBatchesForBiases() {
-        Tensor4D sum = new Tensor4D(1, this.channels, 1, 1);
+        return sumOverBatchesForBiases(newTensor(1, this.channels, 1, 1));
+    }
+
+    public Tensor4D sumOverBatchesForBiases(Tensor4D sum) {
+        checkOutput(sum, dataType, 1, this.channels, 1, 1);
+        sum.fill(0.0);
 
-        for (int channel = 0; channel < this.channels; channel++) {
-            double total = 0.0;
+        // [batches][channels][1][1] liegt pro Batch zusammenhängend, dann reicht eine Vektor-Addition pro Batch
+        if (channelStride == 1) {
             for (int batch = 0; batch < this.batches; batch++) {
-                total += this.data[batch][channel][0][0];
+                if (isFloat()) {
+                    Kernels.ELEMENTWISE.axpy(1.0f, this.floatData, index(batch, 0, 0, 0), sum.floatData, sum.offset, this.channels);
+                } else {
+                    Kernels.ELEMENTWISE.axpy(1.0, this.data, index(batch, 0, 0, 0), sum.data, sum.offset, this.channels);
+                }
+            }
+            sum.markModified();
+            return sum;
+        }
+
+        for (int batch = 0; batch < this.batches; batch++) {
+            for (int channel = 0; channel < this.channels; channel++) {
+                if (isFloat()) {
+                    sum.floatData[sum.offset + channel] += this.floatData[index(batch, channel, 0, 0)];
+                } else {
+                    sum.data[sum.offset + channel] += this.data[index(batch, channel, 0, 0)];
+                }
             }
-            sum.data[0][channel][0][0] = total;
         }
 
+        sum.markModified();
         return sum;
     }
 
@@ -243,27 +709,37 @@ public class Tensor4D {
      * @return Das Ergebnis der Multiplikation als neuer Tensor4D.
      */
     public Tensor4D multiply(Tensor4D other) {
+        return multiply(other, newTensor(this.batches, other.channels, this.rows, other.cols));
+    }
+
+    public Tensor4D multiply(Tensor4D other, Tensor4D result) {
         // Sicherstellen, dass die Multiplikation möglich ist
         if (this.cols != other.rows) {
             throw new IllegalArgumentException("Die Spalten des ersten Tensors müssen mit den Zeilen des zweiten Tensors übereinstimmen.");
         }
+        checkDataType(other);
 
         // Der resultierende Tensor hat die Dimensionen [this.batches, other.channels, this.rows, other.cols]
-        Tensor4D result = new Tensor4D(this.batches, other.channels, this.rows, other.cols);
-
-        // Durchführen der Matrix-Vektor-Multiplikation für jeden Batch
-        for (int batch = 0; batch < this.batches; batch++) {
-            for (int channel = 0; channel < other.channels; channel++) {
-                for (int row = 0; row < this.rows; row++) {
-                    double sum = 0.0;
-                    for (int k = 0; k < this.cols; k++) {
-                        sum += this.data[batch][0][row][k] * other.data[0][channel][k][0];
-                    }
-                    result.data[batch][channel][row][0] = sum;
-                }
+        checkOutput(result, dataType, this.batches, other.channels, this.rows, other.cols);
+        int inner = this.cols;
+
+        // Durchführen der Matrix-Vektor-Multiplikation, jeder Kanal von other ist eine Spalte der Matrix.
+        // Bei einer Zeile pro Batch (z.B. Fully Connected) werden alle Batches in einem Produkt berechnet.
+        if (this.rows == 1) {
+            Gemm.gemm(this.batches, other.channels, inner, 1.0,
+                    this, offset, batchStride, colStride,
+                    other, other.offset, other.rowStride, other.channelStride,
+                    0.0, result, result.offset, result.batchStride, result.channelStride);
+        } else {
+            for (int batch = 0; batch < this.batches; batch++) {
+                Gemm.gemm(this.rows, other.channels, inner, 1.0,
+                        this, index(batch, 0, 0, 0), rowStride, colStride,
+                        other, other.offset, other.rowStride, other.channelStride,
+                        0.0, result, result.index(batch, 0, 0, 0), result.rowStride, result.channelStride);
             }
         }
 
+        result.markModified();
         return result;
     }
 
@@ -276,52 +752,65 @@ public class Tensor4D {
         // Die neue Batch-Dimension wird 1 sein
         int newBatches = 1;
 
-        Tensor4D averaged = new Tensor4D(newBatches, this.channels, this.rows, this.cols);
+        return averageOverBatches(newTensor(newBatches, this.channels, this.rows, this.cols));
+    }
+
+    public Tensor4D averageOverBatches(Tensor4D averaged) {
+        checkOutput(averaged, dataType, 1, this.channels, this.rows, this.cols);
+        averaged.fill(0.0);
+        Tensor4D tensor = contiguous();
+        int source = tensor.offset;
+        int target = averaged.offset;
 
         // Durchführen des Durchschnitts über die Batches
-        for (int channel = 0; channel < this.channels; channel++) {
-            for (int row = 0; row < this.rows; row++) {
-                for (int col = 0; col < this.cols; col++) {
-                    double sum = 0.0;
-                    for (int batch = 0; batch < this.batches; batch++) {
-                        sum += this.data[batch][channel][row][col];
-                    }
-                    averaged.data[0][channel][row][col] = sum / this.batches;
-                }
+        int length = tensor.batchStride;
+        if (isFloat()) {
+            for (int batch = 0; batch < this.batches; batch++) {
+                Kernels.ELEMENTWISE.axpy(1.0f, tensor.floatData, source + batch * length, averaged.floatData, target, length);
+            }
+            Kernels.ELEMENTWISE.scale(1.0f / this.batches, averaged.floatData, target, averaged.floatData, target, length);
+        } else {
+            for (int batch = 0; batch < this.batches; batch++) {
+                Kernels.ELEMENTWISE.axpy(1.0, tensor.data, source + batch * length, averaged.data, target, length);
             }
+            Kernels.ELEMENTWISE.scale(1.0 / this.batches, averaged.data, target, averaged.data, target, length);
         }
 
+        averaged.markModified();
         return averaged;
     }
 
 
     /**
      * Führt eine Batch-weise Matrix-Vektor-Multiplikation mit einem anderen Tensor4D durch.
+     * Jeder Kanal von {@code other} ist eine Zeile der Matrix, jede Zeile {@code [batch][channel][0]}
+     * dieses Tensors ist ein Vektor.
      * @param other Der Tensor, mit dem multipliziert wird.
      * @return Das Ergebnis der Multiplikation als neuer Tensor4D.
      */
     public Tensor4D batchedMatrixVectorMultiply(Tensor4D other) {
+        return batchedMatrixVectorMultiply(other, newTensor(this.batches, this.channels, other.channels, 1));
+    }
+
+    public Tensor4D batchedMatrixVectorMultiply(Tensor4D other, Tensor4D result) {
         // Sicherstellen, dass die Multiplikation möglich ist
         if (this.cols != other.rows) {
             throw new IllegalArgumentException("Die Spalten des ersten Tensors müssen mit den Zeilen des zweiten Tensors übereinstimmen.");
         }
+        checkDataType(other);
 
-        // Der resultierende Tensor hat die Dimensionen [this.batches, this.channels, other.cols, 1]
-        Tensor4D result = new Tensor4D(this.batches, this.channels, other.cols, 1);
+        // Der resultierende Tensor hat die Dimensionen [this.batches, this.channels, other.channels, 1]
+        checkOutput(result, dataType, this.batches, this.channels, other.channels, 1);
+        int inner = this.cols;
 
-        // Durchführen der Batch-weise Matrix-Vektor-Multiplikation
-        for (int batch = 0; batch < this.batches; batch++) {
-            for (int i = 0; i < this.channels; i++) {
-                for (int j = 0; j < other.cols; j++) {
-                    double sum = 0.0;
-                    for (int k = 0; k < this.cols; k++) {
-                        sum += this.data[batch][i][0][k] * other.data[0][j][k][0];
-                    }
-                    result.data[batch][i][0][j] = sum;
-                }
-            }
-        }
+        // Durchführen der Batch-weise Matrix-Vektor-Multiplikation, alle Vektoren [batch][channel] bilden die Zeilen eines Produkts
+        Tensor4D vectors = batchStride == channels * channelStride ? this : contiguous();
+        Gemm.gemm(this.batches * this.channels, other.channels, inner, 1.0,
+                vectors, vectors.offset, vectors.channelStride, vectors.colStride,
+                other, other.offset, other.rowStride, other.channelStride,
+                0.0, result, result.offset, result.channelStride, result.rowStride);
 
+        result.markModified();
         return result;
     }
 
@@ -331,152 +820,174 @@ public class Tensor4D {
      * @return Tensor4D The result after applying the softmax function.
      */
     public Tensor4D softmax() {
-        Tensor4D result = new Tensor4D(batches, channels, rows, cols);
+        return softmax(newTensor(batches, channels, rows, cols));
+    }
 
-        for (int b = 0; b < batches; b++) {
-            for (int c = 0; c < channels; c++) {
-                for (int r = 0; r < rows; r++) {
-                    double[] softmaxVector = softmax(this.data[b][c][r]);
-                    result.data[b][c][r] = softmaxVector;
-                }
+    public Tensor4D softmaxInPlace() {
+        return softmax(this);
+    }
+
+    /**
+     * Writes the softmax of the last dimension into {@code result}, which may be {@code this}.
+     */
+    public Tensor4D softmax(Tensor4D result) {
+        checkOutput(result, dataType, batches, channels, rows, cols);
+        Tensor4D source = contiguous();
+
+        for (int start = 0; start < size(); start += cols) {
+            if (isFloat()) {
+                softmax(source.floatData, source.offset + start, result.floatData, result.offset + start, cols);
+            } else {
+                softmax(source.data, source.offset + start, result.data, result.offset + start, cols);
             }
         }
 
+        result.markModified();
         return result;
     }
 
     /**
-     * Applies the softmax function to a vector.
+     * Applies the softmax function to a vector stored in {@code input[start, start + length)}
+     * and writes it to {@code output[target, target + length)}.
+     * The maximum is subtracted before exponentiating, which does not change the result but avoids overflow.
      *
-     * @param input The input vector.
-     * @return double[] The softmax transformed vector.
+     * @param input  The input buffer.
+     * @param output The buffer receiving the softmax transformed vector.
      */
-    private double[] softmax(double[] input) {
-        double[] output = new double[input.length];
-        double sum = 0.0;
-
-        // Exponentiate and sum
-        for (int i = 0; i < input.length; i++) {
-            output[i] = Math.exp(input[i]);
-            sum += output[i];
-        }
-
-        // Normalize
-        for (int i = 0; i < output.length; i++) {
-            output[i] /= sum;
-        }
+    private static void softmax(double[] input, int start, double[] output, int target, int length) {
+        double max = Kernels.ELEMENTWISE.max(input, start, length);
+        double sum = Kernels.ELEMENTWISE.expSum(input, start, max, output, target, length);
+        Kernels.ELEMENTWISE.scale(1.0 / sum, output, target, output, target, length);
+    }
 
-        return output;
+    private static void softmax(float[] input, int start, float[] output, int target, int length) {
+        float max = Kernels.ELEMENTWISE.max(input, start, length);
+        float sum = Kernels.ELEMENTWISE.expSum(input, start, max, output, target, length);
+        Kernels.ELEMENTWISE.scale(1.0f / sum, output, target, output, target, length);
     }
 
 
     public Tensor4D addBiases(Tensor4D biases) {
-        // Assuming biases' shape is [1][1][1][outputSize]
+        checkDataType(biases);
+        requireContiguous();
+        // One bias per element of a batch entry, e.g. [1][1][1][outputSize] or [1][outputSize][1][1]
+        if (biases.size() != batchStride) {
+            throw new IllegalArgumentException("Biases " + biases + " do not match one batch entry of " + this);
+        }
+        Tensor4D bias = biases.contiguous();
         for (int batch = 0; batch < batches; batch++) {
-            for (int i = 0; i < cols; i++) {
-                this.data[batch][0][0][i] += biases.data[0][0][0][i];
+            int target = index(batch, 0, 0, 0);
+            if (isFloat()) {
+                Kernels.ELEMENTWISE.axpy(1.0f, bias.floatData, bias.offset, this.floatData, target, batchStride);
+            } else {
+                Kernels.ELEMENTWISE.axpy(1.0, bias.data, bias.offset, this.data, target, batchStride);
             }
         }
 
+        markModified();
         return this;
     }
 
 
+    /**
+     * @return a view of shape {@code [batches][1][1][channels * rows * cols]}
+     */
     public Tensor4D flatten() {
-        int flattenedRows = 1;
-        int flattenedCols = channels * rows * cols;
-        Tensor4D flattenedTensor = new Tensor4D(batches, 1, flattenedRows, flattenedCols);
+        // row-major order already matches the flat index channel * rows * cols + row * cols + col
+        return reshape(batches, 1, 1, channels * rows * cols);
+    }
 
-        for (int batch = 0; batch < batches; batch++) {
-            for (int channel = 0; channel < channels; channel++) {
-                for (int row = 0; row < rows; row++) {
-                    for (int col = 0; col < cols; col++) {
-                        int flatIndex = channel * rows * cols + row * cols + col;
-                        flattenedTensor.data[batch][0][0][flatIndex] = this.data[batch][channel][row][col];
-                    }
-                }
-            }
-        }
-        return flattenedTensor;
+    public Tensor4D flatten(Tensor4D out) {
+        checkOutput(out, dataType, batches, 1, 1, channels * rows * cols);
+        return reshape(out);
     }
 
     public void randomHE() {
-        for (int i = 0; i < batches; i++) {
-            for (int j = 0; j < channels; j++) {
-                for (int k = 0; k < rows; k++) {
-                    for (int l = 0; l < cols; l++) {
-                        data[i][j][k][l] = random.nextGaussian() * Math.sqrt(2.0 / (rows * cols));
-                    }
-                }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double scale = Math.sqrt(2.0 / (rows * cols));
+        requireContiguous();
+        for (int i = offset; i < offset + size(); i++) {
+            if (isFloat()) {
+                floatData[i] = (float) (random.nextGaussian() * scale);
+            } else {
+                data[i] = random.nextGaussian() * scale;
             }
         }
+        markModified();
     }
 
 
     public Tensor4D convolve(Tensor4D filter, int stride, int padding) {
-        // Adjust the input dimensions based on padding
-        int paddedRows = this.rows + 2 * padding;
-        int paddedCols = this.cols + 2 * padding;
+        return convolve(filter, stride, padding, newTensor(this.batches, filter.batches,
+                (this.rows + 2 * padding - filter.rows) / stride + 1,
+                (this.cols + 2 * padding - filter.cols) / stride + 1));
+    }
+
+    /**
+     * Direct convolution with implicit zero padding. For every output position only the filter taps that lie
+     * inside the input are visited, so no padded copy of the input is made: interior positions run over the whole
+     * filter, border positions over the clipped part of it.
+     */
+    public Tensor4D convolve(Tensor4D filter, int stride, int padding, Tensor4D output) {
+        checkDataType(filter);
+        filter = filter.contiguous();
+        Tensor4D input = contiguous();
 
         // Output dimensions
         int outputBatches = this.batches;
         int outputChannels =
                 filter.batches; // Assuming output channels are represented by filter's batch dimension
-        int outputRows = (paddedRows - filter.rows) / stride + 1;
-        int outputCols = (paddedCols - filter.cols) / stride + 1;
-
-        // Initialize the output tensor
-        Tensor4D output = new Tensor4D(outputBatches, outputChannels, outputRows, outputCols);
-
-        // Apply padding if necessary
-        double[][][][] paddedInput = applyPadding(padding);
-
-        // Perform the convolution
-        for (int batch = 0; batch < this.batches; batch++) {
-            for (int outChannel = 0; outChannel < outputChannels; outChannel++) {
-                for (int row = 0; row < outputRows; row++) {
-                    for (int col = 0; col < outputCols; col++) {
-                        double sum = 0.0;
-                        for (int inChannel = 0; inChannel < this.channels; inChannel++) {
-                            for (int filterRow = 0; filterRow < filter.rows; filterRow++) {
-                                for (int filterCol = 0; filterCol < filter.cols; filterCol++) {
-                                    int inputRow = row * stride + filterRow;
-                                    int inputCol = col * stride + filterCol;
-                                    sum +=
-                                            paddedInput[batch][inChannel][inputRow][inputCol]
-                                                    * filter.data[outChannel][inChannel][filterRow][filterCol];
-                                }
-                            }
-                        }
-                        output.data[batch][outChannel][row][col] = sum;
-                    }
-                }
-            }
-        }
+        int outputRows = (this.rows + 2 * padding - filter.rows) / stride + 1;
+        int outputCols = (this.cols + 2 * padding - filter.cols) / stride + 1;
+
+        checkOutput(output, dataType, outputBatches, outputChannels, outputRows, outputCols);
+
+        // Jede Ausgabezeile (batch, outChannel, row) ist unabhängig, die Zeilen werden auf den Compute-Pool verteilt
+        Tensor4D kernel = filter;
+        long costPerRow = (long) outputCols * this.channels * filter.rows * filter.cols;
+        ComputePool.shared().parallelFor(outputBatches * outputChannels * outputRows, costPerRow, item ->
+                convolveRow(input, kernel, stride, padding, item / (outputChannels * outputRows),
+                        item / outputRows % outputChannels, item % outputRows, outputCols,
+                        output, output.offset + item * outputCols));
+        output.markModified();
         return output;
     }
 
-    private double[][][][] applyPadding(int padding) {
-        if (padding == 0) {
-            return this.data;
-        }
-
-        int paddedRows = this.rows + 2 * padding;
-        int paddedCols = this.cols + 2 * padding;
-        double[][][][] paddedData = new double[this.batches][this.channels][paddedRows][paddedCols];
-
-        for (int batch = 0; batch < this.batches; batch++) {
-            for (int channel = 0; channel < this.channels; channel++) {
-                for (int row = 0; row < this.rows; row++) {
-                    for (int col = 0; col < this.cols; col++) {
-                        paddedData[batch][channel][row + padding][col + padding] =
-                                this.data[batch][channel][row][col];
+    private void convolveRow(Tensor4D input, Tensor4D filter, int stride, int padding,
+                             int batch, int outChannel, int row, int outputCols, Tensor4D output, int out) {
+        int top = row * stride - padding;
+        int filterRowStart = Math.max(0, -top);
+        int filterRowEnd = Math.min(filter.rows, this.rows - top);
+        for (int col = 0; col < outputCols; col++) {
+            int left = col * stride - padding;
+            int filterColStart = Math.max(0, -left);
+            int filterColEnd = Math.min(filter.cols, this.cols - left);
+            double sum = 0.0;
+            for (int inChannel = 0; inChannel < this.channels; inChannel++) {
+                int inputPlane = input.index(batch, inChannel, 0, 0);
+                int filterPlane = filter.index(outChannel, inChannel, 0, 0);
+                for (int filterRow = filterRowStart; filterRow < filterRowEnd; filterRow++) {
+                    int inputRow = inputPlane + (top + filterRow) * this.cols + left;
+                    int filterRowOffset = filterPlane + filterRow * filter.cols;
+                    if (isFloat()) {
+                        float rowSum = 0.0f;
+                        for (int filterCol = filterColStart; filterCol < filterColEnd; filterCol++) {
+                            rowSum += input.floatData[inputRow + filterCol] * filter.floatData[filterRowOffset + filterCol];
+                        }
+                        sum += rowSum;
+                    } else {
+                        for (int filterCol = filterColStart; filterCol < filterColEnd; filterCol++) {
+                            sum += input.data[inputRow + filterCol] * filter.data[filterRowOffset + filterCol];
+                        }
                     }
                 }
             }
+            if (isFloat()) {
+                output.floatData[out++] = (float) sum;
+            } else {
+                output.data[out++] = sum;
+            }
         }
-
-        return paddedData;
     }
 
     @Override
@@ -486,6 +997,7 @@ public class Tensor4D {
                 ", channels=" + channels +
                 ", rows=" + rows +
                 ", cols=" + cols +
+                ", dataType=" + dataType +
                 '}';
     }
 }
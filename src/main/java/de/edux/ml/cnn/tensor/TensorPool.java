@@ -0,0 +1,174 @@
+package de.edux.ml.cnn.tensor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shape-keyed pool for the temporaries of one training step.
+ * <p>
+ * Between {@link #beginStep()} and {@link #endStep()} every {@link #acquire} hands out a tensor that is owned by
+ * the step, {@link #endStep()} takes all of them back at once. A steady-state step with the same batch size
+ * therefore reuses the tensors of the previous step instead of allocating new ones. Outside a step
+ * {@link #acquire} simply allocates, so results that outlive a step (e.g. of {@code predict}) are never recycled.
+ * <p>
+ * A tensor that is dead before the end of the step can be handed back early with {@link #release}, so later
+ * acquires of the same step reuse it. With arenas from {@link #reserve} the pool places tensors of any shape into
+ * the first free arena that is large enough, a network plans their sizes from the liveness of its activations and
+ * gradients (see {@code MemoryPlan}). Shapes that fit no free arena fall back to the shape-keyed tensors.
+ * <p>
+ * Acquired tensors are not cleared, the {@code into} variants of the {@link Tensor4D} operations overwrite
+ * their output completely. The pool is not thread-safe.
+ */
+public class TensorPool {
+
+    private record Shape(DataType dataType, int batches, int channels, int rows, int cols) {
+    }
+
+    private final Map<Shape, ArrayDeque<Tensor4D>> available = new HashMap<>();
+    private final List<Tensor4D> borrowed = new ArrayList<>();
+    private final List<Shape> borrowedShapes = new ArrayList<>();
+    private boolean inStep;
+    private long allocations;
+
+    // Arenen: flache Puffer mit höchstens einem Tensor gleichzeitig, die letzte View pro Arena wird wiederverwendet
+    private DataType arenaType;
+    private Tensor4D[] arenas = new Tensor4D[0];
+    private Tensor4D[] arenaViews = new Tensor4D[0];
+    private boolean[] arenaInUse = new boolean[0];
+
+    public void beginStep() {
+        if (inStep) {
+            throw new IllegalStateException("Step already started");
+        }
+        inStep = true;
+    }
+
+    /**
+     * Returns all tensors acquired since {@link #beginStep()} to the pool, they must not be used afterwards.
+     */
+    public void endStep() {
+        Arrays.fill(arenaInUse, false);
+        for (int i = 0; i < borrowed.size(); i++) {
+            available.computeIfAbsent(borrowedShapes.get(i), shape -> new ArrayDeque<>()).push(borrowed.get(i));
+        }
+        borrowed.clear();
+        borrowedShapes.clear();
+        inStep = false;
+    }
+
+    public boolean isInStep() {
+        return inStep;
+    }
+
+    /**
+     * @return a tensor of the given shape with undefined content
+     */
+    public Tensor4D acquire(DataType dataType, int batches, int channels, int rows, int cols) {
+        if (!inStep) {
+            allocations++;
+            return new Tensor4D(dataType, batches, channels, rows, cols);
+        }
+        if (dataType == arenaType) {
+            int size = batches * channels * rows * cols;
+            for (int i = 0; i < arenas.length; i++) {
+                if (!arenaInUse[i] && arenas[i].size() >= size) {
+                    Tensor4D view = arenaViews[i];
+                    if (view == null || view.getBatches() != batches || view.getChannels() != channels
+                            || view.getRows() != rows || view.getCols() != cols) {
+                        view = arenas[i].region(0, batches, channels, rows, cols);
+                        arenaViews[i] = view;
+                    }
+                    arenaInUse[i] = true;
+                    return view;
+                }
+            }
+        }
+        Shape shape = new Shape(dataType, batches, channels, rows, cols);
+        ArrayDeque<Tensor4D> free = available.get(shape);
+        Tensor4D tensor = free == null ? null : free.poll();
+        if (tensor == null) {
+            allocations++;
+            tensor = new Tensor4D(dataType, batches, channels, rows, cols);
+        }
+        borrowed.add(tensor);
+        borrowedShapes.add(shape);
+        return tensor;
+    }
+
+    /**
+     * Hands a tensor acquired in the current step back before the step ends, it must not be used afterwards.
+     * Tensors that were not acquired from this pool in the current step, e.g. views or inputs, are ignored.
+     */
+    public void release(Tensor4D tensor) {
+        if (!inStep) {
+            return;
+        }
+        for (int i = 0; i < arenas.length; i++) {
+            if (arenaInUse[i] && arenaViews[i] == tensor) {
+                arenaInUse[i] = false;
+                return;
+            }
+        }
+        for (int i = borrowed.size() - 1; i >= 0; i--) {
+            if (borrowed.get(i) == tensor) {
+                available.computeIfAbsent(borrowedShapes.get(i), shape -> new ArrayDeque<>()).push(tensor);
+                borrowed.remove(i);
+                borrowedShapes.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Allocates one arena of {@code dataType} per capacity (in elements) up front, replacing previous arenas.
+     */
+    public void reserve(DataType dataType, int[] capacities) {
+        if (inStep) {
+            throw new IllegalStateException("Cannot reserve arenas during a step");
+        }
+        this.arenaType = dataType;
+        this.arenas = new Tensor4D[capacities.length];
+        this.arenaViews = new Tensor4D[capacities.length];
+        this.arenaInUse = new boolean[capacities.length];
+        for (int i = 0; i < capacities.length; i++) {
+            arenas[i] = new Tensor4D(dataType, 1, 1, 1, capacities[i]);
+            allocations++;
+        }
+    }
+
+    /**
+     * @return elements in all arenas of this pool
+     */
+    public long getReservedElements() {
+        long elements = 0;
+        for (Tensor4D arena : arenas) {
+            elements += arena.size();
+        }
+        return elements;
+    }
+
+    /**
+     * @return a tensor of the given shape filled with zeros
+     */
+    public Tensor4D acquireZeroed(DataType dataType, int batches, int channels, int rows, int cols) {
+        return acquire(dataType, batches, channels, rows, cols).fill(0.0);
+    }
+
+    /**
+     * @return number of tensors allocated by this pool so far
+     */
+    public long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * Drops all pooled tensors, e.g. after the batch size changed for good.
+     */
+    public void clear() {
+        available.clear();
+    }
+}
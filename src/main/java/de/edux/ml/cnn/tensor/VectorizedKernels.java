@@ -0,0 +1,447 @@
+package de.edux.ml.cnn.tensor;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels on the preferred vector species of the CPU, the remainder after the last full vector is
+ * handled with scalar code. Only loaded by {@link Kernels} when {@code jdk.incubator.vector} is present.
+ */
+final class VectorizedKernels implements ElementwiseKernels {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    // int8-Skalarprodukt: halb so breite Byte-Vektoren, auf Shorts erweitert, Produkte passen in 16 Bit
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class, INTS.vectorShape());
+    private static final VectorSpecies<Byte> BYTES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+    // int8 auf int32 erweitern: mindestens 64 Bit laden, in Teilen von einem Int-Vektor umwandeln
+    private static final VectorSpecies<Byte> WIDENED_BYTES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, INTS.length() * Byte.SIZE)));
+
+    @Override
+    public void scale(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector factor = DoubleVector.broadcast(DOUBLES, alpha);
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, x, xOffset + i).mul(factor).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] = alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void scale(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        FloatVector factor = FloatVector.broadcast(FLOATS, alpha);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector.fromArray(FLOATS, x, xOffset + i).mul(factor).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] = alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void subtract(double[] a, int aOffset, double[] b, int bOffset, double[] y, int yOffset, int length) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, a, aOffset + i)
+                    .sub(DoubleVector.fromArray(DOUBLES, b, bOffset + i))
+                    .intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] = a[aOffset + i] - b[bOffset + i];
+        }
+    }
+
+    @Override
+    public void subtract(float[] a, int aOffset, float[] b, int bOffset, float[] y, int yOffset, int length) {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector.fromArray(FLOATS, a, aOffset + i)
+                    .sub(FloatVector.fromArray(FLOATS, b, bOffset + i))
+                    .intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] = a[aOffset + i] - b[bOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector factor = DoubleVector.broadcast(DOUBLES, alpha);
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, x, xOffset + i).mul(factor)
+                    .add(DoubleVector.fromArray(DOUBLES, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        FloatVector factor = FloatVector.broadcast(FLOATS, alpha);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector.fromArray(FLOATS, x, xOffset + i).mul(factor)
+                    .add(FloatVector.fromArray(FLOATS, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void addScalar(double bias, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector shift = DoubleVector.broadcast(DOUBLES, bias);
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, x, xOffset + i).add(shift).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] = x[xOffset + i] + bias;
+        }
+    }
+
+    @Override
+    public void addScalar(float bias, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        FloatVector shift = FloatVector.broadcast(FLOATS, bias);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector.fromArray(FLOATS, x, xOffset + i).add(shift).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] = x[xOffset + i] + bias;
+        }
+    }
+
+    @Override
+    public long biasRelu(double bias, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector shift = DoubleVector.broadcast(DOUBLES, bias);
+        long mask = 0L;
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector value = DoubleVector.fromArray(DOUBLES, x, xOffset + i).add(shift);
+            VectorMask<Double> positive = value.compare(VectorOperators.GT, 0.0);
+            DoubleVector.zero(DOUBLES).blend(value, positive).intoArray(y, yOffset + i);
+            mask |= positive.toLong() << i;
+        }
+        for (; i < length; i++) {
+            double value = x[xOffset + i] + bias;
+            if (value > 0.0) {
+                y[yOffset + i] = value;
+                mask |= 1L << i;
+            } else {
+                y[yOffset + i] = 0.0;
+            }
+        }
+        return mask;
+    }
+
+    @Override
+    public long biasRelu(float bias, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        FloatVector shift = FloatVector.broadcast(FLOATS, bias);
+        long mask = 0L;
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector value = FloatVector.fromArray(FLOATS, x, xOffset + i).add(shift);
+            VectorMask<Float> positive = value.compare(VectorOperators.GT, 0.0f);
+            FloatVector.zero(FLOATS).blend(value, positive).intoArray(y, yOffset + i);
+            mask |= positive.toLong() << i;
+        }
+        for (; i < length; i++) {
+            float value = x[xOffset + i] + bias;
+            if (value > 0.0f) {
+                y[yOffset + i] = value;
+                mask |= 1L << i;
+            } else {
+                y[yOffset + i] = 0.0f;
+            }
+        }
+        return mask;
+    }
+
+    @Override
+    public void maskedCopy(long mask, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector.zero(DOUBLES).blend(DoubleVector.fromArray(DOUBLES, x, xOffset + i), VectorMask.fromLong(DOUBLES, mask >>> i))
+                    .intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] = (mask >>> i & 1L) != 0 ? x[xOffset + i] : 0.0;
+        }
+    }
+
+    @Override
+    public void maskedCopy(long mask, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector.zero(FLOATS).blend(FloatVector.fromArray(FLOATS, x, xOffset + i), VectorMask.fromLong(FLOATS, mask >>> i))
+                    .intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] = (mask >>> i & 1L) != 0 ? x[xOffset + i] : 0.0f;
+        }
+    }
+
+    @Override
+    public double sum(double[] x, int offset, int length) {
+        DoubleVector accumulator = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            accumulator = accumulator.add(DoubleVector.fromArray(DOUBLES, x, offset + i));
+        }
+        double sum = accumulator.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += x[offset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float sum(float[] x, int offset, int length) {
+        FloatVector accumulator = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            accumulator = accumulator.add(FloatVector.fromArray(FLOATS, x, offset + i));
+        }
+        float sum = accumulator.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += x[offset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double max(double[] x, int offset, int length) {
+        DoubleVector accumulator = DoubleVector.broadcast(DOUBLES, Double.NEGATIVE_INFINITY);
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            accumulator = accumulator.max(DoubleVector.fromArray(DOUBLES, x, offset + i));
+        }
+        double max = accumulator.reduceLanes(VectorOperators.MAX);
+        for (; i < length; i++) {
+            max = Math.max(max, x[offset + i]);
+        }
+        return max;
+    }
+
+    @Override
+    public float max(float[] x, int offset, int length) {
+        FloatVector accumulator = FloatVector.broadcast(FLOATS, Float.NEGATIVE_INFINITY);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            accumulator = accumulator.max(FloatVector.fromArray(FLOATS, x, offset + i));
+        }
+        float max = accumulator.reduceLanes(VectorOperators.MAX);
+        for (; i < length; i++) {
+            max = Math.max(max, x[offset + i]);
+        }
+        return max;
+    }
+
+    @Override
+    public double expSum(double[] x, int xOffset, double shift, double[] y, int yOffset, int length) {
+        DoubleVector offset = DoubleVector.broadcast(DOUBLES, shift);
+        DoubleVector accumulator = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector value = DoubleVector.fromArray(DOUBLES, x, xOffset + i).sub(offset)
+                    .lanewise(VectorOperators.EXP);
+            value.intoArray(y, yOffset + i);
+            accumulator = accumulator.add(value);
+        }
+        double sum = accumulator.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double value = Math.exp(x[xOffset + i] - shift);
+            y[yOffset + i] = value;
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Override
+    public float expSum(float[] x, int xOffset, float shift, float[] y, int yOffset, int length) {
+        FloatVector offset = FloatVector.broadcast(FLOATS, shift);
+        FloatVector accumulator = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector value = FloatVector.fromArray(FLOATS, x, xOffset + i).sub(offset)
+                    .lanewise(VectorOperators.EXP);
+            value.intoArray(y, yOffset + i);
+            accumulator = accumulator.add(value);
+        }
+        float sum = accumulator.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float value = (float) Math.exp(x[xOffset + i] - shift);
+            y[yOffset + i] = value;
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Override
+    public void momentumUpdate(double learningRate, double momentum, double scale, double[] g, int gOffset,
+                               double[] velocity, double[] w, int wOffset, int length) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector updated = DoubleVector.fromArray(DOUBLES, velocity, i).mul(momentum)
+                    .add(DoubleVector.fromArray(DOUBLES, g, gOffset + i).mul(scale));
+            updated.intoArray(velocity, i);
+            DoubleVector.fromArray(DOUBLES, w, wOffset + i).sub(updated.mul(learningRate)).intoArray(w, wOffset + i);
+        }
+        for (; i < length; i++) {
+            velocity[i] = momentum * velocity[i] + scale * g[gOffset + i];
+            w[wOffset + i] -= learningRate * velocity[i];
+        }
+    }
+
+    @Override
+    public void rmsPropUpdate(double learningRate, double decay, double epsilon, double scale, double[] g, int gOffset,
+                              double[] meanSquare, double[] w, int wOffset, int length) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector d = DoubleVector.fromArray(DOUBLES, g, gOffset + i).mul(scale);
+            DoubleVector s = DoubleVector.fromArray(DOUBLES, meanSquare, i).mul(decay).add(d.mul(d).mul(1 - decay));
+            s.intoArray(meanSquare, i);
+            DoubleVector.fromArray(DOUBLES, w, wOffset + i).sub(d.mul(learningRate).div(s.sqrt().add(epsilon)))
+                    .intoArray(w, wOffset + i);
+        }
+        for (; i < length; i++) {
+            double d = scale * g[gOffset + i];
+            meanSquare[i] = decay * meanSquare[i] + (1 - decay) * d * d;
+            w[wOffset + i] -= learningRate * d / (Math.sqrt(meanSquare[i]) + epsilon);
+        }
+    }
+
+    @Override
+    public void adamUpdate(double stepSize, double beta1, double beta2, double varianceCorrection, double epsilon, double scale,
+                           double[] g, int gOffset, double[] m, double[] v, double[] w, int wOffset, int length) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(length); i < bound; i += DOUBLES.length()) {
+            DoubleVector d = DoubleVector.fromArray(DOUBLES, g, gOffset + i).mul(scale);
+            DoubleVector first = DoubleVector.fromArray(DOUBLES, m, i).mul(beta1).add(d.mul(1 - beta1));
+            DoubleVector second = DoubleVector.fromArray(DOUBLES, v, i).mul(beta2).add(d.mul(d).mul(1 - beta2));
+            first.intoArray(m, i);
+            second.intoArray(v, i);
+            DoubleVector.fromArray(DOUBLES, w, wOffset + i)
+                    .sub(first.mul(stepSize).div(second.mul(varianceCorrection).sqrt().add(epsilon)))
+                    .intoArray(w, wOffset + i);
+        }
+        for (; i < length; i++) {
+            double d = scale * g[gOffset + i];
+            m[i] = beta1 * m[i] + (1 - beta1) * d;
+            v[i] = beta2 * v[i] + (1 - beta2) * d * d;
+            w[wOffset + i] -= stepSize * m[i] / (Math.sqrt(v[i] * varianceCorrection) + epsilon);
+        }
+    }
+
+    @Override
+    public void momentumUpdate(float learningRate, float momentum, float scale, float[] g, int gOffset,
+                               float[] velocity, float[] w, int wOffset, int length) {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector updated = FloatVector.fromArray(FLOATS, velocity, i).mul(momentum)
+                    .add(FloatVector.fromArray(FLOATS, g, gOffset + i).mul(scale));
+            updated.intoArray(velocity, i);
+            FloatVector.fromArray(FLOATS, w, wOffset + i).sub(updated.mul(learningRate)).intoArray(w, wOffset + i);
+        }
+        for (; i < length; i++) {
+            velocity[i] = momentum * velocity[i] + scale * g[gOffset + i];
+            w[wOffset + i] -= learningRate * velocity[i];
+        }
+    }
+
+    @Override
+    public void rmsPropUpdate(float learningRate, float decay, float epsilon, float scale, float[] g, int gOffset,
+                              float[] meanSquare, float[] w, int wOffset, int length) {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector d = FloatVector.fromArray(FLOATS, g, gOffset + i).mul(scale);
+            FloatVector s = FloatVector.fromArray(FLOATS, meanSquare, i).mul(decay).add(d.mul(d).mul(1 - decay));
+            s.intoArray(meanSquare, i);
+            FloatVector.fromArray(FLOATS, w, wOffset + i).sub(d.mul(learningRate).div(s.sqrt().add(epsilon)))
+                    .intoArray(w, wOffset + i);
+        }
+        for (; i < length; i++) {
+            float d = scale * g[gOffset + i];
+            meanSquare[i] = decay * meanSquare[i] + (1 - decay) * d * d;
+            w[wOffset + i] -= learningRate * d / ((float) Math.sqrt(meanSquare[i]) + epsilon);
+        }
+    }
+
+    @Override
+    public void adamUpdate(float stepSize, float beta1, float beta2, float varianceCorrection, float epsilon, float scale,
+                           float[] g, int gOffset, float[] m, float[] v, float[] w, int wOffset, int length) {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector d = FloatVector.fromArray(FLOATS, g, gOffset + i).mul(scale);
+            FloatVector first = FloatVector.fromArray(FLOATS, m, i).mul(beta1).add(d.mul(1 - beta1));
+            FloatVector second = FloatVector.fromArray(FLOATS, v, i).mul(beta2).add(d.mul(d).mul(1 - beta2));
+            first.intoArray(m, i);
+            second.intoArray(v, i);
+            FloatVector.fromArray(FLOATS, w, wOffset + i)
+                    .sub(first.mul(stepSize).div(second.mul(varianceCorrection).sqrt().add(epsilon)))
+                    .intoArray(w, wOffset + i);
+        }
+        for (; i < length; i++) {
+            float d = scale * g[gOffset + i];
+            m[i] = beta1 * m[i] + (1 - beta1) * d;
+            v[i] = beta2 * v[i] + (1 - beta2) * d * d;
+            w[wOffset + i] -= stepSize * m[i] / ((float) Math.sqrt(v[i] * varianceCorrection) + epsilon);
+        }
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        IntVector sum = IntVector.zero(INTS);
+        int i = 0;
+        for (int bound = BYTES.loopBound(length); i < bound; i += BYTES.length()) {
+            ShortVector x = (ShortVector) ByteVector.fromArray(BYTES, a, aOffset + i)
+                    .convertShape(VectorOperators.B2S, SHORTS, 0);
+            ShortVector y = (ShortVector) ByteVector.fromArray(BYTES, b, bOffset + i)
+                    .convertShape(VectorOperators.B2S, SHORTS, 0);
+            ShortVector product = x.mul(y);
+            sum = sum.add(product.convertShape(VectorOperators.S2I, INTS, 0))
+                    .add(product.convertShape(VectorOperators.S2I, INTS, 1));
+        }
+        int result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public void axpy(int alpha, byte[] x, int xOffset, int[] y, int yOffset, int length) {
+        int parts = WIDENED_BYTES.length() / INTS.length();
+        int i = 0;
+        for (int bound = WIDENED_BYTES.loopBound(length); i < bound; i += WIDENED_BYTES.length()) {
+            ByteVector bytes = ByteVector.fromArray(WIDENED_BYTES, x, xOffset + i);
+            for (int part = 0; part < parts; part++) {
+                int at = yOffset + i + part * INTS.length();
+                ((IntVector) bytes.convertShape(VectorOperators.B2I, INTS, part)).mul(alpha)
+                        .add(IntVector.fromArray(INTS, y, at))
+                        .intoArray(y, at);
+            }
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+}
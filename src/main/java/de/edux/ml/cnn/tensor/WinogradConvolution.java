@@ -0,0 +1,461 @@
+package de.edux.ml.cnn.tensor;
+
+import java.util.Arrays;
+
+/**
+ * Winograd minimal filtering F(2x2, 3x3) for 3x3 convolutions with stride 1.
+ * <p>
+ * The output is computed in 2x2 tiles from 4x4 input tiles: {@code Y = A^T [(G g G^T) ⊙ (B^T d B)] A}.
+ * This needs 16 multiplications per tile and channel instead of 36. The element-wise products summed over the
+ * input channels are done as 16 independent {@link Gemm} calls, one per tile position, or accumulated directly
+ * when there are only a few input channels.
+ * <p>
+ * The transformed filters {@code G g G^T} are cached and only recomputed when a different filter tensor is passed
+ * or its {@link Tensor4D#getVersion() version} changed, into the same buffer as long as the shape stays. Like
+ * {@link Im2ColConvolution} the work is split over rows of output tiles across the whole batch on the
+ * {@link ComputePool#shared() shared compute pool}, so a single image is split as well. Every chunk has its own
+ * transform buffers. The buffers are reused across calls, so an instance must not be used by two threads at the same
+ * time.
+ * Like {@link Tensor4D#convolve(Tensor4D, int, int)} only the first
+ * {@code input.getChannels()} channels of the filters are used.
+ */
+public class WinogradConvolution {
+
+    private static final int TILE = 4;
+    private static final int POSITIONS = TILE * TILE;
+
+    /**
+     * Below this number of input channels the per-position products are too small for {@link Gemm}
+     * and are accumulated directly.
+     */
+    private static final int GEMM_MIN_CHANNELS = 8;
+
+    private final int padding;
+
+    private Tensor4D cachedFilters;
+    private int cachedVersion;
+    private int cachedChannels;
+    private Tensor4D transformedFilters;
+    private Tensor4D[] transformedInputs = new Tensor4D[0];
+    private Tensor4D[] productBuffers = new Tensor4D[0];
+
+    public WinogradConvolution(int padding) {
+        this.padding = padding;
+    }
+
+    public static boolean supports(int filterSize, int stride) {
+        return filterSize == 3 && stride == 1;
+    }
+
+    /**
+     * @param input   [batches][channels][rows][cols]
+     * @param filters [numberOfFilters][channels][3][3]
+     * @return [batches][numberOfFilters][rows + 2 * padding - 2][cols + 2 * padding - 2]
+     */
+    public Tensor4D forward(Tensor4D input, Tensor4D filters) {
+        return forward(input, filters, new Tensor4D(input.getDataType(), input.getBatches(), filters.getBatches(),
+                input.getRows() + 2 * padding - 2, input.getCols() + 2 * padding - 2));
+    }
+
+    /**
+     * Like {@link #forward(Tensor4D, Tensor4D)}, the result is written into {@code output}.
+     */
+    public Tensor4D forward(Tensor4D input, Tensor4D filters, Tensor4D output) {
+        return forward(input, filters, null, false, null, output);
+    }
+
+    /**
+     * Fused convolution, bias and ReLU like {@link Im2ColConvolution#forward(Tensor4D, Tensor4D, Tensor4D, boolean,
+     * ReluMask, Tensor4D)}, applied to every row of tiles right after its output transform.
+     */
+    public Tensor4D forward(Tensor4D input, Tensor4D filters, Tensor4D biases, boolean relu, ReluMask mask,
+                            Tensor4D output) {
+        input = input.contiguous();
+        if (filters.getRows() != 3 || filters.getCols() != 3) {
+            throw new IllegalArgumentException("Winograd F(2x2, 3x3) needs 3x3 filters, got " + filters);
+        }
+        int channels = input.getChannels();
+        int numberOfFilters = filters.getBatches();
+        int outputRows = input.getRows() + 2 * padding - 2;
+        int outputCols = input.getCols() + 2 * padding - 2;
+        int tileRows = (outputRows + 1) / 2;
+        int tileCols = (outputCols + 1) / 2;
+
+        Tensor4D u = transformFilters(filters, channels);
+        Tensor4D.checkOutput(output, input.getDataType(), input.getBatches(), numberOfFilters, outputRows, outputCols);
+        if (relu && mask != null) {
+            mask.resize(input.getBatches(), numberOfFilters, outputRows, outputCols);
+        }
+        boolean epilogue = biases != null || relu;
+
+        ComputePool computePool = ComputePool.shared();
+        int items = input.getBatches() * tileRows;
+        int chunks = chunks(computePool, input.getBatches(), channels, numberOfFilters, tileRows, tileCols);
+        int chunkTiles = Math.min(tileRows, (items + chunks - 1) / chunks) * tileCols;
+        Tensor4D[] v = transformedInputs = ensureBuffers(transformedInputs, chunks, input.getDataType(), channels,
+                chunkTiles);
+        Tensor4D[] m = productBuffers = ensureBuffers(productBuffers, chunks, input.getDataType(), numberOfFilters,
+                chunkTiles);
+        Tensor4D in = input;
+        computePool.forEachChunk(chunks, items, (chunk, from, to) -> {
+            for (int item = from; item < to; ) {
+                int batch = item / tileRows;
+                int firstTileRow = item % tileRows;
+                int lastTileRow = Math.min(tileRows, firstTileRow + to - item);
+                int tiles = (lastTileRow - firstTileRow) * tileCols;
+                transformInput(in, batch, firstTileRow, lastTileRow, tileCols, v[chunk]);
+                // M_xi (filters x tiles) = U_xi (filters x channels) * V_xi (channels x tiles) for every tile position xi
+                if (channels < GEMM_MIN_CHANNELS) {
+                    multiplyDirect(u, v[chunk], m[chunk], numberOfFilters, channels, tiles);
+                } else {
+                    for (int position = 0; position < POSITIONS; position++) {
+                        Gemm.gemm(numberOfFilters, tiles, channels, 1.0,
+                                u, position * numberOfFilters * channels, channels, 1,
+                                v[chunk], position * channels * tiles, tiles, 1,
+                                0.0, m[chunk], position * numberOfFilters * tiles, tiles, 1);
+                    }
+                }
+                transformOutput(m[chunk], output, batch, firstTileRow, tileCols, tiles);
+                if (epilogue) {
+                    ReluMask.biasRelu(output, biases, relu, mask, batch, firstTileRow * 2,
+                            Math.min(outputRows, lastTileRow * 2));
+                }
+                item += lastTileRow - firstTileRow;
+            }
+        });
+        output.markModified();
+        return output;
+    }
+
+    /**
+     * Number of chunks a forward pass is split into, one item is a row of output tiles of one batch entry.
+     */
+    static int chunks(ComputePool computePool, int batches, int channels, int numberOfFilters, int tileRows,
+                      int tileCols) {
+        return computePool.chunks(batches * tileRows, (long) POSITIONS * numberOfFilters * channels * tileCols);
+    }
+
+    private static void multiplyDirect(Tensor4D u, Tensor4D transformedInput, Tensor4D products,
+                                       int numberOfFilters, int channels, int tiles) {
+        if (u.isFloat()) {
+            float[] uf = u.getFloatBuffer();
+            float[] v = transformedInput.getFloatBuffer();
+            float[] m = products.getFloatBuffer();
+            for (int position = 0; position < POSITIONS; position++) {
+                for (int filter = 0; filter < numberOfFilters; filter++) {
+                    int target = (position * numberOfFilters + filter) * tiles;
+                    for (int channel = 0; channel < channels; channel++) {
+                        float weight = uf[(position * numberOfFilters + filter) * channels + channel];
+                        int source = (position * channels + channel) * tiles;
+                        if (channel == 0) {
+                            for (int tile = 0; tile < tiles; tile++) {
+                                m[target + tile] = weight * v[source + tile];
+                            }
+                        } else {
+                            for (int tile = 0; tile < tiles; tile++) {
+                                m[target + tile] += weight * v[source + tile];
+                            }
+                        }
+                    }
+                }
+            }
+        } else {
+            double[] ud = u.getBuffer();
+            double[] v = transformedInput.getBuffer();
+            double[] m = products.getBuffer();
+            for (int position = 0; position < POSITIONS; position++) {
+                for (int filter = 0; filter < numberOfFilters; filter++) {
+                    int target = (position * numberOfFilters + filter) * tiles;
+                    for (int channel = 0; channel < channels; channel++) {
+                        double weight = ud[(position * numberOfFilters + filter) * channels + channel];
+                        int source = (position * channels + channel) * tiles;
+                        if (channel == 0) {
+                            for (int tile = 0; tile < tiles; tile++) {
+                                m[target + tile] = weight * v[source + tile];
+                            }
+                        } else {
+                            for (int tile = 0; tile < tiles; tile++) {
+                                m[target + tile] += weight * v[source + tile];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Tensor4D transformFilters(Tensor4D filters, int channels) {
+        if (filters == cachedFilters && filters.getVersion() == cachedVersion && channels == cachedChannels
+                && transformedFilters.getDataType() == filters.getDataType()) {
+            return transformedFilters;
+        }
+        int numberOfFilters = filters.getBatches();
+        // im Training ändern sich die Filter nach jedem Schritt, der Puffer wird nur bei neuer Form neu angelegt
+        transformedFilters = ensureBuffer(transformedFilters, filters.getDataType(), numberOfFilters, channels);
+        double[] g = new double[9];
+        double[] u = new double[POSITIONS];
+        for (int filter = 0; filter < numberOfFilters; filter++) {
+            for (int channel = 0; channel < channels; channel++) {
+                for (int i = 0; i < 9; i++) {
+                    g[i] = filters.get(filter, channel, i / 3, i % 3);
+                }
+                filterTransform(g, u);
+                for (int position = 0; position < POSITIONS; position++) {
+                    transformedFilters.set(0, position, filter, channel, u[position]);
+                }
+            }
+        }
+        cachedFilters = filters;
+        cachedVersion = filters.getVersion();
+        cachedChannels = channels;
+        return transformedFilters;
+    }
+
+    /**
+     * U = G g G^T with G = [[1, 0, 0], [1/2, 1/2, 1/2], [1/2, -1/2, 1/2], [0, 0, 1]].
+     */
+    private static void filterTransform(double[] g, double[] u) {
+        double[] t = new double[12];
+        for (int col = 0; col < 3; col++) {
+            double g0 = g[col];
+            double g1 = g[3 + col];
+            double g2 = g[6 + col];
+            t[col] = g0;
+            t[3 + col] = 0.5 * (g0 + g1 + g2);
+            t[6 + col] = 0.5 * (g0 - g1 + g2);
+            t[9 + col] = g2;
+        }
+        for (int row = 0; row < TILE; row++) {
+            double t0 = t[row * 3];
+            double t1 = t[row * 3 + 1];
+            double t2 = t[row * 3 + 2];
+            u[row * TILE] = t0;
+            u[row * TILE + 1] = 0.5 * (t0 + t1 + t2);
+            u[row * TILE + 2] = 0.5 * (t0 - t1 + t2);
+            u[row * TILE + 3] = t2;
+        }
+    }
+
+    private void transformInput(Tensor4D input, int batch, int firstTileRow, int lastTileRow, int tileCols,
+                                Tensor4D transformedInput) {
+        int offset = input.index(batch, 0, 0, 0);
+        if (input.isFloat()) {
+            transformInput(input.getFloatBuffer(), offset, input.getChannels(), input.getRows(), input.getCols(),
+                    firstTileRow, lastTileRow, tileCols, transformedInput.getFloatBuffer());
+        } else {
+            transformInput(input.getBuffer(), offset, input.getChannels(), input.getRows(), input.getCols(),
+                    firstTileRow, lastTileRow, tileCols, transformedInput.getBuffer());
+        }
+    }
+
+    /**
+     * V = B^T d B with B^T = [[1, 0, -1, 0], [0, 1, 1, 0], [0, -1, 1, 0], [0, 1, 0, -1]],
+     * for the tile rows {@code [firstTileRow, lastTileRow)}, stored as [position][channel][tile]. Tiles inside the input are copied directly, tiles overlapping the
+     * border take the checked path where positions outside the input read as zero.
+     */
+    private void transformInput(double[] input, int offset, int channels, int rows, int cols,
+                                int firstTileRow, int lastTileRow, int tileCols, double[] v) {
+        int tiles = (lastTileRow - firstTileRow) * tileCols;
+        double[] d = new double[POSITIONS];
+        for (int channel = 0; channel < channels; channel++) {
+            int plane = offset + channel * rows * cols;
+            for (int tileRow = firstTileRow; tileRow < lastTileRow; tileRow++) {
+                for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+                    int top = tileRow * 2 - padding;
+                    int left = tileCol * 2 - padding;
+                    if (top >= 0 && left >= 0 && top + TILE <= rows && left + TILE <= cols) {
+                        // Kachel liegt vollständig im Bild, keine Randprüfung
+                        for (int i = 0; i < TILE; i++) {
+                            System.arraycopy(input, plane + (top + i) * cols + left, d, i * TILE, TILE);
+                        }
+                    } else {
+                        gatherBorderTile(input, plane, rows, cols, top, left, d);
+                    }
+                    for (int j = 0; j < TILE; j++) {
+                        double d0 = d[j];
+                        double d1 = d[TILE + j];
+                        double d2 = d[2 * TILE + j];
+                        double d3 = d[3 * TILE + j];
+                        d[j] = d0 - d2;
+                        d[TILE + j] = d1 + d2;
+                        d[2 * TILE + j] = d2 - d1;
+                        d[3 * TILE + j] = d1 - d3;
+                    }
+                    int target = channel * tiles + (tileRow - firstTileRow) * tileCols + tileCol;
+                    int positionStride = channels * tiles;
+                    for (int i = 0; i < TILE; i++) {
+                        double d0 = d[i * TILE];
+                        double d1 = d[i * TILE + 1];
+                        double d2 = d[i * TILE + 2];
+                        double d3 = d[i * TILE + 3];
+                        v[target + (i * TILE) * positionStride] = d0 - d2;
+                        v[target + (i * TILE + 1) * positionStride] = d1 + d2;
+                        v[target + (i * TILE + 2) * positionStride] = d2 - d1;
+                        v[target + (i * TILE + 3) * positionStride] = d1 - d3;
+                    }
+                }
+            }
+        }
+    }
+
+    private void transformInput(float[] input, int offset, int channels, int rows, int cols,
+                                int firstTileRow, int lastTileRow, int tileCols, float[] v) {
+        int tiles = (lastTileRow - firstTileRow) * tileCols;
+        float[] d = new float[POSITIONS];
+        for (int channel = 0; channel < channels; channel++) {
+            int plane = offset + channel * rows * cols;
+            for (int tileRow = firstTileRow; tileRow < lastTileRow; tileRow++) {
+                for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+                    int top = tileRow * 2 - padding;
+                    int left = tileCol * 2 - padding;
+                    if (top >= 0 && left >= 0 && top + TILE <= rows && left + TILE <= cols) {
+                        // Kachel liegt vollständig im Bild, keine Randprüfung
+                        for (int i = 0; i < TILE; i++) {
+                            System.arraycopy(input, plane + (top + i) * cols + left, d, i * TILE, TILE);
+                        }
+                    } else {
+                        gatherBorderTile(input, plane, rows, cols, top, left, d);
+                    }
+                    for (int j = 0; j < TILE; j++) {
+                        float d0 = d[j];
+                        float d1 = d[TILE + j];
+                        float d2 = d[2 * TILE + j];
+                        float d3 = d[3 * TILE + j];
+                        d[j] = d0 - d2;
+                        d[TILE + j] = d1 + d2;
+                        d[2 * TILE + j] = d2 - d1;
+                        d[3 * TILE + j] = d1 - d3;
+                    }
+                    int target = channel * tiles + (tileRow - firstTileRow) * tileCols + tileCol;
+                    int positionStride = channels * tiles;
+                    for (int i = 0; i < TILE; i++) {
+                        float d0 = d[i * TILE];
+                        float d1 = d[i * TILE + 1];
+                        float d2 = d[i * TILE + 2];
+                        float d3 = d[i * TILE + 3];
+                        v[target + (i * TILE) * positionStride] = d0 - d2;
+                        v[target + (i * TILE + 1) * positionStride] = d1 + d2;
+                        v[target + (i * TILE + 2) * positionStride] = d2 - d1;
+                        v[target + (i * TILE + 3) * positionStride] = d1 - d3;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gathers a 4x4 input tile that overlaps the border, positions outside the input read as zero.
+     */
+    private static void gatherBorderTile(double[] input, int plane, int rows, int cols, int top, int left, double[] d) {
+        for (int i = 0; i < TILE; i++) {
+            int row = top + i;
+            for (int j = 0; j < TILE; j++) {
+                int col = left + j;
+                d[i * TILE + j] = row >= 0 && row < rows && col >= 0 && col < cols
+                        ? input[plane + row * cols + col] : 0.0;
+            }
+        }
+    }
+
+    private static void gatherBorderTile(float[] input, int plane, int rows, int cols, int top, int left, float[] d) {
+        for (int i = 0; i < TILE; i++) {
+            int row = top + i;
+            for (int j = 0; j < TILE; j++) {
+                int col = left + j;
+                d[i * TILE + j] = row >= 0 && row < rows && col >= 0 && col < cols
+                        ? input[plane + row * cols + col] : 0.0f;
+            }
+        }
+    }
+
+    private static void transformOutput(Tensor4D products, Tensor4D output, int batch, int firstTileRow, int tileCols,
+                                        int tiles) {
+        int offset = output.index(batch, 0, 0, 0);
+        if (output.isFloat()) {
+            transformOutput(products.getFloatBuffer(), output.getChannels(), output.getRows(), output.getCols(),
+                    firstTileRow, tileCols, tiles, output.getFloatBuffer(), offset);
+        } else {
+            transformOutput(products.getBuffer(), output.getChannels(), output.getRows(), output.getCols(),
+                    firstTileRow, tileCols, tiles, output.getBuffer(), offset);
+        }
+    }
+
+    /**
+     * Y = A^T M A with A^T = [[1, 1, 1, 0], [0, 1, -1, -1]] for the tiles starting at tile row {@code firstTileRow},
+     * the last tile row and column are clipped when the output size is odd.
+     */
+    private static void transformOutput(double[] m, int numberOfFilters, int rows, int cols,
+                                        int firstTileRow, int tileCols, int tiles, double[] output, int offset) {
+        int positionStride = numberOfFilters * tiles;
+        double[] t = new double[2 * TILE];
+        for (int filter = 0; filter < numberOfFilters; filter++) {
+            int plane = offset + filter * rows * cols;
+            for (int tile = 0; tile < tiles; tile++) {
+                int source = filter * tiles + tile;
+                for (int j = 0; j < TILE; j++) {
+                    double m0 = m[source + j * positionStride];
+                    double m1 = m[source + (TILE + j) * positionStride];
+                    double m2 = m[source + (2 * TILE + j) * positionStride];
+                    double m3 = m[source + (3 * TILE + j) * positionStride];
+                    t[j] = m0 + m1 + m2;
+                    t[TILE + j] = m1 - m2 - m3;
+                }
+                int row = (firstTileRow + tile / tileCols) * 2;
+                int col = (tile % tileCols) * 2;
+                for (int i = 0; i < 2 && row + i < rows; i++) {
+                    int target = plane + (row + i) * cols + col;
+                    output[target] = t[i * TILE] + t[i * TILE + 1] + t[i * TILE + 2];
+                    if (col + 1 < cols) {
+                        output[target + 1] = t[i * TILE + 1] - t[i * TILE + 2] - t[i * TILE + 3];
+                    }
+                }
+            }
+        }
+    }
+
+    private static void transformOutput(float[] m, int numberOfFilters, int rows, int cols,
+                                        int firstTileRow, int tileCols, int tiles, float[] output, int offset) {
+        int positionStride = numberOfFilters * tiles;
+        float[] t = new float[2 * TILE];
+        for (int filter = 0; filter < numberOfFilters; filter++) {
+            int plane = offset + filter * rows * cols;
+            for (int tile = 0; tile < tiles; tile++) {
+                int source = filter * tiles + tile;
+                for (int j = 0; j < TILE; j++) {
+                    float m0 = m[source + j * positionStride];
+                    float m1 = m[source + (TILE + j) * positionStride];
+                    float m2 = m[source + (2 * TILE + j) * positionStride];
+                    float m3 = m[source + (3 * TILE + j) * positionStride];
+                    t[j] = m0 + m1 + m2;
+                    t[TILE + j] = m1 - m2 - m3;
+                }
+                int row = (firstTileRow + tile / tileCols) * 2;
+                int col = (tile % tileCols) * 2;
+                for (int i = 0; i < 2 && row + i < rows; i++) {
+                    int target = plane + (row + i) * cols + col;
+                    output[target] = t[i * TILE] + t[i * TILE + 1] + t[i * TILE + 2];
+                    if (col + 1 < cols) {
+                        output[target + 1] = t[i * TILE + 1] - t[i * TILE + 2] - t[i * TILE + 3];
+                    }
+                }
+            }
+        }
+    }
+
+    private static Tensor4D[] ensureBuffers(Tensor4D[] buffers, int count, DataType dataType, int rows, int cols) {
+        if (buffers.length < count) {
+            buffers = Arrays.copyOf(buffers, count);
+        }
+        for (int i = 0; i < count; i++) {
+            buffers[i] = ensureBuffer(buffers[i], dataType, rows, cols);
+        }
+        return buffers;
+    }
+
+    private static Tensor4D ensureBuffer(Tensor4D buffer, DataType dataType, int rows, int cols) {
+        if (buffer == null || buffer.getDataType() != dataType || buffer.getRows() != rows || buffer.getCols() != cols) {
+            return new Tensor4D(dataType, 1, POSITIONS, rows, cols);
+        }
+        return buffer;
+    }
+}
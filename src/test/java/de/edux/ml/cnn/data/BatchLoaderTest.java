@@ -0,0 +1,109 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchLoaderTest {
+
+  @Test
+  void testEveryEpochContainsEverySampleOnce() {
+    int samples = 7;
+    Tensor4D[] images = new Tensor4D[samples];
+    Tensor4D[] labels = new Tensor4D[samples];
+    for (int i = 0; i < samples; i++) {
+      images[i] = new Tensor4D(1, 2, 3, 4);
+      images[i].fill(i);
+      labels[i] = new Tensor4D(1, 1, 1, samples);
+      labels[i].set(0, 0, 0, i, 1.0);
+    }
+
+    try (BatchLoader loader = new BatchLoader(Dataset.of(images, labels), 3, DataType.FLOAT32, new Random(42))) {
+      assertEquals(3, loader.batchesPerEpoch());
+      List<List<Integer>> epochs = new ArrayList<>();
+      for (int epoch = 0; epoch < 2; epoch++) {
+        List<Integer> order = new ArrayList<>();
+        loader.startEpoch();
+        while (loader.hasNext()) {
+          Batch batch = loader.next();
+          // the shape comes from the samples, the last batch holds the remainder
+          assertEquals(order.size() == 6 ? 1 : 3, batch.images().getBatches());
+          assertEquals(DataType.FLOAT32, batch.images().getDataType());
+          assertEquals(2, batch.images().getChannels());
+          assertEquals(3, batch.images().getRows());
+          assertEquals(4, batch.images().getCols());
+          for (int b = 0; b < batch.images().getBatches(); b++) {
+            int sample = (int) batch.images().get(b, 1, 2, 3);
+            assertEquals(1.0, batch.labels().get(b, 0, 0, sample));
+            order.add(sample);
+          }
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), order.stream().sorted().toList());
+        epochs.add(order);
+      }
+      assertNotEquals(epochs.get(0), epochs.get(1));
+      assertThrows(IllegalStateException.class, loader::next);
+    }
+  }
+
+  @Test
+  void testBatchTensorsAreReused() {
+    Tensor4D[] images = new Tensor4D[4];
+    Tensor4D[] labels = new Tensor4D[4];
+    for (int i = 0; i < 4; i++) {
+      images[i] = new Tensor4D(1, 1, 2, 2);
+      labels[i] = new Tensor4D(1, 1, 1, 2);
+    }
+    try (BatchLoader loader = new BatchLoader(images, labels, 2, DataType.FLOAT64)) {
+      loader.startEpoch();
+      Tensor4D first = loader.next().images();
+      Tensor4D second = loader.next().images();
+      assertNotSame(first.getBuffer(), second.getBuffer());
+      loader.startEpoch();
+      assertSame(first.getBuffer(), loader.next().images().getBuffer());
+      assertSame(second.getBuffer(), loader.next().images().getBuffer());
+    }
+  }
+
+  @Test
+  void testResumedEpochContinuesWithTheSameBatches() {
+    Tensor4D[] images = new Tensor4D[6];
+    Tensor4D[] labels = new Tensor4D[6];
+    for (int i = 0; i < 6; i++) {
+      images[i] = new Tensor4D(1, 1, 1, 1);
+      images[i].fill(i);
+      labels[i] = new Tensor4D(1, 1, 1, 2);
+    }
+    try (BatchLoader original = new BatchLoader(Dataset.of(images, labels), 2, DataType.FLOAT64, new Random(3));
+         BatchLoader resumed = new BatchLoader(Dataset.of(images, labels), 2, DataType.FLOAT64, new Random(4))) {
+      original.startEpoch();
+      original.next();
+      assertEquals(1, original.getPosition());
+      resumed.resumeEpoch(original.getPermutation(), original.getPosition());
+      while (original.hasNext()) {
+        assertTrue(resumed.hasNext());
+        assertArrayEquals(original.next().images().getBuffer(), resumed.next().images().getBuffer());
+      }
+      assertFalse(resumed.hasNext());
+      assertThrows(IllegalArgumentException.class, () -> resumed.resumeEpoch(new int[5], 0));
+    }
+  }
+
+  @Test
+  void testMismatchingSampleIsRejected() {
+    Tensor4D[] images = {new Tensor4D(1, 1, 2, 2), new Tensor4D(1, 1, 3, 3)};
+    Tensor4D[] labels = {new Tensor4D(1, 1, 1, 2), new Tensor4D(1, 1, 1, 2)};
+    try (BatchLoader loader = new BatchLoader(images, labels, 2, DataType.FLOAT64)) {
+      loader.startEpoch();
+      assertThrows(IllegalArgumentException.class, loader::next);
+    }
+    assertThrows(IllegalArgumentException.class,
+        () -> new BatchLoader(images, new Tensor4D[1], 2, DataType.FLOAT64));
+  }
+}
@@ -0,0 +1,66 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatasetTest {
+
+  @Test
+  void testBatchesAreSizedAndSplittable() {
+    Dataset dataset = dataset(10);
+    Spliterator<Batch> batches = dataset.batches(3, DataType.FLOAT64);
+    assertEquals(4, batches.estimateSize());
+    assertTrue(batches.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED));
+
+    Spliterator<Batch> prefix = batches.trySplit();
+    assertEquals(2, prefix.estimateSize());
+    assertEquals(2, batches.estimateSize());
+
+    List<Integer> samples = new ArrayList<>();
+    prefix.forEachRemaining(batch -> collect(batch, samples));
+    batches.forEachRemaining(batch -> collect(batch, samples));
+    assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), samples);
+
+    assertEquals(10, dataset.stream(3, DataType.FLOAT32, true).mapToInt(Batch::size).sum());
+  }
+
+  @Test
+  void testSubsetAndSplitAreViews() {
+    Dataset[] parts = dataset(10).split(0.8);
+    assertEquals(8, parts[0].size());
+    assertEquals(2, parts[1].size());
+
+    Dataset subset = parts[1].subset(1, 2);
+    assertEquals(1, subset.size());
+    assertEquals(9.0, subset.getImages().get(0, DataType.FLOAT64).get(0, 0, 0, 0));
+    assertEquals(1.0, subset.getLabels().get(0, DataType.FLOAT64).get(0, 0, 0, 9));
+    assertThrows(IllegalArgumentException.class, () -> parts[1].subset(1, 3));
+  }
+
+  private static void collect(Batch batch, List<Integer> samples) {
+    for (int b = 0; b < batch.size(); b++) {
+      int sample = (int) batch.images().get(b, 0, 1, 1);
+      assertEquals(1.0, batch.labels().get(b, 0, 0, sample));
+      samples.add(sample);
+    }
+  }
+
+  private static Dataset dataset(int size) {
+    Tensor4D[] images = new Tensor4D[size];
+    Tensor4D[] labels = new Tensor4D[size];
+    for (int i = 0; i < size; i++) {
+      images[i] = new Tensor4D(1, 1, 2, 2);
+      images[i].fill(i);
+      labels[i] = new Tensor4D(1, 1, 1, size);
+      labels[i].set(0, 0, 0, i, 1.0);
+    }
+    return Dataset.of(images, labels);
+  }
+}
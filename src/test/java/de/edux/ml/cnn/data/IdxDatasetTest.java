@@ -0,0 +1,101 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdxDatasetTest {
+
+  @Test
+  void testImagesAreNormalizedIntoBatch() throws IOException {
+    // 3 images of 2x2 pixels
+    byte[] pixels = {0, (byte) 255, 51, 102, 1, 2, 3, 4, (byte) 128, 0, 0, (byte) 200};
+    Path file = write(3, new int[]{3, 2, 2}, pixels);
+
+    IdxDataset images = IdxDataset.open(file);
+    assertEquals(3, images.size());
+    assertEquals(1, images.getChannels());
+    assertEquals(2, images.getRows());
+    assertEquals(2, images.getCols());
+    assertEquals(200, images.getUnsigned(2, 3));
+
+    Tensor4D batch = new Tensor4D(DataType.FLOAT32, 2, 1, 2, 2);
+    images.copyTo(2, batch, 0);
+    images.copyTo(0, batch, 1);
+    assertArrayEquals(new float[]{128 / 255f, 0, 0, 200 / 255f, 0, 1, 0.2f, 0.4f}, batch.getFloatBuffer(), 1e-6f);
+    assertEquals(102 / 255.0, images.get(0, DataType.FLOAT64).get(0, 0, 1, 1), 1e-12);
+  }
+
+  @Test
+  void testLabelsAreOneHotEncoded() throws IOException {
+    IdxDataset labels = IdxDataset.open(write(1, new int[]{3}, new byte[]{7, 0, 9}));
+    SampleSource oneHot = labels.oneHot(10);
+    assertEquals(3, oneHot.size());
+    assertEquals(10, oneHot.getCols());
+
+    Tensor4D batch = new Tensor4D(3, 1, 1, 10);
+    batch.fill(5.0);
+    for (int i = 0; i < 3; i++) {
+      oneHot.copyTo(i, batch, i);
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i == 7 ? 1.0 : 0.0, batch.get(0, 0, 0, i));
+      assertEquals(i == 0 ? 1.0 : 0.0, batch.get(1, 0, 0, i));
+      assertEquals(i == 9 ? 1.0 : 0.0, batch.get(2, 0, 0, i));
+    }
+    assertThrows(IllegalArgumentException.class, () -> labels.oneHot(5).copyTo(0, new Tensor4D(1, 1, 1, 5), 0));
+  }
+
+  @Test
+  void testSamplesAreReadAcrossSegments() throws IOException {
+    // 5 images of 3 bytes, mapped in segments of two images
+    byte[] pixels = new byte[15];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = (byte) i;
+    }
+    IdxDataset images = IdxDataset.open(write(3, new int[]{5, 1, 3}, pixels), 7);
+    for (int sample = 0; sample < 5; sample++) {
+      for (int i = 0; i < 3; i++) {
+        assertEquals(sample * 3 + i, images.getUnsigned(sample, i));
+      }
+    }
+    assertEquals(14 / 255.0, images.get(4, DataType.FLOAT64).get(0, 0, 0, 2), 1e-12);
+    assertThrows(IndexOutOfBoundsException.class, () -> images.getUnsigned(5, 0));
+  }
+
+  @Test
+  void testInvalidHeadersAreRejected() throws IOException {
+    Path wrongSize = write(1, new int[]{4}, new byte[]{1, 2, 3});
+    assertThrows(IllegalArgumentException.class, () -> IdxDataset.open(wrongSize));
+
+    Path wrongType = Files.createTempFile("idx", ".bin");
+    wrongType.toFile().deleteOnExit();
+    Files.write(wrongType, new byte[]{0, 0, 0x0D, 1, 0, 0, 0, 0});
+    assertThrows(IllegalArgumentException.class, () -> IdxDataset.open(wrongType));
+
+    Path noMagic = Files.createTempFile("idx", ".bin");
+    noMagic.toFile().deleteOnExit();
+    Files.write(noMagic, new byte[]{1, 0, 8, 1, 0, 0, 0, 0});
+    assertThrows(IllegalArgumentException.class, () -> IdxDataset.open(noMagic));
+  }
+
+  private static Path write(int rank, int[] dimensions, byte[] values) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * rank + values.length);
+    buffer.put((byte) 0).put((byte) 0).put((byte) 0x08).put((byte) rank);
+    for (int dimension : dimensions) {
+      buffer.putInt(dimension);
+    }
+    buffer.put(values);
+    Path file = Files.createTempFile("idx", ".bin");
+    file.toFile().deleteOnExit();
+    Files.write(file, buffer.array());
+    return file;
+  }
+}
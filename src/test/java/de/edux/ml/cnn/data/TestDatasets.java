@@ -0,0 +1,63 @@
+package de.edux.ml.cnn.data;
+
+import de.edux.ml.cnn.tensor.Tensor4D;
+
+import java.util.Random;
+
+/**
+ * Small reproducible training data for the tests: single-channel square images {@code [1][1][size][size]} and
+ * one-hot labels {@code [1][1][1][classes]}, sample {@code i} has class {@code i % classes}.
+ */
+public final class TestDatasets {
+
+  private TestDatasets() {
+  }
+
+  /**
+   * @return images with values uniform in [0, 1), drawn row by row from {@code new Random(seed)}
+   */
+  public static Tensor4D[] images(int samples, int size, long seed) {
+    Random random = new Random(seed);
+    Tensor4D[] images = new Tensor4D[samples];
+    for (int i = 0; i < samples; i++) {
+      images[i] = new Tensor4D(1, 1, size, size);
+      for (int j = 0; j < size * size; j++) {
+        images[i].set(0, 0, j / size, j % size, random.nextDouble());
+      }
+    }
+    return images;
+  }
+
+  public static Tensor4D[] labels(int samples, int classes) {
+    Tensor4D[] labels = new Tensor4D[samples];
+    for (int i = 0; i < samples; i++) {
+      labels[i] = new Tensor4D(1, 1, 1, classes);
+      labels[i].set(0, 0, 0, i % classes, 1.0);
+    }
+    return labels;
+  }
+
+  /**
+   * @return {@link #images} with {@link #labels}, the images carry no information about the class
+   */
+  public static Dataset random(int samples, int size, int classes, long seed) {
+    return Dataset.of(images(samples, size, seed), labels(samples, classes));
+  }
+
+  /**
+   * Learnable data with 4 classes: every class brightens a different quadrant of the image, the rest is noise.
+   */
+  public static Dataset quadrants(int samples, int size, long seed) {
+    Random random = new Random(seed);
+    Tensor4D[] images = new Tensor4D[samples];
+    for (int i = 0; i < samples; i++) {
+      images[i] = new Tensor4D(1, 1, size, size);
+      int label = i % 4;
+      for (int j = 0; j < size * size; j++) {
+        boolean bright = (j / size < size / 2) == (label < 2) && (j % size < size / 2) == (label % 2 == 0);
+        images[i].set(0, 0, j / size, j % size, (bright ? 0.6 : 0.0) + random.nextDouble() * 0.4);
+      }
+    }
+    return Dataset.of(images, labels(samples, 4));
+  }
+}
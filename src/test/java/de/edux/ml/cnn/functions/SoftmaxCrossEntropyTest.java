@@ -0,0 +1,87 @@
+package de.edux.ml.cnn.functions;
+
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SoftmaxCrossEntropyTest {
+
+  @Test
+  void testMatchesSeparateSoftmaxAndCrossEntropy() {
+    Tensor4D logits = new Tensor4D(4, 10, 1, 1);
+    logits.randomHE();
+    Tensor4D labels = oneHot(DataType.FLOAT64, 4, 10);
+
+    Tensor4D probabilities = new Tensor4D(4, 10, 1, 1);
+    Tensor4D gradient = new Tensor4D(4, 10, 1, 1);
+    double loss = SoftmaxCrossEntropy.compute(logits, labels, probabilities, gradient);
+
+    double expectedLoss = 0.0;
+    for (int batch = 0; batch < 4; batch++) {
+      double sum = 0.0;
+      for (int c = 0; c < 10; c++) {
+        sum += Math.exp(logits.get(batch, c, 0, 0));
+      }
+      for (int c = 0; c < 10; c++) {
+        double p = Math.exp(logits.get(batch, c, 0, 0)) / sum;
+        double y = labels.get(batch, 0, 0, c);
+        assertEquals(p, probabilities.get(batch, c, 0, 0), 1e-12);
+        assertEquals(p - y, gradient.get(batch, c, 0, 0), 1e-12);
+        expectedLoss -= y * Math.log(p);
+      }
+    }
+    assertEquals(expectedLoss / 4, loss, 1e-12);
+    assertEquals(loss, SoftmaxCrossEntropy.loss(logits, labels), 0.0);
+  }
+
+  @Test
+  void testLargeLogitsDoNotOverflow() {
+    Tensor4D logits = new Tensor4D(DataType.FLOAT32, 2, 10, 1, 1);
+    for (int batch = 0; batch < 2; batch++) {
+      for (int c = 0; c < 10; c++) {
+        logits.set(batch, c, 0, 0, 500.0 + 50.0 * c);
+      }
+    }
+    Tensor4D gradient = new Tensor4D(DataType.FLOAT32, 2, 10, 1, 1);
+
+    double loss = SoftmaxCrossEntropy.compute(logits, oneHot(DataType.FLOAT32, 2, 10), null, gradient);
+
+    // label 0 and 1, the largest logit is 450 resp. 400 above the labelled one
+    assertEquals((450.0 + 400.0) / 2, loss, 1e-3);
+    for (float value : gradient.getFloatBuffer()) {
+      assertTrue(Float.isFinite(value));
+    }
+  }
+
+  @Test
+  void testSoftmaxLayerBackwardAgreesWithFusedGradient() {
+    Tensor4D logits = new Tensor4D(3, 10, 1, 1);
+    logits.randomHE();
+    Tensor4D labels = oneHot(DataType.FLOAT64, 3, 10);
+    Tensor4D fused = new Tensor4D(3, 10, 1, 1);
+    SoftmaxCrossEntropy.compute(logits, labels, null, fused);
+
+    SoftmaxLayer softmax = new SoftmaxLayer();
+    Tensor4D p = softmax.forward(logits);
+    // dL/dp = -y / p for the cross entropy on the probabilities
+    Tensor4D dLdp = new Tensor4D(3, 10, 1, 1);
+    for (int batch = 0; batch < 3; batch++) {
+      for (int c = 0; c < 10; c++) {
+        dLdp.set(batch, c, 0, 0, -labels.get(batch, 0, 0, c) / p.get(batch, c, 0, 0));
+      }
+    }
+
+    assertArrayEquals(fused.getBuffer(), softmax.backward(dLdp).getBuffer(), 1e-12);
+  }
+
+  private static Tensor4D oneHot(DataType dataType, int batches, int classes) {
+    Tensor4D labels = new Tensor4D(dataType, batches, 1, 1, classes);
+    for (int batch = 0; batch < batches; batch++) {
+      labels.set(batch, 0, 0, batch % classes, 1.0);
+    }
+    return labels;
+  }
+}
@@ -0,0 +1,41 @@
+package de.edux.ml.cnn.layer;
+
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.optimizer.SgdOptimizer;
+import de.edux.ml.cnn.tensor.Im2ColConvolution;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConvolutionalLayerTest {
+
+  @Test
+  void testFiltersLearnFromAccumulatedGradient() {
+    ConvolutionalLayer layer = new ConvolutionalLayer(2, 3, 1, 1, 1);
+    Tensor4D input = TestTensors.gaussian(4, 1, 5, 5, 1);
+    Tensor4D outputGradient = TestTensors.gaussian(4, 2, 5, 5, 2);
+    Tensor4D before = layer.getFilters().reshape(new Tensor4D(2, 1, 3, 3));
+    Tensor4D expectedGradient = new Im2ColConvolution(1, 1).filterGradient(input, outputGradient, 3, 3);
+
+    // zwei halbe Batches sammeln denselben Gradienten wie der ganze Batch
+    layer.forward(input.slice(0, 1));
+    layer.backward(outputGradient.slice(0, 1));
+    layer.forward(input.slice(1, 4));
+    layer.backward(outputGradient.slice(1, 4));
+    Parameter filters = layer.getParameters().get(0);
+    assertEquals(4, filters.getSamples());
+    assertArrayEquals(expectedGradient.getBuffer(), filters.getGradient().getBuffer(), 1e-12);
+    // backward alone leaves the filters unchanged
+    assertArrayEquals(before.getBuffer(), layer.getFilters().getBuffer());
+
+    int version = layer.getFilters().getVersion();
+    new SgdOptimizer(0.5).step(layer.getParameters());
+    assertNotEquals(version, layer.getFilters().getVersion());
+    for (int i = 0; i < before.size(); i++) {
+      assertEquals(before.getBuffer()[i] - 0.5 * expectedGradient.getBuffer()[i] / 4,
+          layer.getFilters().getBuffer()[i], 1e-12);
+    }
+    assertEquals(0, filters.getSamples());
+  }
+}
@@ -0,0 +1,60 @@
+package de.edux.ml.cnn.layer;
+
+import de.edux.ml.cnn.optimizer.SgdOptimizer;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataParallelTrainingTest {
+
+  @Test
+  void testReplicaGradientsGiveSameUpdateAsWholeBatch() {
+    int batches = 7;
+    FullyConnectedLayer sequential = new FullyConnectedLayer(5, 3, 0.1);
+    FullyConnectedLayer parallel = new FullyConnectedLayer(5, 3, 0.1);
+    copy(sequential.getWeights(), parallel.getWeights());
+
+    Tensor4D input = TestTensors.gaussian(batches, 1, 1, 5, 1);
+    Tensor4D gradient = TestTensors.gaussian(batches, 3, 1, 1, 2);
+
+    sequential.forward(input);
+    sequential.backward(gradient);
+    new SgdOptimizer(0.1).step(sequential.getParameters());
+
+    // drei ungleich große Shards, jeweils als View auf den Batch
+    List<Layer> replicas = new ArrayList<>();
+    int[] bounds = {0, 2, 4, 7};
+    for (int shard = 0; shard < 3; shard++) {
+      Layer replica = parallel.replicate();
+      replica.forward(input.slice(bounds[shard], bounds[shard + 1]));
+      replica.backward(gradient.slice(bounds[shard], bounds[shard + 1]));
+      replicas.add(replica);
+    }
+    // replicas must not touch the shared parameters on their own
+    assertNotEquals(sequential.getWeights().get(0, 0, 0, 0), parallel.getWeights().get(0, 0, 0, 0));
+
+    parallel.accumulateReplicaGradients(replicas);
+    assertEquals(batches, parallel.getParameters().get(0).getSamples());
+    new SgdOptimizer(0.1).step(parallel.getParameters());
+
+    assertArrayEquals(sequential.getWeights().getBuffer(), parallel.getWeights().getBuffer(), 1e-12);
+    assertArrayEquals(sequential.getBiases().getBuffer(), parallel.getBiases().getBuffer(), 1e-12);
+  }
+
+  @Test
+  void testReplicaSharesParameters() {
+    FullyConnectedLayer layer = new FullyConnectedLayer(4, 2, 0.1);
+    FullyConnectedLayer replica = (FullyConnectedLayer) layer.replicate();
+    assertSame(layer.getWeights(), replica.getWeights());
+    assertSame(layer.getBiases(), replica.getBiases());
+  }
+
+  private static void copy(Tensor4D from, Tensor4D to) {
+    System.arraycopy(from.getBuffer(), 0, to.getBuffer(), 0, from.size());
+    to.markModified();
+  }
+}
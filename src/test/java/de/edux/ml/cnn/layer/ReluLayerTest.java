@@ -0,0 +1,53 @@
+package de.edux.ml.cnn.layer;
+
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReluLayerTest {
+
+  @Test
+  void testBackwardPassesGradientWherePositive() {
+    ReluLayer relu = new ReluLayer();
+    // 70 Spalten: jede Zeile belegt zwei Wörter der Maske
+    Tensor4D input = TestTensors.gaussian(2, 3, 4, 70, 1);
+    Tensor4D output = relu.forward(input);
+    Tensor4D outputGradient = TestTensors.gaussian(2, 3, 4, 70, 2);
+    Tensor4D inputGradient = relu.backward(outputGradient);
+    for (int i = 0; i < input.size(); i++) {
+      double x = input.getBuffer()[i];
+      assertEquals(Math.max(x, 0.0), output.getBuffer()[i]);
+      assertEquals(x > 0 ? outputGradient.getBuffer()[i] : 0.0, inputGradient.getBuffer()[i]);
+    }
+  }
+
+  @Test
+  void testFusedConvolutionMatchesSeparateRelu() {
+    ConvolutionalLayer separate = new ConvolutionalLayer(3, 3, 1, 1, 2);
+    ReluLayer relu = new ReluLayer();
+    ConvolutionalLayer fused = new ConvolutionalLayer(3, 3, 1, 1, 2);
+    ReluLayer fusedRelu = new ReluLayer();
+    fused.fuse(fusedRelu);
+    assertTrue(fusedRelu.isFused());
+    assertTrue(fusedRelu.isView());
+    separate.getBiases().getBuffer()[0] = 0.5;
+    separate.getBiases().getBuffer()[2] = -0.5;
+    separate.getBiases().markModified();
+    separate.getFilters().reshape(fused.getFilters());
+    separate.getBiases().reshape(fused.getBiases());
+
+    Tensor4D input = TestTensors.gaussian(2, 2, 5, 70, 3);
+    Tensor4D expected = relu.forward(separate.forward(input));
+    Tensor4D actual = fusedRelu.forward(fused.forward(input));
+    assertArrayEquals(expected.getBuffer(), actual.getBuffer(), 1e-12);
+
+    Tensor4D expectedGradient = separate.backward(relu.backward(TestTensors.gaussian(2, 3, 5, 70, 4)));
+    Tensor4D actualGradient = fused.backward(fusedRelu.backward(TestTensors.gaussian(2, 3, 5, 70, 4)));
+    assertArrayEquals(expectedGradient.getBuffer(), actualGradient.getBuffer(), 1e-12);
+    for (int p = 0; p < 2; p++) {
+      assertArrayEquals(separate.getParameters().get(p).getGradient().getBuffer(),
+          fused.getParameters().get(p).getGradient().getBuffer(), 1e-12);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package de.edux.ml.cnn.layer;
+
+import de.edux.ml.cnn.tensor.Tensor4D;
+
+import java.util.Random;
+
+/**
+ * Reproducible test inputs for the layer tests.
+ */
+final class TestTensors {
+
+  private TestTensors() {
+  }
+
+  /**
+   * @return a FLOAT64 tensor of standard normal values drawn from {@code new Random(seed)}
+   */
+  static Tensor4D gaussian(int batches, int channels, int rows, int cols, long seed) {
+    Random random = new Random(seed);
+    Tensor4D tensor = new Tensor4D(batches, channels, rows, cols);
+    for (int i = 0; i < tensor.size(); i++) {
+      tensor.getBuffer()[i] = random.nextGaussian();
+    }
+    tensor.markModified();
+    return tensor;
+  }
+}
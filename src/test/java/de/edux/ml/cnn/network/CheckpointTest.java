@@ -0,0 +1,127 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.data.TestDatasets;
+import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.InputLayer;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointTest {
+
+  private final Tensor4D[] images = TestDatasets.images(8, 6, 5);
+  private final Tensor4D[] labels = TestDatasets.labels(8, 3);
+
+  private Network trainedNetwork(DataType dataType) {
+    Network network = new NetworkBuilder()
+        .addLayer(new InputLayer(6, 6, 1))
+        .addLayer(new ConvolutionalLayer(2, 3, 1, 1, 1))
+        .addLayer(new FlattenLayer())
+        .addLayer(new FullyConnectedLayer(72, 3, 0.1))
+        .addLayer(new SoftmaxLayer())
+        .dataType(dataType)
+        .build(images, labels, 4, 2, Optimizer.ADAM, 0.01);
+    network.train(images, labels);
+    return network;
+  }
+
+  @Test
+  void testRoundTripRestoresParametersAndPredictions() throws IOException {
+    for (DataType dataType : DataType.values()) {
+      Network network = trainedNetwork(dataType);
+      Path file = Files.createTempFile("checkpoint", ".bin");
+      Checkpoint.save(network, file);
+
+      InferenceModel model = Checkpoint.load(file).buildInferenceModel();
+      assertEquals(dataType, model.getDataType());
+
+      List<Parameter> expected = network.getParameters();
+      // weitertrainierbar: der Builder baut auch ein normales Netz
+      List<Parameter> loaded = Checkpoint.load(file).build(images, labels, 4, 1, Optimizer.SGD, 0.1).getParameters();
+      assertEquals(expected.size(), loaded.size());
+      for (int p = 0; p < expected.size(); p++) {
+        Tensor4D a = expected.get(p).getValue();
+        Tensor4D b = loaded.get(p).getValue();
+        assertEquals(expected.get(p).getName(), loaded.get(p).getName());
+        assertEquals(dataType, b.getDataType());
+        if (dataType == DataType.FLOAT32) {
+          assertArrayEquals(a.getFloatBuffer(), b.getFloatBuffer());
+        } else {
+          assertArrayEquals(a.getBuffer(), b.getBuffer());
+        }
+      }
+
+      Tensor4D image = new Tensor4D(1, 1, 6, 6);
+      image.fill(0.5);
+      Tensor4D before = network.predict(image);
+      Tensor4D after = model.predict(image);
+      for (int c = 0; c < 3; c++) {
+        assertEquals(before.get(0, 0, 0, c), after.get(0, 0, 0, c), 0.0);
+      }
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  void testParameterBlobsAreAligned() throws IOException {
+    Path file = Files.createTempFile("checkpoint", ".bin");
+    Checkpoint.save(trainedNetwork(DataType.FLOAT32), file);
+    ByteBuffer prefix = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(Checkpoint.VERSION, prefix.getInt(8));
+    long dataOffset = prefix.getLong(12);
+    assertEquals(0, dataOffset % Checkpoint.ALIGNMENT);
+    // Filter 2x1x3x3, ihre 2 Biases und Gewichte 3x72 liegen jeweils an einer 64-Byte-Grenze, die Biases folgen am Ende
+    long biases = dataOffset + Checkpoint.align(18 * 4) + Checkpoint.align(2 * 4) + Checkpoint.align(216 * 4);
+    assertEquals(biases + 3 * 4, Files.size(file));
+    Files.delete(file);
+  }
+
+  @Test
+  void testRejectsInvalidFiles() throws IOException {
+    Path noMagic = Files.createTempFile("checkpoint", ".bin");
+    Files.write(noMagic, new byte[64]);
+    assertThrows(IllegalArgumentException.class, () -> Checkpoint.load(noMagic));
+    Files.delete(noMagic);
+
+    Path truncated = Files.createTempFile("checkpoint", ".bin");
+    Checkpoint.save(trainedNetwork(DataType.FLOAT64), truncated);
+    byte[] bytes = Files.readAllBytes(truncated);
+    Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 8));
+    assertThrows(IllegalArgumentException.class, () -> Checkpoint.load(truncated));
+
+    // es gibt genau eine Formatversion
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(8, Checkpoint.VERSION + 1);
+    Files.write(truncated, bytes);
+    assertThrows(IllegalArgumentException.class, () -> Checkpoint.load(truncated));
+    Files.delete(truncated);
+  }
+
+  @Test
+  void testFailedSaveLeavesNoTemporaryFile() throws IOException {
+    Path directory = Files.createTempDirectory("checkpoints");
+    // ein nicht leeres Verzeichnis als Ziel lässt das Umbenennen scheitern
+    Path target = Files.createDirectory(directory.resolve("model.ckpt"));
+    Path blocker = Files.createFile(target.resolve("file"));
+    assertThrows(IOException.class, () -> Checkpoint.save(trainedNetwork(DataType.FLOAT32), target));
+    assertFalse(Files.exists(directory.resolve("model.ckpt.tmp")));
+
+    Files.delete(blocker);
+    Files.delete(target);
+    Files.delete(directory);
+  }
+}
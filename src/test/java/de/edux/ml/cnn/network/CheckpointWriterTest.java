@@ -0,0 +1,98 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.data.TestDatasets;
+import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.optimizer.Parameter;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointWriterTest {
+
+  @Test
+  void testResumedTrainingMatchesUninterruptedTraining() throws IOException {
+    Tensor4D[] images = TestDatasets.images(8, 5, 9);
+    Tensor4D[] labels = TestDatasets.labels(8, 2);
+    Path directory = Files.createTempDirectory("checkpoints");
+
+    // Ein Batch pro Epoche: jeder Checkpoint liegt an einer Epochengrenze, die Reihenfolge der Samples zählt nicht
+    Network network = new NetworkBuilder()
+        .addLayer(new ConvolutionalLayer(2, 3, 1, 1, 1))
+        .addLayer(new FlattenLayer())
+        .addLayer(new FullyConnectedLayer(50, 2, 0.1))
+        .addLayer(new SoftmaxLayer())
+        .checkpointing(directory, 1, 2)
+        .build(images, labels, 8, 4, Optimizer.ADAM, 0.01);
+    network.train(images, labels);
+
+    List<Path> checkpoints;
+    try (Stream<Path> files = Files.list(directory)) {
+      checkpoints = files.sorted().toList();
+    }
+    assertTrue(checkpoints.size() >= 1 && checkpoints.size() <= 2, "retained " + checkpoints);
+    assertEquals(checkpoints.get(checkpoints.size() - 1), CheckpointWriter.latest(directory));
+
+    // vom ältesten behaltenen Checkpoint aus bis zum Ende weitertrainieren
+    Network resumed = Checkpoint.load(checkpoints.get(0)).build(images, labels, 8, 4, Optimizer.ADAM, 0.01);
+    resumed.train(images, labels);
+    List<Parameter> expected = network.getParameters();
+    List<Parameter> actual = resumed.getParameters();
+    for (int p = 0; p < expected.size(); p++) {
+      assertArrayEquals(expected.get(p).getValue().getBuffer(), actual.get(p).getValue().getBuffer(), 1e-12);
+    }
+
+    // ein anderer Optimierer passt nicht zum gespeicherten Zustand
+    assertThrows(IllegalArgumentException.class,
+        () -> Checkpoint.load(checkpoints.get(0)).build(images, labels, 8, 4, Optimizer.SGD, 0.01));
+
+    for (Path checkpoint : checkpoints) {
+      Files.delete(checkpoint);
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  void testCheckpointsOfOtherRunsAreKept() throws IOException {
+    Tensor4D[] images = TestDatasets.images(8, 5, 9);
+    Tensor4D[] labels = TestDatasets.labels(8, 2);
+    Path directory = Files.createTempDirectory("checkpoints");
+    // ein früherer Lauf mit höheren Schritten verdrängt weder die neuen Checkpoints noch latest()
+    Path stale = Files.createFile(directory.resolve("checkpoint-0000000000001-000000999999.ckpt"));
+
+    Network network = new NetworkBuilder()
+        .addLayer(new ConvolutionalLayer(2, 3, 1, 1, 1))
+        .addLayer(new FlattenLayer())
+        .addLayer(new FullyConnectedLayer(50, 2, 0.1))
+        .addLayer(new SoftmaxLayer())
+        .checkpointing(directory, 1, 2)
+        .build(images, labels, 8, 4, Optimizer.ADAM, 0.01);
+    network.train(images, labels);
+
+    List<Path> files;
+    try (Stream<Path> list = Files.list(directory)) {
+      files = list.sorted().toList();
+    }
+    assertTrue(files.contains(stale));
+    assertTrue(files.size() >= 2 && files.size() <= 3, "retained " + files);
+    Path latest = CheckpointWriter.latest(directory);
+    assertEquals(files.get(files.size() - 1), latest);
+    assertNotEquals(stale, latest);
+    Checkpoint.load(latest);
+
+    for (Path file : files) {
+      Files.delete(file);
+    }
+    Files.delete(directory);
+  }
+}
@@ -0,0 +1,66 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.data.Dataset;
+import de.edux.ml.cnn.data.TestDatasets;
+import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationTest {
+
+  @Test
+  void testConfusionMatrixAndClassAccuracy() {
+    Evaluation.Accumulator first = new Evaluation.Accumulator();
+    Evaluation.Accumulator second = new Evaluation.Accumulator();
+    // outputs [b][3][1][1], labels [b][1][1][3]
+    first.add(new Tensor4D(2, 3, 1, 1, new double[]{0.1, 0.8, 0.1, 0.7, 0.2, 0.1}),
+        new Tensor4D(2, 1, 1, 3, new double[]{0, 1, 0, 0, 1, 0}), 0.5);
+    second.add(new Tensor4D(1, 3, 1, 1, new double[]{0.0, 0.1, 0.9}),
+        new Tensor4D(1, 1, 1, 3, new double[]{0, 0, 1}), 2.0);
+
+    Evaluation evaluation = Evaluation.Accumulator.merge(List.of(first, second));
+    assertEquals(3, evaluation.getSamples());
+    assertEquals(2, evaluation.getCorrect());
+    assertEquals(200.0 / 3, evaluation.getAccuracy(), 1e-12);
+    assertEquals((0.5 * 2 + 2.0) / 3, evaluation.getLoss(), 1e-12);
+    assertEquals(1, evaluation.getCount(1, 0));
+    assertEquals(1, evaluation.getCount(1, 1));
+    assertEquals(50.0, evaluation.getClassAccuracy(1), 1e-12);
+    assertEquals(100.0, evaluation.getClassAccuracy(2), 1e-12);
+    assertTrue(Double.isNaN(evaluation.getClassAccuracy(0)));
+  }
+
+  @Test
+  void testParallelEvaluationMatchesSequential() {
+    Dataset dataset = TestDatasets.random(1000, 2, 3, 3);
+
+    // both networks share the fully connected layer and so its weights
+    FullyConnectedLayer layer = new FullyConnectedLayer(4, 3, 0.1);
+    Evaluation expected = network(layer, 1, dataset).evaluateDetailed(dataset);
+    Network parallel = network(layer, 3, dataset);
+    Evaluation actual = parallel.evaluateDetailed(dataset);
+
+    assertEquals(1000, actual.getSamples());
+    for (int i = 0; i < 3; i++) {
+      assertArrayEquals(expected.getConfusionMatrix()[i], actual.getConfusionMatrix()[i]);
+    }
+    assertEquals(expected.getLoss(), actual.getLoss(), 1e-12);
+    assertEquals(expected.getAccuracy(), parallel.evaluate(dataset), 1e-12);
+  }
+
+  private static Network network(FullyConnectedLayer layer, int parallelism, Dataset dataset) {
+    return new NetworkBuilder()
+        .addLayer(new FlattenLayer())
+        .addLayer(layer)
+        .addLayer(new SoftmaxLayer())
+        .parallelism(parallelism)
+        .build(dataset, 10, 1, Optimizer.SGD, 0.1);
+  }
+}
@@ -0,0 +1,86 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.data.TestDatasets;
+import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.InferenceContext;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InferenceModelTest {
+
+  @Test
+  void testConcurrentPredictionsMatchForward() throws Exception {
+    Tensor4D[] images = TestDatasets.images(16, 6, 11);
+    Tensor4D[] labels = TestDatasets.labels(16, 4);
+    // 3x3 mit Stride 1 läuft über Winograd, 2x2 mit Stride 2 über im2col
+    Network network = new NetworkBuilder()
+        .addLayer(new ConvolutionalLayer(2, 3, 1, 1, 1))
+        .addLayer(new ConvolutionalLayer(3, 2, 2, 0, 2))
+        .addLayer(new FlattenLayer())
+        .addLayer(new FullyConnectedLayer(27, 4, 0.1))
+        .addLayer(new SoftmaxLayer())
+        .build(images, labels, 4, 1, Optimizer.SGD, 0.1);
+
+    Tensor4D[] expected = new Tensor4D[images.length];
+    for (int i = 0; i < images.length; i++) {
+      Tensor4D output = network.forward(images[i]);
+      expected[i] = output.reshape(new Tensor4D(1, 4, 1, 1));
+    }
+
+    InferenceModel model = network.getInferenceModel();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 4; thread++) {
+        futures.add(executor.submit(() -> {
+          for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < images.length; i++) {
+              Tensor4D prediction = model.predict(images[i]);
+              for (int c = 0; c < 4; c++) {
+                assertEquals(expected[i].get(0, c, 0, 0), prediction.get(0, c, 0, 0), 1e-12);
+              }
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testPredictionsOutliveTheContext() {
+    Tensor4D[] images = {new Tensor4D(1, 1, 1, 3), new Tensor4D(1, 1, 1, 3)};
+    images[0].set(0, 0, 0, 0, 1.0);
+    images[1].set(0, 0, 0, 2, 1.0);
+    Tensor4D[] labels = {new Tensor4D(1, 1, 1, 3), new Tensor4D(1, 1, 1, 3)};
+    Network network = new NetworkBuilder()
+        .addLayer(new FlattenLayer())
+        .addLayer(new FullyConnectedLayer(3, 3, 0.1))
+        .build(images, labels, 2, 1, Optimizer.SGD, 0.1);
+
+    InferenceContext context = new InferenceContext();
+    Tensor4D first = network.getInferenceModel().predict(images[0], context);
+    double value = first.get(0, 0, 0, 0);
+    Tensor4D second = network.getInferenceModel().predict(images[1], context);
+    assertNotSame(first, second);
+    assertEquals(value, first.get(0, 0, 0, 0));
+    assertFalse(context.getTensorPool().isInStep());
+  }
+}
@@ -0,0 +1,103 @@
+package de.edux.ml.cnn.network;
+
+import de.edux.ml.cnn.data.Dataset;
+import de.edux.ml.cnn.data.TestDatasets;
+import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.InputLayer;
+import de.edux.ml.cnn.layer.Shape;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import de.edux.ml.cnn.tensor.TensorPool;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryPlanTest {
+
+  // 8x8-Bilder mit 3 Klassen, immer dieselben Samples
+  private static Dataset data(int samples) {
+    return TestDatasets.random(samples, 8, 3, 5);
+  }
+
+  private static NetworkBuilder deepNetwork() {
+    return new NetworkBuilder()
+        .addLayer(new InputLayer(8, 8, 1))
+        .addLayer(new ConvolutionalLayer(4, 3, 1, 1, 1))
+        .addLayer(new ConvolutionalLayer(4, 3, 1, 1, 4))
+        .addLayer(new ConvolutionalLayer(4, 3, 1, 1, 4))
+        .addLayer(new ConvolutionalLayer(2, 2, 2, 0, 4))
+        .addLayer(new FlattenLayer())
+        .addLayer(new FullyConnectedLayer(32, 3, 0.01))
+        .addLayer(new SoftmaxLayer());
+  }
+
+  @Test
+  void testShapesArePropagatedAndPlannedByLiveness() {
+    Network network = deepNetwork().dataType(DataType.FLOAT32).build(data(16), 8, 1, Optimizer.ADAM, 0.01);
+    MemoryPlan plan = network.getMemoryPlan();
+    assertEquals(List.of(new Shape(1, 8, 8), new Shape(1, 8, 8), new Shape(4, 8, 8), new Shape(4, 8, 8),
+        new Shape(4, 8, 8), new Shape(2, 4, 4), new Shape(1, 1, 32), new Shape(3, 1, 1), new Shape(3, 1, 1)),
+        plan.getShapes());
+    assertEquals(new Shape(3, 1, 1), network.outputShape(new Shape(1, 8, 8)));
+    assertTrue(plan.getPeakBytes(8, DataType.FLOAT32) < plan.getUnplannedBytes(8, DataType.FLOAT32), plan.toString());
+
+    // die Arenen werden einmal angelegt, danach kommt jeder Trainingsschritt ohne neue Tensoren aus
+    TensorPool pool = new TensorPool();
+    network.setTensorPool(pool);
+    assertEquals(plan.getPeakBytes(8, DataType.FLOAT32), pool.getReservedElements() * DataType.FLOAT32.getBytes());
+    network.train(data(8));
+    long allocations = pool.getAllocations();
+    network.train(data(8));
+    assertEquals(allocations, pool.getAllocations());
+  }
+
+  @Test
+  void testTrainingInArenasMatchesShapeKeyedPool() {
+    // ein Batch pro Epoche, die Reihenfolge der Samples ändert die Summen nur im Rundungsfehler
+    Network planned = deepNetwork().build(data(16), 16, 2, Optimizer.ADAM, 0.01);
+    Network unplanned = deepNetwork().build(data(16), 16, 2, Optimizer.ADAM, 0.01);
+    for (int i = 0; i < planned.getParameters().size(); i++) {
+      planned.getParameters().get(i).getValue().reshape(unplanned.getParameters().get(i).getValue());
+    }
+    unplanned.setMemoryPlan(null);
+    unplanned.setTensorPool(new TensorPool());
+
+    Dataset test = data(16);
+    planned.train(test);
+    unplanned.train(test);
+    Tensor4D expected = unplanned.predict(test.getImages().get(3, DataType.FLOAT64));
+    Tensor4D actual = planned.predict(test.getImages().get(3, DataType.FLOAT64));
+    for (int c = 0; c < 3; c++) {
+      assertEquals(expected.get(0, c, 0, 0), actual.get(0, c, 0, 0), 1e-12);
+    }
+  }
+
+  @Test
+  void testIncompatibleLayersFailWhenBuilding() {
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> new NetworkBuilder()
+        .addLayer(new InputLayer(8, 8, 1))
+        .addLayer(new ConvolutionalLayer(4, 3, 1, 1, 1))
+        .addLayer(new FlattenLayer())
+        .addLayer(new FullyConnectedLayer(6272, 3, 0.01))
+        .build(data(8), 8, 1, Optimizer.SGD, 0.01));
+    assertTrue(e.getMessage().startsWith("Layer 3 (FullyConnectedLayer)"), e.getMessage());
+
+    assertThrows(IllegalArgumentException.class, () -> new NetworkBuilder()
+        .addLayer(new ConvolutionalLayer(4, 3, 1, 1, 3))
+        .build(data(8), 8, 1, Optimizer.SGD, 0.01));
+    assertThrows(IllegalArgumentException.class, () -> new NetworkBuilder()
+        .addLayer(new ConvolutionalLayer(4, 3, 1, 1, 1))
+        .addLayer(new FullyConnectedLayer(256, 3, 0.01))
+        .build(data(8), 8, 1, Optimizer.SGD, 0.01));
+    assertThrows(IllegalArgumentException.class, () -> new NetworkBuilder()
+        .addLayer(new InputLayer(28, 28, 1))
+        .addLayer(new ConvolutionalLayer(4, 3, 1, 1, 3))
+        .buildInferenceModel());
+  }
+}
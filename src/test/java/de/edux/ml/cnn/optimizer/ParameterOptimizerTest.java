@@ -0,0 +1,82 @@
+package de.edux.ml.cnn.optimizer;
+
+import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParameterOptimizerTest {
+
+  @Test
+  void testUpdatesAverageTheGradient() {
+    Parameter parameter = new Parameter("w", new Tensor4D(1, 1, 1, 2, new double[]{1.0, -1.0}));
+    Tensor4D gradient = new Tensor4D(1, 1, 1, 2, new double[]{4.0, -2.0});
+    int version = parameter.getValue().getVersion();
+
+    // summed over a batch of 4, accumulated in two parts
+    parameter.accumulate(gradient.multiply(0.5), 1);
+    parameter.accumulate(gradient.multiply(0.5), 3);
+    new SgdOptimizer(0.5).step(List.of(parameter));
+    assertEquals(0.5, parameter.getValue().get(0, 0, 0, 0), 1e-12);
+    assertEquals(-0.75, parameter.getValue().get(0, 0, 0, 1), 1e-12);
+    assertNotEquals(version, parameter.getValue().getVersion());
+    assertEquals(0, parameter.getSamples());
+    assertEquals(0.0, parameter.getGradient().get(0, 0, 0, 0));
+
+    MomentumOptimizer momentum = new MomentumOptimizer(0.1, 0.9);
+    momentum.register(List.of(parameter));
+    for (int step = 0; step < 2; step++) {
+      parameter.accumulate(gradient, 4);
+      momentum.step(List.of(parameter));
+    }
+    // v1 = 1, v2 = 0.9 + 1 = 1.9, w = 0.5 - 0.1 * (1 + 1.9)
+    assertEquals(0.5 - 0.29, parameter.getValue().get(0, 0, 0, 0), 1e-12);
+  }
+
+  @Test
+  void testAdamStepsHaveTheSizeOfTheLearningRate() {
+    for (DataType dataType : DataType.values()) {
+      Parameter parameter = new Parameter("w", new Tensor4D(dataType, 1, 1, 1, 3));
+      Tensor4D gradient = new Tensor4D(1, 1, 1, 3, new double[]{1e-3, -5.0, 200.0}).toDataType(dataType);
+      ParameterOptimizer adam = Optimizer.ADAM.create(0.01);
+      // mit Bias-Korrektur bewegt jeder Schritt bei konstantem Gradienten um die Lernrate, unabhängig vom Betrag
+      for (int step = 1; step <= 3; step++) {
+        parameter.accumulate(gradient, 1);
+        adam.step(List.of(parameter));
+        assertEquals(-0.01 * step, parameter.getValue().get(0, 0, 0, 0), 1e-5);
+        assertEquals(0.01 * step, parameter.getValue().get(0, 0, 0, 1), 1e-5);
+        assertEquals(-0.01 * step, parameter.getValue().get(0, 0, 0, 2), 1e-5);
+      }
+    }
+  }
+
+  @Test
+  void testStatefulOptimizersMinimizeAQuadratic() {
+    for (Optimizer type : new Optimizer[]{Optimizer.MOMENTUM, Optimizer.RMSPROP, Optimizer.ADAM}) {
+      Parameter parameter = new Parameter("w", new Tensor4D(1, 1, 1, 2, new double[]{3.0, -2.0}));
+      Tensor4D w = parameter.getValue();
+      ParameterOptimizer optimizer = type.create(0.05);
+      for (int step = 0; step < 500; step++) {
+        // f(w) = w0^2 + 10 * w1^2
+        parameter.getGradient().set(0, 0, 0, 0, 2 * w.get(0, 0, 0, 0));
+        parameter.getGradient().set(0, 0, 0, 1, 20 * w.get(0, 0, 0, 1));
+        parameter.addSamples(1);
+        optimizer.step(List.of(parameter));
+      }
+      assertEquals(0.0, w.get(0, 0, 0, 0), 0.05, type.name());
+      assertEquals(0.0, w.get(0, 0, 0, 1), 0.05, type.name());
+    }
+  }
+
+  @Test
+  void testMismatchingGradientIsRejected() {
+    Parameter parameter = new Parameter("w", new Tensor4D(1, 1, 1, 2));
+    assertThrows(IllegalArgumentException.class, () -> parameter.accumulate(new Tensor4D(1, 1, 1, 3), 1));
+    assertThrows(IllegalStateException.class, () -> Optimizer.SGD.create(0.1).update(parameter));
+    assertThrows(IllegalArgumentException.class, () -> Optimizer.ADAM.create(0.0));
+  }
+}
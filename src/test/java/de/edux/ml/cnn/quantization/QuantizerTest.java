@@ -0,0 +1,100 @@
+package de.edux.ml.cnn.quantization;
+
+import de.edux.ml.cnn.data.Dataset;
+import de.edux.ml.cnn.data.TestDatasets;
+import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.InputLayer;
+import de.edux.ml.cnn.layer.Layer;
+import de.edux.ml.cnn.layer.SoftmaxLayer;
+import de.edux.ml.cnn.network.Network;
+import de.edux.ml.cnn.network.NetworkBuilder;
+import de.edux.ml.cnn.tensor.DataType;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuantizerTest {
+
+  @Test
+  void testQuantizedModelTracksFloatModel() {
+    // jede Klasse hellt einen anderen Quadranten auf
+    Dataset training = TestDatasets.quadrants(64, 8, 1);
+    Dataset test = TestDatasets.quadrants(64, 8, 2);
+    for (DataType dataType : DataType.values()) {
+      Network network = new NetworkBuilder()
+          .addLayer(new InputLayer(8, 8, 1))
+          .addLayer(new ConvolutionalLayer(4, 3, 1, 1, 1))
+          .addLayer(new ConvolutionalLayer(4, 2, 2, 0, 4))
+          .addLayer(new FlattenLayer())
+          .addLayer(new FullyConnectedLayer(64, 4, 0.01))
+          .addLayer(new SoftmaxLayer())
+          .dataType(dataType)
+          .build(training, 16, 3, Optimizer.ADAM, 0.01);
+      network.train(test);
+
+      QuantizedModel model = Quantizer.quantize(network, training);
+      QuantizationReport report = QuantizationReport.compare(network, model, test);
+      assertEquals(64, report.getSamples());
+      assertTrue(report.getMaxOutputError() < 0.05, report.toString());
+      assertTrue(report.getAgreement() >= 95.0, report.toString());
+      assertEquals(report.getQuantizedAccuracy() - report.getFloatAccuracy(), report.getAccuracyDelta(), 1e-9);
+      assertTrue(report.getQuantizedWeightBytes() * 2 < report.getFloatWeightBytes(), report.toString());
+
+      // Batch und Einzelbild ergeben dasselbe, die Samples laufen unabhängig voneinander
+      Tensor4D images = new Tensor4D(8, 1, 8, 8);
+      for (int i = 0; i < 8; i++) {
+        test.getImages().copyTo(i, images, i);
+      }
+      Tensor4D batch = model.predict(images);
+      Tensor4D single = model.predict(test.getImages().get(5, DataType.FLOAT32));
+      assertEquals(4, single.getChannels());
+      for (int c = 0; c < 4; c++) {
+        assertEquals(batch.get(5, c, 0, 0), single.get(0, c, 0, 0), 0.0);
+      }
+    }
+  }
+
+  @Test
+  void testFullyConnectedStageMatchesFloatWithinQuantizationError() {
+    Random random = new Random(3);
+    double[] weights = random.doubles(5 * 40, -1, 1).toArray();
+    double[] biases = random.doubles(5, -0.5, 0.5).toArray();
+    float inputScale = 1.0f / QuantizedStage.MAX;
+    QuantizedFullyConnected stage = new QuantizedFullyConnected(weights, biases, 40, 5, inputScale, 0.0f, false);
+
+    byte[] input = new byte[40];
+    double[] x = new double[40];
+    for (int i = 0; i < 40; i++) {
+      input[i] = QuantizedStage.quantize((float) (random.nextDouble() / inputScale));
+      x[i] = input[i] * inputScale;
+    }
+    float[] output = new float[5];
+    stage.run(input, 0, new int[5], new byte[0], output, 0);
+    for (int o = 0; o < 5; o++) {
+      double expected = biases[o];
+      for (int i = 0; i < 40; i++) {
+        expected += weights[o * 40 + i] * x[i];
+      }
+      // nur die Gewichte sind gerundet: höchstens eine halbe Stufe pro Gewicht bei |x| <= 1
+      assertEquals(expected, output[o], 40 * 0.5 / QuantizedStage.MAX + 1e-5);
+    }
+  }
+
+  @Test
+  void testUnsupportedLayersAreRejected() {
+    Dataset training = TestDatasets.quadrants(8, 8, 4);
+    List<Layer> layers = List.of(new InputLayer(8, 8, 1), new SoftmaxLayer(), new FlattenLayer(),
+        new FullyConnectedLayer(64, 4, 0.01));
+    assertThrows(IllegalArgumentException.class,
+        () -> Quantizer.quantize(layers, DataType.FLOAT64, training, 8));
+    assertThrows(IllegalArgumentException.class,
+        () -> Quantizer.quantize(List.of(new InputLayer(8, 8, 1)), DataType.FLOAT64, training, 8));
+  }
+}
@@ -0,0 +1,98 @@
+package de.edux.ml.cnn.serving;
+
+import de.edux.ml.cnn.functions.Optimizer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.network.Network;
+import de.edux.ml.cnn.network.NetworkBuilder;
+import de.edux.ml.cnn.tensor.Tensor4D;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InferenceEngineTest {
+
+  @Test
+  void testConcurrentRequestsAreBatched() throws Exception {
+    Network network = network();
+    Tensor4D[] samples = new Tensor4D[200];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = new Tensor4D(1, 1, 2, 2);
+      samples[i].set(0, 0, i % 2, i % 3 % 2, i / 10.0);
+    }
+
+    try (InferenceEngine engine = new InferenceEngine(network.getInferenceModel(), 1, 2, 2, 16,
+        Duration.ofMillis(20), 2);
+         ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<Tensor4D>> results = new ArrayList<>();
+      for (Tensor4D sample : samples) {
+        results.add(clients.submit(() -> engine.predict(sample)));
+      }
+      for (int i = 0; i < samples.length; i++) {
+        Tensor4D expected = network.predict(samples[i]);
+        Tensor4D actual = results.get(i).get();
+        assertEquals(1, actual.getBatches());
+        for (int c = 0; c < 3; c++) {
+          assertEquals(expected.get(0, c, 0, 0), actual.get(0, c, 0, 0), 1e-12);
+        }
+      }
+      assertEquals(samples.length, engine.getRequests());
+      assertTrue(engine.getBatches() < samples.length, "requests were not batched");
+      assertThrows(IllegalArgumentException.class, () -> engine.submit(new Tensor4D(2, 1, 2, 2)));
+    }
+  }
+
+  @Test
+  void testClosedEngineRejectsRequests() {
+    InferenceEngine engine = new InferenceEngine(network().getInferenceModel(), 1, 2, 2, 4, Duration.ZERO, 1);
+    engine.close();
+    CompletableFuture<Tensor4D> result = engine.submit(new Tensor4D(1, 1, 2, 2));
+    assertTrue(result.isCompletedExceptionally());
+  }
+
+  @Test
+  void testServerAnswersPredictions() throws Exception {
+    try (InferenceEngine engine = new InferenceEngine(network().getInferenceModel(), 1, 2, 2, 4,
+        Duration.ofMillis(1), 1);
+         InferenceServer server = new InferenceServer(engine, 1, 2, 2, 0)) {
+      URI uri = URI.create("http://localhost:" + server.getPort() + "/predict");
+      HttpClient client = HttpClient.newHttpClient();
+      HttpResponse<String> response = client.send(
+          HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofByteArray(new byte[]{0, 127, (byte) 255, 3})).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      assertTrue(response.body().startsWith("{\"class\":"), response.body());
+
+      HttpResponse<String> wrongSize = client.send(
+          HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofByteArray(new byte[3])).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(400, wrongSize.statusCode());
+
+      LoadGenerator.Report report = LoadGenerator.run(uri, new byte[4], 4, Duration.ofMillis(200));
+      assertEquals(0, report.errors());
+      assertTrue(report.latencies().length > 0);
+      assertTrue(report.latencyMillis(50) <= report.latencyMillis(99));
+    }
+  }
+
+  private static Network network() {
+    Tensor4D[] images = {new Tensor4D(1, 1, 2, 2)};
+    Tensor4D[] labels = {new Tensor4D(1, 1, 1, 3)};
+    return new NetworkBuilder()
+        .addLayer(new FlattenLayer())
+        .addLayer(new FullyConnectedLayer(4, 3, 0.1))
+        .build(images, labels, 1, 1, Optimizer.SGD, 0.1);
+  }
+}
@@ -0,0 +1,110 @@
+package de.edux.ml.cnn.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComputePoolTest {
+
+  @Test
+  void testGrainSizeKeepsSmallOpsSerial() {
+    try (ComputePool pool = new ComputePool(4)) {
+      assertEquals(1, pool.chunks(1000, 1));
+      assertEquals(1, pool.chunks(1, Long.MAX_VALUE));
+      assertEquals(2, pool.chunks(64, ComputePool.MIN_TASK_COST / 32));
+      assertEquals(4, pool.chunks(100, ComputePool.MIN_TASK_COST));
+      assertEquals(4, pool.chunks(100, Long.MAX_VALUE));
+    }
+    try (ComputePool serial = new ComputePool(1)) {
+      assertEquals(1, serial.chunks(100, Long.MAX_VALUE));
+    }
+    assertThrows(IllegalArgumentException.class, () -> new ComputePool(0));
+  }
+
+  @Test
+  void testChunksCoverEveryIndexOnce() {
+    try (ComputePool pool = new ComputePool(3)) {
+      AtomicIntegerArray visits = new AtomicIntegerArray(10);
+      pool.forEachChunk(3, 10, (chunk, from, to) -> {
+        assertEquals(chunk * 10 / 3, from);
+        assertEquals((chunk + 1) * 10 / 3, to);
+        // nested calls run on the same pool
+        pool.parallelFor(to - from, Long.MAX_VALUE, i -> visits.incrementAndGet(from + i));
+      });
+      for (int i = 0; i < 10; i++) {
+        assertEquals(1, visits.get(i));
+      }
+    }
+  }
+
+  @Test
+  void testResizingTheSharedPoolClosesOnlyPoolsItCreated() {
+    ComputePool previous = ComputePool.shared();
+    try (ComputePool own = new ComputePool(2)) {
+      ComputePool.setShared(own);
+      ComputePool three = ComputePool.resizeShared(3);
+      assertSame(three, ComputePool.resizeShared(3));
+      assertSame(three, ComputePool.shared());
+      // der Pool des Aufrufers bleibt offen, er schließt ihn selbst
+      assertFalse(own.isClosed());
+
+      ComputePool four = ComputePool.resizeShared(4);
+      assertTrue(three.isClosed());
+      // wer den alten Pool noch hält, rechnet auf dem eigenen Thread weiter
+      AtomicIntegerArray visits = new AtomicIntegerArray(8);
+      three.forEachChunk(3, 8, (chunk, from, to) -> {
+        for (int i = from; i < to; i++) {
+          visits.incrementAndGet(i);
+        }
+      });
+      for (int i = 0; i < 8; i++) {
+        assertEquals(1, visits.get(i));
+      }
+      assertFalse(four.isClosed());
+      four.close();
+    } finally {
+      ComputePool.setShared(previous);
+    }
+  }
+
+  @Test
+  void testParallelKernelsMatchSerialKernels() {
+    // a single image and a small batch, the row tiles of the first one are split inside the image
+    for (int batches : new int[]{1, 3}) {
+      Tensor4D input = new Tensor4D(batches, 3, 32, 30);
+      input.randomHE();
+      Tensor4D filters = new Tensor4D(8, 3, 5, 5);
+      filters.randomHE();
+      Tensor4D filters3x3 = new Tensor4D(8, 3, 3, 3);
+      filters3x3.randomHE();
+      Tensor4D outputGradient = new Tensor4D(batches, 8, 30, 28);
+      outputGradient.randomHE();
+
+      ComputePool previous = ComputePool.shared();
+      try (ComputePool serial = new ComputePool(1); ComputePool parallel = new ComputePool(4)) {
+        ComputePool.setShared(serial);
+        Tensor4D[] expected = run(input, filters, filters3x3, outputGradient);
+        ComputePool.setShared(parallel);
+        Tensor4D[] actual = run(input, filters, filters3x3, outputGradient);
+        for (int i = 0; i < expected.length; i++) {
+          assertArrayEquals(expected[i].getBuffer(), actual[i].getBuffer(), 1e-10, "batches=" + batches + " result=" + i);
+        }
+      } finally {
+        ComputePool.setShared(previous);
+      }
+    }
+  }
+
+  private static Tensor4D[] run(Tensor4D input, Tensor4D filters, Tensor4D filters3x3, Tensor4D outputGradient) {
+    Im2ColConvolution convolution = new Im2ColConvolution(1, 1);
+    return new Tensor4D[]{
+        input.convolve(filters, 1, 1),
+        convolution.forward(input, filters),
+        convolution.filterGradient(input, outputGradient, 5, 5),
+        convolution.inputGradient(outputGradient, filters, 3, 32, 30),
+        new WinogradConvolution(1).forward(input, filters3x3)
+    };
+  }
+}
@@ -0,0 +1,199 @@
+package de.edux.ml.cnn.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ElementwiseKernelsTest {
+
+  private final ElementwiseKernels scalar = new ScalarKernels();
+
+  @Test
+  void testVectorizedKernelsMatchScalarKernels() {
+    assertTrue(Kernels.isVectorized(), "tests run with --add-modules jdk.incubator.vector");
+    ElementwiseKernels vectorized = Kernels.ELEMENTWISE;
+    Random random = new Random(7);
+    // length and offsets chosen so that every kernel has a remainder after the last full vector
+    int length = 1003, offset = 5;
+    double[] x = random.doubles(length + offset, -3, 3).toArray();
+    double[] y = random.doubles(length + offset, -3, 3).toArray();
+
+    for (ElementwiseKernels kernels : new ElementwiseKernels[]{scalar, vectorized}) {
+      assertEquals(scalar.sum(x, offset, length), kernels.sum(x, offset, length), 1e-9);
+      assertEquals(scalar.max(x, offset, length), kernels.max(x, offset, length));
+    }
+
+    double[] expected = y.clone();
+    double[] actual = y.clone();
+    scalar.axpy(-0.25, x, offset, expected, 0, length);
+    vectorized.axpy(-0.25, x, offset, actual, 0, length);
+    assertArrayEquals(expected, actual, 1e-12);
+
+    scalar.subtract(x, offset, y, 1, expected, 2, length);
+    vectorized.subtract(x, offset, y, 1, actual, 2, length);
+    assertArrayEquals(expected, actual, 1e-12);
+
+    scalar.scale(1.5, x, 0, expected, 0, length);
+    vectorized.scale(1.5, x, 0, actual, 0, length);
+    assertArrayEquals(expected, actual, 1e-12);
+
+    double expectedSum = scalar.expSum(x, offset, 2.0, expected, 0, length);
+    double actualSum = vectorized.expSum(x, offset, 2.0, actual, 0, length);
+    assertEquals(expectedSum, actualSum, 1e-9);
+    assertArrayEquals(expected, actual, 1e-12);
+  }
+
+  @Test
+  void testFloatKernelsMatchScalarKernels() {
+    ElementwiseKernels vectorized = Kernels.ELEMENTWISE;
+    Random random = new Random(11);
+    int length = 517;
+    float[] x = new float[length];
+    float[] y = new float[length];
+    for (int i = 0; i < length; i++) {
+      x[i] = random.nextFloat() * 6 - 3;
+      y[i] = random.nextFloat() * 6 - 3;
+    }
+
+    float[] expected = y.clone();
+    float[] actual = y.clone();
+    scalar.axpy(0.1f, x, 0, expected, 0, length);
+    vectorized.axpy(0.1f, x, 0, actual, 0, length);
+    assertArrayEquals(expected, actual, 1e-6f);
+
+    assertEquals(scalar.sum(x, 3, length - 3), vectorized.sum(x, 3, length - 3), 1e-3f);
+    assertEquals(scalar.max(x, 0, length), vectorized.max(x, 0, length));
+    assertEquals(scalar.expSum(x, 0, 1.0f, expected, 0, length), vectorized.expSum(x, 0, 1.0f, actual, 0, length), 1e-3f);
+    assertArrayEquals(expected, actual, 1e-5f);
+  }
+
+  @Test
+  void testFusedUpdatesMatchScalarKernels() {
+    ElementwiseKernels vectorized = Kernels.ELEMENTWISE;
+    Random random = new Random(13);
+    int length = 259, offset = 3;
+    double[] g = random.doubles(length + offset, -1, 1).toArray();
+    double[] w = random.doubles(length + offset, -1, 1).toArray();
+    double[][] expected = {w.clone(), new double[length], new double[length]};
+    double[][] actual = {w.clone(), new double[length], new double[length]};
+
+    // two steps each, so the state of the first step is used
+    for (int step = 0; step < 2; step++) {
+      scalar.momentumUpdate(0.1, 0.9, 0.5, g, offset, expected[1], expected[0], offset, length);
+      vectorized.momentumUpdate(0.1, 0.9, 0.5, g, offset, actual[1], actual[0], offset, length);
+      scalar.rmsPropUpdate(0.01, 0.9, 1e-8, 0.5, g, offset, expected[2], expected[0], offset, length);
+      vectorized.rmsPropUpdate(0.01, 0.9, 1e-8, 0.5, g, offset, actual[2], actual[0], offset, length);
+      scalar.adamUpdate(0.01, 0.9, 0.999, 1000, 1e-8, 0.5, g, offset, expected[1], expected[2], expected[0], offset, length);
+      vectorized.adamUpdate(0.01, 0.9, 0.999, 1000, 1e-8, 0.5, g, offset, actual[1], actual[2], actual[0], offset, length);
+    }
+    for (int i = 0; i < 3; i++) {
+      assertArrayEquals(expected[i], actual[i], 1e-12);
+    }
+
+    float[] gf = new float[length];
+    float[] wf = new float[length];
+    for (int i = 0; i < length; i++) {
+      gf[i] = (float) g[i];
+      wf[i] = (float) w[i];
+    }
+    float[][] expectedFloat = {wf.clone(), new float[length], new float[length]};
+    float[][] actualFloat = {wf.clone(), new float[length], new float[length]};
+    for (int step = 0; step < 2; step++) {
+      scalar.adamUpdate(0.01f, 0.9f, 0.999f, 1000f, 1e-8f, 0.5f, gf, 0, expectedFloat[1], expectedFloat[2], expectedFloat[0], 0, length);
+      vectorized.adamUpdate(0.01f, 0.9f, 0.999f, 1000f, 1e-8f, 0.5f, gf, 0, actualFloat[1], actualFloat[2], actualFloat[0], 0, length);
+      scalar.momentumUpdate(0.1f, 0.9f, 0.5f, gf, 0, expectedFloat[1], expectedFloat[0], 0, length);
+      vectorized.momentumUpdate(0.1f, 0.9f, 0.5f, gf, 0, actualFloat[1], actualFloat[0], 0, length);
+      scalar.rmsPropUpdate(0.01f, 0.9f, 1e-8f, 0.5f, gf, 0, expectedFloat[2], expectedFloat[0], 0, length);
+      vectorized.rmsPropUpdate(0.01f, 0.9f, 1e-8f, 0.5f, gf, 0, actualFloat[2], actualFloat[0], 0, length);
+    }
+    for (int i = 0; i < 3; i++) {
+      assertArrayEquals(expectedFloat[i], actualFloat[i], 1e-5f);
+    }
+  }
+
+  @Test
+  void testSoftmaxRowsSumToOneForLargeInputs() {
+    // without subtracting the maximum exp(1000) overflows
+    Tensor4D input = new Tensor4D(2, 1, 1, 19, new double[38]);
+    for (int i = 0; i < 38; i++) {
+      input.getBuffer()[i] = 1000.0 + i;
+    }
+    Tensor4D result = input.softmax();
+    for (int batch = 0; batch < 2; batch++) {
+      double sum = 0.0;
+      for (int col = 0; col < 19; col++) {
+        sum += result.get(batch, 0, 0, col);
+      }
+      assertEquals(1.0, sum, 1e-12);
+    }
+  }
+
+  @Test
+  void testInt8KernelsMatchScalarKernels() {
+    Random random = new Random(13);
+    byte[] a = new byte[1000];
+    byte[] b = new byte[1000];
+    random.nextBytes(a);
+    random.nextBytes(b);
+    // Extremwerte: -128 * -128 passt gerade noch in die 16-Bit-Produkte
+    a[3] = -128;
+    b[3] = -128;
+    for (int length : new int[]{0, 9, 64, 997}) {
+      int expected = 0;
+      for (int i = 0; i < length; i++) {
+        expected += a[2 + i] * b[1 + i];
+      }
+      assertEquals(expected, scalar.dot(a, 2, b, 1, length));
+      assertEquals(expected, Kernels.ELEMENTWISE.dot(a, 2, b, 1, length));
+    }
+
+    int[] expected = new int[990];
+    int[] actual = new int[990];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = actual[i] = i - 500;
+    }
+    scalar.axpy(-128, a, 7, expected, 3, 987);
+    Kernels.ELEMENTWISE.axpy(-128, a, 7, actual, 3, 987);
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  void testBiasReluMatchesScalarKernels() {
+    Random random = new Random(17);
+    double[] x = new double[80];
+    float[] xf = new float[80];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = random.nextGaussian();
+      xf[i] = (float) x[i];
+    }
+    for (int length : new int[]{1, 13, 64}) {
+      double[] expected = new double[70];
+      double[] actual = new double[70];
+      long mask = scalar.biasRelu(0.25, x, 3, expected, 2, length);
+      assertEquals(mask, Kernels.ELEMENTWISE.biasRelu(0.25, x, 3, actual, 2, length));
+      assertArrayEquals(expected, actual);
+      float[] expectedFloat = new float[70];
+      float[] actualFloat = new float[70];
+      assertEquals(mask, scalar.biasRelu(0.25f, xf, 3, expectedFloat, 2, length));
+      assertEquals(mask, Kernels.ELEMENTWISE.biasRelu(0.25f, xf, 3, actualFloat, 2, length));
+      assertArrayEquals(expectedFloat, actualFloat);
+      for (int i = 0; i < length; i++) {
+        assertEquals(x[3 + i] + 0.25 > 0, (mask >>> i & 1) == 1);
+        assertEquals(Math.max(x[3 + i] + 0.25, 0.0), actual[2 + i]);
+      }
+
+      // maskedCopy setzt genau die Elemente ohne Bit auf 0
+      scalar.maskedCopy(mask, x, 5, expected, 1, length);
+      Kernels.ELEMENTWISE.maskedCopy(mask, x, 5, actual, 1, length);
+      assertArrayEquals(expected, actual);
+      scalar.maskedCopy(mask, xf, 5, expectedFloat, 1, length);
+      Kernels.ELEMENTWISE.maskedCopy(mask, xf, 5, actualFloat, 1, length);
+      assertArrayEquals(expectedFloat, actualFloat);
+      for (int i = 0; i < length; i++) {
+        assertEquals((mask >>> i & 1) == 1 ? x[5 + i] : 0.0, actual[1 + i]);
+      }
+    }
+  }
+}
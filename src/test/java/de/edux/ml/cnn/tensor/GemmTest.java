@@ -0,0 +1,51 @@
+package de.edux.ml.cnn.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GemmTest {
+
+  @Test
+  void testGemmMatchesNaiveProductForAllTransposeFlags() {
+    Random random = new Random(42);
+    // sizes that are not multiples of the register tile and span several cache blocks
+    int m = 67, n = 530, k = 301;
+    double[] a = random.doubles(m * k).toArray();
+    double[] b = random.doubles(k * n).toArray();
+
+    double[] expected = new double[m * n];
+    for (int i = 0; i < m; i++) {
+      for (int j = 0; j < n; j++) {
+        for (int p = 0; p < k; p++) {
+          expected[i * n + j] += a[i * k + p] * b[p * n + j];
+        }
+      }
+    }
+
+    for (boolean transA : new boolean[]{false, true}) {
+      for (boolean transB : new boolean[]{false, true}) {
+        Tensor4D left = transA ? new Tensor4D(1, 1, m, k, a).transpose() : new Tensor4D(1, 1, m, k, a);
+        Tensor4D right = transB ? new Tensor4D(1, 1, k, n, b).transpose() : new Tensor4D(1, 1, k, n, b);
+        Tensor4D result = new Tensor4D(1, 1, m, n);
+
+        Gemm.gemm(transA, transB, m, n, k, 1.0, left, transA ? m : k, right, transB ? k : n, 0.0, result, n);
+
+        assertArrayEquals(expected, result.getBuffer(), 1e-9, "transA=" + transA + " transB=" + transB);
+      }
+    }
+  }
+
+  @Test
+  void testGemmAccumulatesWithBeta() {
+    Tensor4D a = new Tensor4D(1, 1, 2, 2, new float[]{1, 2, 3, 4});
+    Tensor4D b = new Tensor4D(1, 1, 2, 2, new float[]{5, 6, 7, 8});
+    Tensor4D c = new Tensor4D(1, 1, 2, 2, new float[]{1, 1, 1, 1});
+
+    Gemm.gemm(false, false, 2, 2, 2, 2.0, a, 2, b, 2, 1.0, c, 2);
+
+    assertArrayEquals(new float[]{39, 45, 87, 101}, c.getFloatBuffer(), 0.0f);
+  }
+}
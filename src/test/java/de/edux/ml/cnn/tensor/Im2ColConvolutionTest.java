@@ -0,0 +1,100 @@
+package de.edux.ml.cnn.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Im2ColConvolutionTest {
+
+  @Test
+  void testForwardMatchesDirectConvolution() {
+    Tensor4D input = new Tensor4D(3, 2, 7, 6);
+    input.randomHE();
+    Tensor4D filters = new Tensor4D(4, 2, 3, 3);
+    filters.randomHE();
+
+    for (int stride = 1; stride <= 2; stride++) {
+      for (int padding = 0; padding <= 2; padding++) {
+        Tensor4D expected = input.convolve(filters, stride, padding);
+        Tensor4D actual = new Im2ColConvolution(stride, padding).forward(input, filters);
+
+        assertEquals(expected.toString(), actual.toString());
+        assertArrayEquals(expected.getBuffer(), actual.getBuffer(), 1e-12, "stride=" + stride + " padding=" + padding);
+      }
+    }
+  }
+
+  @Test
+  void testImplicitPaddingMatchesExplicitlyPaddedInput() {
+    // padding larger than the filter, whole output rows and columns read only padding
+    int stride = 2, padding = 3;
+    Tensor4D input = new Tensor4D(2, 2, 5, 4);
+    input.randomHE();
+    Tensor4D filters = new Tensor4D(3, 2, 2, 2);
+    filters.randomHE();
+
+    Tensor4D padded = new Tensor4D(2, 2, 5 + 2 * padding, 4 + 2 * padding);
+    for (int batch = 0; batch < 2; batch++) {
+      for (int channel = 0; channel < 2; channel++) {
+        for (int row = 0; row < 5; row++) {
+          for (int col = 0; col < 4; col++) {
+            padded.set(batch, channel, row + padding, col + padding, input.get(batch, channel, row, col));
+          }
+        }
+      }
+    }
+    Tensor4D expected = padded.convolve(filters, stride, 0);
+
+    assertArrayEquals(expected.getBuffer(), input.convolve(filters, stride, padding).getBuffer(), 1e-12);
+    assertArrayEquals(expected.getBuffer(), new Im2ColConvolution(stride, padding).forward(input, filters).getBuffer(), 1e-12);
+  }
+
+  @Test
+  void testGradientsMatchFiniteDifferences() {
+    int stride = 2;
+    int padding = 1;
+    Im2ColConvolution convolution = new Im2ColConvolution(stride, padding);
+    Tensor4D input = new Tensor4D(2, 2, 5, 6);
+    input.randomHE();
+    Tensor4D filters = new Tensor4D(3, 2, 3, 3);
+    filters.randomHE();
+    Tensor4D outputGradient = convolution.forward(input, filters);
+    outputGradient.randomHE();
+
+    Tensor4D filterGradient = convolution.filterGradient(input, outputGradient, 3, 3);
+    Tensor4D inputGradient = convolution.inputGradient(outputGradient, filters, 2, 5, 6);
+
+    assertArrayEquals(numericGradient(convolution, input, filters, outputGradient, filters),
+        filterGradient.getBuffer(), 1e-6);
+    assertArrayEquals(numericGradient(convolution, input, filters, outputGradient, input),
+        inputGradient.getBuffer(), 1e-6);
+  }
+
+  /**
+   * Central differences of the loss sum(forward(input, filters) * outputGradient) with respect to {@code target}.
+   */
+  private static double[] numericGradient(Im2ColConvolution convolution, Tensor4D input, Tensor4D filters,
+                                          Tensor4D outputGradient, Tensor4D target) {
+    double epsilon = 1e-6;
+    double[] values = target.getBuffer();
+    double[] gradient = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      double original = values[i];
+      values[i] = original + epsilon;
+      double plus = loss(convolution.forward(input, filters), outputGradient);
+      values[i] = original - epsilon;
+      double minus = loss(convolution.forward(input, filters), outputGradient);
+      values[i] = original;
+      gradient[i] = (plus - minus) / (2 * epsilon);
+    }
+    return gradient;
+  }
+
+  private static double loss(Tensor4D output, Tensor4D outputGradient) {
+    double sum = 0.0;
+    for (int i = 0; i < output.size(); i++) {
+      sum += output.getBuffer()[i] * outputGradient.getBuffer()[i];
+    }
+    return sum;
+  }
+}
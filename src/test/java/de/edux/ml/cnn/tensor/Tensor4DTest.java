@@ -20,4 +20,89 @@ class Tensor4DTest {
 
     assertArrayEquals(expected, result.getData(), "Convolution result is not as expected");
   }
+
+  @Test
+  void testToArrayReturnsNestedCopy() {
+    Tensor4D tensor = new Tensor4D(1, 2, 2, 3);
+    tensor.set(0, 1, 1, 2, 5.0);
+
+    double[][][][] array = tensor.toArray();
+    assertEquals(5.0, array[0][1][1][2], 0.0);
+    assertEquals(3, array[0][1][1].length);
+
+    // die Kopie ist vom Tensor entkoppelt
+    array[0][1][1][2] = 1.0;
+    assertEquals(5.0, tensor.get(0, 1, 1, 2), 0.0);
+    tensor.set(0, 0, 0, 0, 2.0);
+    assertEquals(0.0, array[0][0][0][0], 0.0);
+  }
+
+  @Test
+  void testFlatRowMajorLayout() {
+    Tensor4D tensor = new Tensor4D(2, 3, 4, 5);
+
+    assertEquals(60, tensor.getBatchStride());
+    assertEquals(20, tensor.getChannelStride());
+    assertEquals(5, tensor.getRowStride());
+    assertEquals(1, tensor.getColStride());
+
+    tensor.set(1, 2, 3, 4, 7.0);
+    assertEquals(119, tensor.index(1, 2, 3, 4));
+    assertEquals(7.0, tensor.getBuffer()[119], 0.0);
+    assertEquals(7.0, tensor.toArray()[1][2][3][4], 0.0);
+  }
+
+  @Test
+  void testFloat32ConvolveMatchesFloat64() {
+    Tensor4D input = new Tensor4D(2, 3, 6, 5);
+    input.randomHE();
+    Tensor4D filter = new Tensor4D(4, 3, 3, 3);
+    filter.randomHE();
+
+    Tensor4D expected = input.convolve(filter, 1, 1);
+    Tensor4D actual = input.toDataType(DataType.FLOAT32).convolve(filter.toDataType(DataType.FLOAT32), 1, 1);
+
+    assertEquals(DataType.FLOAT32, actual.getDataType());
+    assertArrayEquals(expected.getBuffer(), actual.toDataType(DataType.FLOAT64).getBuffer(), 1e-5);
+  }
+
+  @Test
+  void testFlattenAndReshapeAreViews() {
+    Tensor4D tensor = new Tensor4D(2, 3, 4, 5);
+    tensor.randomHE();
+
+    Tensor4D flat = tensor.flatten();
+    assertSame(tensor.getBuffer(), flat.getBuffer());
+    assertEquals(60, flat.getCols());
+    assertEquals(tensor.get(1, 2, 3, 4), flat.get(1, 0, 0, 59), 0.0);
+
+    int version = tensor.getVersion();
+    flat.set(1, 0, 0, 59, 42.0);
+    assertEquals(42.0, tensor.get(1, 2, 3, 4), 0.0);
+    assertNotEquals(version, tensor.getVersion());
+
+    Tensor4D back = flat.reshape(2, 3, 4, 5);
+    assertSame(tensor.getBuffer(), back.getBuffer());
+    assertArrayEquals(tensor.toArray(), back.toArray());
+  }
+
+  @Test
+  void testTransposeViewIsReadThroughStrides() {
+    Tensor4D a = new Tensor4D(2, 3, 5, 4);
+    Tensor4D b = new Tensor4D(2, 3, 5, 6);
+    a.randomHE();
+    b.randomHE();
+
+    Tensor4D view = a.transposeView();
+    assertSame(a.getBuffer(), view.getBuffer());
+    assertFalse(view.isContiguous());
+    assertArrayEquals(a.transpose().toArray(), view.toArray());
+
+    // A^T * B without materializing A^T
+    assertArrayEquals(a.transpose().dot(b).getBuffer(), view.dot(b).getBuffer(), 1e-12);
+    assertArrayEquals(a.transpose().softmax().getBuffer(), view.softmax().getBuffer(), 1e-12);
+    assertArrayEquals(a.transpose().getBuffer(), view.flatten().getBuffer(), 0.0);
+
+    assertThrows(IllegalStateException.class, () -> view.fill(0.0));
+  }
 }
@@ -0,0 +1,91 @@
+package de.edux.ml.cnn.tensor;
+
+import de.edux.ml.cnn.layer.ConvolutionalLayer;
+import de.edux.ml.cnn.layer.FlattenLayer;
+import de.edux.ml.cnn.layer.FullyConnectedLayer;
+import de.edux.ml.cnn.layer.Layer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TensorPoolTest {
+
+  @Test
+  void testTensorsAreReusedAfterEndStep() {
+    TensorPool pool = new TensorPool();
+    pool.beginStep();
+    Tensor4D first = pool.acquire(DataType.FLOAT64, 2, 3, 4, 5);
+    Tensor4D second = pool.acquire(DataType.FLOAT64, 2, 3, 4, 5);
+    assertNotSame(first, second);
+    pool.endStep();
+
+    pool.beginStep();
+    Tensor4D reused = pool.acquire(DataType.FLOAT64, 2, 3, 4, 5);
+    assertTrue(reused == first || reused == second);
+    assertNotSame(reused, pool.acquire(DataType.FLOAT32, 2, 3, 4, 5));
+    pool.endStep();
+    assertEquals(3, pool.getAllocations());
+
+    // outside of a step nothing is tracked, the result belongs to the caller
+    Tensor4D owned = pool.acquire(DataType.FLOAT64, 2, 3, 4, 5);
+    assertNotSame(first, owned);
+    assertNotSame(second, owned);
+  }
+
+  @Test
+  void testSteadyStateTrainingStepDoesNotAllocateTensors() {
+    TensorPool pool = new TensorPool();
+    List<Layer> layers = List.of(new ConvolutionalLayer(4, 3, 1, 1, 1), new FlattenLayer(),
+        new FullyConnectedLayer(4 * 6 * 6, 10, 0.01));
+    for (Layer layer : layers) {
+      layer.setDataType(DataType.FLOAT32);
+      layer.setTensorPool(pool);
+    }
+
+    long allocationsAfterFirstStep = 0;
+    for (int step = 0; step < 3; step++) {
+      pool.beginStep();
+      Tensor4D output = pool.acquire(DataType.FLOAT32, 5, 1, 6, 6).fill(0.5);
+      for (Layer layer : layers) {
+        output = layer.forward(output);
+      }
+      Tensor4D gradient = pool.acquire(DataType.FLOAT32, 5, 10, 1, 1).fill(0.1);
+      for (int i = layers.size() - 1; i >= 0; i--) {
+        gradient = layers.get(i).backward(gradient);
+      }
+      pool.endStep();
+      if (step == 0) {
+        allocationsAfterFirstStep = pool.getAllocations();
+      }
+    }
+    assertEquals(allocationsAfterFirstStep, pool.getAllocations());
+  }
+
+  @Test
+  void testIntoVariantsMatchAllocatingOperations() {
+    Tensor4D a = new Tensor4D(DataType.FLOAT32, 2, 3, 4, 5);
+    Tensor4D b = new Tensor4D(DataType.FLOAT32, 2, 3, 4, 5);
+    a.randomHE();
+    b.randomHE();
+    Tensor4D out = new Tensor4D(DataType.FLOAT32, 2, 3, 4, 5).fill(7.0);
+
+    assertArrayEquals(a.subtract(b).getFloatBuffer(), a.subtract(b, out).getFloatBuffer());
+    assertArrayEquals(a.multiply(3.0).getFloatBuffer(), a.multiply(3.0, out).getFloatBuffer());
+    assertArrayEquals(a.softmax().getFloatBuffer(), a.softmax(out).getFloatBuffer());
+    assertArrayEquals(a.transpose().getFloatBuffer(),
+        a.transpose(new Tensor4D(DataType.FLOAT32, 2, 3, 5, 4).fill(7.0)).getFloatBuffer());
+    assertArrayEquals(a.averageOverBatches().getFloatBuffer(),
+        a.averageOverBatches(new Tensor4D(DataType.FLOAT32, 1, 3, 4, 5).fill(7.0)).getFloatBuffer());
+
+    Tensor4D expected = a.multiply(2.0);
+    int version = a.getVersion();
+    assertSame(a, a.multiplyInPlace(2.0));
+    assertArrayEquals(expected.getFloatBuffer(), a.getFloatBuffer());
+    assertNotEquals(version, a.getVersion());
+
+    assertThrows(IllegalArgumentException.class, () -> a.subtract(b, new Tensor4D(DataType.FLOAT32, 2, 3, 5, 4)));
+    assertThrows(IllegalArgumentException.class, () -> a.multiply(2.0, new Tensor4D(DataType.FLOAT64, 2, 3, 4, 5)));
+  }
+}
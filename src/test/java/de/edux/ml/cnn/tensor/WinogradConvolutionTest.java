@@ -0,0 +1,77 @@
+package de.edux.ml.cnn.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WinogradConvolutionTest {
+
+  @Test
+  void testMatchesDirectConvolutionWithinTolerance() {
+    // odd and even output sizes to cover clipped border tiles
+    for (int size : new int[]{7, 8}) {
+      for (int padding = 0; padding <= 1; padding++) {
+        Tensor4D input = new Tensor4D(2, 3, size, size + 1);
+        input.randomHE();
+        Tensor4D filters = new Tensor4D(4, 3, 3, 3);
+        filters.randomHE();
+
+        Tensor4D expected = input.convolve(filters, 1, padding);
+        Tensor4D actual = new WinogradConvolution(padding).forward(input, filters);
+
+        assertEquals(expected.toString(), actual.toString());
+        assertArrayEquals(expected.getBuffer(), actual.getBuffer(), 1e-9, "size=" + size + " padding=" + padding);
+
+        Tensor4D actualFloat = new WinogradConvolution(padding)
+            .forward(input.toDataType(DataType.FLOAT32), filters.toDataType(DataType.FLOAT32));
+        assertArrayEquals(expected.getBuffer(), actualFloat.toDataType(DataType.FLOAT64).getBuffer(), 1e-4);
+      }
+    }
+  }
+
+  @Test
+  void testTransformedFiltersAreRebuiltAfterModification() {
+    Tensor4D input = new Tensor4D(1, 1, 6, 6);
+    input.randomHE();
+    Tensor4D filters = new Tensor4D(2, 1, 3, 3);
+    filters.randomHE();
+    WinogradConvolution winograd = new WinogradConvolution(1);
+    winograd.forward(input, filters);
+
+    filters.getBuffer()[4] += 1.0;
+    filters.markModified();
+
+    assertArrayEquals(input.convolve(filters, 1, 1).getBuffer(), winograd.forward(input, filters).getBuffer(), 1e-9);
+  }
+
+  @Test
+  void testSingleImageIsSplitOverTileRows() {
+    Tensor4D input = new Tensor4D(1, 8, 28, 28);
+    input.randomHE();
+    Tensor4D filters = new Tensor4D(8, 8, 3, 3);
+    filters.randomHE();
+    Tensor4D expected = input.convolve(filters, 1, 1);
+
+    ComputePool previous = ComputePool.shared();
+    try (ComputePool parallel = new ComputePool(4)) {
+      ComputePool.setShared(parallel);
+      // eine Anfrage mit Batch 1 verteilt sich trotzdem auf mehrere Threads
+      assertTrue(WinogradConvolution.chunks(parallel, 1, 8, 8, 14, 14) > 1);
+      WinogradConvolution winograd = new WinogradConvolution(1);
+      assertArrayEquals(expected.getBuffer(), winograd.forward(input, filters).getBuffer(), 1e-9);
+
+      // Bias und ReLU werden auf die Zeilen jedes Chunks angewandt
+      Tensor4D biases = new Tensor4D(1, 8, 1, 1);
+      biases.randomHE();
+      ReluMask mask = new ReluMask();
+      Tensor4D fused = winograd.forward(input, filters, biases, true, mask,
+          new Tensor4D(1, 8, 28, 28));
+      for (int i = 0; i < expected.size(); i++) {
+        double bias = biases.getBuffer()[i / (28 * 28)];
+        assertEquals(Math.max(expected.getBuffer()[i] + bias, 0.0), fused.getBuffer()[i], 1e-9);
+      }
+    } finally {
+      ComputePool.setShared(previous);
+    }
+  }
+}